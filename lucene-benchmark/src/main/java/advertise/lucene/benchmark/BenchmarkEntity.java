@@ -0,0 +1,47 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.benchmark;
+
+import advertise.lucene.LuceneIndexableEntity;
+
+import java.util.UUID;
+
+/**
+ * Minimal {@link LuceneIndexableEntity} used to build benchmark corpora.
+ */
+public class BenchmarkEntity implements LuceneIndexableEntity<UUID> {
+
+    private final UUID id;
+
+    private final String text;
+
+    public BenchmarkEntity(UUID id, String text) {
+        this.id = id;
+        this.text = text;
+    }
+
+    @Override
+    public UUID getID() {
+        return id;
+    }
+
+    @Override
+    public String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar.
+ *
+ * <p>Without arguments runs every benchmark once per thread count in
+ * {@link #DEFAULT_THREAD_COUNTS} and writes a JSON result file per thread
+ * count (jmh-result-t&lt;threads&gt;.json) for comparison between runs.
+ * Any argument is passed to JMH as is. eg.
+ * <pre>
+ * java -jar benchmarks.jar SearchBenchmark -t 8 -p corpusSize=100000 -p processorType=NRT_REOPEN_THREAD
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+    private static final int[] DEFAULT_THREAD_COUNTS = {1, 4, 8};
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        if (args.length > 0) {
+            new Runner(new CommandLineOptions(args)).run();
+            return;
+        }
+
+        for (int threads : DEFAULT_THREAD_COUNTS) {
+            Options options = new OptionsBuilder()
+                    .include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark")
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-result-t" + threads + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
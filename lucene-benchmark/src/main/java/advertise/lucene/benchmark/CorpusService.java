@@ -0,0 +1,97 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.benchmark;
+
+import advertise.lucene.LuceneIndexableEntityService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * The {@link LuceneIndexableEntityService} implementation which generates a
+ * deterministic corpus of ad-like texts. Same corpus size always produces the
+ * same texts so runs are comparable with each other.
+ */
+public class CorpusService implements LuceneIndexableEntityService<UUID, BenchmarkEntity> {
+
+    /**
+     * Words used to generate texts and queries.
+     */
+    static final String[] VOCABULARY = {
+            "samsung", "galaxy", "apple", "iphone", "huawei", "xiaomi", "sony", "nokia", "lg", "motorola",
+            "screen", "protector", "case", "charger", "battery", "camera", "lens", "display", "memory", "storage",
+            "black", "white", "silver", "gold", "blue", "red", "green", "used", "new", "refurbished",
+            "house", "apartment", "land", "room", "villa", "garden", "kitchen", "bedroom", "bathroom", "garage",
+            "car", "van", "bus", "bike", "lorry", "toyota", "honda", "nissan", "suzuki", "mazda",
+            "tv", "projector", "speaker", "headphone", "laptop", "desktop", "tablet", "printer", "router", "antenna",
+            "job", "engineer", "driver", "teacher", "nurse", "accountant", "manager", "developer", "designer", "clerk",
+            "kandy", "colombo", "galle", "singapore", "york", "cheap", "urgent", "sale", "rent", "lease",
+            "warranty", "original", "genuine", "fast", "delivery", "offer", "discount", "brand", "quality", "premium",
+            "inch", "hd", "ultra", "smart", "wifi", "bluetooth", "wireless", "digital", "portable", "compact"
+    };
+
+    private static final int WORDS_PER_TEXT = 24;
+
+    private final int corpusSize;
+
+    public CorpusService(int corpusSize) {
+        this.corpusSize = corpusSize;
+    }
+
+    /**
+     * Generates the whole corpus.
+     *
+     * @return list of {@link BenchmarkEntity}
+     */
+    @Override
+    public List<BenchmarkEntity> getIndexableEntities() {
+        Random random = new Random(corpusSize);
+        List<BenchmarkEntity> entities = new ArrayList<>(corpusSize);
+        for (int i = 0; i < corpusSize; i++) {
+            entities.add(new BenchmarkEntity(new UUID(random.nextLong(), random.nextLong()), randomText(random)));
+        }
+        return entities;
+    }
+
+    @Override
+    public List<BenchmarkEntity> getEntitiesByIds(List<UUID> ids) {
+        throw new UnsupportedOperationException("Not required by benchmarks.");
+    }
+
+    @Override
+    public Optional<BenchmarkEntity> getEntityById(UUID id) {
+        return Optional.empty();
+    }
+
+    /**
+     * @param random source of randomness
+     * @return a text built from {@link #VOCABULARY}
+     */
+    static String randomText(Random random) {
+        StringBuilder text = new StringBuilder(WORDS_PER_TEXT * 8);
+        for (int i = 0; i < WORDS_PER_TEXT; i++) {
+            if (i > 0)
+                text.append(' ');
+            text.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return text.toString();
+    }
+}
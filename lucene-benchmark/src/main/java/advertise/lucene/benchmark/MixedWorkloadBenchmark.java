@@ -0,0 +1,51 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mixed read / write workload. Three searching threads run against one
+ * indexing thread per group, as ads are searched much more often than
+ * posted. Throughput and latency distribution are reported per operation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MixedWorkloadBenchmark {
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public List<UUID> search(ProcessorState state) {
+        return state.processor.searchForIds(state.nextQuery());
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void index(ProcessorState state) {
+        state.processor.addIndex(UUID.randomUUID(), state.nextText());
+    }
+}
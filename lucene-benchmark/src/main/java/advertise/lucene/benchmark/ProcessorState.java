@@ -0,0 +1,112 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.benchmark;
+
+import advertise.lucene.LuceneSearchProcessor;
+import advertise.lucene.nrt.NRTReopenThreadSearchProcessor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Shared benchmark state. Builds a fresh index of <code>corpusSize</code>
+ * documents in a temporary directory for each trial using the selected
+ * {@link ProcessorType}, and removes it after the trial.
+ */
+@State(Scope.Benchmark)
+public class ProcessorState {
+
+    /**
+     * Same upper bound as max.search.result.size in system.properties.
+     */
+    private static final int MAX_SEARCH_RESULTS = 1000;
+
+    @Param({"LEGACY", "NRT_DIRECTORY_READER", "NRT_SEARCH_MANAGER", "NRT_REOPEN_THREAD", "SHARDED"})
+    public ProcessorType processorType;
+
+    @Param({"1000", "10000", "100000"})
+    public int corpusSize;
+
+    /**
+     * Search result cache is disabled by default so searches measure the index.
+     */
+    @Param({"0"})
+    public int resultCacheSize;
+
+    /**
+     * Reopen interval bounds of NRT_REOPEN_THREAD, same as index.reopen.* in
+     * system.properties. Ignored by the other processors.
+     */
+    @Param({"10"})
+    public long reopenMinStaleMillis;
+
+    @Param({"5000"})
+    public long reopenMaxStaleMillis;
+
+    @Param({"0.1"})
+    public double reopenMaxCostShare;
+
+    LuceneSearchProcessor<UUID, BenchmarkEntity> processor;
+
+    private Path indexDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        indexDirectory = Files.createTempDirectory("lucene-benchmark-" + processorType.name().toLowerCase() + '-');
+
+        processor = processorType.newInstance(new CorpusService(corpusSize));
+        processor.setResourcePath(indexDirectory.toString());
+        processor.setMaxSearchResults(MAX_SEARCH_RESULTS);
+        processor.setSearchResultCacheSize(resultCacheSize);
+        if (processor instanceof NRTReopenThreadSearchProcessor)
+            ((NRTReopenThreadSearchProcessor<?, ?>) processor).setReopenBounds(reopenMinStaleMillis, reopenMaxStaleMillis, reopenMaxCostShare);
+        processor.reIndex();
+
+        // Opens writers / searchers so the first measured call does not pay for it.
+        processor.searchForIds(nextQuery());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        processor.destroy();
+        try (Stream<Path> paths = Files.walk(indexDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * @return a single word query picked from the corpus vocabulary
+     */
+    String nextQuery() {
+        return CorpusService.VOCABULARY[ThreadLocalRandom.current().nextInt(CorpusService.VOCABULARY.length)];
+    }
+
+    /**
+     * @return a new ad-like text
+     */
+    String nextText() {
+        return CorpusService.randomText(ThreadLocalRandom.current());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.benchmark;
+
+import advertise.lucene.LuceneSearchProcessor;
+import advertise.lucene.legacy.LegacySearchProcessor;
+import advertise.lucene.nrt.NRTDirectoryReaderSearchProcessor;
+import advertise.lucene.nrt.NRTReopenThreadSearchProcessor;
+import advertise.lucene.nrt.NRTSearchManagerProcessor;
+import advertise.lucene.nrt.ShardedSearchProcessor;
+import support.helper.SearchType;
+import support.types.UUIDIdentifierConverter;
+
+import java.util.UUID;
+
+/**
+ * The {@link LuceneSearchProcessor} implementations under benchmark. Each
+ * instance is configured the same way as in application-context.xml.
+ */
+public enum ProcessorType {
+    LEGACY {
+        @Override
+        LuceneSearchProcessor<UUID, BenchmarkEntity> newInstance(CorpusService service) {
+            return new LegacySearchProcessor<>(service, new UUIDIdentifierConverter(), SearchType.SIMPLE, false, false);
+        }
+    },
+    NRT_DIRECTORY_READER {
+        @Override
+        LuceneSearchProcessor<UUID, BenchmarkEntity> newInstance(CorpusService service) {
+            return new NRTDirectoryReaderSearchProcessor<>(service, new UUIDIdentifierConverter(), SearchType.SIMPLE, false, false);
+        }
+    },
+    NRT_SEARCH_MANAGER {
+        @Override
+        LuceneSearchProcessor<UUID, BenchmarkEntity> newInstance(CorpusService service) {
+            return new NRTSearchManagerProcessor<>(service, new UUIDIdentifierConverter(), SearchType.SIMPLE, false, false);
+        }
+    },
+    NRT_REOPEN_THREAD {
+        @Override
+        LuceneSearchProcessor<UUID, BenchmarkEntity> newInstance(CorpusService service) {
+            return new NRTReopenThreadSearchProcessor<>(service, new UUIDIdentifierConverter(), SearchType.SIMPLE, false, false);
+        }
+    },
+    SHARDED {
+        @Override
+        LuceneSearchProcessor<UUID, BenchmarkEntity> newInstance(CorpusService service) {
+            return new ShardedSearchProcessor<>(service, new UUIDIdentifierConverter(), SearchType.SIMPLE, false, false);
+        }
+    };
+
+    abstract LuceneSearchProcessor<UUID, BenchmarkEntity> newInstance(CorpusService service);
+}
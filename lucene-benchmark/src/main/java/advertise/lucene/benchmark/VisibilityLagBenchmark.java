@@ -0,0 +1,65 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the time until a newly indexed ad becomes visible to searches.
+ * Each invocation indexes a document with an unique token and polls the
+ * processor until the token is found, so a sample is the full
+ * "addIndex -> visible in searchForIds" latency.
+ *
+ * <p>A processor which does not make the document visible within
+ * {@link #VISIBILITY_TIMEOUT_SEC} fails the benchmark.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VisibilityLagBenchmark {
+
+    private static final long VISIBILITY_TIMEOUT_SEC = 30;
+
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Benchmark
+    public int newAdVisibility(ProcessorState state) {
+        String token = "visible" + sequence.incrementAndGet();
+        state.processor.addIndex(UUID.randomUUID(), token + ' ' + state.nextText());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(VISIBILITY_TIMEOUT_SEC);
+        int polls = 0;
+        while (state.processor.searchForIds(token).isEmpty()) {
+            if (System.nanoTime() > deadline)
+                throw new IllegalStateException("Document [" + token + "] was not visible after " + VISIBILITY_TIMEOUT_SEC + "s with " + state.processorType);
+            polls++;
+            LockSupport.parkNanos(POLL_INTERVAL_NANOS);
+        }
+        return polls;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.index.IndexWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bulk indexing pipeline used by {@link LuceneSearchProcessor#reIndex()}.
+ *
+ * <p>The calling thread streams entities page by page from the
+ * {@link LuceneIndexableEntityService} into a bounded queue, and a set of
+ * worker threads hand them to an {@link Indexer}, which adds them to an
+ * {@link IndexWriter}, which is thread safe. Heap usage is bounded by the queue capacity, and indexing
+ * scales with the number of workers.
+ *
+ * <p>The pipeline does not commit. Caller commits once all entities have been
+ * added.
+ *
+ * @param <ID_TYPE> Type of the identifier of the entity to index.
+ * @param <E>       Entity class that indexed by lucene.
+ */
+public class BulkIndexPipeline<ID_TYPE extends Serializable, E extends LuceneIndexableEntity<ID_TYPE>> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkIndexPipeline.class);
+
+    /**
+     * Marks the end of the stream. Compared by identity.
+     */
+    private final List<E> endOfStream = new ArrayList<>(0);
+
+    private final Indexer<E> indexer;
+
+    private final int workerThreads;
+
+    private final BlockingQueue<List<E>> queue;
+
+    private final AtomicLong indexed = new AtomicLong();
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * Indexes a single entity. Called concurrently by the workers.
+     *
+     * @param <E> Entity class that indexed by lucene.
+     */
+    @FunctionalInterface
+    public interface Indexer<E> {
+
+        void index(E entity) throws IOException;
+    }
+
+    /**
+     * @param indexer       adds the document of an entity to the index
+     * @param workerThreads number of threads adding documents
+     * @param queueCapacity max number of pages waiting for a worker
+     */
+    public BulkIndexPipeline(Indexer<E> indexer, int workerThreads, int queueCapacity) {
+        this.indexer = indexer;
+        this.workerThreads = workerThreads;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Indexes all the entities of the service. Blocks until done.
+     *
+     * @param indexableEntityService service to stream entities
+     * @param pageSize               number of entities requested per page
+     * @return number of indexed entities
+     * @throws IOException when a worker failed to add a document
+     */
+    public long run(LuceneIndexableEntityService<ID_TYPE, E> indexableEntityService, int pageSize) throws IOException {
+        List<Thread> workers = new ArrayList<>(workerThreads);
+        for (int i = 0; i < workerThreads; i++) {
+            Thread worker = new Thread(this::work, "lucene-reindex-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        try {
+            indexableEntityService.streamIndexableEntities(pageSize, this::put);
+        } finally {
+            for (int i = 0; i < workerThreads; i++)
+                put(endOfStream);
+            for (Thread worker : workers)
+                join(worker);
+        }
+
+        Throwable cause = failure.get();
+        if (cause != null)
+            throw new IOException("Bulk indexing failed after [" + indexed.get() + "] entities", cause);
+        return indexed.get();
+    }
+
+    private void work() {
+        try {
+            List<E> page;
+            while ((page = queue.take()) != endOfStream) {
+                if (failure.get() != null)
+                    continue; // drain until end of stream so producer never blocks
+                try {
+                    for (E entity : page) {
+                        indexer.index(entity);
+                    }
+                    indexed.addAndGet(page.size());
+                } catch (Throwable t) {
+                    LOGGER.error("Problem occurred while bulk indexing ", t);
+                    failure.compareAndSet(null, t);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void put(List<E> page) {
+        if (failure.get() != null && page != endOfStream)
+            throw new IllegalStateException("Bulk indexing failed", failure.get());
+        try {
+            queue.put(page);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while bulk indexing", e);
+        }
+    }
+
+    private void join(Thread worker) {
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SearcherFactory} creating {@link IndexSearcher}s which search the
+ * segments of a query in parallel on a shared, bounded executor.
+ *
+ * <p>Segments are grouped in to slices of at most <code>maxDocsPerSlice</code>
+ * documents and <code>maxSegmentsPerSlice</code> segments, and each slice is
+ * searched by a task. When the queue of the executor is full the searching
+ * thread searches the slice itself, so a saturated executor degrades to
+ * sequential searches instead of rejecting them.
+ *
+ * <p>Only searches returning top hits, eg. {@link IndexSearcher#search(org.apache.lucene.search.Query, int)}
+ * and {@link IndexSearcher#searchAfter(org.apache.lucene.search.ScoreDoc, org.apache.lucene.search.Query, int)},
+ * are parallel. Searches with a custom collector still search the segments
+ * sequentially.
+ */
+public class ConcurrentSearcherFactory extends SearcherFactory implements Closeable {
+
+    private static final int DEFAULT_MAX_DOCS_PER_SLICE = 250000;
+
+    private static final int DEFAULT_MAX_SEGMENTS_PER_SLICE = 5;
+
+    private final ThreadPoolExecutor executor;
+
+    private final int queueCapacity;
+
+    private int maxDocsPerSlice = DEFAULT_MAX_DOCS_PER_SLICE;
+
+    private int maxSegmentsPerSlice = DEFAULT_MAX_SEGMENTS_PER_SLICE;
+
+    private final AtomicLong saturatedSlices = new AtomicLong();
+
+    /**
+     * @param threads       number of search threads, 0 for the number of processors
+     * @param queueCapacity max number of slices waiting for a search thread
+     */
+    public ConcurrentSearcherFactory(int threads, int queueCapacity) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.queueCapacity = queueCapacity;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "lucene-segment-search-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, rejectedBy) -> {
+                    // Searcher waits for every slice, so a rejected slice is always run, even after close.
+                    saturatedSlices.incrementAndGet();
+                    runnable.run();
+                });
+    }
+
+    /**
+     * Returns a searcher searching the segments in parallel. A reader small
+     * enough for a single slice is searched on the searching thread, which
+     * saves the hand off to the executor.
+     */
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+        if (slices(reader.leaves()).length <= 1)
+            return new IndexSearcher(reader);
+        return new IndexSearcher(reader, executor) {
+            @Override
+            protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+                return ConcurrentSearcherFactory.this.slices(leaves);
+            }
+        };
+    }
+
+    /**
+     * Groups consecutive segments in to slices. A segment larger than
+     * maxDocsPerSlice is a slice by itself.
+     */
+    private IndexSearcher.LeafSlice[] slices(List<LeafReaderContext> leaves) {
+        List<IndexSearcher.LeafSlice> leafSlices = new ArrayList<>();
+        List<LeafReaderContext> group = new ArrayList<>(maxSegmentsPerSlice);
+        long docs = 0;
+        for (LeafReaderContext leaf : leaves) {
+            if (!group.isEmpty() && (docs + leaf.reader().maxDoc() > maxDocsPerSlice || group.size() == maxSegmentsPerSlice)) {
+                leafSlices.add(new IndexSearcher.LeafSlice(group.toArray(new LeafReaderContext[group.size()])));
+                group.clear();
+                docs = 0;
+            }
+            group.add(leaf);
+            docs += leaf.reader().maxDoc();
+        }
+        if (!group.isEmpty())
+            leafSlices.add(new IndexSearcher.LeafSlice(group.toArray(new LeafReaderContext[group.size()])));
+        return leafSlices.toArray(new IndexSearcher.LeafSlice[leafSlices.size()]);
+    }
+
+    /**
+     * @param maxDocsPerSlice max number of documents searched by a task, unless a
+     *                        single segment is larger
+     */
+    public void setMaxDocsPerSlice(int maxDocsPerSlice) {
+        this.maxDocsPerSlice = maxDocsPerSlice;
+    }
+
+    /**
+     * @param maxSegmentsPerSlice max number of segments searched by a task
+     */
+    public void setMaxSegmentsPerSlice(int maxSegmentsPerSlice) {
+        this.maxSegmentsPerSlice = maxSegmentsPerSlice;
+    }
+
+    /**
+     * @return number of slices waiting for a search thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return max number of slices waiting for a search thread
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @return number of search threads searching a slice
+     */
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return number of search threads
+     */
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return number of slices searched by the search threads
+     */
+    public long getCompletedSlices() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /**
+     * @return number of slices searched by the searching thread since the queue was full
+     */
+    public long getSaturatedSlices() {
+        return saturatedSlices.get();
+    }
+
+    /**
+     * Stops the search threads once the slices in the queue are searched.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
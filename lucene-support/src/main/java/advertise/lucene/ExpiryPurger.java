@@ -0,0 +1,103 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically purges expired documents from the index of a
+ * {@link LuceneSearchProcessor}, and through its
+ * {@link LuceneIndexableEntityService} the expired entities, so the index
+ * grows with the live entities only. See {@link LuceneSearchProcessor#purgeExpired(int)}.
+ *
+ * <p>Expired documents are excluded from searches regardless of the purger.
+ */
+public class ExpiryPurger implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExpiryPurger.class);
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final LuceneSearchProcessor<?, ?> searchProcessor;
+
+    private final long intervalMillis;
+
+    private final int batchSize;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param searchProcessor processor to purge
+     * @param intervalMillis  time between two purges
+     * @param batchSize       max number of entities handed to the entity service at once
+     */
+    public ExpiryPurger(LuceneSearchProcessor<?, ?> searchProcessor, long intervalMillis, int batchSize) {
+        this.searchProcessor = searchProcessor;
+        this.intervalMillis = intervalMillis;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Starts purging. First purge happens after one interval.
+     */
+    public synchronized void start() {
+        if (executor != null)
+            return;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lucene-expiry-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::purge, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Purges expired documents now.
+     *
+     * @return number of purged documents
+     */
+    public long purge() {
+        long startedAt = System.currentTimeMillis();
+        long purged = searchProcessor.purgeExpired(batchSize);
+        if (purged > 0)
+            LOGGER.info("Purged [{}] expired indexes in [{}] ms", purged, System.currentTimeMillis() - startedAt);
+        return purged;
+    }
+
+    /**
+     * Stops purging. Waits for a running purge to finish.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor == null)
+            return;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+}
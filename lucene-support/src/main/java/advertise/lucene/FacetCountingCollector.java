@@ -0,0 +1,133 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the hits of a search per value of facet fields indexed as
+ * {@link org.apache.lucene.document.SortedSetDocValuesField}. Used together
+ * with the collector of the top hits, so counts come from the same searcher
+ * as the results and stay as current as the searcher.
+ *
+ * <p>Hits are counted by segment ordinal in an array, so collecting a hit costs
+ * a few array increments. Ordinals are resolved to values once per segment.
+ */
+public class FacetCountingCollector extends SimpleCollector {
+
+    private final Map<String, String> fieldsByFacet;
+
+    private final Map<String, Map<String, Integer>> counts;
+
+    private final String[] facets;
+
+    private final SortedSetDocValues[] segmentValues;
+
+    private final int[][] segmentCounts;
+
+    /**
+     * @param fieldsByFacet doc values field of each facet to count, by facet name
+     */
+    public FacetCountingCollector(Map<String, String> fieldsByFacet) {
+        this.fieldsByFacet = fieldsByFacet;
+        this.counts = new LinkedHashMap<>();
+        this.facets = fieldsByFacet.keySet().toArray(new String[0]);
+        this.segmentValues = new SortedSetDocValues[facets.length];
+        this.segmentCounts = new int[facets.length][];
+        for (String facet : facets)
+            counts.put(facet, new HashMap<>());
+    }
+
+    /**
+     * @param facets      names of the facets to count
+     * @param fieldPrefix prefix of the doc values field names
+     * @return collector counting the given facets
+     */
+    public static FacetCountingCollector forFacets(Collection<String> facets, String fieldPrefix) {
+        Map<String, String> fieldsByFacet = new LinkedHashMap<>();
+        for (String facet : facets)
+            fieldsByFacet.put(facet, fieldPrefix + facet);
+        return new FacetCountingCollector(fieldsByFacet);
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        flushSegment();
+        for (int i = 0; i < facets.length; i++) {
+            SortedSetDocValues values = DocValues.getSortedSet(context.reader(), fieldsByFacet.get(facets[i]));
+            segmentValues[i] = values;
+            segmentCounts[i] = new int[(int) values.getValueCount()];
+        }
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        for (int i = 0; i < facets.length; i++) {
+            SortedSetDocValues values = segmentValues[i];
+            int[] facetCounts = segmentCounts[i];
+            values.setDocument(doc);
+            long ord;
+            while ((ord = values.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                facetCounts[(int) ord]++;
+            }
+        }
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    /**
+     * Resolves the ordinals counted in the current segment to values.
+     */
+    private void flushSegment() {
+        for (int i = 0; i < facets.length; i++) {
+            int[] facetCounts = segmentCounts[i];
+            if (facetCounts == null)
+                continue;
+            Map<String, Integer> facetTotals = counts.get(facets[i]);
+            for (int ord = 0; ord < facetCounts.length; ord++) {
+                if (facetCounts[ord] > 0)
+                    facetTotals.merge(segmentValues[i].lookupOrd(ord).utf8ToString(), facetCounts[ord], Integer::sum);
+            }
+            segmentValues[i] = null;
+            segmentCounts[i] = null;
+        }
+    }
+
+    /**
+     * Call once the search is done.
+     *
+     * @return hit count of each value having hits, by facet name
+     */
+    public Map<String, Map<String, Integer>> getCounts() {
+        flushSegment();
+        return Collections.unmodifiableMap(counts);
+    }
+}
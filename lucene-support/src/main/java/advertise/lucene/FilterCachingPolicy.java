@@ -0,0 +1,84 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.TermQuery;
+
+import java.io.IOException;
+
+/**
+ * {@link QueryCachingPolicy} which always caches filter queries, so the
+ * matching documents of a category or location are computed once per segment
+ * and shared by all the searches using the same filter. Other queries are left
+ * to the delegate policy.
+ *
+ * <p>A filter query is a {@link TermQuery} on a field starting with the filter
+ * field prefix, or a conjunction of such queries.
+ */
+public class FilterCachingPolicy implements QueryCachingPolicy {
+
+    private final String filterFieldPrefix;
+
+    private final QueryCachingPolicy delegate;
+
+    /**
+     * @param filterFieldPrefix prefix of the names of the filter fields
+     * @param delegate          policy deciding on the other queries
+     */
+    public FilterCachingPolicy(String filterFieldPrefix, QueryCachingPolicy delegate) {
+        this.filterFieldPrefix = filterFieldPrefix;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onUse(Query query) {
+        delegate.onUse(query);
+    }
+
+    @Override
+    public boolean shouldCache(Query query, LeafReaderContext context) throws IOException {
+        return isFilter(query) || delegate.shouldCache(query, context);
+    }
+
+    private boolean isFilter(Query query) {
+        if (query instanceof TermQuery)
+            return ((TermQuery) query).getTerm().field().startsWith(filterFieldPrefix);
+        if (query instanceof ConstantScoreQuery)
+            return isFilter(((ConstantScoreQuery) query).getQuery());
+        if (query instanceof BoostQuery)
+            return isFilter(((BoostQuery) query).getQuery());
+        if (query instanceof BooleanQuery) {
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            if (booleanQuery.clauses().isEmpty())
+                return false;
+            for (BooleanClause clause : booleanQuery) {
+                if (clause.isProhibited() || clause.getOccur() == BooleanClause.Occur.SHOULD || !isFilter(clause.getQuery()))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+}
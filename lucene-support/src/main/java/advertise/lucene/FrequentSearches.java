@@ -0,0 +1,141 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Approximate counts of the recent searches, to find the most frequent ones.
+ *
+ * <p>At most <code>capacity</code> searches are counted. When more are
+ * recorded the less frequent half is dropped and the counts of the rest are
+ * halved, so searches which were frequent a while ago are replaced by the
+ * ones frequent now.
+ */
+class FrequentSearches {
+
+    private final int capacity;
+
+    private final Map<Search, AtomicLong> counts = new ConcurrentHashMap<>();
+
+    /**
+     * A search as requested from the {@link LuceneSearchProcessor}.
+     */
+    static final class Search {
+
+        final String text;
+
+        /**
+         * Filter terms of a paged search. null for a keyword search.
+         */
+        final Map<String, String> filters;
+
+        final Collection<String> facets;
+
+        private Search(String text, Map<String, String> filters, Collection<String> facets) {
+            this.text = text;
+            this.filters = filters;
+            this.facets = facets;
+        }
+
+        /**
+         * @param text text of {@link LuceneSearchProcessor#searchForIds(String)}
+         */
+        static Search keyword(String text) {
+            return new Search(text, null, Collections.emptyList());
+        }
+
+        /**
+         * @param text    text of the paged search
+         * @param filters filter terms of the paged search
+         * @param facets  facets of the paged search
+         */
+        static Search paged(String text, Map<String, String> filters, Collection<String> facets) {
+            return new Search(text, new TreeMap<>(filters), new ArrayList<>(facets));
+        }
+
+        boolean isKeyword() {
+            return filters == null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Search)) return false;
+            Search search = (Search) o;
+            return Objects.equals(text, search.text) && Objects.equals(filters, search.filters) && facets.equals(search.facets);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, filters, facets);
+        }
+    }
+
+    /**
+     * @param capacity max number of searches counted
+     */
+    FrequentSearches(int capacity) {
+        this.capacity = capacity;
+    }
+
+    void record(Search search) {
+        counts.computeIfAbsent(search, key -> new AtomicLong()).incrementAndGet();
+        if (counts.size() > capacity)
+            prune();
+    }
+
+    /**
+     * @param n max number of searches to return
+     * @return the most frequent searches, most frequent first
+     */
+    List<Search> top(int n) {
+        List<Search> top = new ArrayList<>(Math.min(n, counts.size()));
+        for (Map.Entry<Search, Long> entry : snapshot()) {
+            if (top.size() == n) break;
+            top.add(entry.getKey());
+        }
+        return top;
+    }
+
+    private synchronized void prune() {
+        if (counts.size() <= capacity)
+            return;
+        List<Map.Entry<Search, Long>> entries = snapshot();
+        for (int i = 0; i < entries.size(); i++) {
+            Search search = entries.get(i).getKey();
+            if (i < capacity / 2) {
+                AtomicLong count = counts.get(search);
+                if (count != null) count.set(count.get() / 2);
+            } else {
+                counts.remove(search);
+            }
+        }
+    }
+
+    private List<Map.Entry<Search, Long>> snapshot() {
+        List<Map.Entry<Search, Long>> entries = new ArrayList<>(counts.size());
+        for (Map.Entry<Search, AtomicLong> entry : counts.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().get()));
+        }
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return entries;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import support.types.IdentifierTypeConverter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Per segment cache of entity identifiers read from doc values. Identifiers of
+ * a segment are loaded once when a reader containing the segment is opened, so
+ * resolving the identifier of a search hit is an array lookup instead of
+ * loading its stored fields.
+ *
+ * <p>Segments are keyed by their core cache key, so a segment is loaded only
+ * once across reopened readers, and evicted when its core is closed. Deletions
+ * do not change the core, identifiers of deleted documents are never returned
+ * by searches.
+ *
+ * @param <ID_TYPE> Type of the identifier.
+ */
+public class IdentifierCache<ID_TYPE extends Serializable> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdentifierCache.class);
+
+    private final IdentifierTypeConverter<ID_TYPE> typeConverter;
+
+    private final String idFieldName;
+
+    /**
+     * Identifiers by segment core cache key.
+     */
+    private final Map<Object, Object[]> segments = new ConcurrentHashMap<>();
+
+    /**
+     * @param typeConverter converter which wrote the identifier doc values
+     * @param idFieldName   name of the identifier field
+     */
+    public IdentifierCache(IdentifierTypeConverter<ID_TYPE> typeConverter, String idFieldName) {
+        this.typeConverter = typeConverter;
+        this.idFieldName = idFieldName;
+    }
+
+    /**
+     * Loads identifiers of the segments of given reader which are not cached yet.
+     * Segments without identifier doc values are skipped.
+     *
+     * @param reader newly opened reader
+     * @throws IOException when doc values could not be read
+     */
+    public void load(IndexReader reader) throws IOException {
+        for (LeafReaderContext context : reader.leaves()) {
+            LeafReader leafReader = context.reader();
+            Object key = leafReader.getCoreCacheKey();
+            if (segments.containsKey(key))
+                continue;
+
+            IntFunction<ID_TYPE> docValues = typeConverter.getDocValuesReader(leafReader, idFieldName);
+            if (docValues == null)
+                continue;
+
+            Object[] ids = new Object[leafReader.maxDoc()];
+            for (int doc = 0; doc < ids.length; doc++) {
+                ids[doc] = docValues.apply(doc);
+            }
+            if (segments.putIfAbsent(key, ids) == null) {
+                leafReader.addCoreClosedListener(segments::remove);
+                LOGGER.debug("Cached [{}] identifiers of segment [{}]", ids.length, leafReader);
+            }
+        }
+    }
+
+    /**
+     * Returns cached identifier of a document.
+     *
+     * @param context segment of the document
+     * @param doc     segment level document number
+     * @return the identifier, or null if the segment is not cached or the document has no doc values
+     */
+    @SuppressWarnings("unchecked")
+    public ID_TYPE get(LeafReaderContext context, int doc) {
+        Object[] ids = segments.get(context.reader().getCoreCacheKey());
+        return ids == null ? null : (ID_TYPE) ids[doc];
+    }
+
+    /**
+     * @return number of cached segments
+     */
+    public int size() {
+        return segments.size();
+    }
+}
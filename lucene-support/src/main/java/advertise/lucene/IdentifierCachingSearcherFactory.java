@@ -0,0 +1,51 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+
+import java.io.IOException;
+
+/**
+ * {@link SearcherFactory} which loads identifiers of newly opened segments in to
+ * an {@link IdentifierCache} before the searcher is published, then delegates
+ * creation of the {@link IndexSearcher}.
+ */
+public class IdentifierCachingSearcherFactory extends SearcherFactory {
+
+    private final SearcherFactory delegate;
+
+    private final IdentifierCache<?> identifierCache;
+
+    /**
+     * @param delegate        factory creating the {@link IndexSearcher}
+     * @param identifierCache cache to load identifiers in to
+     */
+    public IdentifierCachingSearcherFactory(SearcherFactory delegate, IdentifierCache<?> identifierCache) {
+        this.delegate = delegate;
+        this.identifierCache = identifierCache;
+    }
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+        identifierCache.load(reader);
+        return delegate.newSearcher(reader, previousReader);
+    }
+}
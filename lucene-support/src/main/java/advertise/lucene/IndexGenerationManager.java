@@ -0,0 +1,195 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import advertise.lucene.util.IndexGenerations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Keeps track of the index generation a {@link LuceneSearchProcessor} works on
+ * and replaces it with new generations built by {@link #rebuild(GenerationBuilder)},
+ * eg. re-indexed or restored from a snapshot, while the current one keeps
+ * serving searches.
+ *
+ * <p>The current generation is resolved from the {@link IndexGenerations} of
+ * the index root on first use, restoring the latest snapshot first when the
+ * processor bootstraps from snapshots. Switching to a new generation holds the
+ * write lock of the generationLock of the processor so no index is written
+ * meanwhile, and the processor releases the readers and writers of the previous
+ * generation by {@link LuceneSearchProcessor#releaseGeneration(Path)}.
+ */
+class IndexGenerationManager {
+
+    /**
+     * Builds the content of a new generation for {@link #rebuild(GenerationBuilder)}.
+     * Closed once the rebuild is over, before a failed generation is discarded.
+     */
+    @FunctionalInterface
+    interface GenerationBuilder extends Closeable {
+
+        /**
+         * Fills the new generation. Writes to the current generation continue meanwhile.
+         *
+         * @param generation directory of the new generation
+         * @throws Exception when the generation could not be built
+         */
+        void build(Path generation) throws Exception;
+
+        /**
+         * Completes the new generation, eg. commits its writers, while holding
+         * the write lock so no index is written.
+         *
+         * @throws IOException when the generation could not be completed
+         */
+        default void complete() throws IOException {
+        }
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    private final LuceneSearchProcessor<?, ?> searchProcessor;
+
+    /**
+     * {@link Path} to indexes of the current generation.
+     */
+    private volatile Path path;
+
+    /**
+     * Generations of indexes under the resourcePath of the processor.
+     */
+    private IndexGenerations generations;
+
+    /**
+     * Generation being re-indexed. null when not re-indexing.
+     */
+    volatile RebuildMirror rebuildMirror;
+
+    /**
+     * Allows only one rebuild at a time without blocking the processor monitor.
+     */
+    private final Object rebuildLock = new Object();
+
+    IndexGenerationManager(LuceneSearchProcessor<?, ?> searchProcessor) {
+        this.searchProcessor = searchProcessor;
+    }
+
+    /**
+     * @return directory of the current generation
+     */
+    Path current() {
+        if (path == null)
+            resolve();
+        return path;
+    }
+
+    private synchronized void resolve() {
+        if (path == null) {
+            try {
+                Path current = getGenerations().current();
+                path = searchProcessor.bootstrapFromSnapshot && !searchProcessor.snapshotPath.isEmpty()
+                        ? searchProcessor.snapshotManager.bootstrap(current) : current;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not resolve the current index generation of " + searchProcessor.resourcePath, e);
+            }
+        }
+    }
+
+    /**
+     * @return {@link IndexGenerations} of the index root directory of the processor
+     */
+    synchronized IndexGenerations getGenerations() {
+        if (generations == null)
+            generations = new IndexGenerations(Paths.get(searchProcessor.resourcePath));
+        return generations;
+    }
+
+    /**
+     * Builds a new generation and switches the processor to it. One rebuild
+     * runs at a time. The new generation is discarded if it could not be
+     * built or activated.
+     *
+     * @param builder builds the new generation
+     * @return directory of the new, activated, generation
+     * @throws Exception when the generation could not be built or activated
+     */
+    Path rebuild(GenerationBuilder builder) throws Exception {
+        synchronized (rebuildLock) {
+            Path generation = getGenerations().createNext();
+            boolean activated = false;
+            try (GenerationBuilder closing = builder) {
+                closing.build(generation);
+
+                Lock lock = searchProcessor.generationLock.writeLock();
+                lock.lock();
+                try {
+                    closing.complete();
+                    Path previous = current();
+                    getGenerations().activate(generation);
+                    activated = true;
+                    switchTo(previous, generation);
+                } finally {
+                    lock.unlock();
+                }
+                return generation;
+            } finally {
+                if (!activated)
+                    getGenerations().discard(generation);
+            }
+        }
+    }
+
+    /**
+     * Activates an already complete generation and switches the processor to
+     * it, holding the write lock so no index is written during the switch.
+     *
+     * @param generation directory of the new generation
+     * @throws IOException when the generation could not be activated
+     */
+    void activate(Path generation) throws IOException {
+        Lock lock = searchProcessor.generationLock.writeLock();
+        lock.lock();
+        try {
+            Path previous = current();
+            getGenerations().activate(generation);
+            switchTo(previous, generation);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the previous generation and retires it, so it is deleted once
+     * the readers still searching it are closed. Holds the processor monitor
+     * so writers and readers are not opened on the previous generation meanwhile.
+     */
+    private void switchTo(Path previous, Path generation) throws IOException {
+        synchronized (searchProcessor) {
+            searchProcessor.releaseGeneration(previous);
+            path = generation;
+            getGenerations().retire(previous);
+        }
+    }
+}
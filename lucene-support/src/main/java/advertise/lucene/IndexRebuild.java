@@ -0,0 +1,131 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.MMapDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Path;
+
+/**
+ * Rebuilds all the indexes of a {@link LuceneSearchProcessor} in to a new index
+ * generation for {@link IndexGenerationManager#rebuild(IndexGenerationManager.GenerationBuilder)}.
+ * Entities are streamed page by page and indexed by {@link BulkIndexPipeline}
+ * workers, and committed once at the end. Live writes made meanwhile are
+ * mirrored to the new generation through a {@link RebuildMirror}. A sharded
+ * index is rebuilt with a writer per shard from the same entity stream.
+ *
+ * @param <ID_TYPE> Type of the identifier of the entity to index.
+ * @param <E>       Entity class that indexed by lucene.
+ */
+class IndexRebuild<ID_TYPE extends Serializable, E extends LuceneIndexableEntity<ID_TYPE>>
+        implements IndexGenerationManager.GenerationBuilder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexRebuild.class);
+
+    private final LuceneSearchProcessor<ID_TYPE, E> searchProcessor;
+
+    private final IndexWriter[] writers;
+
+    private final int workerThreads;
+
+    private long indexed;
+
+    IndexRebuild(LuceneSearchProcessor<ID_TYPE, E> searchProcessor) {
+        this.searchProcessor = searchProcessor;
+        this.writers = new IndexWriter[searchProcessor.getShardCount()];
+        this.workerThreads = searchProcessor.reIndexWorkerThreads > 0
+                ? searchProcessor.reIndexWorkerThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public void build(Path generation) throws Exception {
+        Analyzer analyzer = new StandardAnalyzer();
+
+        for (int shard = 0; shard < writers.length; shard++) {
+            IndexWriterConfig confInit = new IndexWriterConfig(analyzer);
+            confInit.setRAMBufferSizeMB(LuceneSearchProcessor.RAM_BUFFER_SIZE / writers.length);
+            confInit.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            searchProcessor.applyIndexSort(confInit);
+
+            writers[shard] = new IndexWriter(new MMapDirectory(searchProcessor.getShardPath(generation, shard)), confInit);
+        }
+        RebuildMirror mirror = new RebuildMirror(writers);
+        searchProcessor.generationManager.rebuildMirror = mirror; // Live writes are mirrored to the new generation from here.
+
+        BulkIndexPipeline<ID_TYPE, E> pipeline = new BulkIndexPipeline<>(entity -> {
+            searchProcessor.debug(analyzer, entity.getText());
+            mirror.bulkAdd(searchProcessor.getIdTerm(entity.getID()), searchProcessor.createDocument(entity));
+        }, workerThreads, workerThreads * 2);
+        indexed = pipeline.run(searchProcessor.indexableEntityService, searchProcessor.reIndexPageSize);
+        if (searchProcessor.isIndexSorted()) {
+            for (IndexWriter writer : writers)
+                writer.forceMerge(1); // Freshly flushed segments are not sorted. Merging sorts them.
+        }
+    }
+
+    /**
+     * Stops mirroring live writes and commits the new generation.
+     */
+    @Override
+    public void complete() throws IOException {
+        searchProcessor.generationManager.rebuildMirror = null;
+        for (int shard = 0; shard < writers.length; shard++) {
+            searchProcessor.setCommitData(writers[shard]);
+            writers[shard].close(); // Commits the new generation
+            writers[shard] = null;
+        }
+    }
+
+    /**
+     * Discards the writers left open by a failed rebuild.
+     */
+    @Override
+    public void close() {
+        searchProcessor.generationManager.rebuildMirror = null;
+        for (IndexWriter writer : writers) {
+            if (writer == null) continue;
+            try {
+                writer.rollback();
+            } catch (IOException e) {
+                LOGGER.error("Problem occurred when trying to discard the writer of init indexes ", e);
+            }
+        }
+    }
+
+    /**
+     * @return number of entities indexed
+     */
+    long getIndexed() {
+        return indexed;
+    }
+
+    /**
+     * @return number of threads adding documents
+     */
+    int getWorkerThreads() {
+        return workerThreads;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import advertise.lucene.util.IndexGenerations;
+import advertise.lucene.util.IndexSnapshots;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+/**
+ * Takes snapshots of the indexes of a {@link LuceneSearchProcessor} in to its
+ * snapshot directory, and restores them in to a new index generation, either
+ * on demand or to bootstrap a node which has no index yet.
+ *
+ * <p>A restored snapshot misses the writes made since it was taken. The writes
+ * of this node are replayed from its {@link WriteAheadLog}, and the writes of
+ * the other nodes are caught up by the restore listeners, or by re-indexing
+ * when the processor is configured to.
+ */
+class IndexSnapshotManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexSnapshotManager.class);
+
+    private final LuceneSearchProcessor<?, ?> searchProcessor;
+
+    private final List<Consumer<Path>> restoreListeners = new CopyOnWriteArrayList<>();
+
+    private IndexSnapshots snapshots;
+
+    IndexSnapshotManager(LuceneSearchProcessor<?, ?> searchProcessor) {
+        this.searchProcessor = searchProcessor;
+    }
+
+    /**
+     * Takes a point-in-time copy of the current index generation in to a new
+     * directory of the snapshot directory while writes continue. Each writer is
+     * committed and the commit is held by its {@link SnapshotDeletionPolicy}
+     * while the files are copied, so merges do not delete them. Generation
+     * switches wait until the copy is done. The oldest snapshots are deleted
+     * beyond the number to keep.
+     *
+     * @return directory of the snapshot, null if the snapshot could not be taken
+     */
+    Path snapshot() {
+        Path incomplete = null;
+        boolean completed = false;
+        Lock lock = searchProcessor.generationLock.readLock();
+        lock.lock();
+        try {
+            long startedAt = System.currentTimeMillis();
+            IndexWriter[] writers = searchProcessor.getIndexWriters();
+            if (writers.length == 0)
+                throw new IllegalStateException("Index of [" + searchProcessor.resourcePath + "] is not written by this processor");
+            incomplete = getSnapshots().createIncomplete();
+            long bytes = 0;
+            for (int shard = 0; shard < writers.length; shard++) {
+                bytes += snapshot(writers[shard], searchProcessor.getShardPath(incomplete, shard));
+            }
+            Path snapshot = getSnapshots().complete(incomplete);
+            completed = true;
+            LOGGER.info("Took index snapshot [{}] of [{}] bytes in [{}] ms",
+                    new Object[]{snapshot, bytes, System.currentTimeMillis() - startedAt});
+            getSnapshots().prune(searchProcessor.snapshotsToKeep);
+            return snapshot;
+        } catch (Exception e) {
+            LOGGER.error("Problem occurred when trying to take an index snapshot ", e);
+        } finally {
+            lock.unlock();
+            if (!completed && incomplete != null)
+                getSnapshots().discard(incomplete);
+        }
+        return null;
+    }
+
+    private long snapshot(IndexWriter writer, Path target) throws IOException {
+        searchProcessor.commit(writer);
+        SnapshotDeletionPolicy policy = (SnapshotDeletionPolicy) writer.getConfig().getIndexDeletionPolicy();
+        IndexCommit commit = policy.snapshot();
+        try {
+            return IndexSnapshots.copy(writer.getDirectory(), commit, target);
+        } finally {
+            policy.release(commit);
+            writer.deleteUnusedFiles();
+        }
+    }
+
+    /**
+     * Replaces the current index generation with a copy of the given snapshot,
+     * the same way a re-index replaces it with a rebuilt one. Writes not
+     * covered by the snapshot are caught up in the background by
+     * {@link #catchUp(Path)}.
+     *
+     * @param snapshot directory of a snapshot taken by {@link #snapshot()}
+     * @return true if the snapshot has been restored
+     */
+    boolean restore(Path snapshot) {
+        try {
+            long startedAt = System.currentTimeMillis();
+            Path generation = searchProcessor.generationManager.rebuild(
+                    target -> IndexSnapshots.restore(snapshot, target, Collections.singleton(IndexWriteLog.COMMIT_DATA_WAL_SEQUENCE)));
+            LOGGER.info("Restored index snapshot [{}] in [{}] ms into [{}]",
+                    new Object[]{snapshot, System.currentTimeMillis() - startedAt, generation});
+        } catch (Exception e) {
+            LOGGER.error("Problem occurred when trying to restore index snapshot [{}]", snapshot, e);
+            return false;
+        }
+        new Thread(() -> catchUp(snapshot)).start();
+        return true;
+    }
+
+    /**
+     * Restores the latest snapshot in to a new generation before the index is
+     * first used, if the current generation has no index. Nothing has opened
+     * the current generation yet, so the new one is activated without a switch.
+     *
+     * @param current directory of the current generation
+     * @return directory of the restored generation, or current if nothing has been restored
+     */
+    Path bootstrap(Path current) {
+        IndexGenerations generations = searchProcessor.generationManager.getGenerations();
+        Path generation = null;
+        try {
+            if (hasIndex(current))
+                return current;
+            Path snapshot = getSnapshots().latest();
+            if (snapshot == null) {
+                LOGGER.info("No index snapshot found in [{}] to bootstrap from", searchProcessor.snapshotPath);
+                return current;
+            }
+            long startedAt = System.currentTimeMillis();
+            generation = generations.createNext();
+            IndexSnapshots.restore(snapshot, generation, Collections.singleton(IndexWriteLog.COMMIT_DATA_WAL_SEQUENCE));
+            generations.activate(generation);
+            LOGGER.info("Bootstrapped index from snapshot [{}] in [{}] ms into [{}]",
+                    new Object[]{snapshot, System.currentTimeMillis() - startedAt, generation});
+            Path restored = generation;
+            generation = null;
+            new Thread(() -> catchUp(snapshot)).start();
+            return restored;
+        } catch (IOException e) {
+            LOGGER.error("Problem occurred when trying to bootstrap the index from [{}]", searchProcessor.snapshotPath, e);
+            if (generation != null)
+                generations.discard(generation);
+            return current;
+        }
+    }
+
+    private boolean hasIndex(Path generation) throws IOException {
+        Path shard = searchProcessor.getShardPath(generation, 0);
+        if (!Files.isDirectory(shard))
+            return false;
+        try (Directory directory = FSDirectory.open(shard)) {
+            return DirectoryReader.indexExists(directory);
+        }
+    }
+
+    /**
+     * Catches up with the writes made since the given snapshot was taken. The
+     * position of the {@link WriteAheadLog} is removed from the restored
+     * commits, so all the writes in the log of this node are replayed when the
+     * restored generation is opened. Writes of the other nodes are caught up by
+     * the listeners registered with {@link #addRestoreListener(Consumer)}, eg. a
+     * change log consumer resuming from the checkpoint of the snapshot.
+     * Re-indexes in the background instead when enabled.
+     *
+     * @param snapshot directory of the restored snapshot
+     */
+    private void catchUp(Path snapshot) {
+        if (searchProcessor.reIndexAfterRestore) {
+            searchProcessor.reIndex();
+            return;
+        }
+        if (restoreListeners.isEmpty())
+            LOGGER.warn("Nothing catches up with the writes of the other nodes made since snapshot [{}]. "
+                    + "Enable index.snapshot.restore.reindex or a change log", snapshot);
+        for (Consumer<Path> listener : restoreListeners) {
+            try {
+                listener.accept(snapshot);
+            } catch (RuntimeException e) {
+                LOGGER.error("Restore listener failed to catch up with snapshot [{}]", snapshot, e);
+            }
+        }
+    }
+
+    /**
+     * @param listener receives the directory of a restored snapshot
+     */
+    void addRestoreListener(Consumer<Path> listener) {
+        restoreListeners.add(listener);
+    }
+
+    /**
+     * @return {@link IndexSnapshots} of the snapshot directory of the processor
+     */
+    synchronized IndexSnapshots getSnapshots() {
+        String snapshotPath = searchProcessor.snapshotPath;
+        if (snapshotPath == null || snapshotPath.isEmpty())
+            throw new IllegalStateException("Index snapshot path has not been configured");
+        if (snapshots == null)
+            snapshots = new IndexSnapshots(Paths.get(snapshotPath));
+        return snapshots;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.index.IndexWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-ahead logging of the index writes of a {@link LuceneSearchProcessor}
+ * and the checkpoints its commits store in the commit user data.
+ *
+ * <p>Writes are appended to a {@link WriteAheadLog} before they are applied
+ * and marked applied afterwards. Every commit stores the checkpoint of the log,
+ * so the segments of the log covered by the last commit can be deleted and the
+ * writes after it replayed once the writers are opened again.
+ *
+ * <p>The log is opened on first use from the configuration of the processor,
+ * in the <code>wal</code> directory of its index root.
+ *
+ * @param <ID_TYPE> Type of the identifier of the entity to index.
+ */
+class IndexWriteLog<ID_TYPE extends Serializable> implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexWriteLog.class);
+
+    /**
+     * Key of the {@link WriteAheadLog} checkpoint in the commit user data.
+     */
+    static final String COMMIT_DATA_WAL_SEQUENCE = "wal.sequence";
+
+    /**
+     * Prefix of the keys of the checkpoints set by {@link #setCheckpoint(String, long)}
+     * in the commit user data.
+     */
+    static final String COMMIT_DATA_CHECKPOINT_PREFIX = "checkpoint.";
+
+    private static final String WRITE_AHEAD_LOG_DIRECTORY = "wal";
+
+    private final LuceneSearchProcessor<ID_TYPE, ?> searchProcessor;
+
+    private volatile WriteAheadLog<ID_TYPE> writeAheadLog;
+
+    private final Map<String, String> commitCheckpoints = new ConcurrentHashMap<>();
+
+    IndexWriteLog(LuceneSearchProcessor<ID_TYPE, ?> searchProcessor) {
+        this.searchProcessor = searchProcessor;
+    }
+
+    /**
+     * Appends a write to the {@link WriteAheadLog}, when enabled. Must be
+     * followed by {@link #applied(long, boolean)} once the write has been tried
+     * on the index.
+     *
+     * @param operation operation of the write
+     * @param id        identifier of the entity
+     * @return sequence number of the write, 0 if not logged
+     */
+    long append(WriteAheadLog.Operation operation, ID_TYPE id) {
+        WriteAheadLog<ID_TYPE> log = get();
+        if (log == null)
+            return 0;
+        try {
+            return log.append(operation, id);
+        } catch (IOException e) {
+            LOGGER.error("Could not append [{}] of [{}] to the write-ahead log. ", new Object[]{operation, id, e});
+            return 0;
+        }
+    }
+
+    /**
+     * Marks a logged write as applied, so the next commit covers it, and waits
+     * for its record to be fsynced unless the log is fsynced in the background.
+     * A failed write is kept in flight, so commits do not cover it and it is
+     * replayed on the next start.
+     *
+     * @param sequence sequence number returned by {@link #append(WriteAheadLog.Operation, Serializable)}
+     * @param applied  false if the write failed
+     */
+    void applied(long sequence, boolean applied) {
+        WriteAheadLog<ID_TYPE> log = writeAheadLog;
+        if (log == null || sequence == 0)
+            return;
+        if (applied)
+            log.applied(sequence);
+        else
+            LOGGER.warn("Write [{}] failed. Keeping it in the write-ahead log to be replayed on the next start", sequence);
+        sync(sequence);
+    }
+
+    /**
+     * Waits for the record of a logged write to be fsynced, unless the log is
+     * fsynced in the background.
+     *
+     * @param sequence sequence number returned by {@link #append(WriteAheadLog.Operation, Serializable)}
+     */
+    void sync(long sequence) {
+        WriteAheadLog<ID_TYPE> log = writeAheadLog;
+        if (log == null || sequence == 0 || searchProcessor.writeAheadLogSyncIntervalMillis > 0)
+            return;
+        try {
+            log.sync(sequence);
+        } catch (IOException e) {
+            LOGGER.error("Could not fsync the write-ahead log. ", e);
+        }
+    }
+
+    /**
+     * Returns the {@link WriteAheadLog}. If not opened yet opens the log in the
+     * <code>wal</code> directory of the index root.
+     *
+     * @return the log, or null if disabled
+     */
+    WriteAheadLog<ID_TYPE> get() {
+        if (writeAheadLog == null && searchProcessor.writeAheadLogEnabled)
+            open();
+        return writeAheadLog;
+    }
+
+    private synchronized void open() {
+        if (writeAheadLog == null) {
+            try {
+                writeAheadLog = new WriteAheadLog<>(Paths.get(searchProcessor.resourcePath, WRITE_AHEAD_LOG_DIRECTORY),
+                        searchProcessor.typeConverter, searchProcessor.writeAheadLogSegmentSizeMB * 1024L * 1024L,
+                        searchProcessor.writeAheadLogSyncIntervalMillis);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the write-ahead log of " + searchProcessor.resourcePath, e);
+            }
+        }
+    }
+
+    /**
+     * Stores the checkpoint of the {@link WriteAheadLog} and the checkpoints set
+     * by {@link #setCheckpoint(String, long)} in the commit user data of the
+     * writer.
+     *
+     * @param writer writer to be committed
+     */
+    void setCommitData(IndexWriter writer) {
+        WriteAheadLog<ID_TYPE> log = writeAheadLog;
+        if (log == null && commitCheckpoints.isEmpty())
+            return;
+        Map<String, String> commitData = new HashMap<>(commitCheckpoints);
+        if (log != null)
+            commitData.put(COMMIT_DATA_WAL_SEQUENCE, Long.toString(log.checkpoint()));
+        writer.setCommitData(commitData);
+    }
+
+    /**
+     * Stores the position of an external source of index writes in the commit
+     * user data of the next commits.
+     *
+     * @param key        name of the source
+     * @param checkpoint position of the source
+     */
+    void setCheckpoint(String key, long checkpoint) {
+        commitCheckpoints.put(COMMIT_DATA_CHECKPOINT_PREFIX + key, Long.toString(checkpoint));
+    }
+
+    /**
+     * @param key     name of the source
+     * @param writers writers of the current generation
+     * @return the oldest of the checkpoints stored by the last commits of the
+     * writers, 0 if any writer has not stored one
+     */
+    static long getCommittedCheckpoint(String key, IndexWriter... writers) {
+        long checkpoint = Long.MAX_VALUE;
+        for (IndexWriter writer : writers) {
+            String committed = writer.getCommitData().get(COMMIT_DATA_CHECKPOINT_PREFIX + key);
+            checkpoint = Math.min(checkpoint, committed == null ? 0 : Long.parseLong(committed));
+        }
+        return checkpoint == Long.MAX_VALUE ? 0 : checkpoint;
+    }
+
+    /**
+     * Deletes the segments of the {@link WriteAheadLog} covered by the last
+     * commit of the writer.
+     *
+     * @param writer committed writer
+     */
+    void trim(IndexWriter writer) {
+        WriteAheadLog<ID_TYPE> log = writeAheadLog;
+        if (log != null)
+            log.trim(getCommittedSequence(writer));
+    }
+
+    /**
+     * @param writer writer of an index
+     * @return checkpoint of the {@link WriteAheadLog} stored by the last commit, 0 if none
+     */
+    static long getCommittedSequence(IndexWriter writer) {
+        String sequence = writer.getCommitData().get(COMMIT_DATA_WAL_SEQUENCE);
+        return sequence == null ? 0 : Long.parseLong(sequence);
+    }
+
+    /**
+     * Re-applies the writes of the {@link WriteAheadLog} which are not covered
+     * by the last commit of the writers. Entities of the logged identifiers are
+     * read from the indexableEntityService of the processor, and indexes of
+     * entities which do not exist anymore are deleted.
+     *
+     * <p>When a commit is ahead of the last record of the log, the log has been
+     * lost or replaced. All of its records are replayed, and its sequence
+     * numbers continue after the commit, so later commits and trims only cover
+     * records appended since.
+     *
+     * @param writers opened writers of the current generation
+     */
+    void replay(IndexWriter... writers) {
+        WriteAheadLog<ID_TYPE> log = get();
+        if (log == null)
+            return;
+        long checkpoint = Long.MAX_VALUE;
+        long latestCheckpoint = 0;
+        for (IndexWriter writer : writers) {
+            checkpoint = Math.min(checkpoint, getCommittedSequence(writer));
+            latestCheckpoint = Math.max(latestCheckpoint, getCommittedSequence(writer));
+        }
+        boolean behind = latestCheckpoint > log.lastSequence();
+        if (behind) {
+            LOGGER.warn("Index has been committed at [{}], after the last record [{}] of the write-ahead log. Replaying the whole log",
+                    latestCheckpoint, log.lastSequence());
+            checkpoint = 0;
+        }
+        try {
+            long replayed = log.replay(checkpoint, this::apply);
+            if (replayed > 0)
+                LOGGER.info("Replayed [{}] writes of the write-ahead log after [{}]", replayed, checkpoint);
+            if (behind)
+                log.advance(latestCheckpoint);
+        } catch (IOException e) {
+            LOGGER.error("Could not replay the write-ahead log after [{}]", checkpoint, e);
+        }
+    }
+
+    /**
+     * Applies a logged write by the current state of the entity in the
+     * indexableEntityService.
+     */
+    private void apply(WriteAheadLog.Operation operation, ID_TYPE id) throws IOException {
+        boolean applied = operation == WriteAheadLog.Operation.UPDATE
+                ? searchProcessor.refreshIndexDocument(id)
+                : searchProcessor.deleteIndexDocuments(Collections.singletonList(id));
+        if (!applied)
+            throw new IOException("Could not apply [" + operation + "] of [" + id + "]");
+    }
+
+    /**
+     * Closes the {@link WriteAheadLog}, if opened.
+     */
+    @Override
+    public void close() {
+        WriteAheadLog<ID_TYPE> log = writeAheadLog;
+        if (log != null)
+            log.close();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import support.helper.SearchType;
+import support.types.IdentifierTypeConverter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A {@link LuceneSearchProcessor} which writes its index itself, with one or
+ * more {@link IndexWriter}s. Index writes are turned in to documents here and
+ * applied by the write hooks of the implementation, see
+ * {@link #addDocument(Serializable, Document)}. Processors which do not write
+ * the index they search, eg. a replica, extend {@link LuceneSearchProcessor}
+ * and pass the writes on instead.
+ *
+ * @param <ID_TYPE> Type of the identifier of the entity to index.
+ * @param <E>       Entity class that indexed by lucene.
+ *                  Needs to implement {@link LuceneIndexableEntity}} interface.
+ *                  Should have ID_TYPE identical identifier field to be fetched.
+ */
+public abstract class IndexWritingSearchProcessor<ID_TYPE extends Serializable, E extends LuceneIndexableEntity<ID_TYPE>> extends LuceneSearchProcessor<ID_TYPE, E> {
+
+    /**
+     * See {@link LuceneSearchProcessor#LuceneSearchProcessor(LuceneIndexableEntityService, IdentifierTypeConverter, SearchType, boolean, boolean)}.
+     *
+     * @param indexableEntityService a service instance to fetch {@link LuceneIndexableEntity}
+     *                               when required.
+     * @param typeConverter          converter of the identifier type
+     * @param searchType             type of the search to perform
+     * @param sortByInsertionOrder   true to maintain insertion order while querying
+     * @param sortInsertionOrderDesc true to sort insertion order descending
+     */
+    protected IndexWritingSearchProcessor(LuceneIndexableEntityService<ID_TYPE, E> indexableEntityService, IdentifierTypeConverter<ID_TYPE> typeConverter,
+                                          SearchType searchType, boolean sortByInsertionOrder, boolean sortInsertionOrderDesc) {
+        super(indexableEntityService, typeConverter, searchType, sortByInsertionOrder, sortInsertionOrderDesc);
+    }
+
+    @Override
+    protected boolean addIndexDocument(ID_TYPE id, String content) {
+        return addDocument(id, createDocument(id, content));
+    }
+
+    @Override
+    protected boolean addIndexDocument(E entity) {
+        return addDocument(entity.getID(), createDocument(entity));
+    }
+
+    @Override
+    protected boolean updateIndexDocument(ID_TYPE id, E entity) {
+        return deleteLegacyDocuments(id) && updateDocument(getIdTerm(id), createDocument(entity));
+    }
+
+    @Override
+    protected boolean refreshIndexDocument(ID_TYPE id) {
+        Optional<E> entity = indexableEntityService.getEntityById(id);
+        if (!deleteLegacyDocuments(id))
+            return false;
+        if (entity.isPresent())
+            return updateDocument(getIdTerm(id), createDocument(entity.get()));
+        return deleteDocuments(getIdTerm(id));
+    }
+
+    @Override
+    protected boolean deleteIndexDocuments(Collection<ID_TYPE> ids) {
+        if (ids.isEmpty())
+            return true;
+        List<Term> terms = new ArrayList<>(ids.size());
+        for (ID_TYPE id : ids) {
+            terms.add(getIdTerm(id));
+            Collections.addAll(terms, typeConverter.getLegacyTermsInType(FIELD_NAME_ID, id));
+        }
+        return deleteDocuments(terms.toArray(new Term[terms.size()]));
+    }
+
+    /**
+     * Removes the index of a numeric identifier by a range query on the
+     * identifier field, without logging the write. Matches identifiers indexed
+     * by {@link support.types.LongIdentifierConverter} only.
+     *
+     * @param id index to be removed
+     * @deprecated use {@link #deleteIndexes(Collection)}, which works with any identifier type
+     */
+    @Override
+    @Deprecated
+    public void deleteIndex(long id) {
+        deleteDocuments(NumericRangeQuery.newLongRange(FIELD_NAME_ID, id, id, true, true));
+    }
+
+    /**
+     * Removes the documents of the identifier indexed in a previous layout of
+     * the converter, see {@link IdentifierTypeConverter#getLegacyTermsInType(String, Object)}.
+     *
+     * @param id identifier
+     * @return false if the delete failed
+     */
+    private boolean deleteLegacyDocuments(ID_TYPE id) {
+        Term[] legacyTerms = typeConverter.getLegacyTermsInType(FIELD_NAME_ID, id);
+        return legacyTerms.length == 0 || deleteDocuments(legacyTerms);
+    }
+
+    /**
+     * Implement this method to add a document to the index.
+     *
+     * @param id       identifier of the document.
+     * @param document document to add
+     * @return true if the document has been added, false if the write failed
+     */
+    protected abstract boolean addDocument(ID_TYPE id, Document document);
+
+    /**
+     * Implement this method to replace the document having the identifier term.
+     *
+     * @param idTerm   term of the identifier of the document
+     * @param document document to add
+     * @return true if the document has been replaced, false if the write failed
+     */
+    protected abstract boolean updateDocument(Term idTerm, Document document);
+
+    /**
+     * Implement this method to remove the documents matching a query.
+     *
+     * @param query documents to be removed
+     * @return true if the documents have been deleted, false if the write failed
+     */
+    protected abstract boolean deleteDocuments(Query query);
+
+    /**
+     * Implement this method to remove the documents having any of the identifier terms.
+     *
+     * @param idTerms terms of the identifiers of the documents
+     * @return true if the documents have been deleted, false if the write failed
+     */
+    protected abstract boolean deleteDocuments(Term... idTerms);
+}
@@ -0,0 +1,537 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous indexing stage in front of a {@link LuceneSearchProcessor}, so
+ * the caller of a write does not wait for analysis and commits.
+ *
+ * <p>Index writes are hashed by identifier to a partition, a bounded ring
+ * buffer drained by its own thread. The thread takes the pending writes in
+ * batches, keeps the last submitted write of each identifier, and applies the
+ * deletes of a batch in a single delete. Writes of an identifier are applied in
+ * the order they were submitted, a write reaching the buffer after a later
+ * write of its identifier has been applied is dropped.
+ *
+ * <p>When a partition is full the caller waits up to the offer timeout for
+ * room, then applies the pending writes of the partition and its own write on
+ * its thread, so a burst slows down the writers instead of growing the heap or
+ * losing writes.
+ *
+ * <p>A write returns a token, which a later search can pass to
+ * {@link #awaitVisible(String, long)} to wait until the write is visible to
+ * searches, eg. to show a user the ad just posted. Tokens are valid for the
+ * queue which issued them only.
+ *
+ * <p>A write is appended to the {@link WriteAheadLog} of the processor, when
+ * enabled, before it is queued, and waits for its record to be fsynced unless
+ * the log is fsynced in the background. So a write accepted by the queue
+ * survives a crash before it has been applied, and is replayed on the next
+ * start, like the writes applied by the processor directly.
+ *
+ * <p>With 0 threads writes are applied on the calling thread.
+ *
+ * @param <ID_TYPE> Type of the identifier of the entity to index.
+ * @param <E>       Entity class that indexed by lucene.
+ */
+public class IndexingQueue<ID_TYPE extends Serializable, E extends LuceneIndexableEntity<ID_TYPE>> implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexingQueue.class);
+
+    /**
+     * Max time a drainer thread waits for a write before checking if closed.
+     */
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final LuceneSearchProcessor<ID_TYPE, E> searchProcessor;
+
+    private final List<Partition> partitions;
+
+    private final int maxBatchSize;
+
+    private final long offerTimeoutMillis;
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong applied = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final AtomicLong overflows = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * Distinguishes the tokens of this queue from the tokens of the other
+     * nodes and of the previous runs.
+     */
+    private final long epoch = System.currentTimeMillis();
+
+    enum Operation {
+        ADD, UPDATE, DELETE
+    }
+
+    /**
+     * A submitted index write.
+     */
+    final class Write {
+
+        private final Operation operation;
+
+        private final ID_TYPE id;
+
+        private final E entity;
+
+        private final long submittedAt = System.currentTimeMillis();
+
+        /**
+         * Position of the write in its partition.
+         */
+        private long sequence;
+
+        /**
+         * Sequence number of the write in the {@link WriteAheadLog}, 0 if not logged.
+         */
+        private long logSequence;
+
+        Write(Operation operation, ID_TYPE id, E entity) {
+            this.operation = operation;
+            this.id = id;
+            this.entity = entity;
+        }
+    }
+
+    /**
+     * A ring buffer of writes and its drainer. Writes are numbered while
+     * holding the submit lock and added to the buffer after releasing it, so
+     * a caller waiting for room does not hold up the other callers. Writes are
+     * removed from the buffer and applied only while holding the apply lock,
+     * which keeps them in order when a caller drains the buffer. The drainer
+     * waits for writes on the queued permits without holding the apply lock,
+     * and takes them from the buffer only once it holds the lock, so a write
+     * is never held by a thread while a caller applies the writes after it.
+     *
+     * <p>Writes of concurrent callers may reach the buffer out of the order of
+     * their sequences, so the applied sequence only advances over sequences
+     * which have all been applied, and the sequences of the writes applied
+     * ahead of it are kept by identifier to drop the earlier writes reaching
+     * the buffer afterwards. Monitor of the partition guards the applied
+     * sequence and generation, the apply lock the sequences by identifier.
+     */
+    final class Partition implements Runnable {
+
+        private final BlockingQueue<Write> buffer;
+
+        /**
+         * A permit for each write added to the buffer. Writes drained by a
+         * caller leave their permits behind, which only wake the drainer up.
+         */
+        private final Semaphore queued = new Semaphore(0);
+
+        private final Lock submitLock = new ReentrantLock();
+
+        private final Lock applyLock = new ReentrantLock();
+
+        private Thread drainer;
+
+        private long lastSequence;
+
+        /**
+         * Every write up to this sequence has been applied.
+         */
+        private long appliedSequence;
+
+        /**
+         * Sequences after the applied sequence of the writes applied ahead of
+         * an earlier write.
+         */
+        private final TreeSet<Long> appliedAhead = new TreeSet<>();
+
+        /**
+         * Sequence of the last write applied of each identifier, for the
+         * writes after the applied sequence.
+         */
+        private final Map<ID_TYPE, Long> appliedById = new HashMap<>();
+
+        /**
+         * Write generation of the processor once the writes up to the applied
+         * sequence had been applied, see {@link LuceneSearchProcessor#getWriteGeneration()}.
+         */
+        private long appliedGeneration;
+
+        private Partition(int capacity) {
+            this.buffer = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            List<Write> batch = new ArrayList<>(maxBatchSize);
+            while (!closed || !buffer.isEmpty()) {
+                try {
+                    if (!queued.tryAcquire(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) && buffer.isEmpty())
+                        continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                applyLock.lock();
+                try {
+                    buffer.drainTo(batch, maxBatchSize);
+                    if (!batch.isEmpty())
+                        apply(this, batch);
+                } finally {
+                    applyLock.unlock();
+                    batch.clear();
+                }
+            }
+        }
+
+        /**
+         * Applies the pending writes and the write on the calling thread when
+         * there is no room for it, after the pending writes so a drainer
+         * never applies an earlier write after it.
+         */
+        private long submit(Write write) {
+            sequence(write);
+            try {
+                if (drainer != null && buffer.offer(write, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    queued.release();
+                    return write.sequence;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (drainer != null)
+                overflows.incrementAndGet();
+            applyLock.lock();
+            try {
+                List<Write> batch = new ArrayList<>(buffer.size() + 1);
+                buffer.drainTo(batch);
+                batch.add(write);
+                apply(this, batch);
+            } finally {
+                applyLock.unlock();
+            }
+            return write.sequence;
+        }
+
+        /**
+         * Numbers the write in the order of submission.
+         */
+        void sequence(Write write) {
+            submitLock.lock();
+            try {
+                write.sequence = ++lastSequence;
+            } finally {
+                submitLock.unlock();
+            }
+        }
+
+        /**
+         * @param batch      applied writes
+         * @param generation write generation of the processor after applying them
+         */
+        private synchronized void applied(List<Write> batch, long generation) {
+            for (Write write : batch) {
+                if (write.sequence > appliedSequence)
+                    appliedAhead.add(write.sequence);
+            }
+            while (appliedAhead.remove(appliedSequence + 1)) {
+                appliedSequence++;
+            }
+            appliedGeneration = Math.max(appliedGeneration, generation);
+            notifyAll();
+        }
+
+        private synchronized long getAppliedSequence() {
+            return appliedSequence;
+        }
+
+        /**
+         * @return write generation to wait for to see the write of the sequence, -1 if not applied in time
+         */
+        private synchronized long awaitApplied(long sequence, long deadline) throws InterruptedException {
+            long remaining;
+            while (appliedSequence < sequence && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+            return appliedSequence >= sequence ? appliedGeneration : -1;
+        }
+    }
+
+    /**
+     * @param searchProcessor    processor to apply the writes to
+     * @param threads            number of partitions, each drained by a thread, 0 to apply writes on the calling thread
+     * @param capacity           max number of pending writes of all the partitions
+     * @param maxBatchSize       max number of writes applied at once by a thread
+     * @param offerTimeoutMillis max time a caller waits for room in a full partition
+     */
+    public IndexingQueue(LuceneSearchProcessor<ID_TYPE, E> searchProcessor, int threads, int capacity,
+                         int maxBatchSize, long offerTimeoutMillis) {
+        this.searchProcessor = searchProcessor;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        int partitionCount = Math.max(1, threads);
+        this.partitions = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            partitions.add(new Partition(Math.max(1, capacity / partitionCount)));
+        }
+        if (threads > 0) {
+            for (int i = 0; i < partitionCount; i++) {
+                Thread drainer = new Thread(partitions.get(i), "lucene-indexing-queue-" + i);
+                drainer.setDaemon(true);
+                drainer.start();
+                partitions.get(i).drainer = drainer;
+            }
+        }
+    }
+
+    /**
+     * Adds the index of a new entity. See {@link LuceneSearchProcessor#addIndex(LuceneIndexableEntity)}.
+     *
+     * @param entity entity to index
+     * @return token of the write, see {@link #awaitVisible(String, long)}
+     */
+    public String addIndex(E entity) {
+        return submit(new Write(Operation.ADD, entity.getID(), entity));
+    }
+
+    /**
+     * Replaces the index of an entity. See {@link LuceneSearchProcessor#updateIndex(Serializable, LuceneIndexableEntity)}.
+     *
+     * @param id     identifier of the entity
+     * @param entity entity to index
+     * @return token of the write, see {@link #awaitVisible(String, long)}
+     */
+    public String updateIndex(ID_TYPE id, E entity) {
+        return submit(new Write(Operation.UPDATE, id, entity));
+    }
+
+    /**
+     * Removes the indexes of given identifiers. See {@link LuceneSearchProcessor#deleteIndexes(Collection)}.
+     *
+     * @param ids identifiers of the indexes to be removed
+     */
+    public void deleteIndexes(Collection<ID_TYPE> ids) {
+        for (ID_TYPE id : ids) {
+            submit(new Write(Operation.DELETE, id, null));
+        }
+    }
+
+    private String submit(Write write) {
+        if (closed)
+            throw new IllegalStateException("Indexing queue has been closed");
+        submitted.incrementAndGet();
+        write.logSequence = searchProcessor.logIndexWrite(write.operation == Operation.DELETE
+                ? WriteAheadLog.Operation.DELETE : WriteAheadLog.Operation.UPDATE, write.id);
+        searchProcessor.syncIndexWrite(write.logSequence);
+        int partition = getPartitionIndex(write.id);
+        long sequence = partitions.get(partition).submit(write);
+        return epoch + "." + partition + "." + sequence;
+    }
+
+    private int getPartitionIndex(ID_TYPE id) {
+        return Math.floorMod(id.hashCode(), partitions.size());
+    }
+
+    /**
+     * @param id identifier of a write
+     * @return partition the writes of the identifier are queued in
+     */
+    Partition getPartition(ID_TYPE id) {
+        return partitions.get(getPartitionIndex(id));
+    }
+
+    /**
+     * Waits until the write of the token has been applied and is visible to
+     * searches, up to given time. See {@link LuceneSearchProcessor#awaitVisibility(long, long)}.
+     * Returns at once for a token not issued by this queue, eg. by another
+     * node or before a restart.
+     *
+     * @param token         token returned by a write
+     * @param timeoutMillis max time to wait
+     * @return true if the write is visible
+     */
+    public boolean awaitVisible(String token, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        String[] parts = token.split("\\.");
+        long generation;
+        try {
+            if (parts.length != 3 || Long.parseLong(parts[0]) != epoch) {
+                LOGGER.debug("Token [{}] was not issued by this indexing queue", token);
+                return true;
+            }
+            int partition = Integer.parseInt(parts[1]);
+            if (partition < 0 || partition >= partitions.size())
+                return true;
+            generation = partitions.get(partition).awaitApplied(Long.parseLong(parts[2]), deadline);
+            if (generation < 0)
+                return false;
+        } catch (NumberFormatException e) {
+            LOGGER.debug("Token [{}] was not issued by this indexing queue", token);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return searchProcessor.awaitVisibility(generation, Math.max(0, deadline - System.currentTimeMillis()));
+    }
+
+    /**
+     * Applies the write with the highest sequence of each identifier of a
+     * batch, unless a later write of the identifier has been applied already.
+     * An add which follows another write of the identifier is applied as an
+     * update. The logged writes of an identifier are marked applied in the
+     * {@link WriteAheadLog} when its last write has been applied, and kept to
+     * be replayed otherwise. Called while holding the apply lock of the
+     * partition.
+     */
+    void apply(Partition partition, List<Write> batch) {
+        Map<ID_TYPE, Write> latest = new LinkedHashMap<>();
+        Set<ID_TYPE> repeated = new HashSet<>();
+        for (Write write : batch) {
+            Write previous = latest.get(write.id);
+            if (previous != null)
+                repeated.add(write.id);
+            if (previous == null || write.sequence > previous.sequence)
+                latest.put(write.id, write);
+        }
+        List<ID_TYPE> deleted = new ArrayList<>();
+        Set<ID_TYPE> failed = new HashSet<>();
+        for (Write write : latest.values()) {
+            Long appliedSequence = partition.appliedById.get(write.id);
+            if (appliedSequence != null) {
+                if (appliedSequence > write.sequence)
+                    continue; // Superseded by a write which reached the buffer earlier
+                repeated.add(write.id);
+            }
+            partition.appliedById.put(write.id, write.sequence);
+            if (write.operation == Operation.DELETE) {
+                deleted.add(write.id);
+                continue;
+            }
+            try {
+                boolean applied = write.operation == Operation.ADD && !repeated.contains(write.id)
+                        ? searchProcessor.addIndexDocument(write.entity)
+                        : searchProcessor.updateIndexDocument(write.id, write.entity);
+                if (!applied)
+                    failed.add(write.id);
+            } catch (Exception e) {
+                LOGGER.error("Could not apply [{}] of [{}] ", new Object[]{write.operation, write.id, e});
+                failed.add(write.id);
+            }
+        }
+        try {
+            if (!searchProcessor.deleteIndexDocuments(deleted))
+                failed.addAll(deleted);
+        } catch (Exception e) {
+            LOGGER.error("Could not apply [{}] deletes ", deleted.size(), e);
+            failed.addAll(deleted);
+        }
+        for (Write write : batch) {
+            searchProcessor.indexWriteApplied(write.logSequence, !failed.contains(write.id));
+        }
+        partition.applied(batch, searchProcessor.getWriteGeneration());
+        long appliedSequence = partition.getAppliedSequence();
+        partition.appliedById.values().removeIf(sequence -> sequence <= appliedSequence);
+        applied.addAndGet(batch.size());
+        batches.incrementAndGet();
+    }
+
+    /**
+     * @return number of writes waiting to be applied
+     */
+    public int getDepth() {
+        int depth = 0;
+        for (Partition partition : partitions) {
+            depth += partition.buffer.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return time in milliseconds the oldest pending write has been waiting, 0 if none
+     */
+    public long getLagMillis() {
+        long oldest = Long.MAX_VALUE;
+        for (Partition partition : partitions) {
+            Write head = partition.buffer.peek();
+            if (head != null)
+                oldest = Math.min(oldest, head.submittedAt);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    /**
+     * @return depth, lag and counters of the queue, by name
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("depth", (long) getDepth());
+        stats.put("lagMillis", getLagMillis());
+        stats.put("submitted", submitted.get());
+        stats.put("applied", applied.get());
+        stats.put("batches", batches.get());
+        stats.put("overflows", overflows.get());
+        return stats;
+    }
+
+    /**
+     * Stops accepting writes and waits for the pending writes to be applied.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Partition partition : partitions) {
+            if (partition.drainer == null)
+                continue;
+            try {
+                partition.drainer.join(CLOSE_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        int depth = getDepth();
+        if (depth > 0)
+            LOGGER.warn("Indexing queue closed with [{}] writes not applied, they are replayed from the write-ahead log on the next start if enabled", depth);
+    }
+}
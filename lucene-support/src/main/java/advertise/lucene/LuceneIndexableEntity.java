@@ -17,6 +17,10 @@
  */
 package advertise.lucene;
 
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
 /**
  * Inplement this interface to be used as a index-able entity in {@link LuceneSearchProcessor}.
  *
@@ -40,4 +44,51 @@ public interface LuceneIndexableEntity<ID_TYPE> {
      * @return text to index
      */
     String getText();
+
+    /**
+     * Override to index the title as a separate field.
+     *
+     * @return title of the entity, or null
+     */
+    default String getTitle() {
+        return null;
+    }
+
+    /**
+     * Override to index the body as a separate field.
+     *
+     * @return body of the entity, or null
+     */
+    default String getBody() {
+        return null;
+    }
+
+    /**
+     * Override to index exact match terms the searches can be filtered by.
+     * eg. category or location identifiers.
+     *
+     * @return terms by filter name
+     */
+    default Map<String, String> getFilterTerms() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Override to index the posted date. Searches without text are sorted
+     * by posted date, latest first.
+     *
+     * @return posted date of the entity, or null
+     */
+    default Date getPostedDate() {
+        return null;
+    }
+
+    /**
+     * Override to index the expiry date.
+     *
+     * @return expiry date of the entity, or null
+     */
+    default Date getExpireDate() {
+        return null;
+    }
 }
@@ -6,6 +6,7 @@ import java.io.Serializable;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 /**
  * Implement this interface to behave as the {@link LuceneIndexableEntity} service.
@@ -27,6 +28,23 @@ public interface LuceneIndexableEntityService<ID_TYPE extends Serializable, T ex
      */
     List<T> getIndexableEntities();
 
+    /**
+     * Implement to stream all entities need to be indexed page by page, so the
+     * whole entity store does not have to be loaded into memory at once.
+     * pageConsumer may block until it can accept the next page.
+     *
+     * Default implementation pages over {@link #getIndexableEntities()}.
+     *
+     * @param pageSize     max number of entities in a page
+     * @param pageConsumer consumer of each page
+     */
+    default void streamIndexableEntities(int pageSize, Consumer<List<T>> pageConsumer) {
+        List<T> entities = getIndexableEntities();
+        for (int from = 0; from < entities.size(); from += pageSize) {
+            pageConsumer.accept(entities.subList(from, Math.min(from + pageSize, entities.size())));
+        }
+    }
+
     /**
      * Implement to return entities in given identifier list.
      *
@@ -43,4 +61,16 @@ public interface LuceneIndexableEntityService<ID_TYPE extends Serializable, T ex
      * @return the entity
      */
     Optional<T> getEntityById(ID_TYPE id);
+
+    /**
+     * Called with batches of identifiers of expired entities before they are
+     * removed from the index by {@link LuceneSearchProcessor#purgeExpired(int)}.
+     * Implement to remove the expired entities from the entity store.
+     *
+     * Default implementation does nothing.
+     *
+     * @param ids identifiers of expired entities
+     */
+    default void purgeEntities(List<ID_TYPE> ids) {
+    }
 }
@@ -17,16 +17,16 @@
  */
 package advertise.lucene;
 
-import advertise.lucene.util.FileSystemUtils;
+import advertise.lucene.util.IndexGenerations;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.*;
-import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -36,15 +36,23 @@ import support.helper.SearchType;
 import support.types.IdentifierTypeConverter;
 
 import javax.annotation.PreDestroy;
-import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 
 /**
@@ -77,6 +85,37 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
     protected static final String FIELD_NAME_ID = "i"; // i: id
     protected static final String FIELD_NAME_CONTENT = "c"; //c: content
     protected static final String FIELD_NAME_TIMESTAMP = "t"; // t: timestamp
+    protected static final String FIELD_NAME_TITLE = "ti"; // ti: title
+    protected static final String FIELD_NAME_BODY = "b"; // b: body
+    protected static final String FIELD_NAME_POSTED_DATE = "pd"; // pd: posted date
+    protected static final String FIELD_NAME_EXPIRE_DATE = "ex"; // ex: expiry date
+    protected static final String FIELD_NAME_FILTER_PREFIX = "f."; // f.<filter name>: filter term
+
+    private static final Set<String> ID_FIELD_SET = Collections.singleton(FIELD_NAME_ID);
+
+    /**
+     * Caches filter clauses per segment in the shared query cache of the searchers.
+     */
+    protected static final QueryCachingPolicy FILTER_CACHING_POLICY =
+            new FilterCachingPolicy(FIELD_NAME_FILTER_PREFIX, IndexSearcher.getDefaultQueryCachingPolicy());
+
+    /**
+     * Expiry is checked at this resolution, so the expiry clause of a query
+     * stays the same, and cacheable, for this long.
+     */
+    private static final long EXPIRY_RESOLUTION_MILLIS = 60 * 1000;
+
+    /**
+     * Max number of distinct searches counted to find the most frequent ones.
+     */
+    private static final int FREQUENT_SEARCHES_CAPACITY = 1024;
+
+    /**
+     * Page size of the paged searches warming a new searcher.
+     */
+    private static final int WARM_PAGE_SIZE = 10;
+
+    private static final Sort POSTED_DATE_DESC_SORT = new Sort(new SortField(FIELD_NAME_POSTED_DATE, SortField.Type.LONG, true));
 
     private static final FieldType LONG_FIELD_TYPE_STORED_SORTED = new FieldType();
     static {
@@ -95,9 +134,15 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
     protected static final double RAM_BUFFER_SIZE = 256;
 
     /**
-     * {@link Path} to indexes.
+     * Writes to the indexes hold the read lock so they can run concurrently.
+     * Switching the index generation holds the write lock.
      */
-    private Path path;
+    protected final ReadWriteLock generationLock = new ReentrantReadWriteLock();
+
+    /**
+     * Current index generation, replaced by re-indexing and restoring snapshots.
+     */
+    final IndexGenerationManager generationManager = new IndexGenerationManager(this);
 
     /**
      * This instance is responsible to convert identifier type to relevant
@@ -106,6 +151,17 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
      */
     protected IdentifierTypeConverter<ID_TYPE> typeConverter;
 
+    /**
+     * Identifiers of open segments, loaded from doc values when a reader is
+     * opened by implementations which reuse readers.
+     */
+    protected final IdentifierCache<ID_TYPE> identifierCache;
+
+    /**
+     * Type of the search performed.
+     */
+    protected SearchType searchType;
+
     /**
      * This instance is responsible to determine what type of query needs
      * to be performed. eg. {@link WildcardQuery}, {@link PhraseQuery}
@@ -123,6 +179,15 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
      */
     protected boolean sortInsertionOrderDesc;
 
+    /**
+     * true to keep the merged segments physically sorted by the insertion order
+     * sort, so insertion ordered searches stop collecting a segment once enough
+     * hits have been found. Used only when sortByInsertionOrder is set.
+     * Segments written before enabling are sorted as they get merged.
+     */
+    @Value("${index.sort.by.insertion.order:false}")
+    protected boolean sortIndexByInsertionOrder;
+
     /**
      * Upper bound to limit max number of results when searching
      */
@@ -135,6 +200,100 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
     @Value("${keyword.based.search.resource.path:/lucene}")
     protected String resourcePath;
 
+    /**
+     * Max number of search results cached. 0 to disable the cache.
+     */
+    @Value("${search.result.cache.size:256}")
+    protected int searchResultCacheSize = 256;
+
+    private volatile SearchResultCache<ID_TYPE> searchResultCache;
+
+    /**
+     * Number of entities fetched per page when re-indexing.
+     */
+    @Value("${reindex.page.size:1000}")
+    protected int reIndexPageSize = 1000;
+
+    /**
+     * Number of threads adding documents when re-indexing.
+     * 0 to use the number of available processors.
+     */
+    @Value("${reindex.worker.threads:0}")
+    protected int reIndexWorkerThreads;
+
+    /**
+     * Comma separated texts searched to warm a new searcher of a {@link SearcherManager}.
+     */
+    @Value("${index.warm.queries:}")
+    protected String warmQueries = "";
+
+    /**
+     * Number of the most frequent recent searches run to warm a new searcher
+     * of a {@link SearcherManager}. 0 to warm with warmQueries only.
+     */
+    @Value("${index.warm.frequent.queries:10}")
+    protected int warmFrequentQueries = 10;
+
+    private final FrequentSearches frequentSearches = new FrequentSearches(FREQUENT_SEARCHES_CAPACITY);
+
+    /**
+     * true to log index writes to a {@link WriteAheadLog}, so indexes survive a
+     * crash without being committed for every write.
+     */
+    @Value("${index.wal.enabled:false}")
+    protected boolean writeAheadLogEnabled;
+
+    /**
+     * Interval of the background fsync of the {@link WriteAheadLog} in milliseconds.
+     * 0 to fsync, in groups, before a write returns.
+     */
+    @Value("${index.wal.sync.interval.ms:0}")
+    protected long writeAheadLogSyncIntervalMillis;
+
+    /**
+     * Size of a {@link WriteAheadLog} segment file in MB.
+     */
+    @Value("${index.wal.segment.size.mb:64}")
+    protected int writeAheadLogSegmentSizeMB = 64;
+
+    private final IndexWriteLog<ID_TYPE> indexWriteLog = new IndexWriteLog<>(this);
+
+    /**
+     * Directory of the index snapshots, which can be shared by the nodes.
+     * Empty to disable snapshots.
+     */
+    @Value("${index.snapshot.path:}")
+    protected String snapshotPath = "";
+
+    /**
+     * Number of the most recent snapshots kept by {@link #snapshot()}.
+     */
+    @Value("${index.snapshot.keep:3}")
+    protected int snapshotsToKeep = 3;
+
+    /**
+     * true to restore the latest snapshot when the index is first used and
+     * does not exist, instead of building it from scratch.
+     */
+    @Value("${index.snapshot.bootstrap:false}")
+    protected boolean bootstrapFromSnapshot;
+
+    /**
+     * true to re-index in the background after a snapshot has been restored,
+     * to catch up with the changes made since it was taken. Otherwise the
+     * restore listeners catch up, eg. from a change log.
+     */
+    @Value("${index.snapshot.restore.reindex:false}")
+    protected boolean reIndexAfterRestore;
+
+    final IndexSnapshotManager snapshotManager = new IndexSnapshotManager(this);
+
+    /**
+     * Creates searchers searching segments in parallel. null to search segments
+     * on the searching thread.
+     */
+    protected ConcurrentSearcherFactory concurrentSearcherFactory;
+
     /**
      * The service that provides mechanism to fetch {@link LuceneIndexableEntity}s.
      */
@@ -165,12 +324,16 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
         this.sortByInsertionOrder = sortByInsertionOrder;
         this.sortInsertionOrderDesc = sortInsertionOrderDesc;
 
+        this.searchType = searchType;
         this.searchHelper = searchType.getSearchHelper();
+        this.identifierCache = new IdentifierCache<>(typeConverter, FIELD_NAME_ID);
     }
 
     /**
      * Searches indexes for given text and returns list of identifiers.
      * Will use the given implementation in concrete class to obtain a {@link IndexSearcher}
+     * and to release it once done. Indexes are recreated in the background
+     * when they are not found or too old.
      *
      * @param text text to search
      * @return list of ID_TYPE of matching entities to given text.
@@ -178,8 +341,11 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
     public List<ID_TYPE> searchForIds(String text) {
         try {
             IndexSearcher indexSearcher = getIndexSearcher();
-
-            return searchForIds(text, indexSearcher);
+            try {
+                return searchForIds(text, indexSearcher);
+            } finally {
+                releaseIndexSearcher(indexSearcher);
+            }
         } catch (IndexNotFoundException e) {
             LOGGER.error("Index was not found on given directory [{}]. Recreating indexes...", resourcePath);
             reIndexAsync();
@@ -201,9 +367,128 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
      */
     protected abstract IndexSearcher getIndexSearcher() throws IOException;
 
+    /**
+     * Creates an {@link IndexSearcher} on the given reader. Implementations
+     * create their searchers through this method so filters are cached, and
+     * segments are searched in parallel when a {@link ConcurrentSearcherFactory}
+     * is set.
+     *
+     * @param reader reader to search
+     * @return a new {@link IndexSearcher}
+     */
+    protected IndexSearcher newIndexSearcher(IndexReader reader) {
+        IndexSearcher indexSearcher = concurrentSearcherFactory == null ? new IndexSearcher(reader) : concurrentSearcherFactory.newSearcher(reader, null);
+        indexSearcher.setQueryCachingPolicy(FILTER_CACHING_POLICY);
+        return indexSearcher;
+    }
+
+    /**
+     * Creates the {@link SearcherFactory} of implementations sharing searchers
+     * through a {@link SearcherManager}. Searchers are created with
+     * {@link #newIndexSearcher(IndexReader)}, identifiers of the new segments
+     * are loaded in to the identifierCache and the searcher is warmed by
+     * {@link #warm(IndexSearcher)} before the {@link SearcherManager} publishes it.
+     *
+     * @return a new {@link SearcherFactory}
+     */
+    protected SearcherFactory newSearcherFactory() {
+        return new IdentifierCachingSearcherFactory(new WarmingSearcherFactory(new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+                return newIndexSearcher(reader);
+            }
+        }, this::warm), identifierCache);
+    }
+
+    /**
+     * Warms a new searcher. Loads the doc values of the sorts, then runs the
+     * configured warmQueries and the most frequent recent searches, so terms,
+     * norms, doc values and cached filters of new segments are loaded before
+     * the searcher serves searches.
+     *
+     * @param indexSearcher searcher to warm
+     * @throws IOException when thrown from internal method calls.
+     */
+    protected void warm(IndexSearcher indexSearcher) throws IOException {
+        indexSearcher.search(new MatchAllDocsQuery(), 1, POSTED_DATE_DESC_SORT);
+        if (sortByInsertionOrder)
+            indexSearcher.search(new MatchAllDocsQuery(), 1, getInsertionOrderSort());
+
+        Set<FrequentSearches.Search> searches = new LinkedHashSet<>();
+        for (String text : warmQueries.split(",")) {
+            if (text.trim().isEmpty()) continue;
+            searches.add(FrequentSearches.Search.keyword(text.trim()));
+            searches.add(FrequentSearches.Search.paged(text.trim(), Collections.emptyMap(), Collections.emptyList()));
+        }
+        if (warmFrequentQueries > 0)
+            searches.addAll(frequentSearches.top(warmFrequentQueries));
+
+        for (FrequentSearches.Search search : searches) {
+            try {
+                if (search.isKeyword())
+                    executeSearch(search.text, getExpiryCutoff(), indexSearcher);
+                else
+                    searchForIds(search.text, search.filters, search.facets, null, WARM_PAGE_SIZE, indexSearcher);
+            } catch (ParseException e) {
+                LOGGER.debug("Skipped warming search [{}] which could not be parsed", search.text);
+            }
+        }
+    }
+
+    /**
+     * Override to release an {@link IndexSearcher} returned by {@link #getIndexSearcher()}
+     * once the search is done.
+     *
+     * @param indexSearcher searcher to release
+     * @throws IOException when thrown from internal library methods.
+     */
+    protected void releaseIndexSearcher(IndexSearcher indexSearcher) throws IOException {
+    }
+
+    /**
+     * Searches given indexSearcher for the text. Results are served from the
+     * searchResultCache when the same search has been performed on the same
+     * reader version.
+     *
+     * @param text          text to search
+     * @param indexSearcher indexSearcher instance
+     * @return list of ID_TYPE of matching entities to given text.
+     * @throws IOException    when thrown from internal method calls.
+     * @throws ParseException when the text could not be parsed
+     */
     protected List<ID_TYPE> searchForIds(String text, IndexSearcher indexSearcher) throws IOException, ParseException {
+        if (text != null && !text.isEmpty())
+            frequentSearches.record(FrequentSearches.Search.keyword(text));
+        SearchResultCache<ID_TYPE> cache = getSearchResultCache();
+        IndexReader reader = indexSearcher.getIndexReader();
+        long expiryCutoff = getExpiryCutoff();
+        if (cache == null || !(reader instanceof DirectoryReader))
+            return executeSearch(text, expiryCutoff, indexSearcher);
+
+        SearchResultCache.Key key = new SearchResultCache.Key(text, searchType, sortByInsertionOrder, sortInsertionOrderDesc,
+                expiryCutoff, (DirectoryReader) reader);
+        return cache.get(key, () -> executeSearch(text, expiryCutoff, indexSearcher));
+    }
+
+    private List<ID_TYPE> executeSearch(String text, long expiryCutoff, IndexSearcher indexSearcher) throws IOException, ParseException {
         Query query = searchHelper.buildQuery(FIELD_NAME_CONTENT, text);
-        return getIdsForQuery(query, indexSearcher);
+        return getIdsForQuery(query, expiryCutoff, indexSearcher);
+    }
+
+    /**
+     * Returns the shared {@link SearchResultCache}. If not created yet creates the instance.
+     *
+     * @return the cache, or null if caching is disabled
+     */
+    public SearchResultCache<ID_TYPE> getSearchResultCache() {
+        if (searchResultCache == null && searchResultCacheSize > 0)
+            createSearchResultCache();
+        return searchResultCache;
+    }
+
+    private synchronized void createSearchResultCache() {
+        if (searchResultCache == null)
+            searchResultCache = new SearchResultCache<>(searchResultCacheSize);
     }
 
     /**
@@ -211,22 +496,303 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
      * returns a list of ID_TYPE.
      *
      * @param query the query to perform
+     * @param expiryCutoff documents expired by this time are excluded, see {@link #getExpiryCutoff()}
      * @param indexSearcher indexSearcher instance
      * @return list of ID_TYPE
      * @throws IOException when thrown from internal method calls.
      */
-    private List<ID_TYPE> getIdsForQuery(Query query, IndexSearcher indexSearcher) throws IOException {
-        TopDocs topDocs = sortByInsertionOrder ?
-                indexSearcher.search(query, maxSearchResults, new Sort(new SortField(FIELD_NAME_TIMESTAMP, SortField.Type.LONG, sortInsertionOrderDesc))) :
-                indexSearcher.search(query, maxSearchResults);
-        List<ID_TYPE> searchResult = new ArrayList<>(topDocs.scoreDocs.length);
-        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
-            Document document = indexSearcher.doc(scoreDoc.doc);
-            searchResult.add(typeConverter.getValueInType(document.get(FIELD_NAME_ID)));
+    private List<ID_TYPE> getIdsForQuery(Query query, long expiryCutoff, IndexSearcher indexSearcher) throws IOException {
+        query = excludeExpired(query, expiryCutoff);
+        TopDocs topDocs;
+        if (isIndexSorted()) {
+            Sort sort = getInsertionOrderSort();
+            TopFieldCollector collector = TopFieldCollector.create(sort, getNumHits(indexSearcher, maxSearchResults), null, true, false, false);
+            indexSearcher.search(query, new EarlyTerminatingSortingCollector(collector, sort, maxSearchResults, sort));
+            topDocs = collector.topDocs();
+        } else {
+            topDocs = sortByInsertionOrder ?
+                    indexSearcher.search(query, maxSearchResults, getInsertionOrderSort()) :
+                    indexSearcher.search(query, maxSearchResults);
+        }
+        return getIds(indexSearcher, topDocs.scoreDocs);
+    }
+
+    /**
+     * @return true if segments are sorted by the insertion order sort when merged
+     */
+    protected boolean isIndexSorted() {
+        return sortByInsertionOrder && sortIndexByInsertionOrder;
+    }
+
+    /**
+     * Applies the index sort to the config of a writer, when enabled.
+     * Merged segments are sorted by the insertion order sort.
+     *
+     * @param config config of the writer
+     * @return the config
+     */
+    protected IndexWriterConfig applyIndexSort(IndexWriterConfig config) {
+        if (isIndexSorted())
+            config.setMergePolicy(new SortingMergePolicy(config.getMergePolicy(), getInsertionOrderSort()));
+        return config;
+    }
+
+    private static int getNumHits(IndexSearcher indexSearcher, int numHits) {
+        return Math.max(1, Math.min(numHits, indexSearcher.getIndexReader().maxDoc()));
+    }
+
+    /**
+     * Resolves identifiers of the given hits in the same order.
+     *
+     * @param indexSearcher indexSearcher instance the hits were found by
+     * @param scoreDocs     hits
+     * @return list of ID_TYPE
+     * @throws IOException when thrown from internal method calls.
+     */
+    private List<ID_TYPE> getIds(IndexSearcher indexSearcher, ScoreDoc[] scoreDocs) throws IOException {
+        List<ID_TYPE> searchResult = new ArrayList<>(scoreDocs.length);
+        List<LeafReaderContext> leaves = indexSearcher.getIndexReader().leaves();
+        List<IntFunction<ID_TYPE>> docValues = new ArrayList<>(Collections.nCopies(leaves.size(), null));
+        for (ScoreDoc scoreDoc : scoreDocs) {
+            int leafIndex = ReaderUtil.subIndex(scoreDoc.doc, leaves);
+            searchResult.add(getId(indexSearcher, leaves.get(leafIndex), scoreDoc.doc, docValues, leafIndex));
         }
         return searchResult;
     }
 
+    /**
+     * Builds the query of the text, restricted by the filter terms, so any
+     * combination of text and filters is answered in a single pass over the
+     * index. Filters do not take part in scoring and are cached per segment
+     * (see {@link FilterCachingPolicy}).
+     *
+     * @param text    text to search. null or empty to match by filters only
+     * @param filters filter terms by filter name
+     * @return the query
+     * @throws ParseException when the text could not be parsed
+     */
+    protected Query buildQuery(String text, Map<String, String> filters) throws ParseException {
+        boolean hasText = text != null && !text.isEmpty();
+        if (filters.isEmpty())
+            return hasText ? searchHelper.buildQuery(FIELD_NAME_CONTENT, text) : new MatchAllDocsQuery();
+        if (!hasText)
+            return new ConstantScoreQuery(buildFilter(filters));
+
+        return new BooleanQuery.Builder()
+                .add(searchHelper.buildQuery(FIELD_NAME_CONTENT, text), BooleanClause.Occur.MUST)
+                .add(buildFilter(filters), BooleanClause.Occur.FILTER)
+                .build();
+    }
+
+    /**
+     * Restricts the query to the documents which have not expired
+     * (see {@link LuceneIndexableEntity#getExpireDate()}). Documents without
+     * an expiry date never expire. Expiry is checked to the minute.
+     *
+     * @param query query to restrict
+     * @return query excluding expired documents
+     */
+    protected Query excludeExpired(Query query) {
+        return excludeExpired(query, getExpiryCutoff());
+    }
+
+    private static Query excludeExpired(Query query, long expiryCutoff) {
+        return new BooleanQuery.Builder()
+                .add(query, BooleanClause.Occur.MUST)
+                .add(expiredBefore(expiryCutoff), BooleanClause.Occur.MUST_NOT)
+                .build();
+    }
+
+    /**
+     * @return current time rounded down to the expiry resolution. Documents
+     * expired by then are excluded from searches
+     */
+    protected long getExpiryCutoff() {
+        long now = System.currentTimeMillis();
+        return now - now % EXPIRY_RESOLUTION_MILLIS;
+    }
+
+    private static Query expiredBefore(long time) {
+        return NumericRangeQuery.newLongRange(FIELD_NAME_EXPIRE_DATE, null, time, true, true);
+    }
+
+    /**
+     * Builds the conjunction of the filter terms. Filters are sorted by name so
+     * the same filters always build an equal query, which is the key of the
+     * query cache.
+     *
+     * @param filters filter terms by filter name
+     * @return query matching the documents having all the filter terms
+     */
+    protected Query buildFilter(Map<String, String> filters) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (Map.Entry<String, String> filter : new TreeMap<>(filters).entrySet()) {
+            builder.add(new TermQuery(new Term(FIELD_NAME_FILTER_PREFIX + filter.getKey(), filter.getValue())), BooleanClause.Occur.FILTER);
+        }
+        return builder.build();
+    }
+
+    private Sort getInsertionOrderSort() {
+        return new Sort(new SortField(FIELD_NAME_TIMESTAMP, SortField.Type.LONG, sortInsertionOrderDesc));
+    }
+
+    /**
+     * Searches indexes for given text and returns a page of identifiers, starting
+     * after the given cursor. Uses {@link IndexSearcher#searchAfter} so each page
+     * costs one page of work and results are not limited by maxSearchResults.
+     *
+     * @param text     text to search
+     * @param after    cursor returned with the previous page. null for the first page
+     * @param pageSize max number of identifiers in the page
+     * @return page of ID_TYPE of matching entities to given text.
+     */
+    public SearchPage<ID_TYPE> searchForIds(String text, SearchCursor after, int pageSize) {
+        return searchForIds(text, Collections.emptyMap(), after, pageSize);
+    }
+
+    /**
+     * Searches indexes for given text, restricted to the documents having all
+     * the given filter terms (see {@link LuceneIndexableEntity#getFilterTerms()}),
+     * and returns a page of identifiers starting after the given cursor.
+     * Without text all the documents matching the filters are returned, latest
+     * posted first.
+     *
+     * @param text     text to search. null or empty to match by filters only
+     * @param filters  filter terms by filter name. Documents need to match all
+     * @param after    cursor returned with the previous page. null for the first page
+     * @param pageSize max number of identifiers in the page
+     * @return page of ID_TYPE of matching entities.
+     */
+    public SearchPage<ID_TYPE> searchForIds(String text, Map<String, String> filters, SearchCursor after, int pageSize) {
+        return searchForIds(text, filters, Collections.emptySet(), after, pageSize);
+    }
+
+    /**
+     * Searches indexes like {@link #searchForIds(String, Map, SearchCursor, int)}
+     * and counts all the hits of the search per value of the given facets, in
+     * the same pass over the same searcher. Facets are filter names
+     * (see {@link LuceneIndexableEntity#getFilterTerms()}).
+     *
+     * @param text     text to search. null or empty to match by filters only
+     * @param filters  filter terms by filter name. Documents need to match all
+     * @param facets   filter names to count hits of
+     * @param after    cursor returned with the previous page. null for the first page
+     * @param pageSize max number of identifiers in the page
+     * @return page of ID_TYPE of matching entities, with the facet counts.
+     */
+    public SearchPage<ID_TYPE> searchForIds(String text, Map<String, String> filters, Collection<String> facets, SearchCursor after, int pageSize) {
+        if (after == null)
+            frequentSearches.record(FrequentSearches.Search.paged(text, filters, facets));
+        try {
+            IndexSearcher indexSearcher = getIndexSearcher();
+            try {
+                return searchForIds(text, filters, facets, after, pageSize, indexSearcher);
+            } catch (IllegalArgumentException e) {
+                if (after == null)
+                    throw e;
+                // eg. a relevance cursor after the sort has been configured
+                LOGGER.warn("Cursor [{}] does not match the index. Restarting from the first page. ", after, e);
+                return searchForIds(text, filters, facets, null, pageSize, indexSearcher);
+            } finally {
+                releaseIndexSearcher(indexSearcher);
+            }
+        } catch (IndexNotFoundException e) {
+            LOGGER.error("Index was not found on given directory [{}]. Recreating indexes...", resourcePath);
+            reIndexAsync();
+        } catch (IndexFormatTooOldException e) {
+            LOGGER.error("Index found on given directory [{}] are too old. Recreating indexes...", resourcePath);
+            reIndexAsync();
+        } catch (Exception e) {
+            LOGGER.error("Unexpected error occurred. ", e);
+        }
+        return SearchPage.empty();
+    }
+
+    protected SearchPage<ID_TYPE> searchForIds(String text, Map<String, String> filters, Collection<String> facets, SearchCursor after,
+                                               int pageSize, IndexSearcher indexSearcher) throws IOException, ParseException {
+        boolean hasText = text != null && !text.isEmpty();
+        Query query = excludeExpired(buildQuery(text, filters));
+        ScoreDoc afterDoc = after == null ? null : after.toScoreDoc(indexSearcher.getIndexReader().maxDoc());
+        Sort sort = sortByInsertionOrder ? getInsertionOrderSort() : hasText ? null : POSTED_DATE_DESC_SORT;
+
+        long skipped = after == null ? 0 : after.getPosition();
+        // Facets need every hit. Otherwise a segment sorted by the insertion order
+        // is not collected past the hits of the requested page.
+        boolean earlyTerminate = facets.isEmpty() && isIndexSorted();
+
+        TopDocs topDocs;
+        boolean terminatedEarly = false;
+        Map<String, Map<String, Integer>> facetCounts = Collections.emptyMap();
+        if (facets.isEmpty() && !earlyTerminate) {
+            topDocs = sort == null ? indexSearcher.searchAfter(afterDoc, query, pageSize) : indexSearcher.searchAfter(afterDoc, query, pageSize, sort);
+        } else {
+            int numHits = getNumHits(indexSearcher, pageSize);
+            TopDocsCollector<?> topDocsCollector;
+            if (sort == null) {
+                topDocsCollector = TopScoreDocCollector.create(numHits, afterDoc);
+            } else {
+                if (afterDoc != null && !(afterDoc instanceof FieldDoc))
+                    throw new IllegalArgumentException("after must be a FieldDoc; got " + afterDoc);
+                topDocsCollector = TopFieldCollector.create(sort, numHits, (FieldDoc) afterDoc, true, false, false);
+            }
+
+            if (earlyTerminate) {
+                // Hits before the cursor are collected too, so they count towards the limit.
+                int numDocsToCollect = (int) Math.min(Integer.MAX_VALUE, skipped + pageSize);
+                EarlyTerminatingSortingCollector collector = new EarlyTerminatingSortingCollector(topDocsCollector, sort, numDocsToCollect, sort);
+                indexSearcher.search(query, collector);
+                terminatedEarly = collector.terminatedEarly();
+            } else {
+                FacetCountingCollector facetCollector = FacetCountingCollector.forFacets(facets, FIELD_NAME_FILTER_PREFIX);
+                indexSearcher.search(query, MultiCollector.wrap(topDocsCollector, facetCollector));
+                facetCounts = facetCollector.getCounts();
+            }
+            topDocs = topDocsCollector.topDocs();
+        }
+
+        // Total hits only counts the collected hits when terminated early.
+        ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+        long position = skipped + scoreDocs.length;
+        SearchCursor next = scoreDocs.length == 0 ? after : SearchCursor.after(scoreDocs[scoreDocs.length - 1], position);
+        boolean hasNext = scoreDocs.length == pageSize && (terminatedEarly || position < topDocs.totalHits);
+        return new SearchPage<>(getIds(indexSearcher, scoreDocs), next, hasNext, topDocs.totalHits, facetCounts);
+    }
+
+    /**
+     * Resolves the identifier of a search hit. Looks up the identifierCache first,
+     * then the identifier doc values of the segment and finally loads the stored
+     * identifier for documents indexed without doc values.
+     *
+     * @param indexSearcher indexSearcher instance
+     * @param context       segment of the document
+     * @param doc           top level document number
+     * @param docValues     doc values readers opened so far, by segment
+     * @param leafIndex     index of the segment
+     * @return identifier of the document
+     * @throws IOException when thrown from internal method calls.
+     */
+    private ID_TYPE getId(IndexSearcher indexSearcher, LeafReaderContext context, int doc,
+                          List<IntFunction<ID_TYPE>> docValues, int leafIndex) throws IOException {
+        int segmentDoc = doc - context.docBase;
+        ID_TYPE id = identifierCache.get(context, segmentDoc);
+        if (id != null)
+            return id;
+
+        IntFunction<ID_TYPE> segmentValues = docValues.get(leafIndex);
+        if (segmentValues == null) {
+            segmentValues = typeConverter.getDocValuesReader(context.reader(), FIELD_NAME_ID);
+            if (segmentValues == null)
+                segmentValues = noDocValues -> null; // Segment indexed without doc values
+            docValues.set(leafIndex, segmentValues);
+        }
+        id = segmentValues.apply(segmentDoc);
+        if (id != null)
+            return id;
+
+        Document document = indexSearcher.doc(doc, ID_FIELD_SET);
+        return typeConverter.getValueFromDocument(document, FIELD_NAME_ID);
+    }
+
     /**
      * Perform index search for the given {@link Query} using indexSearcher and
      * returns a list of E (entities).
@@ -239,7 +805,7 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
      */
     protected List<E> searchForEntities(String text, IndexSearcher indexSearcher) throws IOException, ParseException {
         Query query = searchHelper.buildQuery(FIELD_NAME_CONTENT, text);
-        List<ID_TYPE> ids = getIdsForQuery(query, indexSearcher);
+        List<ID_TYPE> ids = getIdsForQuery(query, getExpiryCutoff(), indexSearcher);
 
         List<E> searchResult;
         try {
@@ -255,77 +821,524 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
     }
 
     /**
-     * Implement this method to add index.
+     * Adds index with given id and content.
      *
      * @param id      identifier to index.
      * @param content text/content to index.
      *                This field will be used when querying.
      */
-    public abstract void addIndex(ID_TYPE id, String content);
+    public void addIndex(ID_TYPE id, String content) {
+        long sequence = logIndexWrite(WriteAheadLog.Operation.UPDATE, id);
+        boolean applied = false;
+        try {
+            applied = addIndexDocument(id, content);
+        } finally {
+            indexWriteApplied(sequence, applied);
+        }
+    }
 
     /**
-     * Implement this method to remove an index.
+     * Adds index of the entity with all the fields it provides. See
+     * {@link #createDocument(LuceneIndexableEntity)}.
      *
-     * @param id index to be removed
+     * @param entity entity to index
      */
-    public abstract void deleteIndex(long id);
+    public void addIndex(E entity) {
+        long sequence = logIndexWrite(WriteAheadLog.Operation.UPDATE, entity.getID());
+        boolean applied = false;
+        try {
+            applied = addIndexDocument(entity);
+        } finally {
+            indexWriteApplied(sequence, applied);
+        }
+    }
 
     /**
-     * Will delete and recreate all indexes asynchronously.
+     * Replaces the index of the entity with given identifier by a single term
+     * update. Adds the index if the entity has not been indexed.
+     *
+     * @param id     identifier of the entity
+     * @param entity entity to index
      */
-    public synchronized void reIndexAsync() {
-        new Thread(this::reIndex).start(); //  Always one thread will be created and destroyed as soon as finished.
+    public void updateIndex(ID_TYPE id, E entity) {
+        long sequence = logIndexWrite(WriteAheadLog.Operation.UPDATE, id);
+        boolean applied = false;
+        try {
+            applied = updateIndexDocument(id, entity);
+        } finally {
+            indexWriteApplied(sequence, applied);
+        }
     }
 
     /**
-     * Will delete and recreate all indexes synchronously.
+     * Re-reads the entity of the identifier from the indexableEntityService and
+     * replaces its index, or removes the index if the entity does not exist
+     * anymore. Use when only the identifier of a changed entity is known.
+     *
+     * @param id identifier of the changed entity
      */
-    public synchronized void reIndex() {
-        IndexWriter writer = null;
+    public void refreshIndex(ID_TYPE id) {
+        long sequence = logIndexWrite(WriteAheadLog.Operation.UPDATE, id);
+        boolean applied = false;
+        try {
+            applied = refreshIndexDocument(id);
+        } finally {
+            indexWriteApplied(sequence, applied);
+        }
+    }
 
+    /**
+     * Removes the indexes of given identifiers by term, in a single delete.
+     *
+     * @param ids identifiers of the indexes to be removed
+     */
+    public void deleteIndexes(Collection<ID_TYPE> ids) {
+        if (ids.isEmpty())
+            return;
+        long[] sequences = new long[ids.size()];
+        int i = 0;
+        for (ID_TYPE id : ids) {
+            sequences[i++] = logIndexWrite(WriteAheadLog.Operation.DELETE, id);
+        }
+        boolean applied = false;
         try {
-            closeWriter(); // Close / destroy existing writer
-            File indexDirFile = new File(String.valueOf(getPath()));
+            applied = deleteIndexDocuments(ids);
+        } finally {
+            for (long sequence : sequences)
+                indexWriteApplied(sequence, applied);
+        }
+    }
 
-            Analyzer analyzer = new StandardAnalyzer();
+    /**
+     * Implement this method to add a document with given id and content,
+     * without logging the write. See {@link #addIndexDocument(LuceneIndexableEntity)}.
+     *
+     * @param id      identifier to index
+     * @param content text/content to index
+     * @return true if the document has been added, false if the write failed
+     */
+    protected abstract boolean addIndexDocument(ID_TYPE id, String content);
 
-            IndexWriterConfig confInit = new IndexWriterConfig(analyzer);
+    /**
+     * Implement this method to add the document of the entity, without logging
+     * the write. Callers log the write with
+     * {@link #logIndexWrite(WriteAheadLog.Operation, Serializable)} first, eg.
+     * {@link IndexingQueue} when the write is submitted.
+     *
+     * @param entity entity to index
+     * @return true if the document has been added, false if the write failed
+     */
+    protected abstract boolean addIndexDocument(E entity);
 
-            if (FileSystemUtils.doesDirectoryExist(indexDirFile)) {
-                FileSystemUtils.clean(getPath());
-            }
+    /**
+     * Implement this method to replace the document of the entity, without
+     * logging the write. See {@link #addIndexDocument(LuceneIndexableEntity)}.
+     *
+     * @param id     identifier of the entity
+     * @param entity entity to index
+     * @return true if the document has been replaced, false if the write failed
+     */
+    protected abstract boolean updateIndexDocument(ID_TYPE id, E entity);
+
+    /**
+     * Implement this method to replace the document of the identifier by the
+     * current state of its entity in the indexableEntityService, or remove it
+     * if the entity does not exist anymore, without logging the write. See
+     * {@link #addIndexDocument(LuceneIndexableEntity)}.
+     *
+     * @param id identifier of the entity
+     * @return true if the document has been refreshed, false if the write failed
+     */
+    protected abstract boolean refreshIndexDocument(ID_TYPE id);
+
+    /**
+     * Implement this method to remove the documents of given identifiers in a
+     * single delete, without logging the writes. See
+     * {@link #addIndexDocument(LuceneIndexableEntity)}.
+     *
+     * @param ids identifiers of the indexes to be removed
+     * @return true if the documents have been removed, false if the write failed
+     */
+    protected abstract boolean deleteIndexDocuments(Collection<ID_TYPE> ids);
+
+    /**
+     * Returns the generation of the index writes applied so far. Pass it to
+     * {@link #awaitVisibility(long, long)} to search once they are visible.
+     *
+     * @return generation of the applied writes, 0 if the processor does not track generations
+     */
+    public long getWriteGeneration() {
+        return 0;
+    }
+
+    /**
+     * Waits until the index writes of given generation are visible to searches.
+     * Processors which do not track generations refresh their searcher when
+     * searching, so applied writes are visible to the next search.
+     *
+     * @param generation    generation returned by {@link #getWriteGeneration()}
+     * @param timeoutMillis max time to wait
+     * @return true if the writes are visible
+     */
+    public boolean awaitVisibility(long generation, long timeoutMillis) {
+        return true;
+    }
+
+    /**
+     * Appends a write to the {@link WriteAheadLog}, when enabled. Must be
+     * followed by {@link #indexWriteApplied(long, boolean)} once the write has
+     * been tried on the index.
+     *
+     * @param operation operation of the write
+     * @param id        identifier of the entity
+     * @return sequence number of the write, 0 if not logged
+     */
+    protected long logIndexWrite(WriteAheadLog.Operation operation, ID_TYPE id) {
+        return indexWriteLog.append(operation, id);
+    }
+
+    /**
+     * Marks a logged write as applied, or keeps a failed one to be replayed,
+     * see {@link IndexWriteLog#applied(long, boolean)}.
+     *
+     * @param sequence sequence number returned by {@link #logIndexWrite(WriteAheadLog.Operation, Serializable)}
+     * @param applied  false if the write failed
+     */
+    protected void indexWriteApplied(long sequence, boolean applied) {
+        indexWriteLog.applied(sequence, applied);
+    }
+
+    /**
+     * Waits for the record of a logged write to be fsynced, unless the log is
+     * fsynced in the background. Called by {@link #indexWriteApplied(long, boolean)},
+     * and by callers which apply the write later, eg. {@link IndexingQueue}.
+     *
+     * @param sequence sequence number returned by {@link #logIndexWrite(WriteAheadLog.Operation, Serializable)}
+     */
+    protected void syncIndexWrite(long sequence) {
+        indexWriteLog.sync(sequence);
+    }
+
+    /**
+     * @return the shared {@link WriteAheadLog}, opened on first use, or null if disabled
+     */
+    protected WriteAheadLog<ID_TYPE> getWriteAheadLog() {
+        return indexWriteLog.get();
+    }
+
+    /**
+     * Stores the checkpoint of the {@link WriteAheadLog} and the checkpoints set
+     * by {@link #setCommitCheckpoint(String, long)} in the commit user data of
+     * the writer. Call before every commit of the writer.
+     *
+     * @param writer writer to be committed
+     */
+    protected void setCommitData(IndexWriter writer) {
+        indexWriteLog.setCommitData(writer);
+    }
+
+    /**
+     * Stores the position of an external source of index writes, eg. a change
+     * log, in the commit user data of the next commits, so the source can be
+     * resumed from the last commit after a restart. Set once the writes up to
+     * the position have been applied to the index.
+     *
+     * @param key        name of the source
+     * @param checkpoint position of the source
+     */
+    public void setCommitCheckpoint(String key, long checkpoint) {
+        indexWriteLog.setCheckpoint(key, checkpoint);
+    }
+
+    /**
+     * @param key name of the source
+     * @return the oldest of the checkpoints stored by the last commits of the
+     * writers of the current generation, 0 if any writer has not stored one
+     */
+    public long getCommittedCheckpoint(String key) {
+        try {
+            return IndexWriteLog.getCommittedCheckpoint(key, getIndexWriters());
+        } catch (Exception e) {
+            LOGGER.error("Could not read the committed checkpoint of [{}]", key, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes the segments of the {@link WriteAheadLog} covered by the last
+     * commit of the writer. Call after every commit of the writer.
+     *
+     * @param writer committed writer
+     */
+    protected void committed(IndexWriter writer) {
+        indexWriteLog.trim(writer);
+    }
+
+    /**
+     * Commits the writer with the checkpoint of the {@link WriteAheadLog}.
+     *
+     * @param writer writer to commit
+     * @throws IOException when the commit failed
+     */
+    protected void commit(IndexWriter writer) throws IOException {
+        setCommitData(writer);
+        writer.commit();
+        committed(writer);
+    }
 
-            confInit.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    /**
+     * @param writer writer of an index
+     * @return checkpoint of the {@link WriteAheadLog} stored by the last commit, 0 if none
+     */
+    protected static long getCommittedSequence(IndexWriter writer) {
+        return IndexWriteLog.getCommittedSequence(writer);
+    }
 
-            writer = new IndexWriter(new MMapDirectory(getPath()), confInit);
+    /**
+     * Re-applies the writes of the {@link WriteAheadLog} which are not covered
+     * by the last commit of the writers, see {@link IndexWriteLog#replay(IndexWriter...)}.
+     * Call once the writers of the current generation have been opened.
+     *
+     * @param writers opened writers of the current generation
+     */
+    protected void replayWriteAheadLog(IndexWriter... writers) {
+        indexWriteLog.replay(writers);
+    }
 
-            List<E> entities = indexableEntityService.getIndexableEntities();
-            for (int i = 0; i < entities.size(); i++) {
-                E entity = entities.get(i);
-                writer.addDocument(createDocument(entity.getID(), entity.getText()));
-                debug(analyzer, entity.getText());
-                if (i % 5 == 0)
-                    writer.commit();
+    /**
+     * @param id identifier
+     * @return the term matching the document of the identifier
+     */
+    protected Term getIdTerm(ID_TYPE id) {
+        return typeConverter.getTermInType(FIELD_NAME_ID, id);
+    }
+
+    /**
+     * Removes the index of a numeric identifier, converted by the typeConverter
+     * from its decimal form. Matches identifiers indexed by
+     * {@link support.types.LongIdentifierConverter} only.
+     *
+     * @param id index to be removed
+     * @deprecated use {@link #deleteIndexes(Collection)}, which works with any identifier type
+     */
+    @Deprecated
+    public void deleteIndex(long id) {
+        deleteIndexes(Collections.singletonList(typeConverter.getValueInType(Long.toString(id))));
+    }
+
+    /**
+     * Removes the documents expired by now from the index. Identifiers of the
+     * expired documents are handed to
+     * {@link LuceneIndexableEntityService#purgeEntities(List)} in batches
+     * first, so the entities can be removed from the entity store as well.
+     * Only the documents of the handed identifiers are deleted, so documents
+     * not visible to the search, eg. indexed meanwhile, are never removed
+     * without their entities being purged.
+     *
+     * @param batchSize max number of identifiers in a batch
+     * @return number of purged documents
+     */
+    public long purgeExpired(int batchSize) {
+        Query expired = expiredBefore(System.currentTimeMillis());
+        long purged = 0;
+        try {
+            IndexSearcher indexSearcher = getIndexSearcher();
+            try {
+                ScoreDoc after = null;
+                TopDocs topDocs;
+                int found = 0;
+                do {
+                    topDocs = indexSearcher.searchAfter(after, expired, batchSize);
+                    ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+                    if (scoreDocs.length == 0)
+                        break;
+                    List<ID_TYPE> ids = getIds(indexSearcher, scoreDocs);
+                    indexableEntityService.purgeEntities(ids);
+                    deleteIndexes(ids);
+                    purged += ids.size();
+                    found += scoreDocs.length;
+                    after = scoreDocs[scoreDocs.length - 1];
+                } while (found < topDocs.totalHits);
+            } finally {
+                releaseIndexSearcher(indexSearcher);
             }
+        } catch (IndexNotFoundException e) {
+            LOGGER.debug("Index was not found on given directory [{}]. Nothing to purge", resourcePath);
+        } catch (Exception e) {
+            LOGGER.error("Problem occurred while purging expired indexes ", e);
+        }
+        return purged;
+    }
 
-            writer.commit();
-        } catch (IOException e) {
+    /**
+     * Will delete and recreate all indexes asynchronously.
+     */
+    public synchronized void reIndexAsync() {
+        new Thread(this::reIndex).start(); //  Always one thread will be created and destroyed as soon as finished.
+    }
+
+    /**
+     * Recreates all indexes synchronously in a new index generation while the
+     * current generation keeps serving searches, see {@link IndexRebuild}.
+     * Indexes added or deleted during the rebuild are applied to both
+     * generations. Once the rebuild is committed the new generation is
+     * activated and the previous one is deleted when its last reader is closed.
+     */
+    public void reIndex() {
+        long startedAt = System.currentTimeMillis();
+        IndexRebuild<ID_TYPE, E> rebuild = new IndexRebuild<>(this);
+        try {
+            Path generation = generationManager.rebuild(rebuild);
+            LOGGER.info("Re-indexed [{}] entities with [{}] threads in [{}] ms into [{}]",
+                    new Object[]{rebuild.getIndexed(), rebuild.getWorkerThreads(), System.currentTimeMillis() - startedAt, generation});
+        } catch (Exception e) {
             LOGGER.error("Problem occurred when trying to init indexes ", e);
-        } finally {
-            if (writer != null) {
-                try {
-                    writer.close();
-                } catch (IOException e) {
-                    LOGGER.error("Problem occurred when trying to commit and close the writer of init indexes ", e);
-                }
-            }
         }
     }
 
+    /**
+     * Takes a point-in-time copy of the current index generation in to a new
+     * directory of the snapshot directory while writes continue, see
+     * {@link IndexSnapshotManager#snapshot()}.
+     *
+     * @return directory of the snapshot, null if the snapshot could not be taken
+     */
+    public Path snapshot() {
+        return snapshotManager.snapshot();
+    }
+
+    /**
+     * Replaces the current index generation with a copy of the given snapshot,
+     * the same way {@link #reIndex()} replaces it with a rebuilt one. Writes not
+     * covered by the snapshot are caught up in the background, by re-indexing
+     * when enabled, or else by the listeners registered with
+     * {@link #addRestoreListener(Consumer)}.
+     *
+     * @param snapshot directory of a snapshot taken by {@link #snapshot()}
+     * @return true if the snapshot has been restored
+     */
+    public boolean restore(Path snapshot) {
+        return snapshotManager.restore(snapshot);
+    }
+
+    /**
+     * Registers a listener called once a snapshot has been restored, to catch
+     * up with the writes made since it was taken. See
+     * {@link #getCommittedCheckpoint(String)} for the checkpoints of the
+     * restored commits.
+     *
+     * @param listener receives the directory of the restored snapshot
+     */
+    public void addRestoreListener(Consumer<Path> listener) {
+        snapshotManager.addRestoreListener(listener);
+    }
+
+    /**
+     * Override with {@link #getShardPath(Path, int)} to partition the index in
+     * to shards.
+     *
+     * @return number of shards the index is rebuilt in to, 1 when not sharded
+     */
+    protected int getShardCount() {
+        return 1;
+    }
+
+    /**
+     * Returns the directory of a shard of the given generation. Sharded
+     * implementations return a sub directory per shard, see {@link IndexGenerations#shard(Path, int)}.
+     *
+     * @param generation directory of the generation
+     * @param shard      number of the shard, starting from 0
+     * @return directory of the shard, the generation itself when not sharded
+     */
+    protected Path getShardPath(Path generation, int shard) {
+        return generation;
+    }
+
+    /**
+     * Returns the shard of a document. Documents are partitioned by a hash of
+     * their identifier term which does not change between JVMs.
+     *
+     * @param idTerm term of the identifier of the document
+     * @param shards number of shards
+     * @return shard of the document, from 0 to shards - 1
+     */
+    protected static int getShard(Term idTerm, int shards) {
+        return Math.floorMod(StringHelper.murmurhash3_x86_32(idTerm.bytes(), 0), shards);
+    }
+
+    /**
+     * Activates an already complete index generation and switches this instance
+     * to it, holding the write lock of {@link #generationLock} so no index is
+     * written during the switch.
+     *
+     * @param generation directory of the new generation
+     * @throws IOException when the generation could not be activated
+     */
+    protected void activateGeneration(Path generation) throws IOException {
+        generationManager.activate(generation);
+    }
+
+    /**
+     * Releases writers and readers of the previous generation when switching to a
+     * new one. Readers still in use by searches must be registered with
+     * {@link IndexGenerations#track(Path, IndexReader)} so the generation is not
+     * deleted under them. Writers and readers of the new generation are expected
+     * to be created lazily on next use.
+     *
+     * @param generation directory of the previous generation
+     * @throws IOException when resources could not be released
+     */
+    protected void releaseGeneration(Path generation) throws IOException {
+        closeWriter();
+    }
+
+    /**
+     * Adds or replaces given document in the index being rebuilt, if any. The
+     * document supersedes the entity of the same identifier streamed by the
+     * rebuild. Needs to be called while holding the read lock of {@link #generationLock}.
+     *
+     * @param idTerm   term of the identifier of the document
+     * @param document document added to or updated in the current generation
+     * @throws IOException when the document could not be added
+     */
+    protected void mirrorUpdateToRebuild(Term idTerm, Document document) throws IOException {
+        RebuildMirror mirror = generationManager.rebuildMirror;
+        if (mirror != null)
+            mirror.update(idTerm, document);
+    }
+
+    /**
+     * Deletes documents having given identifier terms from the index being rebuilt,
+     * if any. Entities of these identifiers streamed by the rebuild are skipped.
+     * Needs to be called while holding the read lock of {@link #generationLock}.
+     *
+     * @param idTerms terms of the identifiers deleted from the current generation
+     * @throws IOException when the documents could not be deleted
+     */
+    protected void mirrorDeleteToRebuild(Term... idTerms) throws IOException {
+        RebuildMirror mirror = generationManager.rebuildMirror;
+        if (mirror != null)
+            mirror.delete(idTerms);
+    }
+
+    /**
+     * Deletes documents matching given query from the index being rebuilt, if any.
+     * Needs to be called while holding the read lock of {@link #generationLock}.
+     *
+     * @param query query of the documents deleted from the current generation
+     * @throws IOException when the documents could not be deleted
+     */
+    protected void mirrorDeleteToRebuild(Query query) throws IOException {
+        RebuildMirror mirror = generationManager.rebuildMirror;
+        if (mirror != null)
+            mirror.delete(query);
+    }
+
     /**
      * Will print tokens when debug enabled.
      */
-    private void debug(Analyzer analyzer, String text) {
+    void debug(Analyzer analyzer, String text) {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Debugging term [{}]  with [{}]. ", text, analyzer.getClass().getSimpleName());
             TokenStream tokenStream = analyzer.tokenStream(FIELD_NAME_CONTENT, new StringReader(text));
@@ -350,7 +1363,7 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
 
     /**
      * Creates new document to index using data provided.
-     * Uses typeConverter to convert id to a {@link Field}.
+     * Uses typeConverter to convert id to a {@link Field} and to identifier doc values.
      * Adds timestamp field if insertion order based sorting is enabled.
      *
      * @param id identifier of the entity to index.
@@ -361,6 +1374,8 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
         Document doc = new Document();
 
         doc.add(typeConverter.getFieldInType(FIELD_NAME_ID, id));
+        Field idDocValues = typeConverter.getDocValuesFieldInType(FIELD_NAME_ID, id);
+        if (idDocValues != null) doc.add(idDocValues);
         if (sortByInsertionOrder) doc.add(new LongField(FIELD_NAME_TIMESTAMP , System.currentTimeMillis(), LONG_FIELD_TYPE_STORED_SORTED));
         doc.add(new TextField(FIELD_NAME_CONTENT, content, Field.Store.YES));
 
@@ -368,34 +1383,192 @@ public abstract class LuceneSearchProcessor<ID_TYPE extends Serializable, E exte
     }
 
     /**
-     * Implement this method to return {@link IndexWriter} instance to write indexes.
+     * Creates new document to index from the entity. Adds the fields of
+     * {@link #createDocument(Serializable, String)} with the text of the entity,
+     * and title, body, filter terms, posted and expiry dates when provided.
+     *
+     * Filter terms are indexed as exact terms with sorted set doc values. Dates
+     * are indexed as numeric fields with numeric doc values.
      *
-     * @return {@link IndexWriter} instance
+     * @param entity entity to index
+     * @return a {@link Document} instance
+     */
+    protected Document createDocument(E entity) {
+        Document doc = createDocument(entity.getID(), entity.getText());
+
+        if (entity.getTitle() != null) doc.add(new TextField(FIELD_NAME_TITLE, entity.getTitle(), Field.Store.NO));
+        if (entity.getBody() != null) doc.add(new TextField(FIELD_NAME_BODY, entity.getBody(), Field.Store.NO));
+
+        for (Map.Entry<String, String> filter : entity.getFilterTerms().entrySet()) {
+            if (filter.getValue() == null) continue;
+            String fieldName = FIELD_NAME_FILTER_PREFIX + filter.getKey();
+            doc.add(new StringField(fieldName, filter.getValue(), Field.Store.NO));
+            doc.add(new SortedSetDocValuesField(fieldName, new BytesRef(filter.getValue())));
+        }
+
+        addDateField(doc, FIELD_NAME_POSTED_DATE, entity.getPostedDate());
+        addDateField(doc, FIELD_NAME_EXPIRE_DATE, entity.getExpireDate());
+
+        return doc;
+    }
+
+    private static void addDateField(Document doc, String fieldName, Date date) {
+        if (date != null) {
+            doc.add(new LongField(fieldName, date.getTime(), Field.Store.NO));
+            doc.add(new NumericDocValuesField(fieldName, date.getTime()));
+        }
+    }
+
+    /**
+     * Implement this method to return the {@link IndexWriter}s of the current
+     * generation, one per shard.
+     *
+     * @return {@link IndexWriter}s of the current generation, empty if the
+     * processor does not write the index itself
      * @throws Exception
      */
-    protected abstract IndexWriter getIndexWriter() throws Exception;
+    protected abstract IndexWriter[] getIndexWriters() throws Exception;
+
+    /**
+     * Sets a {@link SnapshotDeletionPolicy} to the config of a writer of the
+     * current generation, so {@link #snapshot()} can hold a commit while it is copied.
+     *
+     * @param config config of the writer
+     * @return the given config
+     */
+    protected IndexWriterConfig applySnapshotPolicy(IndexWriterConfig config) {
+        return config.setIndexDeletionPolicy(new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy()));
+    }
 
     /**
      * Closes created {@link IndexWriter} instance.
      */
     protected abstract void closeWriter();
 
+    /**
+     * @return directory of the current index generation
+     */
     protected Path getPath() {
-        if (path == null)
-            createPath();
-        return path;
+        return generationManager.current();
+    }
+
+    /**
+     * @return {@link IndexGenerations} of the configured index root directory
+     */
+    protected IndexGenerations getGenerations() {
+        return generationManager.getGenerations();
+    }
+
+    /**
+     * Sets the path {@link String} to indexes. Allows to configure the instance
+     * without property placeholders. eg. benchmarks, tools.
+     *
+     * @param resourcePath path to indexes
+     */
+    public void setResourcePath(String resourcePath) {
+        this.resourcePath = resourcePath;
+    }
+
+    /**
+     * Sets the max number of cached search results. 0 to disable the cache.
+     * Needs to be set before the first search.
+     *
+     * @param searchResultCacheSize max number of cached results
+     */
+    public void setSearchResultCacheSize(int searchResultCacheSize) {
+        this.searchResultCacheSize = searchResultCacheSize;
+    }
+
+    /**
+     * Sets whether merged segments are sorted by the insertion order, so
+     * insertion ordered searches terminate early. Needs to be set before the
+     * writer is created.
+     *
+     * @param sortIndexByInsertionOrder true to sort merged segments
+     */
+    public void setSortIndexByInsertionOrder(boolean sortIndexByInsertionOrder) {
+        this.sortIndexByInsertionOrder = sortIndexByInsertionOrder;
+    }
+
+    /**
+     * Sets the texts searched to warm a new searcher. Allows to configure the
+     * instance without property placeholders. eg. benchmarks, tools.
+     *
+     * @param warmQueries comma separated texts
+     */
+    public void setWarmQueries(String warmQueries) {
+        this.warmQueries = warmQueries;
+    }
+
+    /**
+     * Sets the number of the most frequent recent searches run to warm a new searcher.
+     *
+     * @param warmFrequentQueries number of searches, 0 to warm with warmQueries only
+     */
+    public void setWarmFrequentQueries(int warmFrequentQueries) {
+        this.warmFrequentQueries = warmFrequentQueries;
+    }
+
+    /**
+     * Sets the snapshot directory. Allows to configure the instance without
+     * property placeholders. eg. benchmarks, tools.
+     *
+     * @param snapshotPath          directory of the index snapshots
+     * @param bootstrapFromSnapshot true to restore the latest snapshot when there is no index
+     * @param reIndexAfterRestore   true to re-index in the background after a restore
+     */
+    public void setSnapshots(String snapshotPath, boolean bootstrapFromSnapshot, boolean reIndexAfterRestore) {
+        this.snapshotPath = snapshotPath;
+        this.bootstrapFromSnapshot = bootstrapFromSnapshot;
+        this.reIndexAfterRestore = reIndexAfterRestore;
+    }
+
+    /**
+     * Enables the {@link WriteAheadLog}. Allows to configure the instance
+     * without property placeholders. eg. benchmarks, tools. Needs to be set
+     * before the first write.
+     *
+     * @param writeAheadLogEnabled true to log index writes
+     * @param syncIntervalMillis   interval of the background fsync, 0 to fsync before a write returns
+     */
+    public void setWriteAheadLog(boolean writeAheadLogEnabled, long syncIntervalMillis) {
+        this.writeAheadLogEnabled = writeAheadLogEnabled;
+        this.writeAheadLogSyncIntervalMillis = syncIntervalMillis;
+    }
+
+    /**
+     * Sets the upper bound of results returned by a search.
+     *
+     * @param maxSearchResults max number of results
+     */
+    public void setMaxSearchResults(int maxSearchResults) {
+        this.maxSearchResults = maxSearchResults;
     }
 
-    private synchronized void createPath() {
-        if (path == null)
-            path = Paths.get(resourcePath);
+    /**
+     * Sets the factory of searchers searching segments in parallel. Searchers
+     * opened before are not affected.
+     *
+     * @param concurrentSearcherFactory factory of the searchers, null to search
+     *                                  segments on the searching thread
+     */
+    public void setConcurrentSearcherFactory(ConcurrentSearcherFactory concurrentSearcherFactory) {
+        this.concurrentSearcherFactory = concurrentSearcherFactory;
+    }
+
+    /**
+     * @return factory of searchers searching segments in parallel, null if not set
+     */
+    public ConcurrentSearcherFactory getConcurrentSearcherFactory() {
+        return concurrentSearcherFactory;
     }
 
     /**
      * Releases and closes resources before destroy.
      */
     @PreDestroy
-    protected void destroy() {
+    public void destroy() {
         closeWriter();
+        indexWriteLog.close();
     }
 }
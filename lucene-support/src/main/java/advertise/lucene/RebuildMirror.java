@@ -0,0 +1,107 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index generation being rebuilt by {@link LuceneSearchProcessor#reIndex()},
+ * receiving both the bulk loaded entities and the live writes made during the
+ * rebuild.
+ *
+ * <p>A live write of an identifier supersedes the bulk loaded entity of the
+ * same identifier, regardless of which arrives first. Live writes replace the
+ * document by identifier term, and the bulk load skips identifiers already
+ * written live, so the rebuilt generation has neither duplicates nor deleted
+ * entities brought back by the entity stream.
+ *
+ * <p>A sharded index is rebuilt with a writer per shard. Documents are routed
+ * to the writer of the shard of their identifier term, see
+ * {@link LuceneSearchProcessor#getShard(Term, int)}.
+ */
+class RebuildMirror {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final IndexWriter[] writers;
+
+    /**
+     * Identifier terms written or deleted live during the rebuild.
+     */
+    private final Set<Term> liveIds = ConcurrentHashMap.newKeySet();
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    RebuildMirror(IndexWriter... writers) {
+        this.writers = writers;
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            locks[i] = new Object();
+    }
+
+    /**
+     * Adds a bulk loaded document unless the identifier has been written live.
+     */
+    void bulkAdd(Term idTerm, Document document) throws IOException {
+        synchronized (lock(idTerm)) {
+            if (!liveIds.contains(idTerm))
+                writer(idTerm).addDocument(document);
+        }
+    }
+
+    /**
+     * Adds or replaces the document of a live write.
+     */
+    void update(Term idTerm, Document document) throws IOException {
+        synchronized (lock(idTerm)) {
+            liveIds.add(idTerm);
+            writer(idTerm).updateDocument(idTerm, document);
+        }
+    }
+
+    /**
+     * Deletes the documents of live deletes.
+     */
+    void delete(Term... idTerms) throws IOException {
+        for (Term idTerm : idTerms) {
+            synchronized (lock(idTerm)) {
+                liveIds.add(idTerm);
+                writer(idTerm).deleteDocuments(idTerm);
+            }
+        }
+    }
+
+    void delete(Query query) throws IOException {
+        for (IndexWriter writer : writers)
+            writer.deleteDocuments(query);
+    }
+
+    private IndexWriter writer(Term idTerm) {
+        return writers.length == 1 ? writers[0] : writers[LuceneSearchProcessor.getShard(idTerm, writers.length)];
+    }
+
+    private Object lock(Term idTerm) {
+        return locks[(idTerm.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+}
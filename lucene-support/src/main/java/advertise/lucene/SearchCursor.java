@@ -0,0 +1,94 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Position after the last hit of a search page. Passed back to
+ * {@link LuceneSearchProcessor#searchForIds(String, SearchCursor, int)} to
+ * continue the search with {@link IndexSearcher#searchAfter}, so a page costs
+ * one page of work regardless of its depth.
+ *
+ * <p>Hits are positioned by their score or sort values. Document numbers are
+ * only stable while the index does not change, so they only break ties and
+ * are clamped to the reader searched. A cursor therefore stays usable after
+ * merges, reopens and generation switches, while hits tied with the last hit
+ * may be repeated or skipped if the index is refreshed between pages.
+ */
+public final class SearchCursor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int doc;
+
+    private final float score;
+
+    /**
+     * Sort values of the last hit. null when results are sorted by relevance.
+     */
+    private final Object[] fields;
+
+    /**
+     * Number of hits returned up to and including this position.
+     */
+    private final long position;
+
+    private SearchCursor(int doc, float score, Object[] fields, long position) {
+        this.doc = doc;
+        this.score = score;
+        this.fields = fields;
+        this.position = position;
+    }
+
+    /**
+     * @param last     last hit of the page
+     * @param position number of hits returned so far
+     * @return cursor after the hit
+     */
+    static SearchCursor after(ScoreDoc last, long position) {
+        Object[] fields = last instanceof FieldDoc ? ((FieldDoc) last).fields : null;
+        return new SearchCursor(last.doc, last.score, fields, position);
+    }
+
+    /**
+     * @param maxDoc maxDoc of the reader to be searched
+     * @return the {@link ScoreDoc} to search after, with a document number of the reader
+     */
+    ScoreDoc toScoreDoc(int maxDoc) {
+        int afterDoc = Math.min(doc, maxDoc - 1); // The hit may belong to a previous reader
+        return fields == null ? new ScoreDoc(afterDoc, score) : new FieldDoc(afterDoc, score, fields);
+    }
+
+    /**
+     * @return number of hits returned up to and including this position
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchCursor{doc=" + doc + ", score=" + score + ", fields=" + Arrays.toString(fields) + ", position=" + position + '}';
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A page of search results and the cursor to fetch the next page.
+ *
+ * @param <ID_TYPE> Type of the identifier.
+ */
+public final class SearchPage<ID_TYPE extends Serializable> {
+
+    private final List<ID_TYPE> ids;
+
+    private final SearchCursor next;
+
+    private final boolean hasNext;
+
+    private final long totalHits;
+
+    private final Map<String, Map<String, Integer>> facetCounts;
+
+    SearchPage(List<ID_TYPE> ids, SearchCursor next, boolean hasNext, long totalHits) {
+        this(ids, next, hasNext, totalHits, Collections.emptyMap());
+    }
+
+    SearchPage(List<ID_TYPE> ids, SearchCursor next, boolean hasNext, long totalHits, Map<String, Map<String, Integer>> facetCounts) {
+        this.ids = ids;
+        this.next = next;
+        this.hasNext = hasNext;
+        this.totalHits = totalHits;
+        this.facetCounts = facetCounts;
+    }
+
+    /**
+     * @param <ID_TYPE> Type of the identifier.
+     * @return an empty last page
+     */
+    public static <ID_TYPE extends Serializable> SearchPage<ID_TYPE> empty() {
+        return new SearchPage<>(Collections.emptyList(), null, false, 0);
+    }
+
+    /**
+     * @return identifiers of the page in rank order
+     */
+    public List<ID_TYPE> getIds() {
+        return ids;
+    }
+
+    /**
+     * @return cursor after the last hit of this page. null if the page is empty
+     */
+    public SearchCursor getNext() {
+        return next;
+    }
+
+    /**
+     * @return true if there are more hits after this page
+     */
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+    /**
+     * @return number of hits matching the search
+     */
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    /**
+     * @return number of hits per facet value, by facet name. Contains the facets
+     *         requested with the search only
+     */
+    public Map<String, Map<String, Integer>> getFacetCounts() {
+        return facetCounts;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import support.helper.SearchType;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, least recently used cache of search results.
+ *
+ * <p>Entries are keyed by the query text, the {@link SearchType}, the sort
+ * settings, the expiry cutoff minute and the version of the {@link DirectoryReader}
+ * the search ran on, so a refreshed reader never sees results of an older one
+ * and entries expire with the documents they exclude. Entries of older
+ * readers are not used anymore and are evicted as new entries are added.
+ *
+ * <p>Identical searches running at the same time are coalesced. The first
+ * one executes the search and the others wait for its result.
+ *
+ * @param <ID_TYPE> Type of the identifier.
+ */
+public class SearchResultCache<ID_TYPE> {
+
+    private final Map<Key, CompletableFuture<List<ID_TYPE>>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param maxEntries max number of cached results
+     */
+    public SearchResultCache(int maxEntries) {
+        this.entries = new LinkedHashMap<Key, CompletableFuture<List<ID_TYPE>>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CompletableFuture<List<ID_TYPE>>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result for the key. Executes the search and caches its
+     * result if there is no entry, or waits for the search in progress for the
+     * same key. Failed searches are not cached.
+     *
+     * @param key    key of the search
+     * @param search executes the search
+     * @return unmodifiable list of identifiers
+     * @throws IOException    when thrown by the search
+     * @throws ParseException when thrown by the search
+     */
+    public List<ID_TYPE> get(Key key, Search<ID_TYPE> search) throws IOException, ParseException {
+        CompletableFuture<List<ID_TYPE>> future;
+        boolean owner = false;
+        synchronized (entries) {
+            future = entries.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                entries.put(key, future);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            misses.incrementAndGet();
+            try {
+                List<ID_TYPE> result = Collections.unmodifiableList(search.execute());
+                future.complete(result);
+                return result;
+            } catch (Throwable t) {
+                synchronized (entries) {
+                    entries.remove(key, future);
+                }
+                future.completeExceptionally(t);
+                throw t;
+            }
+        }
+
+        (future.isDone() ? hits : coalesced).incrementAndGet();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for search [" + key.text + "]");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof ParseException)
+                throw (ParseException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return number of searches served from a completed entry
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of searches executed
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of searches which waited for an identical search in progress
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * A search to execute on a cache miss.
+     *
+     * @param <ID_TYPE> Type of the identifier.
+     */
+    @FunctionalInterface
+    public interface Search<ID_TYPE> {
+        List<ID_TYPE> execute() throws IOException, ParseException;
+    }
+
+    /**
+     * Key of a cached search result.
+     */
+    public static final class Key {
+
+        private final String text;
+        private final SearchType searchType;
+        private final boolean sortByInsertionOrder;
+        private final boolean sortInsertionOrderDesc;
+        private final long expiryCutoff;
+        private final Object index;
+        private final long readerVersion;
+
+        /**
+         * @param text                   query text
+         * @param searchType             type of the search
+         * @param sortByInsertionOrder   true if sorted by insertion order
+         * @param sortInsertionOrderDesc true if sorted descending
+         * @param expiryCutoff           documents expired by this time are excluded by the search
+         * @param reader                 reader the search runs on
+         */
+        public Key(String text, SearchType searchType, boolean sortByInsertionOrder, boolean sortInsertionOrderDesc,
+                   long expiryCutoff, DirectoryReader reader) {
+            this.text = text;
+            this.searchType = searchType;
+            this.sortByInsertionOrder = sortByInsertionOrder;
+            this.sortInsertionOrderDesc = sortInsertionOrderDesc;
+            this.expiryCutoff = expiryCutoff;
+            this.index = indexOf(reader.directory());
+            this.readerVersion = reader.getVersion();
+        }
+
+        /**
+         * Versions are only comparable within an index, so the index directory
+         * (eg. generation) is a part of the key.
+         */
+        private static Object indexOf(Directory directory) {
+            Directory unwrapped = FilterDirectory.unwrap(directory);
+            return unwrapped instanceof FSDirectory ? ((FSDirectory) unwrapped).getDirectory() : unwrapped;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return sortByInsertionOrder == key.sortByInsertionOrder &&
+                    sortInsertionOrderDesc == key.sortInsertionOrderDesc &&
+                    expiryCutoff == key.expiryCutoff &&
+                    readerVersion == key.readerVersion &&
+                    Objects.equals(text, key.text) &&
+                    searchType == key.searchType &&
+                    Objects.equals(index, key.index);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, searchType, sortByInsertionOrder, sortInsertionOrderDesc, expiryCutoff, index, readerVersion);
+        }
+    }
+}
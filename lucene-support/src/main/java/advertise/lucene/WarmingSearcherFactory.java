@@ -0,0 +1,76 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * {@link SearcherFactory} which warms the {@link IndexSearcher} created by the
+ * delegate before it is returned. A {@link SearcherManager} publishes the
+ * searcher only after it is returned, so searches keep using the previous
+ * searcher while the new one is warmed and do not pay for loading doc values,
+ * norms and terms of new segments.
+ *
+ * <p>A failed warm up is logged and the searcher is returned as is.
+ */
+public class WarmingSearcherFactory extends SearcherFactory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WarmingSearcherFactory.class);
+
+    private final SearcherFactory delegate;
+
+    private final Warmer warmer;
+
+    /**
+     * Runs the searches warming a new searcher.
+     */
+    @FunctionalInterface
+    public interface Warmer {
+
+        void warm(IndexSearcher indexSearcher) throws IOException;
+    }
+
+    /**
+     * @param delegate factory creating the {@link IndexSearcher}
+     * @param warmer   warms the created searcher
+     */
+    public WarmingSearcherFactory(SearcherFactory delegate, Warmer warmer) {
+        this.delegate = delegate;
+        this.warmer = warmer;
+    }
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+        IndexSearcher indexSearcher = delegate.newSearcher(reader, previousReader);
+        long startedAt = System.currentTimeMillis();
+        try {
+            warmer.warm(indexSearcher);
+            LOGGER.debug("Warmed searcher of [{}] segments in [{}] ms", reader.leaves().size(), System.currentTimeMillis() - startedAt);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not warm the searcher. Publishing it cold. ", e);
+        }
+        return indexSearcher;
+    }
+}
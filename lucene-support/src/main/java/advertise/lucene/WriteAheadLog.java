@@ -0,0 +1,450 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import support.types.IdentifierTypeConverter;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of the index writes, so indexes do not have to be committed
+ * for every write to survive a crash.
+ *
+ * <p>Each write is appended as a record of its operation and identifier, with
+ * a sequence number, to the current segment file of the log directory. Records
+ * are written with a sequential write and fsynced in groups: a write waiting for
+ * durability fsyncs all the records appended so far, so writes waiting at the
+ * same time share one fsync. With a sync interval the log is fsynced by a
+ * background thread instead and writes do not wait.
+ *
+ * <p>Index commits store {@link #checkpoint()} in their commit user data. On
+ * startup the records after the checkpoint of the last commit are replayed,
+ * and segments older than the checkpoint are deleted by {@link #trim(long)}.
+ * Records only carry identifiers, in the string form read by
+ * {@link IdentifierTypeConverter#getValueInType(String)}. Replay reads the
+ * entities from their {@link LuceneIndexableEntityService}, so replaying a
+ * record twice is harmless.
+ *
+ * @param <ID_TYPE> Type of the identifier of the entity to index.
+ */
+public class WriteAheadLog<ID_TYPE extends Serializable> implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String SEGMENT_PREFIX = "wal-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Length and checksum preceding the body of a record.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Operation of a record.
+     */
+    public enum Operation {
+        /**
+         * Entity has been added or updated.
+         */
+        UPDATE,
+        /**
+         * Entity has been deleted.
+         */
+        DELETE
+    }
+
+    /**
+     * Applies replayed records.
+     *
+     * @param <ID_TYPE> Type of the identifier.
+     */
+    @FunctionalInterface
+    public interface Replayer<ID_TYPE> {
+
+        void replay(Operation operation, ID_TYPE id) throws IOException;
+    }
+
+    private final Path directory;
+
+    private final IdentifierTypeConverter<ID_TYPE> typeConverter;
+
+    private final long segmentSize;
+
+    private final Thread syncThread;
+
+    private FileChannel channel;
+
+    private Path currentSegment;
+
+    /**
+     * Sequence number of the last appended record.
+     */
+    private long sequence;
+
+    /**
+     * Sequence number of the last record found when the log was opened.
+     */
+    private final long recoveredSequence;
+
+    /**
+     * Sequence numbers of the appended records not applied to the index yet.
+     */
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+
+    private final Object syncLock = new Object();
+
+    /**
+     * Sequence number of the last fsynced record.
+     */
+    private volatile long syncedSequence;
+
+    private volatile boolean closed;
+
+    /**
+     * Opens the log in the directory. A record torn by a crash at the end of the
+     * last segment is truncated.
+     *
+     * @param directory          directory of the log segments
+     * @param typeConverter      converter reading the identifiers of the records
+     * @param segmentSize        size of a segment in bytes before a new one is started
+     * @param syncIntervalMillis interval of the background fsync. 0 to fsync when
+     *                           a write waits with {@link #sync(long)}
+     * @throws IOException when the log could not be opened
+     */
+    public WriteAheadLog(Path directory, IdentifierTypeConverter<ID_TYPE> typeConverter, long segmentSize, long syncIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.typeConverter = typeConverter;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        List<Path> segments = listSegments();
+        if (segments.isEmpty()) {
+            openSegment(1);
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            long[] end = {firstSequence(last) - 1};
+            long validLength = readSegment(last, Long.MAX_VALUE, end, null);
+            channel = FileChannel.open(last, StandardOpenOption.WRITE);
+            currentSegment = last;
+            if (channel.size() > validLength) {
+                LOGGER.warn("Truncating [{}] bytes of an incomplete record at the end of [{}]", channel.size() - validLength, last);
+                channel.truncate(validLength);
+                channel.force(false);
+            }
+            channel.position(validLength);
+            sequence = end[0];
+        }
+        syncedSequence = sequence;
+        recoveredSequence = sequence;
+
+        if (syncIntervalMillis > 0) {
+            syncThread = new Thread(() -> syncPeriodically(syncIntervalMillis), "lucene-wal-sync");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        } else {
+            syncThread = null;
+        }
+    }
+
+    /**
+     * Appends a record. The write is registered as in flight until
+     * {@link #applied(long)} is called.
+     *
+     * @param operation operation of the write
+     * @param id        identifier of the entity
+     * @return sequence number of the record
+     * @throws IOException when the record could not be written
+     */
+    public long append(Operation operation, ID_TYPE id) throws IOException {
+        byte[] idBytes = id.toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + 9 + idBytes.length);
+        synchronized (this) {
+            if (closed)
+                throw new ClosedChannelException();
+            long recordSequence = sequence + 1;
+            record.putInt(9 + idBytes.length).putInt(0).putLong(recordSequence).put((byte) operation.ordinal()).put(idBytes);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), RECORD_HEADER_SIZE, record.capacity() - RECORD_HEADER_SIZE);
+            record.putInt(4, (int) crc.getValue());
+            record.flip();
+
+            if (channel.position() + record.remaining() > segmentSize && channel.position() > 0)
+                rollSegment(recordSequence);
+            while (record.hasRemaining())
+                channel.write(record);
+            sequence = recordSequence;
+            inFlight.add(recordSequence);
+            return recordSequence;
+        }
+    }
+
+    /**
+     * Marks an appended write as applied to the index, so the next commit covers it.
+     *
+     * @param sequence sequence number returned by {@link #append(Operation, Serializable)}
+     */
+    public synchronized void applied(long sequence) {
+        inFlight.remove(sequence);
+    }
+
+    /**
+     * Returns the sequence number to store with a commit. All the records up to it
+     * have been applied to the index.
+     *
+     * @return sequence number of the last record covered by a commit starting now
+     */
+    public synchronized long checkpoint() {
+        return inFlight.isEmpty() ? sequence : inFlight.first() - 1;
+    }
+
+    /**
+     * Waits until the record is fsynced. Records appended meanwhile by other
+     * threads are fsynced with the same call.
+     *
+     * @param sequence sequence number of the record
+     * @throws IOException when the log could not be fsynced
+     */
+    public void sync(long sequence) throws IOException {
+        if (syncedSequence >= sequence)
+            return;
+        synchronized (syncLock) {
+            while (syncedSequence < sequence) {
+                long target;
+                FileChannel current;
+                synchronized (this) {
+                    target = this.sequence;
+                    current = channel;
+                }
+                try {
+                    current.force(false);
+                } catch (ClosedChannelException e) {
+                    if (closed) throw e;
+                    continue; // Segment has been rolled, and fsynced, meanwhile
+                }
+                syncedSequence = target;
+            }
+        }
+    }
+
+    /**
+     * Deletes the segments having only records up to the given sequence number.
+     * The current segment is kept.
+     *
+     * @param committedSequence checkpoint stored by the last commit of the index
+     */
+    public void trim(long committedSequence) {
+        try {
+            List<Path> segments = listSegments();
+            for (int i = 0; i < segments.size() - 1; i++) {
+                if (firstSequence(segments.get(i + 1)) - 1 > committedSequence)
+                    break;
+                Files.deleteIfExists(segments.get(i));
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not delete the write-ahead log segments up to [{}]", committedSequence, e);
+        }
+    }
+
+    /**
+     * Replays the records found when the log was opened which were appended
+     * after the given sequence number, in order. Records appended since are
+     * applied by their writers and are not replayed.
+     *
+     * @param afterSequence checkpoint stored by the last commit of the index
+     * @param replayer      applies the records
+     * @return number of replayed records
+     * @throws IOException when the log could not be read
+     */
+    public long replay(long afterSequence, Replayer<ID_TYPE> replayer) throws IOException {
+        long[] progress = {afterSequence, 0};
+        for (Path segment : listSegments()) {
+            if (progress[0] >= recoveredSequence)
+                break;
+            readSegment(segment, recoveredSequence, progress, replayer);
+        }
+        return progress[1];
+    }
+
+    /**
+     * Continues the sequence numbers after the given checkpoint, when the log
+     * is behind it. A log is behind the committed checkpoint when its directory
+     * has been lost or replaced, and numbering its records from the last record
+     * found would let commits cover, and {@link #trim(long)} delete, records
+     * which have not been applied.
+     *
+     * @param committedSequence checkpoint stored by the last commit of the index
+     * @return true if the log was behind the checkpoint
+     * @throws IOException when a new segment could not be started
+     */
+    public synchronized boolean advance(long committedSequence) throws IOException {
+        if (committedSequence <= sequence)
+            return false;
+        rollSegment(committedSequence + 1);
+        sequence = committedSequence;
+        syncedSequence = Math.max(syncedSequence, committedSequence);
+        return true;
+    }
+
+    /**
+     * @return sequence number of the last appended record
+     */
+    public synchronized long lastSequence() {
+        return sequence;
+    }
+
+    /**
+     * Fsyncs and closes the log.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        if (syncThread != null) {
+            syncThread.interrupt();
+            try {
+                syncThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.error("Error occurred while closing the write-ahead log. ", e);
+            }
+        }
+    }
+
+    private void syncPeriodically(long intervalMillis) {
+        while (!closed) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(intervalMillis);
+                sync(lastSequence());
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                if (!closed)
+                    LOGGER.error("Could not fsync the write-ahead log. ", e);
+            }
+        }
+    }
+
+    private void rollSegment(long firstSequence) throws IOException {
+        channel.force(false);
+        boolean empty = channel.size() == 0;
+        channel.close();
+        syncedSequence = Math.max(syncedSequence, sequence);
+        if (empty)
+            Files.deleteIfExists(currentSegment);
+        openSegment(firstSequence);
+    }
+
+    private void openSegment(long firstSequence) throws IOException {
+        Path segment = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        currentSegment = segment;
+    }
+
+    /**
+     * Reads the valid records of a segment.
+     *
+     * @param segment    segment file
+     * @param upTo       last sequence number to read
+     * @param progress   last sequence number read and number of replayed records, updated
+     * @param replayer   receives the records after progress[0], or null to read only
+     * @return length of the valid records of the segment
+     */
+    private long readSegment(Path segment, long upTo, long[] progress, Replayer<ID_TYPE> replayer) throws IOException {
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+            while (true) {
+                int length;
+                int checksum;
+                byte[] body;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 9 || length > segmentSize)
+                        break;
+                    body = new byte[length];
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum)
+                    break;
+
+                ByteBuffer buffer = ByteBuffer.wrap(body);
+                long recordSequence = buffer.getLong();
+                if (recordSequence > upTo)
+                    break;
+                validLength += RECORD_HEADER_SIZE + length;
+                if (replayer == null) {
+                    progress[0] = recordSequence;
+                } else if (recordSequence > progress[0]) {
+                    try {
+                        replayer.replay(Operation.values()[buffer.get()],
+                                typeConverter.getValueInType(new String(body, 9, length - 9, StandardCharsets.UTF_8)));
+                        progress[1]++;
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.error("Could not replay write-ahead log record [{}] of [{}]", new Object[]{recordSequence, segment, e});
+                    }
+                    progress[0] = recordSequence;
+                }
+            }
+        }
+        return validLength;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
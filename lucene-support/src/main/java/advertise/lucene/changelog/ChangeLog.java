@@ -0,0 +1,119 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.changelog;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Append-only log of the changes of entities, shared by the nodes. Each node
+ * applies the changes to its own index with a {@link ChangeLogConsumer}, so
+ * the index of a node follows the entities written by any node, and a change
+ * is not lost when the writing node stops before indexing it.
+ *
+ * <p>Changes are partitioned in buckets of {@link #getBucketMillis()} by the
+ * time they were appended, and read one bucket at a time.
+ *
+ * @param <ID_TYPE> Type of the identifier of the changed entity.
+ */
+public interface ChangeLog<ID_TYPE extends Serializable> {
+
+    /**
+     * Appends a change. Append before writing the entity, so a change which
+     * has been written is always logged.
+     *
+     * @param operation operation of the change
+     * @param id        identifier of the changed entity
+     */
+    void append(Operation operation, ID_TYPE id);
+
+    /**
+     * Reads the changes of a bucket appended in the given time range, in the
+     * order they were appended.
+     *
+     * @param bucket     bucket of the changes, see {@link #getBucket(long)}
+     * @param fromMillis start of the range, inclusive
+     * @param toMillis   end of the range, exclusive
+     * @return changes of the range
+     */
+    List<Change<ID_TYPE>> read(long bucket, long fromMillis, long toMillis);
+
+    /**
+     * @return time range of a bucket in milliseconds
+     */
+    long getBucketMillis();
+
+    /**
+     * @return time in milliseconds a change is kept in the log
+     */
+    long getRetentionMillis();
+
+    /**
+     * @param timeMillis time in milliseconds
+     * @return bucket of the changes appended at the time
+     */
+    default long getBucket(long timeMillis) {
+        return timeMillis / getBucketMillis();
+    }
+
+    /**
+     * Operation of a change.
+     */
+    enum Operation {
+        /**
+         * Entity was created or updated. Its document is rebuilt from the entity.
+         */
+        UPDATE,
+        /**
+         * Entity was deleted.
+         */
+        DELETE
+    }
+
+    /**
+     * A change read from the log.
+     *
+     * @param <ID_TYPE> Type of the identifier of the changed entity.
+     */
+    final class Change<ID_TYPE extends Serializable> {
+
+        private final long timeMillis;
+
+        private final Operation operation;
+
+        private final ID_TYPE id;
+
+        public Change(long timeMillis, Operation operation, ID_TYPE id) {
+            this.timeMillis = timeMillis;
+            this.operation = operation;
+            this.id = id;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public ID_TYPE getId() {
+            return id;
+        }
+    }
+}
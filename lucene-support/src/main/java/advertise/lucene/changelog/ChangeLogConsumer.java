@@ -0,0 +1,217 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.changelog;
+
+import advertise.lucene.LuceneSearchProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tails a {@link ChangeLog} and applies the changes to the index of a
+ * {@link LuceneSearchProcessor}, one bucket at a time. Entities of updated
+ * identifiers are re-read by {@link LuceneSearchProcessor#refreshIndex(Serializable)},
+ * so applying a change again is harmless.
+ *
+ * <p>The position in the log is stored in the commit user data of the index
+ * by {@link LuceneSearchProcessor#setCommitCheckpoint(String, long)}, and the
+ * consumer resumes from the last commit after a restart. Only changes older
+ * than the settle time are read, so changes appended late, by a node with a
+ * clock behind or by a slow write, are not skipped. The settle time must exceed
+ * the clock skew of the nodes.
+ *
+ * <p>An index without a checkpoint, eg. built from the entities, starts at the
+ * current time. An index whose checkpoint is older than the retention of the
+ * log is re-indexed. When a snapshot is restored the consumer resumes from
+ * the checkpoint of the snapshot, so it catches up with the changes made
+ * since the snapshot was taken.
+ *
+ * @param <ID_TYPE> Type of the identifier of the changed entity.
+ */
+public class ChangeLogConsumer<ID_TYPE extends Serializable> implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangeLogConsumer.class);
+
+    /**
+     * Name of the checkpoint of the consumer in the commit user data.
+     */
+    public static final String CHECKPOINT_KEY = "changelog";
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 30 * 1000;
+
+    private final LuceneSearchProcessor<ID_TYPE, ?> searchProcessor;
+
+    private final ChangeLog<ID_TYPE> changeLog;
+
+    private final long pollIntervalMillis;
+
+    private final long settleMillis;
+
+    private final Object consumeLock = new Object();
+
+    /**
+     * Start of the changes not applied yet, -1 until read from the index.
+     * Guarded by consumeLock.
+     */
+    private long position = -1;
+
+    private ScheduledExecutorService executor;
+
+    private boolean restoreListenerAdded;
+
+    /**
+     * @param searchProcessor    processor to apply the changes to
+     * @param changeLog          log to tail, null when the change log is not enabled (see {@link ChangeLogFactoryBean})
+     * @param pollIntervalMillis time between two reads of the log, 0 to not tail the log
+     * @param settleMillis       age of a change before it is read
+     */
+    public ChangeLogConsumer(LuceneSearchProcessor<ID_TYPE, ?> searchProcessor, ChangeLog<ID_TYPE> changeLog,
+                             long pollIntervalMillis, long settleMillis) {
+        this.searchProcessor = searchProcessor;
+        this.changeLog = changeLog;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.settleMillis = settleMillis;
+    }
+
+    /**
+     * Starts tailing the log, unless the poll interval is 0 or there is no log.
+     */
+    public synchronized void start() {
+        if (executor != null || pollIntervalMillis <= 0 || changeLog == null)
+            return;
+        if (!restoreListenerAdded) {
+            searchProcessor.addRestoreListener(snapshot -> rewind());
+            restoreListenerAdded = true;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lucene-changelog-consumer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::poll, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll() {
+        try {
+            long startedAt = System.currentTimeMillis();
+            long applied = consume();
+            if (applied > 0)
+                LOGGER.debug("Applied [{}] changes of the change log in [{}] ms", applied, System.currentTimeMillis() - startedAt);
+        } catch (Exception e) {
+            LOGGER.error("Problem occurred while reading the change log ", e);
+        }
+    }
+
+    /**
+     * Applies the settled changes appended since the last call. A bucket is
+     * read again by the next call when it could not be read or applied.
+     *
+     * @return number of the applied changes
+     */
+    public long consume() {
+        if (changeLog == null)
+            return 0;
+        synchronized (consumeLock) {
+            long upTo = System.currentTimeMillis() - settleMillis;
+            if (position < 0)
+                position = getInitialPosition(upTo);
+
+            long applied = 0;
+            while (position < upTo) {
+                long bucket = changeLog.getBucket(position);
+                long to = Math.min(upTo, (bucket + 1) * changeLog.getBucketMillis());
+                applied += apply(changeLog.read(bucket, position, to));
+                position = to;
+                searchProcessor.setCommitCheckpoint(CHECKPOINT_KEY, position);
+            }
+            return applied;
+        }
+    }
+
+    /**
+     * Resumes from the checkpoint of the index with the next call, eg. after a
+     * snapshot has been restored.
+     */
+    public void rewind() {
+        synchronized (consumeLock) {
+            position = -1;
+        }
+    }
+
+    private long getInitialPosition(long upTo) {
+        long committed = searchProcessor.getCommittedCheckpoint(CHECKPOINT_KEY);
+        if (committed <= 0) {
+            LOGGER.info("Index has no change log checkpoint, tailing the change log from [{}]", upTo);
+            return upTo;
+        }
+        if (committed < upTo - changeLog.getRetentionMillis()) {
+            LOGGER.warn("Change log checkpoint [{}] of the index is older than the retention of the change log, re-indexing", committed);
+            searchProcessor.reIndexAsync();
+            return upTo;
+        }
+        LOGGER.info("Resuming the change log from checkpoint [{}]", committed);
+        return committed;
+    }
+
+    /**
+     * Applies the last change of each identifier. Deletes are applied in a
+     * single delete.
+     */
+    private int apply(List<ChangeLog.Change<ID_TYPE>> changes) {
+        if (changes.isEmpty())
+            return 0;
+        Map<ID_TYPE, ChangeLog.Operation> latest = new LinkedHashMap<>();
+        for (ChangeLog.Change<ID_TYPE> change : changes) {
+            latest.put(change.getId(), change.getOperation());
+        }
+        List<ID_TYPE> deleted = new ArrayList<>();
+        for (Map.Entry<ID_TYPE, ChangeLog.Operation> change : latest.entrySet()) {
+            if (change.getValue() == ChangeLog.Operation.DELETE)
+                deleted.add(change.getKey());
+            else
+                searchProcessor.refreshIndex(change.getKey());
+        }
+        searchProcessor.deleteIndexes(deleted);
+        return latest.size();
+    }
+
+    /**
+     * Stops tailing the log. Waits for a running read to finish.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor == null)
+            return;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+    }
+}
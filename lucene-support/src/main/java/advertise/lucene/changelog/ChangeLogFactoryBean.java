@@ -0,0 +1,88 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.changelog;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+
+/**
+ * Creates the {@link ChangeLog} only when the change log is enabled. Otherwise
+ * the bean is null, so optional references to it, eg. the writers appending
+ * to the log and the {@link ChangeLogConsumer} tailing it, get null and the
+ * log is not set up at all.
+ *
+ * <p>The class of the log needs a constructor taking the time range of a
+ * bucket and the retention in milliseconds. Its annotated fields are autowired.
+ */
+public class ChangeLogFactoryBean implements FactoryBean<ChangeLog>, BeanFactoryAware {
+
+    private final boolean enabled;
+
+    private final Class<? extends ChangeLog> changeLogClass;
+
+    private final long bucketMillis;
+
+    private final long retentionMillis;
+
+    private AutowireCapableBeanFactory beanFactory;
+
+    /**
+     * @param enabled         false to not create the log
+     * @param changeLogClass  class of the log
+     * @param bucketMillis    time range of a bucket in milliseconds
+     * @param retentionMillis time in milliseconds a change is kept
+     */
+    public ChangeLogFactoryBean(boolean enabled, Class<? extends ChangeLog> changeLogClass, long bucketMillis, long retentionMillis) {
+        this.enabled = enabled;
+        this.changeLogClass = changeLogClass;
+        this.bucketMillis = bucketMillis;
+        this.retentionMillis = retentionMillis;
+    }
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+        if (beanFactory instanceof AutowireCapableBeanFactory)
+            this.beanFactory = (AutowireCapableBeanFactory) beanFactory;
+    }
+
+    /**
+     * @return the log, null when the change log is not enabled
+     */
+    @Override
+    public ChangeLog getObject() throws Exception {
+        if (!enabled)
+            return null;
+        ChangeLog changeLog = changeLogClass.getConstructor(long.class, long.class).newInstance(bucketMillis, retentionMillis);
+        if (beanFactory != null)
+            beanFactory.autowireBean(changeLog);
+        return changeLog;
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return changeLogClass;
+    }
+
+    @Override
+    public boolean isSingleton() {
+        return true;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.changelog;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link ChangeLog} kept in the memory of a single process. Stands in for the
+ * shared log in tests, benchmarks and single node set ups. Changes older than
+ * the retention are dropped on append.
+ *
+ * @param <ID_TYPE> Type of the identifier of the changed entity.
+ */
+public class InMemoryChangeLog<ID_TYPE extends Serializable> implements ChangeLog<ID_TYPE> {
+
+    private final long bucketMillis;
+
+    private final long retentionMillis;
+
+    /**
+     * Changes by the time they were appended.
+     */
+    private final TreeMap<Long, List<Change<ID_TYPE>>> changes = new TreeMap<>();
+
+    /**
+     * @param bucketMillis    time range of a bucket in milliseconds
+     * @param retentionMillis time in milliseconds a change is kept
+     */
+    public InMemoryChangeLog(long bucketMillis, long retentionMillis) {
+        this.bucketMillis = bucketMillis;
+        this.retentionMillis = retentionMillis;
+    }
+
+    @Override
+    public synchronized void append(Operation operation, ID_TYPE id) {
+        long now = System.currentTimeMillis();
+        changes.computeIfAbsent(now, time -> new ArrayList<>(1)).add(new Change<>(now, operation, id));
+        changes.headMap(now - retentionMillis).clear();
+    }
+
+    @Override
+    public synchronized List<Change<ID_TYPE>> read(long bucket, long fromMillis, long toMillis) {
+        long from = Math.max(fromMillis, bucket * bucketMillis);
+        long to = Math.min(toMillis, (bucket + 1) * bucketMillis);
+        List<Change<ID_TYPE>> read = new ArrayList<>();
+        if (from < to) {
+            for (Map.Entry<Long, List<Change<ID_TYPE>>> entry : changes.subMap(from, to).entrySet())
+                read.addAll(entry.getValue());
+        }
+        return read;
+    }
+
+    @Override
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    @Override
+    public long getRetentionMillis() {
+        return retentionMillis;
+    }
+}
@@ -17,6 +17,7 @@
  */
 package advertise.lucene.legacy;
 
+import advertise.lucene.IndexWritingSearchProcessor;
 import advertise.lucene.LuceneIndexableEntityService;
 import advertise.lucene.LuceneSearchProcessor;
 import advertise.lucene.LuceneIndexableEntity;
@@ -28,6 +29,7 @@ import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.MMapDirectory;
@@ -40,10 +42,11 @@ import javax.annotation.PreDestroy;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.nio.file.Paths;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 /**
  * This {@link LuceneSearchProcessor} implementation will perform search in legacy
@@ -60,14 +63,14 @@ import java.util.List;
  * @author Yasitha Thilakaratne
  * @since version 1.0.1
  */
-public class LegacySearchProcessor<ID_TYPE extends Serializable, E extends LuceneIndexableEntity<ID_TYPE>> extends LuceneSearchProcessor<ID_TYPE, E> {
+public class LegacySearchProcessor<ID_TYPE extends Serializable, E extends LuceneIndexableEntity<ID_TYPE>> extends IndexWritingSearchProcessor<ID_TYPE, E> {
 
     protected static final Logger LOGGER = LoggerFactory.getLogger(LegacySearchProcessor.class);
 
     /**
      * The {@link IndexWriter} instance. This instance is thread safe.
      */
-    protected IndexWriter w;
+    protected volatile IndexWriter w;
 
     /**
      * Initiates created instance with indexableEntityService, typeConverter,
@@ -101,13 +104,11 @@ public class LegacySearchProcessor<ID_TYPE extends Serializable, E extends Lucen
      * @return list of identifiers
      */
     public List<ID_TYPE> getAllIndexed() {
-        try {
-            IndexReader reader = getIndexReader();
-
+        try (IndexReader reader = getIndexReader()) {
             List<ID_TYPE> searchResult = new ArrayList<>(reader.maxDoc());
             for (int i = 0; i < reader.maxDoc(); i++) {
                 Document document = reader.document(i);
-                searchResult.add(typeConverter.getValueInType(document.get(FIELD_NAME_ID)));
+                searchResult.add(typeConverter.getValueFromDocument(document, FIELD_NAME_ID));
             }
             return searchResult;
         } catch (Exception e) {
@@ -116,14 +117,18 @@ public class LegacySearchProcessor<ID_TYPE extends Serializable, E extends Lucen
     }
 
     /**
-     * Creates and returns {@link IndexReader} instance.
+     * Creates and returns {@link IndexReader} instance of the current generation.
+     * The reader is tracked so the generation is not deleted while it is open.
      *
      * @return a new {@link IndexReader}
      * @throws IOException
      */
     private IndexReader getIndexReader() throws IOException {
-        Directory directory = MMapDirectory.open(getPath());
-        return DirectoryReader.open(directory);
+        Path generation = getPath();
+        Directory directory = MMapDirectory.open(generation);
+        DirectoryReader reader = DirectoryReader.open(directory);
+        getGenerations().track(generation, reader);
+        return reader;
     }
 
     /**
@@ -133,38 +138,115 @@ public class LegacySearchProcessor<ID_TYPE extends Serializable, E extends Lucen
      * @throws IOException
      */
     protected IndexSearcher getIndexSearcher() throws IOException {
-        return new IndexSearcher(getIndexReader());
+        return newIndexSearcher(getIndexReader());
+    }
+
+    /**
+     * Closes the {@link IndexReader} opened for the search.
+     *
+     * @param indexSearcher searcher to release
+     * @throws IOException
+     */
+    @Override
+    protected void releaseIndexSearcher(IndexSearcher indexSearcher) throws IOException {
+        indexSearcher.getIndexReader().close();
     }
 
     /**
-     * Adds index with given id and content. Makes sure to commit before return.
+     * Adds given document to the index. Makes sure to commit before return.
      *
-     * @param id      identifier to index.
-     * @param content text/content to index.
+     * @param id       identifier of the document.
+     * @param document document to index.
+     * @return true if the document has been added
      */
-    public void addIndex(ID_TYPE id, String content) {
+    @Override
+    protected boolean addDocument(ID_TYPE id, Document document) {
+        Lock lock = generationLock.readLock();
+        lock.lock();
         try {
             IndexWriter writer = getIndexWriter();
-            writer.addDocument(createDocument(id, content));
-            writer.commit();
+            writer.addDocument(document);
+            mirrorUpdateToRebuild(getIdTerm(id), document);
+            commit(writer);
+            return true;
         } catch (Exception e) {
             LOGGER.error("Exception while indexing classified ad with id [{}]: \n", id, e);
+            return false;
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
-     * Deletes index by given identifier.
+     * Replaces the document having the identifier term.
      *
-     * @param id index to be removed
+     * @param idTerm   term of the identifier of the document
+     * @param document document to add
+     * @return true if the document has been replaced
      */
-    public synchronized void deleteIndex(long id) {
+    @Override
+    protected boolean updateDocument(Term idTerm, Document document) {
+        Lock lock = generationLock.readLock();
+        lock.lock();
+        try {
+            IndexWriter writer = getIndexWriter();
+            writer.updateDocument(idTerm, document);
+            mirrorUpdateToRebuild(idTerm, document);
+            commit(writer);
+            return true;
+        } catch (Exception e) {
+            LOGGER.error("Exception while updating classified ad with id term [{}]: \n", idTerm, e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the documents matching the given query.
+     *
+     * @param query documents to be removed
+     * @return true if the documents have been deleted
+     */
+    @Override
+    protected boolean deleteDocuments(Query query) {
+        Lock lock = generationLock.readLock();
+        lock.lock();
         try {
             IndexWriter writer = getIndexWriter();
-            Query query = NumericRangeQuery.newLongRange(FIELD_NAME_ID, id, id, true, true);
             writer.deleteDocuments(query);
-            writer.commit();
+            mirrorDeleteToRebuild(query);
+            commit(writer);
+            return true;
         } catch (Exception e) {
             LOGGER.error("Problem occurred when deleting document from MapDirectory : \n", e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the documents having any of the identifier terms.
+     *
+     * @param idTerms terms of the identifiers of the documents
+     * @return true if the documents have been deleted
+     */
+    @Override
+    protected boolean deleteDocuments(Term... idTerms) {
+        Lock lock = generationLock.readLock();
+        lock.lock();
+        try {
+            IndexWriter writer = getIndexWriter();
+            writer.deleteDocuments(idTerms);
+            mirrorDeleteToRebuild(idTerms);
+            commit(writer);
+            return true;
+        } catch (Exception e) {
+            LOGGER.error("Problem occurred when deleting document from MapDirectory : \n", e);
+            return false;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -180,6 +262,15 @@ public class LegacySearchProcessor<ID_TYPE extends Serializable, E extends Lucen
         return w;
     }
 
+    /**
+     * @return the shared {@link IndexWriter} instance
+     * @throws Exception
+     */
+    @Override
+    protected IndexWriter[] getIndexWriters() throws Exception {
+        return new IndexWriter[]{getIndexWriter()};
+    }
+
     /**
      * Creates shared {@link IndexWriter} if not created yet.
      *
@@ -192,8 +283,11 @@ public class LegacySearchProcessor<ID_TYPE extends Serializable, E extends Lucen
             Analyzer analyzer = new StandardAnalyzer();
             IndexWriterConfig conf = new IndexWriterConfig(analyzer);
             conf.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            applyIndexSort(conf);
+            applySnapshotPolicy(conf);
 
             w = new IndexWriter(dir, conf);
+            replayWriteAheadLog(w);
         }
     }
 
@@ -204,6 +298,7 @@ public class LegacySearchProcessor<ID_TYPE extends Serializable, E extends Lucen
     protected synchronized void closeWriter() {
         if (w != null) {
             try {
+                setCommitData(w);
                 w.close();
                 w = null;
             } catch (IOException e) {
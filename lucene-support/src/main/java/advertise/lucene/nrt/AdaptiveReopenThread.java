@@ -0,0 +1,312 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.nrt;
+
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reopens a {@link SearcherManager} in the background like
+ * {@link org.apache.lucene.search.ControlledRealTimeReopenThread}, with an
+ * interval picked from the observed load instead of fixed stale times.
+ *
+ * <ul>
+ * <li>Nothing is reopened while no writes are pending, so an idle index is
+ * not reopened.</li>
+ * <li>When writes are sparse, less than one per interval, a write is made
+ * visible the min stale time after it was applied.</li>
+ * <li>Under a steady write rate, reopens are spaced so that reopening takes
+ * at most the given share of the time, from the average measured reopen
+ * cost. The share grows with the number of searches waiting for a
+ * generation, so waiting searches are served sooner.</li>
+ * </ul>
+ * Intervals are kept between the min and max stale times.
+ *
+ * <p>Writes are reported with {@link #writeApplied()}. Generations and
+ * {@link #waitForGeneration(long, int)} work as with the
+ * ControlledRealTimeReopenThread.
+ */
+public class AdaptiveReopenThread extends Thread implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveReopenThread.class);
+
+    /**
+     * Weight of the latest sample in the averages of the reopen cost and the write rate.
+     */
+    private static final double SAMPLE_WEIGHT = 0.2;
+
+    /**
+     * Max share of the time spent reopening, however many searches are waiting.
+     */
+    private static final double MAX_WAITING_REOPEN_SHARE = 0.5;
+
+    private final ReferenceManager<IndexSearcher> manager;
+
+    private final TrackingIndexWriter writer;
+
+    private final long minStaleNanos;
+
+    private final long maxStaleNanos;
+
+    private final double maxReopenShare;
+
+    private final ReentrantLock reopenLock = new ReentrantLock();
+
+    private final Condition reopenCondition = reopenLock.newCondition();
+
+    private final AtomicLong writes = new AtomicLong();
+
+    private volatile boolean finish;
+
+    /**
+     * Writes applied before the last reopen started.
+     */
+    private volatile long reopenedWrites;
+
+    /**
+     * Guarded by reopenLock, like the waiting generation and count. Locks are
+     * taken in the order monitor of the thread, then reopenLock: waiting
+     * searches take reopenLock while holding the monitor, and the scheduling
+     * thread never holds reopenLock while taking the monitor.
+     */
+    private long firstPendingWriteNanos;
+
+    private long waitingGeneration;
+
+    private int waiting;
+
+    /**
+     * Generation visible to the searches, updated holding the monitor of the
+     * thread, on which waiting searches wait.
+     */
+    private volatile long searchingGeneration;
+
+    private volatile long reopens;
+
+    private volatile double reopenCostNanos;
+
+    private volatile double writesPerSecond;
+
+    /**
+     * @param writer         writer tracking the generations
+     * @param manager        manager to reopen
+     * @param minStaleMillis min time between two reopens
+     * @param maxStaleMillis max time a write stays invisible while reopens are not waited for
+     * @param maxReopenShare max share of the time spent reopening while no search is waiting, eg. 0.1
+     */
+    public AdaptiveReopenThread(TrackingIndexWriter writer, ReferenceManager<IndexSearcher> manager,
+                                long minStaleMillis, long maxStaleMillis, double maxReopenShare) {
+        super("lucene-adaptive-reopen");
+        setDaemon(true);
+        this.writer = writer;
+        this.manager = manager;
+        this.minStaleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minStaleMillis));
+        this.maxStaleNanos = Math.max(minStaleNanos, TimeUnit.MILLISECONDS.toNanos(maxStaleMillis));
+        this.maxReopenShare = Math.min(MAX_WAITING_REOPEN_SHARE, Math.max(0.001, maxReopenShare));
+        this.searchingGeneration = writer.getAndIncrementGeneration(); // writes from here on wait for a reopen
+    }
+
+    /**
+     * Reports a write applied to the writer, so it is made visible.
+     */
+    public void writeApplied() {
+        if (writes.incrementAndGet() == reopenedWrites + 1) {
+            reopenLock.lock();
+            try {
+                firstPendingWriteNanos = System.nanoTime();
+                reopenCondition.signal();
+            } finally {
+                reopenLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits until the searcher has been reopened for given generation.
+     *
+     * @param targetGeneration generation of the writer returned by a write or
+     *                         {@link TrackingIndexWriter#getGeneration()}
+     * @param maxMillis        max time to wait, negative to wait until reopened
+     * @return true if reopened for the generation
+     * @throws InterruptedException  when interrupted while waiting
+     * @throws IllegalArgumentException when the generation was not issued by the writer
+     */
+    public synchronized boolean waitForGeneration(long targetGeneration, int maxMillis) throws InterruptedException {
+        if (targetGeneration > writer.getGeneration())
+            throw new IllegalArgumentException("Generation [" + targetGeneration + "] was not issued by the writer, current generation is ["
+                    + writer.getGeneration() + "]");
+        if (targetGeneration <= searchingGeneration)
+            return true;
+
+        reopenLock.lock();
+        try {
+            waitingGeneration = Math.max(waitingGeneration, targetGeneration);
+            waiting++;
+            reopenCondition.signal();
+        } finally {
+            reopenLock.unlock();
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxMillis);
+            while (targetGeneration > searchingGeneration) {
+                if (maxMillis < 0) {
+                    wait();
+                } else {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0)
+                        return false;
+                    wait(remaining);
+                }
+            }
+            return true;
+        } finally {
+            reopenLock.lock();
+            try {
+                waiting--;
+            } finally {
+                reopenLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        long lastReopenNanos = System.nanoTime();
+        while (!finish) {
+            reopenLock.lock();
+            try {
+                while (!finish) {
+                    long now = System.nanoTime();
+                    long next = nextReopenNanos(lastReopenNanos, now);
+                    if (next - now <= 0)
+                        break;
+                    reopenCondition.awaitNanos(next - now);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                reopenLock.unlock();
+            }
+            if (finish)
+                break;
+
+            long startedAt = System.nanoTime();
+            long pendingWrites = writes.get() - reopenedWrites;
+            reopenedWrites += pendingWrites;
+            long generation = writer.getAndIncrementGeneration();
+            try {
+                manager.maybeRefreshBlocking();
+            } catch (IOException e) {
+                LOGGER.error("Could not reopen the searcher ", e);
+            }
+            long cost = System.nanoTime() - startedAt;
+            reopenCostNanos = reopens == 0 ? cost : average(reopenCostNanos, cost);
+            writesPerSecond = average(writesPerSecond, pendingWrites * 1e9 / Math.max(1, startedAt - lastReopenNanos));
+            reopens++;
+            lastReopenNanos = startedAt;
+            reopened(generation);
+        }
+    }
+
+    /**
+     * Picks the time of the next reopen. Called holding reopenLock.
+     *
+     * @return time of the next reopen in nanos, at most max stale time from now
+     */
+    private long nextReopenNanos(long lastReopenNanos, long now) {
+        boolean pendingWrites = writes.get() != reopenedWrites;
+        boolean hasWaiting = waiting > 0 && waitingGeneration > searchingGeneration;
+        if (!pendingWrites && !hasWaiting)
+            return now + maxStaleNanos; // idle, checks again later
+
+        double share = hasWaiting ? Math.min(MAX_WAITING_REOPEN_SHARE, maxReopenShare * (1 + waiting)) : maxReopenShare;
+        long interval = clamp((long) (reopenCostNanos / share));
+        if (!hasWaiting && writesPerSecond * interval / 1e9 < 1)
+            return Math.max(firstPendingWriteNanos + minStaleNanos, lastReopenNanos + minStaleNanos); // sparse writes
+        return lastReopenNanos + interval;
+    }
+
+    private long clamp(long intervalNanos) {
+        return Math.max(minStaleNanos, Math.min(maxStaleNanos, intervalNanos));
+    }
+
+    private static double average(double average, double sample) {
+        return average + SAMPLE_WEIGHT * (sample - average);
+    }
+
+    private synchronized void reopened(long generation) {
+        searchingGeneration = generation;
+        notifyAll();
+    }
+
+    /**
+     * @return number of reopens so far
+     */
+    public long getReopens() {
+        return reopens;
+    }
+
+    /**
+     * @return average time of a reopen in milliseconds
+     */
+    public double getReopenCostMillis() {
+        return reopenCostNanos / 1e6;
+    }
+
+    /**
+     * @return average number of writes per second
+     */
+    public double getWritesPerSecond() {
+        return writesPerSecond;
+    }
+
+    /**
+     * Stops reopening and waits for the thread to finish.
+     */
+    @Override
+    public void close() {
+        finish = true;
+        reopenLock.lock();
+        try {
+            reopenCondition.signal();
+        } finally {
+            reopenLock.unlock();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            searchingGeneration = Long.MAX_VALUE; // releases the waiting searches
+            notifyAll();
+        }
+    }
+}
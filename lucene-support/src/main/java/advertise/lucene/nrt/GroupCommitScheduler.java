@@ -0,0 +1,261 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.nrt;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Combines writes of all threads into group commits of the {@link IndexWriter}.
+ *
+ * <p>Writers call {@link #writeCompleted()} after each change and continue
+ * without waiting. A background thread commits once either
+ * <code>maxPendingWrites</code> writes are waiting or the oldest uncommitted
+ * write is <code>maxLatencyMillis</code> old, whichever comes first. So the
+ * number of fsyncs depends on the configured limits instead of the number of
+ * writes.
+ *
+ * <p>Every write gets a sequence number. A caller which needs durability can
+ * wait until its write has been committed with {@link #awaitCommitted(long, long)}.
+ *
+ * @see NRTSearchProcessor
+ */
+public class GroupCommitScheduler implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupCommitScheduler.class);
+
+    /**
+     * Back off time before retrying a failed commit.
+     */
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final IndexWriter writer;
+
+    private final int maxPendingWrites;
+
+    private final long maxLatencyNanos;
+
+    private final Thread committerThread;
+
+    private final Consumer<IndexWriter> beforeCommit;
+
+    private final Consumer<IndexWriter> afterCommit;
+
+    /**
+     * Sequence number of the last registered write.
+     */
+    private long writeSequence;
+
+    /**
+     * Sequence number of the last write included in a completed commit.
+     */
+    private long committedSequence;
+
+    /**
+     * {@link System#nanoTime()} of the oldest uncommitted write.
+     */
+    private long oldestPendingWriteNanos;
+
+    /**
+     * True when a caller requested to commit without waiting for the limits.
+     */
+    private boolean commitRequested;
+
+    private boolean closed;
+
+    /**
+     * Creates and starts the scheduler.
+     *
+     * @param writer           {@link IndexWriter} to commit
+     * @param maxPendingWrites commit when this many writes are waiting
+     * @param maxLatencyMillis commit when the oldest waiting write is this old
+     */
+    public GroupCommitScheduler(IndexWriter writer, int maxPendingWrites, long maxLatencyMillis) {
+        this(writer, maxPendingWrites, maxLatencyMillis, committed -> { }, committed -> { });
+    }
+
+    /**
+     * Creates and starts the scheduler.
+     *
+     * @param writer           {@link IndexWriter} to commit
+     * @param maxPendingWrites commit when this many writes are waiting
+     * @param maxLatencyMillis commit when the oldest waiting write is this old
+     * @param beforeCommit     called before each commit, eg. to set the commit user data
+     * @param afterCommit      called after each successful commit
+     */
+    public GroupCommitScheduler(IndexWriter writer, int maxPendingWrites, long maxLatencyMillis,
+                                Consumer<IndexWriter> beforeCommit, Consumer<IndexWriter> afterCommit) {
+        if (maxPendingWrites < 1 || maxLatencyMillis < 0)
+            throw new IllegalArgumentException("maxPendingWrites must be positive and maxLatencyMillis must not be negative");
+
+        this.writer = writer;
+        this.maxPendingWrites = maxPendingWrites;
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+        this.beforeCommit = beforeCommit;
+        this.afterCommit = afterCommit;
+
+        this.committerThread = new Thread(this::run, "lucene-group-commit");
+        this.committerThread.setDaemon(true);
+        this.committerThread.start();
+    }
+
+    /**
+     * Registers a write which has been applied to the {@link IndexWriter}.
+     * Must be called after the write so that the next commit includes it.
+     *
+     * @return sequence number of the write, to be used with {@link #awaitCommitted(long, long)}
+     */
+    public synchronized long writeCompleted() {
+        long sequence = ++writeSequence;
+        if (sequence - committedSequence == 1) {
+            oldestPendingWriteNanos = System.nanoTime();
+            notifyAll(); // Starts the latency limit of the committer
+        } else if (sequence - committedSequence >= maxPendingWrites) {
+            notifyAll();
+        }
+        return sequence;
+    }
+
+    /**
+     * @return sequence number of the last registered write
+     */
+    public synchronized long lastWriteSequence() {
+        return writeSequence;
+    }
+
+    /**
+     * @return sequence number of the last write included in a completed commit
+     */
+    public synchronized long lastCommittedSequence() {
+        return committedSequence;
+    }
+
+    /**
+     * Waits until the write with given sequence number has been committed.
+     * Requests an immediate commit instead of waiting for the limits.
+     *
+     * @param sequence      sequence number returned by {@link #writeCompleted()}
+     * @param timeoutMillis max time to wait
+     * @return true if the write is durable, false if timed out or closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitCommitted(long sequence, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (committedSequence < sequence) {
+            commitRequested = true;
+            notifyAll();
+        }
+        while (committedSequence < sequence && !closed) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return committedSequence >= sequence;
+    }
+
+    private void run() {
+        while (true) {
+            long target;
+            long commitStartedNanos;
+            synchronized (this) {
+                try {
+                    waitForCommitCondition();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (closed)
+                    return;
+                target = writeSequence;
+                commitRequested = false;
+                commitStartedNanos = System.nanoTime();
+            }
+
+            try {
+                beforeCommit.accept(writer);
+                writer.commit();
+            } catch (AlreadyClosedException e) {
+                LOGGER.warn("IndexWriter has been closed. Stopping group commits.");
+                return;
+            } catch (IOException e) {
+                LOGGER.error("Group commit failed. Will be retried. ", e);
+                sleepBeforeRetry();
+                continue;
+            }
+
+            synchronized (this) {
+                committedSequence = target;
+                // Writes registered during the commit are not older than the commit itself.
+                if (writeSequence > target)
+                    oldestPendingWriteNanos = commitStartedNanos;
+                notifyAll();
+            }
+            afterCommit.accept(writer);
+        }
+    }
+
+    /**
+     * Waits while holding the monitor until there is something to commit and
+     * one of the limits has been reached, a commit has been requested or the
+     * scheduler is closed.
+     */
+    private void waitForCommitCondition() throws InterruptedException {
+        while (!closed && writeSequence == committedSequence)
+            wait();
+
+        while (!closed && !commitRequested && writeSequence - committedSequence < maxPendingWrites) {
+            long remaining = oldestPendingWriteNanos + maxLatencyNanos - System.nanoTime();
+            if (remaining <= 0)
+                break;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            Thread.sleep(RETRY_DELAY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the background thread. Pending writes are not committed here, they
+     * will be committed by {@link IndexWriter#close()}.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            committerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
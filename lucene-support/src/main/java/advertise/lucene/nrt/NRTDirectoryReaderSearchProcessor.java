@@ -24,13 +24,12 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.search.*;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import support.helper.SearchType;
 import support.types.IdentifierTypeConverter;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Path;
 
 /**
  * This {@link LuceneSearchProcessor} implementation uses {@link DirectoryReader}
@@ -38,7 +37,7 @@ import java.io.Serializable;
  * with {@link IndexWriter} and allows to read uncommitted indexes in the writer.
  *
  * Anyway an {@link IndexSearcher} is created each time a search is performed and
- * it has a performance cost.
+ * the reader is reopened when the writer has changes, so it has a performance cost.
  *
  * @param <ID_TYPE> Type of the identifier of the entity to index.
  * @param <E>       Entity class that indexed by lucene.
@@ -53,8 +52,6 @@ import java.io.Serializable;
  */
 public class NRTDirectoryReaderSearchProcessor<ID_TYPE extends Serializable, E extends LuceneIndexableEntity<ID_TYPE>> extends NRTSearchProcessor<ID_TYPE, E> {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(NRTDirectoryReaderSearchProcessor.class);
-
     private DirectoryReader directoryReader;
 
     /**
@@ -85,37 +82,66 @@ public class NRTDirectoryReaderSearchProcessor<ID_TYPE extends Serializable, E e
 
     /**
      * Creates a new {@link IndexSearcher} instance with {@link DirectoryReader}
-     * and returns.
+     * and returns. The reader has been incRef'ed and must be decRef'ed after use.
      *
      * @return a new {@link IndexSearcher} instance.
      * @throws IOException
      */
     protected IndexSearcher getIndexSearcher() throws IOException {
-        return new IndexSearcher(getDirectoryReader());
+        return newIndexSearcher(acquireDirectoryReader());
     }
 
     /**
-     * Returns {@link DirectoryReader} instance. Creates if not created yet.
+     * Releases the {@link DirectoryReader} acquired for the search.
      *
-     * @return the {@link DirectoryReader} instance
+     * @param indexSearcher searcher to release
      * @throws IOException
      */
-    private DirectoryReader getDirectoryReader() throws IOException {
+    @Override
+    protected void releaseIndexSearcher(IndexSearcher indexSearcher) throws IOException {
+        indexSearcher.getIndexReader().decRef();
+    }
+
+    /**
+     * Returns {@link DirectoryReader} instance. Creates if not created yet and
+     * reopens it if the {@link IndexWriter} has changes which are not visible
+     * to the current reader. Identifiers of new segments are cached when a
+     * reader is opened.
+     *
+     * @return the {@link DirectoryReader} instance, incRef'ed.
+     * @throws IOException
+     */
+    private synchronized DirectoryReader acquireDirectoryReader() throws IOException {
         IndexWriter writer = getIndexWriter();
         if (directoryReader == null) {
-            createDirectoryReader(writer);
+            directoryReader = DirectoryReader.open(writer, true);
+            identifierCache.load(directoryReader);
+        } else {
+            DirectoryReader changedReader = DirectoryReader.openIfChanged(directoryReader, writer, true);
+            if (changedReader != null) {
+                identifierCache.load(changedReader);
+                directoryReader.decRef();
+                directoryReader = changedReader;
+            }
         }
+        directoryReader.incRef();
         return directoryReader;
     }
 
     /**
-     * Creates {@link DirectoryReader} instance} if not created yet.
+     * Releases the {@link DirectoryReader} of the previous generation. The reader
+     * is tracked so the generation is kept until in-flight searches release it.
      *
-     * @param writer {@link IndexWriter} to wrap by reader to read.
-     * @throws IOException
+     * @param generation directory of the previous generation
+     * @throws IOException when resources could not be released
      */
-    private synchronized void createDirectoryReader(IndexWriter writer) throws IOException {
-        if (directoryReader == null)
-            directoryReader = DirectoryReader.open(writer, true);
+    @Override
+    protected synchronized void releaseGeneration(Path generation) throws IOException {
+        if (directoryReader != null) {
+            getGenerations().track(generation, directoryReader);
+            directoryReader.decRef();
+            directoryReader = null;
+        }
+        super.releaseGeneration(generation);
     }
 }
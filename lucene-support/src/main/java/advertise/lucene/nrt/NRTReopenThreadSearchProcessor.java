@@ -20,30 +20,32 @@ package advertise.lucene.nrt;
 import advertise.lucene.LuceneIndexableEntity;
 import advertise.lucene.LuceneIndexableEntityService;
 import advertise.lucene.LuceneSearchProcessor;
+import advertise.lucene.WriteAheadLog;
+import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.index.IndexFormatTooOldException;
-import org.apache.lucene.index.IndexNotFoundException;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.TrackingIndexWriter;
-import org.apache.lucene.search.ControlledRealTimeReopenThread;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.SearcherManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import support.helper.SearchType;
 import support.types.IdentifierTypeConverter;
 
 import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.Collections;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 /**
  * This {@link advertise.lucene.LuceneSearchProcessor} implementation uses
  * {@link SearcherManager} to share {@link IndexSearcher} across multiple threads
- * and uses {@link ControlledRealTimeReopenThread} instance to reopen the indexes
- * periodically.
+ * and uses {@link AdaptiveReopenThread} instance to reopen the indexes
+ * periodically, as often as the write rate, the waiting searches and the cost
+ * of a reopen call for.
  *
  * A {@link TrackingIndexWriter} instance is used in case of user needs a guarantee
  * to include particular version of indexes in the search result. This instance
@@ -68,13 +70,32 @@ public class NRTReopenThreadSearchProcessor<ID_TYPE extends Serializable, E exte
     /**
      * The background running thread to reopen {@link SearcherManager} periodically.
      */
-    private ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+    private volatile AdaptiveReopenThread reopenThread;
+
+    /**
+     * Min time between two reopens of the reopenThread in milliseconds.
+     */
+    @Value("${index.reopen.min.stale.ms:10}")
+    protected long minReopenStaleMillis = 10;
+
+    /**
+     * Max time in milliseconds a write stays invisible to the searches which
+     * do not wait for it.
+     */
+    @Value("${index.reopen.max.stale.ms:5000}")
+    protected long maxReopenStaleMillis = 5000;
+
+    /**
+     * Max share of the time spent reopening while no search is waiting.
+     */
+    @Value("${index.reopen.max.cost.share:0.1}")
+    protected double maxReopenCostShare = 0.1;
 
     /**
      * This instance generates index generation/version tokens and allows to
      * search in given generation/version.
      */
-    private TrackingIndexWriter trackingIndexWriter;
+    private volatile TrackingIndexWriter trackingIndexWriter;
 
     /**
      * Initiates created instance with indexableEntityService, typeConverter,
@@ -104,56 +125,69 @@ public class NRTReopenThreadSearchProcessor<ID_TYPE extends Serializable, E exte
 
     /**
      * Searches indexes for given text and returns list of identifiers.
+     *
+     * This method is specially designed to return search result from given index generation.
+     * If the index version/generation is not found on the {@link SearcherManager} thread
+     * will be waited.
+     *
      * Will obtain {@link IndexSearcher} by {@link SearcherManager} and once done
      * {@link IndexSearcher} will be returned by calling {@link SearcherManager#release(Object)}
      *
-     * @param text text to search
+     * @param text  text to search
+     * @param token token denoting the generation/version of the index
      * @return list of ID_TYPE of matching entities to given text.
      */
+    public List<ID_TYPE> searchForIdsWithTrackedGenerationToken(String text, long token) {
+        awaitVisibility(token, 1000 /* timeout */);
+        return searchForIds(text);
+    }
+
+    /**
+     * Returns the generation of the {@link TrackingIndexWriter}. Writes applied
+     * before the call are searchable once the reopenThread has reopened the
+     * searcher for the generation.
+     *
+     * @return generation of the applied writes
+     */
     @Override
-    public List<ID_TYPE> searchForIds(String text) {
+    public long getWriteGeneration() {
         try {
-            IndexSearcher indexSearcher = getIndexSearcher();
-            try {
-                return super.searchForIds(text, indexSearcher);
-            } finally {
-                getSearcherManager().release(indexSearcher);
-            }
-        } catch (IndexNotFoundException e) {
-            LOGGER.info("Index was not found on given directory [{}]. Recreating indexes...", resourcePath);
-            reIndexAsync();
-            return Collections.emptyList();
-        } catch (IndexFormatTooOldException e) {
-            LOGGER.info("Index found on given directory [{}] are too old. Recreating indexes...", resourcePath);
-            reIndexAsync();
-            return Collections.emptyList();
-        } catch (Exception e) {
+            getSearcherManager();
+        } catch (IOException e) {
             LOGGER.error("Unexpected error occurred. ", e);
-            return Collections.emptyList();
+            return 0;
         }
+        TrackingIndexWriter writer = trackingIndexWriter;
+        return writer == null ? 0 : writer.getGeneration();
     }
 
     /**
-     * Searches indexes for given text and returns list of identifiers.
+     * Waits for the reopenThread to reopen the searcher for given generation.
+     * A generation issued before the index was rebuilt is taken as visible.
      *
-     * This method is specially designed to return search result from given index generation.
-     * If the index version/generation is not found on the {@link SearcherManager} thread
-     * will be waited.
-     *
-     * Will obtain {@link IndexSearcher} by {@link SearcherManager} and once done
-     * {@link IndexSearcher} will be returned by calling {@link SearcherManager#release(Object)}
-     *
-     * @param text  text to search
-     * @param token token denoting the generation/version of the index
-     * @return list of ID_TYPE of matching entities to given text.
+     * @param generation    generation returned by {@link #getWriteGeneration()}
+     *                      or {@link #addIndexAndGeneateTrackedToken(Serializable, String)}
+     * @param timeoutMillis max time to wait
+     * @return true if the writes are visible
      */
-    public List<ID_TYPE> searchForIdsWithTrackedGenerationToken(String text, long token) {
+    @Override
+    public boolean awaitVisibility(long generation, long timeoutMillis) {
+        if (generation <= 0)
+            return true;
         try {
-            reopenThread.waitForGeneration(token, 1000 /* timeout */);
+            getSearcherManager();
+            AdaptiveReopenThread thread = reopenThread;
+            return thread == null || thread.waitForGeneration(generation, (int) Math.min(Integer.MAX_VALUE, timeoutMillis));
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             LOGGER.error("Interruption error occurred. ", e);
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Token [{}] was issued for a previous index generation", generation);
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Unexpected error occurred. ", e);
         }
-        return searchForIds(text);
+        return false;
     }
 
     /**
@@ -164,17 +198,42 @@ public class NRTReopenThreadSearchProcessor<ID_TYPE extends Serializable, E exte
      * @return index version token
      */
     public long addIndexAndGeneateTrackedToken(ID_TYPE id, String content) {
+        long sequence = logIndexWrite(WriteAheadLog.Operation.UPDATE, id);
+        boolean applied = false;
+        Lock lock = generationLock.readLock();
+        lock.lock();
         try {
-            IndexWriter writer = getIndexWriter();
-            long token = trackingIndexWriter.addDocument(createDocument(id, content));
-            writer.commit();
+            getSearcherManager();
+            Document document = createDocument(id, content);
+            long token = trackingIndexWriter.addDocument(document);
+            mirrorUpdateToRebuild(getIdTerm(id), document);
+            notifyIndexUpdated();
+            applied = true;
             return token;
         } catch (IOException e) {
             LOGGER.error("Unexpected error occurred. ", e);
+        } finally {
+            lock.unlock();
+            indexWriteApplied(sequence, applied);
         }
         return 0;
     }
 
+    /**
+     * Registers the change with the group commit scheduler and reports it to
+     * the reopenThread, so it becomes visible to the searches.
+     *
+     * @return sequence number of the change
+     */
+    @Override
+    protected long notifyIndexUpdated() {
+        long sequence = super.notifyIndexUpdated();
+        AdaptiveReopenThread thread = reopenThread;
+        if (thread != null)
+            thread.writeApplied();
+        return sequence;
+    }
+
     /**
      * Will return {@link IndexSearcher} instance acquired by {@link SearcherManager}.
      * Note: {@link IndexSearcher} must be released to avoid leaks.
@@ -186,6 +245,17 @@ public class NRTReopenThreadSearchProcessor<ID_TYPE extends Serializable, E exte
         return getSearcherManager().acquire();
     }
 
+    /**
+     * Returns the {@link IndexSearcher} to the {@link SearcherManager}.
+     *
+     * @param indexSearcher searcher to release
+     * @throws IOException
+     */
+    @Override
+    protected void releaseIndexSearcher(IndexSearcher indexSearcher) throws IOException {
+        getSearcherManager().release(indexSearcher);
+    }
+
     /**
      * Returns {@link SearcherManager} instance. If not created yet creates the instance.
      *
@@ -202,7 +272,7 @@ public class NRTReopenThreadSearchProcessor<ID_TYPE extends Serializable, E exte
         SearcherManager searcherManager = super.getSearcherManager();
 
         initTrackingIndexWriter();
-        initControlledRealTimeReopenThread(searcherManager);
+        initReopenThread(searcherManager);
 
         return searcherManager;
     }
@@ -226,23 +296,59 @@ public class NRTReopenThreadSearchProcessor<ID_TYPE extends Serializable, E exte
      *
      * @param searcherManager the {@link SearcherManager} instance
      */
-    private void initControlledRealTimeReopenThread(SearcherManager searcherManager) {
+    private void initReopenThread(SearcherManager searcherManager) {
         if (reopenThread == null) {
             synchronized (this) {
                 if (reopenThread == null) {
-                    reopenThread = new ControlledRealTimeReopenThread<>(trackingIndexWriter, searcherManager, 5, 0.01f);
-                    reopenThread.start();
+                    AdaptiveReopenThread thread = new AdaptiveReopenThread(trackingIndexWriter, searcherManager,
+                            minReopenStaleMillis, maxReopenStaleMillis, maxReopenCostShare);
+                    thread.start();
+                    thread.writeApplied(); // writes applied before the thread started
+                    reopenThread = thread;
                 }
             }
         }
     }
 
+    /**
+     * Stops the reopenThread of the previous generation before its
+     * {@link SearcherManager} is closed. Generation tokens issued before the
+     * switch are not valid for the new generation.
+     *
+     * @param generation directory of the previous generation
+     * @throws IOException when resources could not be released
+     */
+    @Override
+    protected synchronized void releaseGeneration(Path generation) throws IOException {
+        if (reopenThread != null) {
+            reopenThread.close();
+            reopenThread = null;
+        }
+        trackingIndexWriter = null;
+        super.releaseGeneration(generation);
+    }
+
+    /**
+     * Sets the bounds of the reopen interval. Allows to configure the instance
+     * without property placeholders. eg. benchmarks, tools. Call before the
+     * first search.
+     *
+     * @param minStaleMillis min time between two reopens
+     * @param maxStaleMillis max time a write stays invisible to the searches which do not wait for it
+     * @param maxCostShare   max share of the time spent reopening while no search is waiting
+     */
+    public void setReopenBounds(long minStaleMillis, long maxStaleMillis, double maxCostShare) {
+        this.minReopenStaleMillis = minStaleMillis;
+        this.maxReopenStaleMillis = maxStaleMillis;
+        this.maxReopenCostShare = maxCostShare;
+    }
+
     /**
      * Releases and closes resources before destroy.
-     * Resources: {@link IndexWriter}, {@link ControlledRealTimeReopenThread}
+     * Resources: {@link IndexWriter}, {@link AdaptiveReopenThread}
      */
     @PreDestroy
-    protected void destroy() {
+    public void destroy() {
         super.destroy();
         if (reopenThread != null) {
             reopenThread.close();
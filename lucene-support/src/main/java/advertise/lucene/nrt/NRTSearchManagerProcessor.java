@@ -21,19 +21,13 @@ import advertise.lucene.LuceneIndexableEntity;
 import advertise.lucene.LuceneIndexableEntityService;
 import advertise.lucene.LuceneSearchProcessor;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.index.IndexFormatTooOldException;
-import org.apache.lucene.index.IndexNotFoundException;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.search.*;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import support.helper.SearchType;
 import support.types.IdentifierTypeConverter;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.Collections;
-import java.util.List;
 
 /**
  * This {@link advertise.lucene.LuceneSearchProcessor} implementation uses
@@ -58,8 +52,6 @@ import java.util.List;
  */
 public class NRTSearchManagerProcessor<ID_TYPE extends Serializable, E extends LuceneIndexableEntity<ID_TYPE>> extends NRTSearchProcessor<ID_TYPE, E> {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(NRTSearchManagerProcessor.class);
-
     /**
      * Initiates created instance with indexableEntityService, typeConverter,
      * searchType, sortByInsertionOrder, sortInsertionOrderDesc properties
@@ -86,37 +78,6 @@ public class NRTSearchManagerProcessor<ID_TYPE extends Serializable, E extends L
         this.typeConverter = typeConverter;
     }
 
-    /**
-     * Searches indexes for given text and returns list of identifiers.
-     * Will obtain {@link IndexSearcher} by {@link SearcherManager} and once done
-     * {@link IndexSearcher} will be returned by calling {@link SearcherManager#release(Object)}
-     *
-     * @param text text to search
-     * @return list of ID_TYPE of matching entities to given text.
-     */
-    @Override
-    public List<ID_TYPE> searchForIds(String text) {
-        try {
-            IndexSearcher indexSearcher = getIndexSearcher();
-            try {
-                return super.searchForIds(text, indexSearcher);
-            } finally {
-                getSearcherManager().release(indexSearcher);
-            }
-        } catch (IndexNotFoundException e) {
-            LOGGER.info("Index was not found on given directory [{}]. Recreating indexes...", resourcePath);
-            reIndexAsync();
-            return Collections.emptyList();
-        } catch (IndexFormatTooOldException e) {
-            LOGGER.info("Index found on given directory [{}] are too old. Recreating indexes...", resourcePath);
-            reIndexAsync();
-            return Collections.emptyList();
-        } catch (Exception e) {
-            LOGGER.error("Unexpected error occurred. ", e);
-            return Collections.emptyList();
-        }
-    }
-
     /**
      * Will return {@link IndexSearcher} instance acquired by {@link SearcherManager}.
      * Note: {@link IndexSearcher} must be released to avoid leaks.
@@ -129,4 +90,15 @@ public class NRTSearchManagerProcessor<ID_TYPE extends Serializable, E extends L
         searcherManager.maybeRefresh();
         return searcherManager.acquire();
     }
+
+    /**
+     * Returns the {@link IndexSearcher} to the {@link SearcherManager}.
+     *
+     * @param indexSearcher searcher to release
+     * @throws IOException
+     */
+    @Override
+    protected void releaseIndexSearcher(IndexSearcher indexSearcher) throws IOException {
+        getSearcherManager().release(indexSearcher);
+    }
 }
@@ -17,31 +17,39 @@
  */
 package advertise.lucene.nrt;
 
+import advertise.lucene.IndexWritingSearchProcessor;
 import advertise.lucene.LuceneIndexableEntityService;
 import advertise.lucene.LuceneSearchProcessor;
 import advertise.lucene.LuceneIndexableEntity;
+import advertise.lucene.replication.ReplicationServer;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
-import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.index.SimpleMergedSegmentWarmer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.util.InfoStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import support.helper.SearchType;
 import support.types.IdentifierTypeConverter;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.locks.Lock;
 
 /**
  * This {@link LuceneSearchProcessor} implementation uses lucene Near-real-time
@@ -56,6 +64,11 @@ import java.util.concurrent.atomic.AtomicInteger;
  * <p>This implementation uses <code>NRTCachingDirectory</code>. Cache size
  * has been defined in <code>NRT_CACHING_DIR_SIZE</code> constant.</p>
  *
+ * <p>Changes are committed in groups by a {@link GroupCommitScheduler}, since
+ * commits are only required for durability and not for visibility. With the
+ * write-ahead log enabled, changes not committed before a crash are replayed
+ * when the writer is opened.</p>
+ *
  *
  * @author Yasitha Thilakaratne
  * @see    advertise.lucene.legacy.LegacySearchProcessor
@@ -63,19 +76,61 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @see    <a href="https://lucene.apache.org/core/4_6_0/core/org/apache/lucene/search/ControlledRealTimeReopenThread.html">org.apache.lucene.search.ControlledRealTimeReopenThread</a>
  * @since  mca-mtn-1.1.24
  */
-public abstract class NRTSearchProcessor<ID_TYPE extends Serializable, E extends LuceneIndexableEntity<ID_TYPE>> extends LuceneSearchProcessor<ID_TYPE, E> {
+public abstract class NRTSearchProcessor<ID_TYPE extends Serializable, E extends LuceneIndexableEntity<ID_TYPE>> extends IndexWritingSearchProcessor<ID_TYPE, E> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(NRTSearchProcessor.class);
 
     private static final double NRT_CACHING_DIR_SIZE = 128;
 
-    private static final int PENDING_COMMIT_THRESHOLD = 20;
+    /**
+     * Writes are committed in groups. A commit happens when this many writes
+     * are waiting to be committed.
+     */
+    @Value("${index.commit.max.pending.writes:1000}")
+    protected int maxPendingWrites = 1000;
+
+    /**
+     * Writes are committed in groups. A commit happens when the oldest write
+     * waiting to be committed is this old (milliseconds).
+     */
+    @Value("${index.commit.max.latency.ms:1000}")
+    protected long maxCommitLatencyMillis = 1000;
 
-    private IndexWriter w;
+    /**
+     * Port to serve the commits of this node to replica nodes on, see
+     * {@link ReplicationServer}. 0 to not serve replicas.
+     */
+    @Value("${index.replication.port:0}")
+    protected int replicationPort;
 
-    private NRTCachingDirectory cachedFSDirectory;
+    /**
+     * Address to serve replica nodes on, eg. the address of the private network
+     * of the nodes.
+     */
+    @Value("${index.replication.bind.address:127.0.0.1}")
+    protected String replicationBindAddress = "127.0.0.1";
 
-    private SearcherManager searcherManager;
+    /**
+     * Secret shared by the primary and the replica nodes. Required to serve replicas.
+     */
+    @Value("${index.replication.secret:}")
+    protected String replicationSecret = "";
+
+    /**
+     * Max number of replica nodes served at the same time.
+     */
+    @Value("${index.replication.max.sessions:16}")
+    protected int maxReplicationSessions = 16;
+
+    private ReplicationServer replicationServer;
+
+    private volatile IndexWriter w;
+
+    private GroupCommitScheduler commitScheduler;
+
+    private volatile NRTCachingDirectory cachedFSDirectory;
+
+    private volatile SearcherManager searcherManager;
 
     /**
      * Initiates created instance with indexableEntityService, typeConverter,
@@ -103,63 +158,178 @@ public abstract class NRTSearchProcessor<ID_TYPE extends Serializable, E extends
         this.typeConverter = typeConverter;
     }
 
-    private AtomicInteger threadsInWritingBlock = new AtomicInteger();
-    private AtomicInteger pendingCommits = new AtomicInteger();
-
     /**
-     * Adds index with given id and content.
+     * Adds given document to the index.
      *
-     * @param id      identifier to index.
-     * @param content text/content to index.
+     * @param id       identifier of the document.
+     * @param document document to index.
+     * @return true if the document has been added
      */
     @Override
-    public void addIndex(ID_TYPE id, String content) {
+    protected boolean addDocument(ID_TYPE id, Document document) {
+        Lock lock = generationLock.readLock();
+        lock.lock();
         try {
             IndexWriter writer = getIndexWriter();
 
-            notifyAboutToIndexUpdate();
+            writer.addDocument(document);
+            mirrorUpdateToRebuild(getIdTerm(id), document);
 
-            writer.addDocument(createDocument(id, content));
-
-            commitAfterWrittenOrInIntervals();
+            notifyIndexUpdated();
+            return true;
         } catch (IOException e) {
             LOGGER.error("Unexpected error occurred. ", e);
+            return false;
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
-     * Deletes index by given identifier.
+     * Replaces the document having the identifier term.
      *
-     * @param id index to be removed
+     * @param idTerm   term of the identifier of the document
+     * @param document document to add
+     * @return true if the document has been replaced
      */
     @Override
-    public void deleteIndex(long id) {
+    protected boolean updateDocument(Term idTerm, Document document) {
+        Lock lock = generationLock.readLock();
+        lock.lock();
         try {
             IndexWriter writer = getIndexWriter();
 
-            Query query = NumericRangeQuery.newLongRange(FIELD_NAME_ID, id, id, true, true);
+            writer.updateDocument(idTerm, document);
+            mirrorUpdateToRebuild(idTerm, document);
+
+            notifyIndexUpdated();
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Unexpected error occurred. ", e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            notifyAboutToIndexUpdate();
+    /**
+     * Deletes the documents matching the given query.
+     *
+     * @param query documents to be removed
+     * @return true if the documents have been deleted
+     */
+    @Override
+    protected boolean deleteDocuments(Query query) {
+        Lock lock = generationLock.readLock();
+        lock.lock();
+        try {
+            IndexWriter writer = getIndexWriter();
 
             writer.deleteDocuments(query);
+            mirrorDeleteToRebuild(query);
 
-            commitAfterWrittenOrInIntervals();
+            notifyIndexUpdated();
+            return true;
         } catch (Exception e) {
             LOGGER.error("Unexpected error occurred. ", e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the documents having any of the identifier terms.
+     *
+     * @param idTerms terms of the identifiers of the documents
+     * @return true if the documents have been deleted
+     */
+    @Override
+    protected boolean deleteDocuments(Term... idTerms) {
+        Lock lock = generationLock.readLock();
+        lock.lock();
+        try {
+            IndexWriter writer = getIndexWriter();
+
+            writer.deleteDocuments(idTerms);
+            mirrorDeleteToRebuild(idTerms);
+
+            notifyIndexUpdated();
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Unexpected error occurred. ", e);
+            return false;
+        } finally {
+            lock.unlock();
         }
     }
 
-    private void notifyAboutToIndexUpdate() { //TODO
-        threadsInWritingBlock.incrementAndGet();
+    /**
+     * Registers a change applied to the {@link IndexWriter} with the group
+     * commit scheduler. Change will be committed with the next group commit.
+     *
+     * @return sequence number of the change
+     */
+    protected long notifyIndexUpdated() {
+        return commitScheduler.writeCompleted();
+    }
+
+    /**
+     * Starts serving the commits of this node to replica nodes, if a
+     * replication port has been configured. Replicas see the changes of this
+     * node once they are committed, so the commit latency bounds their lag.
+     *
+     * @throws IOException when the port could not be bound
+     * @throws IllegalArgumentException when the replication secret has not been configured
+     */
+    @PostConstruct
+    public synchronized void startReplication() throws IOException {
+        if (replicationPort > 0 && replicationServer == null)
+            replicationServer = new ReplicationServer(replicationBindAddress, replicationPort, replicationSecret,
+                    maxReplicationSessions, new ReplicationPrimary());
     }
 
-    private void commitAfterWrittenOrInIntervals() throws IOException { //TODO
-        if (threadsInWritingBlock.decrementAndGet() == 0 || pendingCommits.incrementAndGet() > PENDING_COMMIT_THRESHOLD) {
-            pendingCommits.set(0);
-            w.commit();
+    /**
+     * Applies the writes forwarded by the replicas to this node.
+     */
+    private final class ReplicationPrimary implements ReplicationServer.Primary {
+
+        @Override
+        public IndexWriter getIndexWriter() throws IOException {
+            return NRTSearchProcessor.this.getIndexWriter();
+        }
+
+        @Override
+        public void refreshIndex(String id) {
+            NRTSearchProcessor.this.refreshIndex(typeConverter.getValueInType(id));
+        }
+
+        @Override
+        public void deleteIndex(String id) {
+            deleteIndexes(Collections.singletonList(typeConverter.getValueInType(id)));
+        }
+
+        @Override
+        public void reIndexAsync() {
+            NRTSearchProcessor.this.reIndexAsync();
         }
     }
 
+    /**
+     * Sets the address to serve replicas on and the secret they have to know.
+     * Allows to configure the instance without property placeholders. eg.
+     * benchmarks, tools. Call {@link #startReplication()} afterwards.
+     *
+     * @param bindAddress address to serve replicas on
+     * @param port        port to serve replicas on
+     * @param secret      secret shared with the replicas
+     */
+    public void setReplication(String bindAddress, int port, String secret) {
+        this.replicationBindAddress = bindAddress;
+        this.replicationPort = port;
+        this.replicationSecret = secret;
+    }
+
     /**
      * Returns shared {@link IndexWriter} instance. If not created yet creates the instance.
      *
@@ -172,18 +342,35 @@ public abstract class NRTSearchProcessor<ID_TYPE extends Serializable, E extends
         return w;
     }
 
+    /**
+     * @return the shared {@link IndexWriter} instance
+     * @throws IOException
+     */
+    @Override
+    protected IndexWriter[] getIndexWriters() throws IOException {
+        return new IndexWriter[]{getIndexWriter()};
+    }
+
     /**
      * Creates shared {@link IndexWriter} from cashed directory if not created yet.
      *
      * @throws IOException
      */
     private synchronized void createIndexWriter() throws IOException {
-        initDirectory();
-        Analyzer analyzer = new StandardAnalyzer();
-        IndexWriterConfig config = new IndexWriterConfig(analyzer);
-        config.setRAMBufferSizeMB(RAM_BUFFER_SIZE);
-        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-        w = new IndexWriter(cachedFSDirectory, config);
+        if (w == null) {
+            initDirectory();
+            Analyzer analyzer = new StandardAnalyzer();
+            IndexWriterConfig config = new IndexWriterConfig(analyzer);
+            config.setRAMBufferSizeMB(RAM_BUFFER_SIZE);
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            config.setMergedSegmentWarmer(new SimpleMergedSegmentWarmer(InfoStream.getDefault()));
+            applyIndexSort(config);
+            applySnapshotPolicy(config);
+            IndexWriter writer = new IndexWriter(cachedFSDirectory, config);
+            commitScheduler = new GroupCommitScheduler(writer, maxPendingWrites, maxCommitLatencyMillis, this::setCommitData, this::committed);
+            w = writer;
+            replayWriteAheadLog(writer);
+        }
     }
 
     /**
@@ -220,24 +407,53 @@ public abstract class NRTSearchProcessor<ID_TYPE extends Serializable, E extends
     }
 
     /**
-     * Creates {@link SearcherManager} if not created yet.
+     * Creates {@link SearcherManager} if not created yet. Identifiers of the
+     * segments are cached whenever the {@link SearcherManager} opens a reader.
      *
      * @throws IOException
      */
     private synchronized void createSearchManager() throws IOException {
         if (searcherManager == null) {
             IndexWriter writer = getIndexWriter();
-            searcherManager = new SearcherManager(writer, true, new SearcherFactory());
+            searcherManager = new SearcherManager(writer, true, newSearcherFactory());
         }
     }
 
+    /**
+     * Closes the {@link SearcherManager} and the {@link IndexWriter} of the previous
+     * generation. The current searcher is tracked so the generation is kept until
+     * in-flight searches release it. Next use creates the writer and the
+     * {@link SearcherManager} on the new generation.
+     *
+     * @param generation directory of the previous generation
+     * @throws IOException when the {@link SearcherManager} could not be closed
+     */
+    @Override
+    protected synchronized void releaseGeneration(Path generation) throws IOException {
+        SearcherManager previousManager = searcherManager;
+        searcherManager = null;
+        if (previousManager != null) {
+            IndexSearcher searcher = previousManager.acquire();
+            try {
+                getGenerations().track(generation, searcher.getIndexReader());
+            } finally {
+                previousManager.release(searcher);
+            }
+            previousManager.close();
+        }
+        closeWriter();
+        cachedFSDirectory = null;
+    }
+
     /**
      * Closes shared {@link IndexWriter} instance.
      */
     @Override
     protected synchronized void closeWriter() {
         if (w != null) {
+            commitScheduler.close();
             try {
+                setCommitData(w);
                 w.close();
                 w = null;
             } catch (IOException e) {
@@ -245,4 +461,19 @@ public abstract class NRTSearchProcessor<ID_TYPE extends Serializable, E extends
             }
         }
     }
+
+    /**
+     * Stops serving replicas and releases resources before destroy.
+     */
+    @Override
+    @PreDestroy
+    public void destroy() {
+        synchronized (this) {
+            if (replicationServer != null) {
+                replicationServer.close();
+                replicationServer = null;
+            }
+        }
+        super.destroy();
+    }
 }
@@ -0,0 +1,662 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.nrt;
+
+import advertise.lucene.LuceneIndexableEntity;
+import advertise.lucene.IndexWritingSearchProcessor;
+import advertise.lucene.LuceneIndexableEntityService;
+import advertise.lucene.LuceneSearchProcessor;
+import advertise.lucene.util.IndexGenerations;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.util.InfoStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import support.helper.SearchType;
+import support.types.IdentifierTypeConverter;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * This {@link LuceneSearchProcessor} implementation partitions the documents
+ * across a number of shards by a hash of their identifier. Each shard is a
+ * separate index with its own {@link IndexWriter}, group commits and
+ * {@link SearcherManager}, so writes to different shards do not contend.
+ * Searchers of a shard are reopened in the background by its own
+ * {@link AdaptiveReopenThread}, like {@link NRTReopenThreadSearchProcessor}.
+ *
+ * <p>A search acquires a searcher of every shard and runs on a
+ * {@link MultiReader} over them. Each shard is searched by a task on a bounded
+ * executor and top hits of the shards are merged by the {@link IndexSearcher},
+ * with the same sort as an unsharded search. When the executor is busy the
+ * searching thread searches the shards itself.
+ *
+ * <p>Shards of a generation are kept in <code>shard-&lt;n&gt;</code> sub
+ * directories. Number of shards of an existing index is not changed until the
+ * next {@link #reIndex()}, since documents would be looked up in the wrong shard.
+ *
+ * @param <ID_TYPE> Type of the identifier of the entity to index.
+ * @param <E>       Entity class that indexed by lucene.
+ *                  Needs to implement {@link LuceneIndexableEntity}} interface.
+ *                  Should have ID_TYPE identical identifier field to be fetched.
+ *
+ * @see NRTSearchManagerProcessor
+ */
+public class ShardedSearchProcessor<ID_TYPE extends Serializable, E extends LuceneIndexableEntity<ID_TYPE>> extends IndexWritingSearchProcessor<ID_TYPE, E> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardedSearchProcessor.class);
+
+    private static final double NRT_CACHING_DIR_SIZE = 128;
+
+    /**
+     * Max number of shard searches waiting for a search thread, per thread.
+     */
+    private static final int SEARCH_QUEUE_SIZE_PER_THREAD = 16;
+
+    /**
+     * Number of shards of a new index. 0 for the number of processors.
+     */
+    @Value("${index.shards:0}")
+    protected int shardCount;
+
+    /**
+     * Number of threads searching the shards. 0 for the number of processors.
+     */
+    @Value("${index.shard.search.threads:0}")
+    protected int searchThreads;
+
+    /**
+     * Writes are committed in groups per shard. A commit happens when this many
+     * writes are waiting to be committed.
+     */
+    @Value("${index.commit.max.pending.writes:1000}")
+    protected int maxPendingWrites = 1000;
+
+    /**
+     * Writes are committed in groups per shard. A commit happens when the oldest
+     * write waiting to be committed is this old (milliseconds).
+     */
+    @Value("${index.commit.max.latency.ms:1000}")
+    protected long maxCommitLatencyMillis = 1000;
+
+    /**
+     * Min time between two reopens of a shard in milliseconds.
+     */
+    @Value("${index.reopen.min.stale.ms:10}")
+    protected long minReopenStaleMillis = 10;
+
+    /**
+     * Max time in milliseconds a write stays invisible to the searches which
+     * do not wait for it.
+     */
+    @Value("${index.reopen.max.stale.ms:5000}")
+    protected long maxReopenStaleMillis = 5000;
+
+    /**
+     * Max share of the time spent reopening a shard while no search is waiting.
+     */
+    @Value("${index.reopen.max.cost.share:0.1}")
+    protected double maxReopenCostShare = 0.1;
+
+    private volatile Shard[] shards;
+
+    private volatile ExecutorService searchExecutor;
+
+    /**
+     * Index of a shard of the current generation.
+     */
+    private static final class Shard {
+
+        private final IndexWriter writer;
+
+        private final GroupCommitScheduler commitScheduler;
+
+        private final SearcherManager searcherManager;
+
+        private final TrackingIndexWriter trackingWriter;
+
+        private final AdaptiveReopenThread reopenThread;
+
+        private Shard(IndexWriter writer, GroupCommitScheduler commitScheduler, SearcherManager searcherManager,
+                      TrackingIndexWriter trackingWriter, AdaptiveReopenThread reopenThread) {
+            this.writer = writer;
+            this.commitScheduler = commitScheduler;
+            this.searcherManager = searcherManager;
+            this.trackingWriter = trackingWriter;
+            this.reopenThread = reopenThread;
+        }
+
+        /**
+         * Registers a write applied to the shard with the group commit
+         * scheduler and the reopenThread.
+         */
+        private void writeApplied() {
+            commitScheduler.writeCompleted();
+            reopenThread.writeApplied();
+        }
+
+        private void close() {
+            reopenThread.close();
+            try {
+                searcherManager.close();
+            } catch (IOException e) {
+                LOGGER.error("Error occurred while closing the searcher manager. ", e);
+            }
+            commitScheduler.close();
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOGGER.error("Error occurred while closing the writer. ", e);
+            }
+        }
+    }
+
+    /**
+     * {@link IndexSearcher} over the searchers acquired from the shards. Leaves
+     * of a shard are searched by a single task.
+     */
+    private static final class ShardedIndexSearcher extends IndexSearcher {
+
+        private final Shard[] shards;
+
+        private final IndexSearcher[] shardSearchers;
+
+        private ShardedIndexSearcher(Shard[] shards, IndexSearcher[] shardSearchers, MultiReader reader, ExecutorService executor) {
+            super(reader, executor);
+            this.shards = shards;
+            this.shardSearchers = shardSearchers;
+            setQueryCachingPolicy(FILTER_CACHING_POLICY);
+        }
+
+        @Override
+        protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+            Map<IndexReaderContext, List<LeafReaderContext>> leavesByShard = new LinkedHashMap<>();
+            for (LeafReaderContext leaf : leaves) {
+                leavesByShard.computeIfAbsent(leaf.parent, shard -> new ArrayList<>()).add(leaf);
+            }
+            List<LeafSlice> slices = new ArrayList<>(leavesByShard.size());
+            for (List<LeafReaderContext> shardLeaves : leavesByShard.values()) {
+                slices.add(new LeafSlice(shardLeaves.toArray(new LeafReaderContext[shardLeaves.size()])));
+            }
+            return slices.toArray(new LeafSlice[slices.size()]);
+        }
+    }
+
+    /**
+     * Initiates created instance with indexableEntityService, typeConverter,
+     * searchType, sortByInsertionOrder, sortInsertionOrderDesc properties
+     * in super level.
+     * Initializing these are compulsory for {@link LuceneSearchProcessor} so
+     * this is the only constructor the class has.
+     *
+     * @param indexableEntityService a service instance to fetch {@link LuceneIndexableEntity}
+     *                               when required.
+     * @param typeConverter          a {@link IdentifierTypeConverter} instance
+     *                               to convert identifier type to relevant
+     *                               {@link Field} type.
+     * @param searchType             type of the search to perform. Related query
+     *                               to given option will be performed.
+     * @param sortByInsertionOrder   true to maintain insertion order while querying.
+     *                               Note: this flag need to be set while creating
+     *                               indexes if required to fetch in order.
+     * @param sortInsertionOrderDesc true to sort insertion order descending. Last
+     *                               inserted entity will be fetched first.
+     */
+    public ShardedSearchProcessor(LuceneIndexableEntityService<ID_TYPE, E> indexableEntityService, IdentifierTypeConverter<ID_TYPE> typeConverter,
+                                  SearchType searchType, boolean sortByInsertionOrder, boolean sortInsertionOrderDesc) {
+        super(indexableEntityService, typeConverter, searchType, sortByInsertionOrder, sortInsertionOrderDesc);
+        this.typeConverter = typeConverter;
+    }
+
+    /**
+     * Acquires a searcher from the {@link SearcherManager} of every shard and
+     * returns an {@link IndexSearcher} searching them in parallel. Searchers
+     * are not refreshed here, the reopenThreads of the shards reopen them.
+     * Note: {@link IndexSearcher} must be released to avoid leaks.
+     *
+     * @return {@link IndexSearcher} instance
+     * @throws IOException
+     */
+    @Override
+    protected IndexSearcher getIndexSearcher() throws IOException {
+        Shard[] shards = getShards();
+        IndexSearcher[] shardSearchers = new IndexSearcher[shards.length];
+        IndexReader[] shardReaders = new IndexReader[shards.length];
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                shardSearchers[i] = shards[i].searcherManager.acquire();
+                shardReaders[i] = shardSearchers[i].getIndexReader();
+            }
+            return new ShardedIndexSearcher(shards, shardSearchers, new MultiReader(shardReaders, false), getSearchExecutor());
+        } catch (IOException | RuntimeException e) {
+            release(shards, shardSearchers);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the searchers of the shards to their {@link SearcherManager}s.
+     *
+     * @param indexSearcher searcher to release
+     * @throws IOException
+     */
+    @Override
+    protected void releaseIndexSearcher(IndexSearcher indexSearcher) throws IOException {
+        ShardedIndexSearcher shardedSearcher = (ShardedIndexSearcher) indexSearcher;
+        try {
+            shardedSearcher.getIndexReader().close();
+        } finally {
+            release(shardedSearcher.shards, shardedSearcher.shardSearchers);
+        }
+    }
+
+    private static void release(Shard[] shards, IndexSearcher[] shardSearchers) throws IOException {
+        for (int i = 0; i < shards.length; i++) {
+            if (shardSearchers[i] != null)
+                shards[i].searcherManager.release(shardSearchers[i]);
+        }
+    }
+
+    /**
+     * Adds given document to the shard of the identifier.
+     *
+     * @param id       identifier of the document.
+     * @param document document to index.
+     * @return true if the document has been added
+     */
+    @Override
+    protected boolean addDocument(ID_TYPE id, Document document) {
+        Lock lock = generationLock.readLock();
+        lock.lock();
+        try {
+            Term idTerm = getIdTerm(id);
+            Shard shard = getShard(idTerm);
+
+            shard.writer.addDocument(document);
+            mirrorUpdateToRebuild(idTerm, document);
+
+            shard.writeApplied();
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Unexpected error occurred. ", e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the document having the identifier term in its shard.
+     *
+     * @param idTerm   term of the identifier of the document
+     * @param document document to add
+     * @return true if the document has been replaced
+     */
+    @Override
+    protected boolean updateDocument(Term idTerm, Document document) {
+        Lock lock = generationLock.readLock();
+        lock.lock();
+        try {
+            Shard shard = getShard(idTerm);
+
+            shard.writer.updateDocument(idTerm, document);
+            mirrorUpdateToRebuild(idTerm, document);
+
+            shard.writeApplied();
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Unexpected error occurred. ", e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the documents matching the given query from all the shards.
+     *
+     * @param query documents to be removed
+     * @return true if the documents have been deleted
+     */
+    @Override
+    protected boolean deleteDocuments(Query query) {
+        Lock lock = generationLock.readLock();
+        lock.lock();
+        try {
+            for (Shard shard : getShards()) {
+                shard.writer.deleteDocuments(query);
+                shard.writeApplied();
+            }
+            mirrorDeleteToRebuild(query);
+            return true;
+        } catch (Exception e) {
+            LOGGER.error("Unexpected error occurred. ", e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the documents having any of the identifier terms from their shards.
+     *
+     * @param idTerms terms of the identifiers of the documents
+     * @return true if the documents have been deleted
+     */
+    @Override
+    protected boolean deleteDocuments(Term... idTerms) {
+        Lock lock = generationLock.readLock();
+        lock.lock();
+        try {
+            for (Term idTerm : idTerms) {
+                Shard shard = getShard(idTerm);
+
+                shard.writer.deleteDocuments(idTerm);
+                shard.writeApplied();
+            }
+            mirrorDeleteToRebuild(idTerms);
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Unexpected error occurred. ", e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the sum of the generations of the {@link TrackingIndexWriter}s
+     * of the shards. Shards track their generations independently, so the sum
+     * only tells whether there are writes to wait for, see
+     * {@link #awaitVisibility(long, long)}.
+     *
+     * @return generation of the applied writes
+     */
+    @Override
+    public long getWriteGeneration() {
+        try {
+            long generation = 0;
+            for (Shard shard : getShards())
+                generation += shard.trackingWriter.getGeneration();
+            return generation;
+        } catch (IOException e) {
+            LOGGER.error("Unexpected error occurred. ", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Waits for the reopenThread of every shard to reopen the searcher for the
+     * current generation of the shard, which covers the writes applied before
+     * the call. A generation issued before the index was rebuilt is taken as
+     * visible.
+     *
+     * @param generation    generation returned by {@link #getWriteGeneration()}
+     * @param timeoutMillis max time to wait for all the shards
+     * @return true if the writes are visible
+     */
+    @Override
+    public boolean awaitVisibility(long generation, long timeoutMillis) {
+        if (generation <= 0)
+            return true;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (Shard shard : getShards()) {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                if (!shard.reopenThread.waitForGeneration(shard.trackingWriter.getGeneration(), (int) Math.min(Integer.MAX_VALUE, remaining)))
+                    return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interruption error occurred. ", e);
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("Generation [{}] was issued for a previous index generation", generation);
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Unexpected error occurred. ", e);
+        }
+        return false;
+    }
+
+    /**
+     * @return configured number of shards, or the number of processors when not configured
+     */
+    @Override
+    protected int getShardCount() {
+        return shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return the <code>shard-&lt;n&gt;</code> sub directory of the generation
+     */
+    @Override
+    protected Path getShardPath(Path generation, int shard) {
+        return IndexGenerations.shard(generation, shard);
+    }
+
+    private Shard getShard(Term idTerm) throws IOException {
+        Shard[] shards = getShards();
+        return shards[getShard(idTerm, shards.length)];
+    }
+
+    /**
+     * Returns the shards of the current generation. If not opened yet opens
+     * the shards found in the generation, or creates {@link #getShardCount()}
+     * empty shards.
+     *
+     * @return shards of the current generation
+     * @throws IOException
+     */
+    private Shard[] getShards() throws IOException {
+        Shard[] current = shards;
+        if (current == null)
+            current = openShards();
+        return current;
+    }
+
+    private synchronized Shard[] openShards() throws IOException {
+        if (shards == null) {
+            Path generation = getPath();
+            int existing = IndexGenerations.countShards(generation);
+            if (existing > 0 && existing != getShardCount())
+                LOGGER.info("Index [{}] has [{}] shards. Re-index to change the number of shards to [{}]",
+                        new Object[]{generation, existing, getShardCount()});
+
+            Shard[] opened = new Shard[existing > 0 ? existing : getShardCount()];
+            try {
+                for (int i = 0; i < opened.length; i++) {
+                    opened[i] = openShard(getShardPath(generation, i));
+                }
+            } catch (IOException | RuntimeException e) {
+                for (Shard shard : opened) {
+                    if (shard != null) shard.close();
+                }
+                throw e;
+            }
+            shards = opened;
+            replayWriteAheadLog(Arrays.stream(opened).map(shard -> shard.writer).toArray(IndexWriter[]::new));
+            for (Shard shard : opened) {
+                shard.reopenThread.writeApplied(); // replayed writes
+            }
+        }
+        return shards;
+    }
+
+    private Shard openShard(Path directory) throws IOException {
+        NRTCachingDirectory cachedFSDirectory = new NRTCachingDirectory(FSDirectory.open(directory), 5.0, NRT_CACHING_DIR_SIZE);
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        config.setRAMBufferSizeMB(RAM_BUFFER_SIZE);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        config.setMergedSegmentWarmer(new SimpleMergedSegmentWarmer(InfoStream.getDefault()));
+        applyIndexSort(config);
+        applySnapshotPolicy(config);
+        IndexWriter writer = new IndexWriter(cachedFSDirectory, config);
+        try {
+            SearcherManager searcherManager = new SearcherManager(writer, true, newSearcherFactory());
+            GroupCommitScheduler commitScheduler = new GroupCommitScheduler(writer, maxPendingWrites, maxCommitLatencyMillis, this::setCommitData, this::committed);
+            TrackingIndexWriter trackingWriter = new TrackingIndexWriter(writer);
+            AdaptiveReopenThread reopenThread = new AdaptiveReopenThread(trackingWriter, searcherManager,
+                    minReopenStaleMillis, maxReopenStaleMillis, maxReopenCostShare);
+            reopenThread.setName("lucene-adaptive-reopen-" + directory.getFileName());
+            reopenThread.start();
+            return new Shard(writer, commitScheduler, searcherManager, trackingWriter, reopenThread);
+        } catch (IOException | RuntimeException e) {
+            writer.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the executor searching the shards. Shard searches beyond the queue
+     * capacity are run by the searching thread.
+     *
+     * @return the shared executor
+     */
+    private ExecutorService getSearchExecutor() {
+        if (searchExecutor == null) {
+            synchronized (this) {
+                if (searchExecutor == null) {
+                    int threads = searchThreads > 0 ? searchThreads : Runtime.getRuntime().availableProcessors();
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    searchExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(threads * SEARCH_QUEUE_SIZE_PER_THREAD),
+                            runnable -> {
+                                Thread thread = new Thread(runnable, "lucene-shard-search-" + threadNumber.getAndIncrement());
+                                thread.setDaemon(true);
+                                return thread;
+                            },
+                            new ThreadPoolExecutor.CallerRunsPolicy());
+                }
+            }
+        }
+        return searchExecutor;
+    }
+
+    /**
+     * Closes the shards of the previous generation. Current searchers of the
+     * shards are tracked so the generation is kept until in-flight searches
+     * release them. Next use opens the shards of the new generation.
+     *
+     * @param generation directory of the previous generation
+     * @throws IOException when a searcher could not be acquired
+     */
+    @Override
+    protected synchronized void releaseGeneration(Path generation) throws IOException {
+        Shard[] previous = shards;
+        if (previous != null) {
+            for (Shard shard : previous) {
+                IndexSearcher searcher = shard.searcherManager.acquire();
+                try {
+                    getGenerations().track(generation, searcher.getIndexReader());
+                } finally {
+                    shard.searcherManager.release(searcher);
+                }
+            }
+        }
+        closeWriter();
+    }
+
+    /**
+     * @return {@link IndexWriter}s of all the shards
+     * @throws IOException
+     */
+    @Override
+    protected IndexWriter[] getIndexWriters() throws IOException {
+        return Arrays.stream(getShards()).map(shard -> shard.writer).toArray(IndexWriter[]::new);
+    }
+
+    /**
+     * Trims the write-ahead log up to the checkpoint committed by every shard,
+     * since the shards commit independently.
+     *
+     * @param writer writer of the shard which committed
+     */
+    @Override
+    protected void committed(IndexWriter writer) {
+        Shard[] current = shards;
+        if (current == null)
+            return;
+        IndexWriter oldest = writer;
+        for (Shard shard : current) {
+            if (getCommittedSequence(shard.writer) < getCommittedSequence(oldest))
+                oldest = shard.writer;
+        }
+        super.committed(oldest);
+    }
+
+    /**
+     * Closes the writers and {@link SearcherManager}s of all the shards.
+     */
+    @Override
+    protected synchronized void closeWriter() {
+        Shard[] previous = shards;
+        shards = null;
+        if (previous != null) {
+            for (Shard shard : previous) {
+                setCommitData(shard.writer);
+                shard.close();
+            }
+        }
+    }
+
+    /**
+     * Sets the number of shards of a new index. Allows to configure the
+     * instance without property placeholders. eg. benchmarks, tools.
+     *
+     * @param shardCount number of shards, 0 for the number of processors
+     */
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * Sets the number of threads searching the shards. Allows to configure the
+     * instance without property placeholders. eg. benchmarks, tools.
+     *
+     * @param searchThreads number of threads, 0 for the number of processors
+     */
+    public void setSearchThreads(int searchThreads) {
+        this.searchThreads = searchThreads;
+    }
+
+    /**
+     * Closes the shards and stops the search threads.
+     */
+    @Override
+    public void destroy() {
+        super.destroy();
+        ExecutorService executor = searchExecutor;
+        if (executor != null)
+            executor.shutdown();
+    }
+}
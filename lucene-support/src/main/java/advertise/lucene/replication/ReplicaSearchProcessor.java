@@ -0,0 +1,525 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.replication;
+
+import advertise.lucene.LuceneIndexableEntity;
+import advertise.lucene.LuceneIndexableEntityService;
+import advertise.lucene.LuceneSearchProcessor;
+import advertise.lucene.WriteAheadLog;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import support.helper.SearchType;
+import support.types.IdentifierTypeConverter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This {@link LuceneSearchProcessor} implementation searches a copy of the
+ * index of a primary node, which owns the only {@link IndexWriter}. The
+ * primary serves its commits with a {@link ReplicationServer}, started by
+ * setting <code>index.replication.port</code> on an
+ * {@link advertise.lucene.nrt.NRTSearchProcessor}.
+ *
+ * <p>A background thread polls the primary every
+ * <code>index.replication.poll.ms</code>, copies the segment files of the
+ * latest commit which are not present locally and refreshes a
+ * {@link SearcherManager} on them. Segment files are never modified once
+ * written, so only new segments are transferred and documents are never
+ * analyzed again on the replica. When the primary switches to a rebuilt index
+ * generation the replica copies it in to a new local generation and switches
+ * to it once complete. A replica lags behind the primary by the commit latency
+ * of the primary plus the poll interval and the copy time.
+ *
+ * <p>Index writes are forwarded to the primary by identifier, and become
+ * visible on every node with the next replicated commit. A write which could
+ * not be forwarded throws. A replica never writes its copy of the index, so
+ * it has no {@link IndexWriter}, unlike the
+ * {@link advertise.lucene.IndexWritingSearchProcessor}s.
+ *
+ * @param <ID_TYPE> Type of the identifier of the entity to index.
+ * @param <E>       Entity class that indexed by lucene.
+ *                  Needs to implement {@link LuceneIndexableEntity}} interface.
+ *                  Should have ID_TYPE identical identifier field to be fetched.
+ *
+ * @see ReplicationServer
+ */
+public class ReplicaSearchProcessor<ID_TYPE extends Serializable, E extends LuceneIndexableEntity<ID_TYPE>> extends LuceneSearchProcessor<ID_TYPE, E> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaSearchProcessor.class);
+
+    /**
+     * File of a local generation recording the primary generation it replicates.
+     */
+    private static final String REPLICATED_GENERATION_FILE = "replicated.generation";
+
+    private static final String PENDING_PREFIX = "pending_";
+
+    private static final int TIMEOUT_MILLIS = 30000;
+
+    /**
+     * host:port of the {@link ReplicationServer} of the primary.
+     */
+    @Value("${index.replication.primary:}")
+    protected String primaryAddress = "";
+
+    /**
+     * Secret shared with the primary, see {@link ReplicationServer}.
+     */
+    @Value("${index.replication.secret:}")
+    protected String secret = "";
+
+    /**
+     * Interval of polling the primary for a new commit in milliseconds.
+     */
+    @Value("${index.replication.poll.ms:500}")
+    protected long pollIntervalMillis = 500;
+
+    private volatile Directory directory;
+
+    private volatile SearcherManager searcherManager;
+
+    private final Object pollSignal = new Object();
+
+    private Thread poller;
+
+    private volatile boolean closed;
+
+    /**
+     * Initiates created instance with indexableEntityService, typeConverter,
+     * searchType, sortByInsertionOrder, sortInsertionOrderDesc properties
+     * in super level.
+     * Initializing these are compulsory for {@link LuceneSearchProcessor} so
+     * this is the only constructor the class has.
+     *
+     * @param indexableEntityService a service instance to fetch {@link LuceneIndexableEntity}
+     *                               when required.
+     * @param typeConverter          a {@link IdentifierTypeConverter} instance
+     *                               to convert identifier type to relevant
+     *                               {@link Field} type.
+     * @param searchType             type of the search to perform. Related query
+     *                               to given option will be performed.
+     * @param sortByInsertionOrder   true to maintain insertion order while querying.
+     *                               Note: this flag need to be set while creating
+     *                               indexes if required to fetch in order.
+     * @param sortInsertionOrderDesc true to sort insertion order descending. Last
+     *                               inserted entity will be fetched first.
+     */
+    public ReplicaSearchProcessor(LuceneIndexableEntityService<ID_TYPE, E> indexableEntityService, IdentifierTypeConverter<ID_TYPE> typeConverter,
+                                  SearchType searchType, boolean sortByInsertionOrder, boolean sortInsertionOrderDesc) {
+        super(indexableEntityService, typeConverter, searchType, sortByInsertionOrder, sortInsertionOrderDesc);
+        this.typeConverter = typeConverter;
+    }
+
+    /**
+     * Starts polling the primary.
+     */
+    @PostConstruct
+    public synchronized void start() {
+        if (poller != null)
+            return;
+        if (primaryAddress == null || primaryAddress.isEmpty())
+            throw new IllegalStateException("Primary address (index.replication.primary) has not been configured");
+        if (secret == null || secret.isEmpty())
+            throw new IllegalStateException("Replication secret (index.replication.secret) has not been configured");
+        poller = new Thread(this::poll, "lucene-replica-poller");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    private void poll() {
+        while (!closed) {
+            try {
+                replicate();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Could not replicate the index of primary [{}]: {}", primaryAddress, e.toString());
+            }
+            synchronized (pollSignal) {
+                try {
+                    pollSignal.wait(pollIntervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the latest commit of the primary if it is not the local one yet.
+     * Files which are already present are not copied again. The segments file
+     * is written last and renamed in to place, so readers never see a partial
+     * commit.
+     *
+     * @throws IOException when the commit could not be copied
+     */
+    private void replicate() throws IOException {
+        try (ReplicationClient client = new ReplicationClient(primaryAddress, secret, TIMEOUT_MILLIS)) {
+            ReplicationClient.Commit commit = client.list();
+            if (commit == null)
+                return;
+
+            Path current = getPath();
+            boolean newGeneration = !commit.getGeneration().equals(readReplicatedGeneration(current))
+                    || !isReplicable(current, commit);
+            if (!newGeneration && commit.getSegmentsFileName().equals(getLastCommitSegmentsFileName(current)))
+                return; // Up to date
+
+            long startedAt = System.currentTimeMillis();
+            Path target = newGeneration ? getGenerations().createNext() : current;
+            boolean replicated = false;
+            try {
+                List<String> copied = new ArrayList<>();
+                long bytes = 0;
+                for (Map.Entry<String, Long> file : commit.getFiles().entrySet()) {
+                    if (file.getKey().equals(commit.getSegmentsFileName()) || Files.exists(target.resolve(file.getKey())))
+                        continue;
+                    bytes += client.fetch(file.getKey(), target.resolve(file.getKey()));
+                    copied.add(file.getKey());
+                }
+                String pending = PENDING_PREFIX + commit.getSegmentsFileName();
+                bytes += client.fetch(commit.getSegmentsFileName(), target.resolve(pending));
+                copied.add(pending);
+                try (Directory copy = FSDirectory.open(target)) {
+                    copy.sync(copied);
+                }
+                Files.move(target.resolve(pending), target.resolve(commit.getSegmentsFileName()), StandardCopyOption.ATOMIC_MOVE);
+
+                if (newGeneration) {
+                    Files.write(target.resolve(REPLICATED_GENERATION_FILE), commit.getGeneration().getBytes(StandardCharsets.UTF_8));
+                    switchTo(target);
+                } else {
+                    refresh();
+                }
+                replicated = true;
+                deleteUnusedFiles(target, commit.getFiles().keySet());
+                LOGGER.debug("Replicated [{}] of [{}] files, [{}] bytes, of commit [{}] in [{}] ms",
+                        new Object[]{copied.size(), commit.getFiles().size(), bytes, commit.getSegmentsFileName(), System.currentTimeMillis() - startedAt});
+            } finally {
+                if (!replicated && newGeneration)
+                    getGenerations().discard(target);
+            }
+        }
+    }
+
+    /**
+     * @return true if the local files of the commit have the lengths of the
+     * files of the primary. Files are never modified once written, so a
+     * different length means the local files belong to another index.
+     */
+    private static boolean isReplicable(Path generation, ReplicationClient.Commit commit) throws IOException {
+        for (Map.Entry<String, Long> file : commit.getFiles().entrySet()) {
+            Path local = generation.resolve(file.getKey());
+            if (Files.exists(local) && Files.size(local) != file.getValue())
+                return false;
+        }
+        return true;
+    }
+
+    private static String readReplicatedGeneration(Path generation) throws IOException {
+        Path file = generation.resolve(REPLICATED_GENERATION_FILE);
+        return Files.exists(file) ? new String(Files.readAllBytes(file), StandardCharsets.UTF_8) : null;
+    }
+
+    private static String getLastCommitSegmentsFileName(Path generation) throws IOException {
+        if (!Files.isDirectory(generation))
+            return null;
+        try (Directory local = FSDirectory.open(generation)) {
+            return SegmentInfos.getLastCommitSegmentsFileName(local.listAll());
+        }
+    }
+
+    /**
+     * Switches to a fully copied generation, the same way {@link #reIndex()}
+     * switches to a rebuilt one on the primary.
+     */
+    private void switchTo(Path generation) throws IOException {
+        activateGeneration(generation);
+        LOGGER.info("Replica switched to the index generation [{}]", generation);
+    }
+
+    private void refresh() throws IOException {
+        SearcherManager manager = searcherManager;
+        if (manager != null)
+            manager.maybeRefreshBlocking();
+    }
+
+    /**
+     * Deletes the files which are not part of the replicated commit anymore.
+     * Files still open by searchers are deleted on the next replication, where
+     * the file system does not allow deleting them.
+     */
+    private static void deleteUnusedFiles(Path generation, Collection<String> files) throws IOException {
+        try (Directory local = FSDirectory.open(generation)) {
+            for (String file : local.listAll()) {
+                if (files.contains(file) || file.equals(REPLICATED_GENERATION_FILE))
+                    continue;
+                try {
+                    local.deleteFile(file);
+                } catch (IOException e) {
+                    LOGGER.debug("Could not delete unused replica file [{}]", file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Will return {@link IndexSearcher} instance acquired by {@link SearcherManager}
+     * of the replicated commit. Note: {@link IndexSearcher} must be released to avoid leaks.
+     *
+     * @return {@link IndexSearcher} instance
+     * @throws IOException {@link org.apache.lucene.index.IndexNotFoundException}
+     *                     until the first commit has been replicated
+     */
+    @Override
+    protected IndexSearcher getIndexSearcher() throws IOException {
+        return getSearcherManager().acquire();
+    }
+
+    /**
+     * Releases the reader of the searcher, which may belong to the
+     * {@link SearcherManager} of a previous generation.
+     *
+     * @param indexSearcher searcher to release
+     * @throws IOException
+     */
+    @Override
+    protected void releaseIndexSearcher(IndexSearcher indexSearcher) throws IOException {
+        indexSearcher.getIndexReader().decRef();
+    }
+
+    private SearcherManager getSearcherManager() throws IOException {
+        if (searcherManager == null)
+            createSearcherManager();
+        return searcherManager;
+    }
+
+    private synchronized void createSearcherManager() throws IOException {
+        if (searcherManager == null) {
+            Directory local = FSDirectory.open(getPath());
+            try {
+                searcherManager = new SearcherManager(local, newSearcherFactory());
+                directory = local;
+            } catch (IOException | RuntimeException e) {
+                local.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Closes the {@link SearcherManager} of the previous generation. The current
+     * searcher is tracked so the generation is kept until in-flight searches
+     * release it.
+     *
+     * @param generation directory of the previous generation
+     * @throws IOException when the {@link SearcherManager} could not be closed
+     */
+    @Override
+    protected synchronized void releaseGeneration(Path generation) throws IOException {
+        SearcherManager previousManager = searcherManager;
+        if (previousManager != null) {
+            IndexSearcher searcher = previousManager.acquire();
+            try {
+                getGenerations().track(generation, searcher.getIndexReader());
+            } finally {
+                previousManager.release(searcher);
+            }
+        }
+        closeWriter();
+    }
+
+    /**
+     * Replicas have no writer. Closes the {@link SearcherManager}, next use
+     * opens one on the current generation.
+     */
+    @Override
+    protected synchronized void closeWriter() {
+        SearcherManager previousManager = searcherManager;
+        Directory previousDirectory = directory;
+        searcherManager = null;
+        directory = null;
+        try {
+            if (previousManager != null)
+                previousManager.close();
+            if (previousDirectory != null)
+                previousDirectory.close();
+        } catch (IOException e) {
+            LOGGER.error("Error occurred while closing the searcher manager. ", e);
+        }
+    }
+
+    /**
+     * Replicas have no writer.
+     *
+     * @return no {@link IndexWriter}s
+     */
+    @Override
+    protected IndexWriter[] getIndexWriters() {
+        return new IndexWriter[0];
+    }
+
+    /**
+     * Writes are logged by the primary.
+     *
+     * @return 0
+     */
+    @Override
+    protected long logIndexWrite(WriteAheadLog.Operation operation, ID_TYPE id) {
+        return 0;
+    }
+
+    /**
+     * Forwards the identifier to the primary, which reads the entity to index
+     * from its own indexableEntityService.
+     *
+     * @return true once forwarded
+     */
+    @Override
+    protected boolean addIndexDocument(ID_TYPE id, String content) {
+        forward(client -> client.update(id.toString()));
+        return true;
+    }
+
+    @Override
+    protected boolean addIndexDocument(E entity) {
+        forward(client -> client.update(entity.getID().toString()));
+        return true;
+    }
+
+    @Override
+    protected boolean updateIndexDocument(ID_TYPE id, E entity) {
+        forward(client -> client.update(id.toString()));
+        return true;
+    }
+
+    @Override
+    protected boolean refreshIndexDocument(ID_TYPE id) {
+        forward(client -> client.update(id.toString()));
+        return true;
+    }
+
+    @Override
+    protected boolean deleteIndexDocuments(Collection<ID_TYPE> ids) {
+        if (ids.isEmpty())
+            return true;
+        forward(client -> {
+            for (ID_TYPE id : ids)
+                client.delete(id.toString());
+        });
+        return true;
+    }
+
+    /**
+     * Asks the primary to recreate all indexes. The rebuilt generation is
+     * replicated once the primary has switched to it.
+     */
+    @Override
+    public void reIndex() {
+        forward(ReplicationClient::reIndex);
+    }
+
+    /**
+     * Replicates the latest commit of the primary without waiting for the next
+     * poll. Called when the index is not found, which means that the first
+     * commit has not been replicated yet.
+     */
+    @Override
+    public void reIndexAsync() {
+        synchronized (pollSignal) {
+            pollSignal.notifyAll();
+        }
+    }
+
+    /**
+     * Expired documents are purged by the primary.
+     *
+     * @param batchSize max number of identifiers in a batch
+     * @return 0
+     */
+    @Override
+    public long purgeExpired(int batchSize) {
+        return 0;
+    }
+
+    @FunctionalInterface
+    private interface Forward {
+
+        void send(ReplicationClient client) throws IOException;
+    }
+
+    /**
+     * Sends a write to the primary.
+     *
+     * @throws UncheckedIOException when the primary could not be reached
+     */
+    private void forward(Forward forward) {
+        try (ReplicationClient client = new ReplicationClient(primaryAddress, secret, TIMEOUT_MILLIS)) {
+            forward.send(client);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not forward an index write to primary [" + primaryAddress + "]", e);
+        }
+    }
+
+    /**
+     * Sets the primary to replicate. Allows to configure the instance without
+     * property placeholders. eg. benchmarks, tools.
+     *
+     * @param primaryAddress     host:port of the {@link ReplicationServer} of the primary
+     * @param secret             secret shared with the primary
+     * @param pollIntervalMillis interval of polling the primary for a new commit
+     */
+    public void setPrimary(String primaryAddress, String secret, long pollIntervalMillis) {
+        this.primaryAddress = primaryAddress;
+        this.secret = secret;
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    /**
+     * Stops polling the primary and closes the {@link SearcherManager}.
+     */
+    @Override
+    @PreDestroy
+    public void destroy() {
+        closed = true;
+        synchronized (this) {
+            if (poller != null)
+                poller.interrupt();
+        }
+        super.destroy();
+    }
+}
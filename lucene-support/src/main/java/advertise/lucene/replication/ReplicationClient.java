@@ -0,0 +1,202 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.replication;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Connection of a replica to the {@link ReplicationServer} of the primary.
+ * Not thread safe.
+ */
+class ReplicationClient implements Closeable {
+
+    private final Socket socket;
+
+    private final DataOutputStream out;
+
+    private final DataInputStream in;
+
+    /**
+     * Latest commit of the primary.
+     */
+    static final class Commit {
+
+        private final String generation;
+
+        private final String segmentsFileName;
+
+        private final Map<String, Long> files;
+
+        Commit(String generation, String segmentsFileName, Map<String, Long> files) {
+            this.generation = generation;
+            this.segmentsFileName = segmentsFileName;
+            this.files = files;
+        }
+
+        String getGeneration() {
+            return generation;
+        }
+
+        String getSegmentsFileName() {
+            return segmentsFileName;
+        }
+
+        /**
+         * @return lengths of the files of the commit by name
+         */
+        Map<String, Long> getFiles() {
+            return files;
+        }
+    }
+
+    /**
+     * Connects to the primary and answers its challenge with the secret.
+     *
+     * @param address       host:port of the primary
+     * @param secret        secret shared with the primary
+     * @param timeoutMillis connect and read timeout
+     * @throws IOException when the primary could not be connected or did not accept the secret
+     */
+    ReplicationClient(String address, String secret, int timeoutMillis) throws IOException {
+        int separator = address.lastIndexOf(':');
+        if (separator < 0)
+            throw new IllegalArgumentException("Primary address [" + address + "] is not in host:port format");
+        socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1))), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), ReplicationServer.BUFFER_SIZE));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), ReplicationServer.BUFFER_SIZE));
+
+            byte[] challenge = new byte[ReplicationServer.getChallengeSize()];
+            in.readFully(challenge);
+            byte[] answer = ReplicationServer.answer(secret.getBytes(StandardCharsets.UTF_8), challenge);
+            out.writeInt(answer.length);
+            out.write(answer);
+            out.flush();
+            if (!in.readBoolean())
+                throw new IOException("Primary [" + address + "] did not accept the replication secret");
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Lists the latest commit of the primary, which is held until the next
+     * list or close.
+     *
+     * @return the commit, null if the primary has not committed yet
+     * @throws IOException when the primary could not be reached
+     */
+    Commit list() throws IOException {
+        out.writeUTF(ReplicationServer.LIST);
+        out.flush();
+        if (!in.readBoolean())
+            return null;
+        String generation = in.readUTF();
+        String segmentsFileName = in.readUTF();
+        int count = in.readInt();
+        Map<String, Long> files = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            files.put(in.readUTF(), in.readLong());
+        }
+        return new Commit(generation, segmentsFileName, files);
+    }
+
+    /**
+     * Copies a file of the listed commit.
+     *
+     * @param file   name of the file
+     * @param target file to write
+     * @return number of bytes copied
+     * @throws IOException when the file could not be copied
+     */
+    long fetch(String file, Path target) throws IOException {
+        out.writeUTF(ReplicationServer.FETCH);
+        out.writeUTF(file);
+        out.flush();
+        long length = in.readLong();
+        byte[] buffer = new byte[ReplicationServer.BUFFER_SIZE];
+        try (OutputStream copy = Files.newOutputStream(target)) {
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0)
+                    throw new EOFException("Primary closed the connection while sending [" + file + "]");
+                copy.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Asks the primary to index the current state of an entity.
+     *
+     * @param id identifier of the entity, as stored in the index
+     * @throws IOException when the primary could not be reached
+     */
+    void update(String id) throws IOException {
+        send(ReplicationServer.UPDATE, id);
+    }
+
+    /**
+     * Asks the primary to remove the index of an entity.
+     *
+     * @param id identifier of the entity, as stored in the index
+     * @throws IOException when the primary could not be reached
+     */
+    void delete(String id) throws IOException {
+        send(ReplicationServer.DELETE, id);
+    }
+
+    /**
+     * Asks the primary to recreate all indexes.
+     *
+     * @throws IOException when the primary could not be reached
+     */
+    void reIndex() throws IOException {
+        send(ReplicationServer.REINDEX, null);
+    }
+
+    private void send(String command, String id) throws IOException {
+        out.writeUTF(command);
+        if (id != null)
+            out.writeUTF(id);
+        out.flush();
+        in.readBoolean();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.writeUTF(ReplicationServer.DONE);
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.replication;
+
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the commits of the primary node's {@link IndexWriter} to replica
+ * nodes, see {@link ReplicaSearchProcessor}, and applies the index writes
+ * replicas forward to the primary.
+ *
+ * <p>A replica connects, lists the files of the latest commit and fetches the
+ * files it does not have yet. The listed commit is held by the
+ * {@link SnapshotDeletionPolicy} of the writer until the replica lists again
+ * or disconnects, so merges do not delete files being copied. Documents are
+ * analyzed only by the primary: replicas copy the segment files as they are.
+ *
+ * <p>Forwarded writes carry the identifier only. The primary reads the entity
+ * from its store again, so it indexes the same state the replica saved.
+ *
+ * <p>The server listens on the configured address only, and a replica has to
+ * prove it knows the shared secret before any command is served: the server
+ * sends a random challenge and the replica answers with its HMAC-SHA256 keyed
+ * by the secret, so the secret is not sent over the connection. At most the
+ * configured number of replicas are served at the same time, further
+ * connections are closed.
+ */
+public class ReplicationServer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicationServer.class);
+
+    static final String LIST = "LIST";
+    static final String FETCH = "FETCH";
+    static final String UPDATE = "UPDATE";
+    static final String DELETE = "DELETE";
+    static final String REINDEX = "REINDEX";
+    static final String DONE = "DONE";
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String AUTHENTICATION_ALGORITHM = "HmacSHA256";
+
+    private static final int CHALLENGE_SIZE = 32;
+
+    /**
+     * Time a session waits for the next command of a replica.
+     */
+    private static final int SESSION_TIMEOUT_MILLIS = 60000;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final byte[] secret;
+
+    private final Primary primary;
+
+    private final ServerSocket serverSocket;
+
+    private final ExecutorService sessions;
+
+    private volatile boolean closed;
+
+    /**
+     * Index of the primary node served to the replicas.
+     */
+    public interface Primary {
+
+        /**
+         * @return writer of the current index generation
+         * @throws IOException when the writer could not be opened
+         */
+        IndexWriter getIndexWriter() throws IOException;
+
+        /**
+         * Indexes the current state of an entity changed on a replica.
+         *
+         * @param id identifier of the entity, as stored in the index
+         */
+        void refreshIndex(String id);
+
+        /**
+         * Removes the index of an entity deleted on a replica.
+         *
+         * @param id identifier of the entity, as stored in the index
+         */
+        void deleteIndex(String id);
+
+        /**
+         * Recreates all indexes asynchronously.
+         */
+        void reIndexAsync();
+    }
+
+    /**
+     * Starts accepting replicas.
+     *
+     * @param bindAddress address to listen on, eg. the address of the private network of the nodes
+     * @param port        port to listen on
+     * @param secret      secret shared with the replicas
+     * @param maxSessions max number of replicas served at the same time
+     * @param primary     index served
+     * @throws IOException when the port could not be bound
+     */
+    public ReplicationServer(String bindAddress, int port, String secret, int maxSessions, Primary primary) throws IOException {
+        if (secret == null || secret.isEmpty())
+            throw new IllegalArgumentException("Replication secret has not been configured");
+        this.primary = primary;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName(bindAddress));
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.sessions = new ThreadPoolExecutor(maxSessions, maxSessions, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "lucene-replication-session-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        ((ThreadPoolExecutor) sessions).allowCoreThreadTimeOut(true);
+        Thread acceptor = new Thread(this::accept, "lucene-replication-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOGGER.info("Serving index replicas on [{}]", serverSocket.getLocalSocketAddress());
+    }
+
+    /**
+     * @return port the server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                try {
+                    sessions.execute(() -> serve(socket));
+                } catch (RejectedExecutionException e) {
+                    LOGGER.warn("Too many replica sessions, closing the connection of [{}]", socket.getRemoteSocketAddress());
+                    socket.close();
+                }
+            } catch (IOException e) {
+                if (!closed)
+                    LOGGER.error("Could not accept a replica connection ", e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Session session = new Session();
+        try (Socket replica = socket) {
+            replica.setSoTimeout(SESSION_TIMEOUT_MILLIS);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(replica.getOutputStream(), BUFFER_SIZE));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(replica.getInputStream()));
+            if (!authenticate(in, out)) {
+                LOGGER.warn("Replica [{}] did not present the replication secret", socket.getRemoteSocketAddress());
+                return;
+            }
+            String command;
+            while (!DONE.equals(command = in.readUTF())) {
+                switch (command) {
+                    case LIST:
+                        session.list(out);
+                        break;
+                    case FETCH:
+                        session.fetch(in.readUTF(), out);
+                        break;
+                    case UPDATE:
+                        primary.refreshIndex(in.readUTF());
+                        out.writeBoolean(true);
+                        break;
+                    case DELETE:
+                        primary.deleteIndex(in.readUTF());
+                        out.writeBoolean(true);
+                        break;
+                    case REINDEX:
+                        primary.reIndexAsync();
+                        out.writeBoolean(true);
+                        break;
+                    default:
+                        throw new IOException("Unknown replication command [" + command + "]");
+                }
+                out.flush();
+            }
+        } catch (EOFException | SocketException e) {
+            LOGGER.debug("Replica [{}] disconnected", socket.getRemoteSocketAddress());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Problem occurred while serving replica [{}]", socket.getRemoteSocketAddress(), e);
+        } finally {
+            session.release();
+        }
+    }
+
+    /**
+     * Sends a challenge and checks the answer of the replica. Tells the replica
+     * whether it has been accepted.
+     */
+    private boolean authenticate(DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] challenge = new byte[CHALLENGE_SIZE];
+        random.nextBytes(challenge);
+        out.write(challenge);
+        out.flush();
+        int length = in.readInt();
+        if (length < 0 || length > CHALLENGE_SIZE * 2)
+            return false;
+        byte[] answer = new byte[length];
+        in.readFully(answer);
+        boolean accepted = MessageDigest.isEqual(answer(secret, challenge), answer);
+        out.writeBoolean(accepted);
+        out.flush();
+        return accepted;
+    }
+
+    /**
+     * @param secret    secret shared by the primary and the replicas
+     * @param challenge challenge sent by the primary
+     * @return answer of a replica knowing the secret
+     */
+    static byte[] answer(byte[] secret, byte[] challenge) {
+        try {
+            Mac mac = Mac.getInstance(AUTHENTICATION_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, AUTHENTICATION_ALGORITHM));
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(AUTHENTICATION_ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * @return size of the challenge sent to a replica
+     */
+    static int getChallengeSize() {
+        return CHALLENGE_SIZE;
+    }
+
+    /**
+     * Stops accepting replicas. Sessions in progress are closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            LOGGER.error("Could not close the replication server socket ", e);
+        }
+        sessions.shutdownNow();
+    }
+
+    /**
+     * Commit held for a connected replica.
+     */
+    private final class Session {
+
+        private IndexWriter writer;
+
+        private SnapshotDeletionPolicy policy;
+
+        private IndexCommit commit;
+
+        /**
+         * Holds the latest commit and sends its generation, segments file and
+         * the names and lengths of its files. Sends false if nothing has been
+         * committed yet.
+         */
+        void list(DataOutputStream out) throws IOException {
+            release();
+            writer = primary.getIndexWriter();
+            policy = (SnapshotDeletionPolicy) writer.getConfig().getIndexDeletionPolicy();
+            try {
+                commit = policy.snapshot();
+            } catch (IllegalStateException e) {
+                out.writeBoolean(false); // No commit yet
+                return;
+            }
+            Collection<String> files = commit.getFileNames();
+            out.writeBoolean(true);
+            out.writeUTF(getGeneration(writer));
+            out.writeUTF(commit.getSegmentsFileName());
+            out.writeInt(files.size());
+            for (String file : files) {
+                out.writeUTF(file);
+                out.writeLong(writer.getDirectory().fileLength(file));
+            }
+        }
+
+        /**
+         * Sends the length and the content of a file of the held commit.
+         */
+        void fetch(String file, DataOutputStream out) throws IOException {
+            if (commit == null || !commit.getFileNames().contains(file))
+                throw new IOException("File [" + file + "] is not a file of the listed commit");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (IndexInput input = writer.getDirectory().openInput(file, IOContext.READONCE)) {
+                long remaining = input.length();
+                out.writeLong(remaining);
+                while (remaining > 0) {
+                    int length = (int) Math.min(buffer.length, remaining);
+                    input.readBytes(buffer, 0, length);
+                    out.write(buffer, 0, length);
+                    remaining -= length;
+                }
+            }
+        }
+
+        void release() {
+            if (commit == null)
+                return;
+            try {
+                policy.release(commit);
+                writer.deleteUnusedFiles();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.debug("Could not release a replicated commit of a closed writer ", e);
+            }
+            commit = null;
+        }
+    }
+
+    /**
+     * Identifies the index generation of a writer by its directory, so replicas
+     * start over when the primary switches to a rebuilt generation.
+     */
+    private static String getGeneration(IndexWriter writer) {
+        return ((FSDirectory) FilterDirectory.unwrap(writer.getDirectory())).getDirectory().toAbsolutePath().toString();
+    }
+}
@@ -21,6 +21,8 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -52,4 +54,39 @@ public class FileSystemUtils {
     public static void clean(Path folder) throws IOException {
         Files.walk(folder).filter(Files::isRegularFile).map(Path::toFile).forEach(File::delete);
     }
+
+    /**
+     * Removes given directory with all directories and files in it.
+     *
+     * @param folder {@link Path} to delete
+     * @throws IOException when a file could not be deleted
+     */
+    public static void deleteRecursively(Path folder) throws IOException {
+        if (!Files.exists(folder))
+            return;
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Copies given directory with all directories and files in it.
+     *
+     * @param source {@link Path} to copy
+     * @param target {@link Path} to copy to, created if it does not exist
+     * @throws IOException when a file could not be copied
+     */
+    public static void copyRecursively(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path copy = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path))
+                    Files.createDirectories(copy);
+                else
+                    Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
 }
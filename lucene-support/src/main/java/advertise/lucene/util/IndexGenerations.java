@@ -0,0 +1,236 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.util;
+
+import org.apache.lucene.index.IndexReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Manages index generations under the configured index root directory so an
+ * index can be rebuilt while the previous one keeps serving searches.
+ *
+ * <p>Each generation is a <code>gen-&lt;n&gt;</code> sub directory of the root.
+ * The active generation is recorded in the <code>index.generation</code> file
+ * of the root, which is replaced atomically on {@link #activate(Path)}. If the
+ * file does not exist the root itself is the active generation, which is the
+ * layout used before generations were introduced.
+ *
+ * <p>A sharded index keeps each shard in a <code>shard-&lt;n&gt;</code> sub
+ * directory of the generation, see {@link #shard(Path, int)}.
+ *
+ * <p>A generation which has been replaced is deleted by {@link #retire(Path)}
+ * once all the {@link IndexReader}s registered by {@link #track(Path, IndexReader)}
+ * on it have been closed.
+ */
+public class IndexGenerations {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexGenerations.class);
+
+    static final String CURRENT_GENERATION_FILE = "index.generation";
+
+    static final String GENERATION_PREFIX = "gen-";
+
+    static final String SHARD_PREFIX = "shard-";
+
+    private final Path root;
+
+    /**
+     * Number of open readers per generation.
+     */
+    private final Map<Path, Integer> openReaders = new HashMap<>();
+
+    /**
+     * Replaced generations waiting for their readers to be closed.
+     */
+    private final Set<Path> retired = new HashSet<>();
+
+    /**
+     * @param root the index root directory
+     */
+    public IndexGenerations(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * @param generation directory of the generation
+     * @param shard      number of the shard, starting from 0
+     * @return the directory of the shard in the generation
+     */
+    public static Path shard(Path generation, int shard) {
+        return generation.resolve(SHARD_PREFIX + shard);
+    }
+
+    /**
+     * @param generation directory of the generation
+     * @return number of the shard directories in the generation, 0 when not sharded
+     * @throws IOException when the generation could not be listed
+     */
+    public static int countShards(Path generation) throws IOException {
+        if (!Files.isDirectory(generation))
+            return 0;
+        int shards = 0;
+        while (Files.isDirectory(shard(generation, shards)))
+            shards++;
+        return shards;
+    }
+
+    /**
+     * @return the directory of the active generation
+     * @throws IOException when the generation file could not be read
+     */
+    public synchronized Path current() throws IOException {
+        Path currentFile = root.resolve(CURRENT_GENERATION_FILE);
+        if (!Files.exists(currentFile))
+            return root;
+        String name = new String(Files.readAllBytes(currentFile), StandardCharsets.UTF_8).trim();
+        return root.resolve(name);
+    }
+
+    /**
+     * Creates an empty directory for the next generation. Left over generations
+     * of failed rebuilds are deleted.
+     *
+     * @return directory of the new generation
+     * @throws IOException when the directory could not be created
+     */
+    public synchronized Path createNext() throws IOException {
+        Files.createDirectories(root);
+        Path current = current();
+        int max = 0;
+        for (Path generation : listGenerations()) {
+            max = Math.max(max, generationNumber(generation));
+            if (!generation.equals(current) && !retired.contains(generation) && !openReaders.containsKey(generation))
+                delete(generation);
+        }
+        return Files.createDirectory(root.resolve(GENERATION_PREFIX + (max + 1)));
+    }
+
+    /**
+     * Makes the given generation the active one.
+     *
+     * @param generation directory of the generation
+     * @throws IOException when the generation file could not be written
+     */
+    public synchronized void activate(Path generation) throws IOException {
+        Path temp = root.resolve(CURRENT_GENERATION_FILE + ".tmp");
+        Files.write(temp, generation.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, root.resolve(CURRENT_GENERATION_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Registers an open reader of a generation. Retired generation will not be
+     * deleted until the reader is closed.
+     *
+     * @param generation directory of the generation
+     * @param reader     open reader
+     */
+    public synchronized void track(Path generation, IndexReader reader) {
+        openReaders.merge(generation, 1, Integer::sum);
+        reader.addReaderClosedListener(closed -> released(generation));
+    }
+
+    /**
+     * Deletes the generation once the last tracked reader on it is closed.
+     *
+     * @param generation directory of the replaced generation
+     */
+    public synchronized void retire(Path generation) {
+        retired.add(generation);
+        if (!openReaders.containsKey(generation))
+            deleteRetired(generation);
+    }
+
+    /**
+     * Deletes a generation which never became active.
+     *
+     * @param generation directory of the generation
+     */
+    public synchronized void discard(Path generation) {
+        delete(generation);
+    }
+
+    private synchronized void released(Path generation) {
+        Integer count = openReaders.merge(generation, -1, Integer::sum);
+        if (count != null && count <= 0) {
+            openReaders.remove(generation);
+            if (retired.contains(generation))
+                deleteRetired(generation);
+        }
+    }
+
+    private void deleteRetired(Path generation) {
+        retired.remove(generation);
+        delete(generation);
+        LOGGER.info("Index generation [{}] has been released and deleted", generation);
+    }
+
+    private void delete(Path generation) {
+        try {
+            if (generation.equals(root)) {
+                // Generation in the root layout. Only its index files and shards are deleted.
+                for (Path file : listRootIndexFiles()) {
+                    Files.delete(file);
+                }
+                for (int shard = countShards(root) - 1; shard >= 0; shard--) {
+                    FileSystemUtils.deleteRecursively(shard(root, shard));
+                }
+            } else {
+                FileSystemUtils.deleteRecursively(generation);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not delete index generation [{}]", generation, e);
+        }
+    }
+
+    private List<Path> listGenerations() throws IOException {
+        try (Stream<Path> paths = Files.list(root)) {
+            return paths.filter(Files::isDirectory)
+                    .filter(path -> path.getFileName().toString().startsWith(GENERATION_PREFIX))
+                    .filter(path -> generationNumber(path) > 0)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private List<Path> listRootIndexFiles() throws IOException {
+        try (Stream<Path> paths = Files.list(root)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> !path.getFileName().toString().startsWith(CURRENT_GENERATION_FILE))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static int generationNumber(Path generation) {
+        try {
+            return Integer.parseInt(generation.getFileName().toString().substring(GENERATION_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.util;
+
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Manages point-in-time copies of an index under a snapshot directory, which
+ * can be a shared location so new nodes bootstrap from the snapshot of another.
+ *
+ * <p>Each snapshot is a <code>snapshot-&lt;time millis&gt;</code> sub directory
+ * holding the files of one commit per shard, in the same layout as an index
+ * generation. A snapshot is written to a directory with the <code>.tmp</code>
+ * suffix and renamed once complete, so a partially copied snapshot is never
+ * restored.
+ */
+public class IndexSnapshots {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexSnapshots.class);
+
+    static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    static final String INCOMPLETE_SUFFIX = ".tmp";
+
+    private final Path root;
+
+    /**
+     * @param root the snapshot directory
+     */
+    public IndexSnapshots(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Creates an empty directory for a snapshot being written.
+     *
+     * @return directory of the incomplete snapshot
+     * @throws IOException when the directory could not be created
+     */
+    public synchronized Path createIncomplete() throws IOException {
+        Files.createDirectories(root);
+        long time = System.currentTimeMillis();
+        Path latest = latest();
+        if (latest != null)
+            time = Math.max(time, snapshotTime(latest) + 1);
+        return Files.createDirectory(root.resolve(SNAPSHOT_PREFIX + time + INCOMPLETE_SUFFIX));
+    }
+
+    /**
+     * Publishes a fully written snapshot.
+     *
+     * @param incomplete directory returned by {@link #createIncomplete()}
+     * @return directory of the snapshot
+     * @throws IOException when the directory could not be renamed
+     */
+    public synchronized Path complete(Path incomplete) throws IOException {
+        String name = incomplete.getFileName().toString();
+        Path snapshot = root.resolve(name.substring(0, name.length() - INCOMPLETE_SUFFIX.length()));
+        return Files.move(incomplete, snapshot, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes an incomplete snapshot.
+     *
+     * @param incomplete directory returned by {@link #createIncomplete()}
+     */
+    public void discard(Path incomplete) {
+        try {
+            FileSystemUtils.deleteRecursively(incomplete);
+        } catch (IOException e) {
+            LOGGER.error("Could not delete incomplete snapshot [{}]", incomplete, e);
+        }
+    }
+
+    /**
+     * @return directory of the most recent complete snapshot, null if there is none
+     * @throws IOException when the snapshot directory could not be listed
+     */
+    public synchronized Path latest() throws IOException {
+        List<Path> snapshots = listSnapshots();
+        return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+    }
+
+    /**
+     * Deletes the oldest complete snapshots, keeping the given number of most
+     * recent ones.
+     *
+     * @param keep number of snapshots to keep
+     * @throws IOException when the snapshot directory could not be listed
+     */
+    public synchronized void prune(int keep) throws IOException {
+        List<Path> snapshots = listSnapshots();
+        for (Path snapshot : snapshots.subList(0, Math.max(0, snapshots.size() - keep))) {
+            FileSystemUtils.deleteRecursively(snapshot);
+            LOGGER.info("Index snapshot [{}] has been deleted", snapshot);
+        }
+    }
+
+    /**
+     * Copies the files of a commit to the target directory and fsyncs them.
+     * The commit must be held, eg. by a {@link org.apache.lucene.index.SnapshotDeletionPolicy},
+     * so its files are not deleted while being copied.
+     *
+     * @param source directory of the index
+     * @param commit commit to copy
+     * @param target directory to copy to
+     * @return number of bytes copied
+     * @throws IOException when a file could not be copied
+     */
+    public static long copy(Directory source, IndexCommit commit, Path target) throws IOException {
+        Files.createDirectories(target);
+        long bytes = 0;
+        try (Directory copy = FSDirectory.open(target)) {
+            for (String file : commit.getFileNames()) {
+                copy.copyFrom(source, file, file, IOContext.READONCE);
+                bytes += copy.fileLength(file);
+            }
+            copy.sync(commit.getFileNames());
+        }
+        return bytes;
+    }
+
+    /**
+     * Copies a snapshot, with its shards, to the directory of a new index
+     * generation and fsyncs the files. Given commit user data is removed from
+     * the restored commits, since it belongs to the node which took the
+     * snapshot, eg. the position in its write-ahead log.
+     *
+     * @param snapshot        directory of the snapshot
+     * @param generation      empty directory of the generation
+     * @param localCommitData keys of the commit user data to remove
+     * @throws IOException when a file could not be copied
+     */
+    public static void restore(Path snapshot, Path generation, Collection<String> localCommitData) throws IOException {
+        FileSystemUtils.copyRecursively(snapshot, generation);
+        int shards = IndexGenerations.countShards(generation);
+        for (int shard = 0; shard < Math.max(1, shards); shard++) {
+            try (Directory directory = FSDirectory.open(shards == 0 ? generation : IndexGenerations.shard(generation, shard))) {
+                removeCommitData(directory, localCommitData);
+                directory.sync(Arrays.asList(directory.listAll()));
+            }
+        }
+    }
+
+    private static void removeCommitData(Directory directory, Collection<String> keys) throws IOException {
+        IndexWriterConfig config = new IndexWriterConfig(null);
+        config.setOpenMode(IndexWriterConfig.OpenMode.APPEND);
+        config.setMergePolicy(NoMergePolicy.INSTANCE);
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            Map<String, String> commitData = new HashMap<>(writer.getCommitData());
+            if (commitData.keySet().removeAll(keys)) {
+                writer.setCommitData(commitData);
+                writer.commit();
+            }
+        }
+    }
+
+    /**
+     * @param snapshot directory of a snapshot
+     * @return time the snapshot was taken at in milliseconds
+     */
+    public static long snapshotTime(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        if (name.endsWith(INCOMPLETE_SUFFIX))
+            name = name.substring(0, name.length() - INCOMPLETE_SUFFIX.length());
+        try {
+            return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private List<Path> listSnapshots() throws IOException {
+        if (!Files.isDirectory(root))
+            return Collections.emptyList();
+        try (Stream<Path> paths = Files.list(root)) {
+            return paths.filter(Files::isDirectory)
+                    .filter(path -> path.getFileName().toString().startsWith(SNAPSHOT_PREFIX))
+                    .filter(path -> !path.getFileName().toString().endsWith(INCOMPLETE_SUFFIX))
+                    .filter(path -> snapshotTime(path) > 0)
+                    .sorted(Comparator.comparingLong(IndexSnapshots::snapshotTime))
+                    .collect(Collectors.toList());
+        }
+    }
+}
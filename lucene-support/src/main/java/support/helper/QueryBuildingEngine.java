@@ -0,0 +1,119 @@
+package support.helper;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Reusable, thread safe query building support for {@link SearchHelper}
+ * implementations.
+ *
+ * Analyzers are thread safe and shared. {@link QueryParser} is not thread safe,
+ * so one instance per thread and field is kept. Built {@link Query} objects are
+ * kept in a least recently used cache so frequent inputs are parsed once.
+ */
+public class QueryBuildingEngine {
+
+    /**
+     * Analyzer shared by all query builders. Same analyzer the indexes are written with.
+     */
+    public static final Analyzer SHARED_ANALYZER = new StandardAnalyzer();
+
+    private static final int DEFAULT_MAX_CACHED_QUERIES = 1024;
+
+    private final Analyzer analyzer;
+
+    private final ThreadLocal<Map<String, QueryParser>> parsers = ThreadLocal.withInitial(HashMap::new);
+
+    private final Map<CacheKey, Query> queries;
+
+    public QueryBuildingEngine() {
+        this(SHARED_ANALYZER, DEFAULT_MAX_CACHED_QUERIES);
+    }
+
+    /**
+     * @param analyzer         analyzer to build queries with
+     * @param maxCachedQueries max number of cached queries
+     */
+    public QueryBuildingEngine(Analyzer analyzer, int maxCachedQueries) {
+        this.analyzer = analyzer;
+        this.queries = new LinkedHashMap<CacheKey, Query>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Query> eldest) {
+                return size() > maxCachedQueries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached query for the field and text, or builds and caches it.
+     * Built queries must not be modified.
+     *
+     * @param fieldName field to query
+     * @param text      text to search
+     * @param builder   builds the query on a cache miss
+     * @return the query
+     * @throws ParseException when thrown by the builder
+     */
+    public Query getQuery(String fieldName, String text, QueryBuilder builder) throws ParseException {
+        CacheKey key = new CacheKey(fieldName, text);
+        Query query;
+        synchronized (queries) {
+            query = queries.get(key);
+        }
+        if (query == null) {
+            query = builder.build(parser(fieldName));
+            synchronized (queries) {
+                queries.put(key, query);
+            }
+        }
+        return query;
+    }
+
+    /**
+     * @param fieldName default field of the parser
+     * @return {@link QueryParser} of the current thread for the field
+     */
+    public QueryParser parser(String fieldName) {
+        return parsers.get().computeIfAbsent(fieldName, field -> new QueryParser(field, analyzer));
+    }
+
+    /**
+     * Builds a query with the {@link QueryParser} of the current thread.
+     */
+    @FunctionalInterface
+    public interface QueryBuilder {
+        Query build(QueryParser parser) throws ParseException;
+    }
+
+    private static final class CacheKey {
+
+        private final String fieldName;
+        private final String text;
+
+        private CacheKey(String fieldName, String text) {
+            this.fieldName = fieldName;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey cacheKey = (CacheKey) o;
+            return Objects.equals(fieldName, cacheKey.fieldName) && Objects.equals(text, cacheKey.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fieldName, text);
+        }
+    }
+}
@@ -1,23 +1,22 @@
 package support.helper;
 
 public enum SearchType {
-    SIMPLE(SimpleSearchHelper.class),
-    PHRASE(PhraseSearchHelper.class),
-    WILDCARD(WildcardSearchHelper.class),
-    FUZZY(FuzzySearchHelper.class);
+    SIMPLE(new SimpleSearchHelper()),
+    PHRASE(new PhraseSearchHelper()),
+    WILDCARD(new WildcardSearchHelper()),
+    FUZZY(new FuzzySearchHelper());
 
 
-    private Class<? extends SearchHelper> queryClz;
+    /**
+     * Helpers are thread safe and shared by all the users of the search type.
+     */
+    private final SearchHelper searchHelper;
 
-    <T extends SearchHelper>SearchType(Class<T> queryClz) {
-        this.queryClz = queryClz;
+    SearchType(SearchHelper searchHelper) {
+        this.searchHelper = searchHelper;
     }
 
     public SearchHelper getSearchHelper() {
-        try {
-            return this.queryClz.newInstance();
-        } catch (InstantiationException | IllegalAccessException e) {
-            throw new IllegalStateException("Initialization failed. : Could not create a SearchHelper instance.");
-        }
+        return searchHelper;
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package support.types;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+
+import java.util.UUID;
+
+/**
+ * The {@link IdentifierTypeConverter} implementation to be used when {@link UUID}
+ * identifier is used and a compact index is preferred.
+ *
+ * Indexes and stores the identifier as its 16 bytes, most significant bits
+ * first, instead of the 36 characters {@link String} used by
+ * {@link UUIDIdentifierConverter}. Doc values have the same layout for both
+ * converters.
+ *
+ * Reads identifiers of both layouts, so an index written by
+ * {@link UUIDIdentifierConverter} keeps working after switching to this
+ * converter and is migrated by re-indexing.
+ */
+public class BinaryUUIDIdentifierConverter extends UUIDIdentifierConverter {
+
+    /**
+     * Indexed as a single term, not tokenized, stored.
+     */
+    private static final FieldType BINARY_ID_FIELD_TYPE = new FieldType();
+
+    static {
+        BINARY_ID_FIELD_TYPE.setIndexOptions(IndexOptions.DOCS);
+        BINARY_ID_FIELD_TYPE.setTokenized(false);
+        BINARY_ID_FIELD_TYPE.setOmitNorms(true);
+        BINARY_ID_FIELD_TYPE.setStored(true);
+        BINARY_ID_FIELD_TYPE.freeze();
+    }
+
+    /**
+     * Reads the stored 16 bytes identifier, or the {@link String} identifier of
+     * documents indexed by {@link UUIDIdentifierConverter}.
+     *
+     * @param document    loaded document
+     * @param idFieldName name of the {@link Field}
+     * @return UUID identifier
+     */
+    @Override
+    public UUID getValueFromDocument(Document document, String idFieldName) {
+        BytesRef bytes = document.getBinaryValue(idFieldName);
+        if (bytes != null && bytes.length == 16)
+            return toUUID(bytes);
+        return getValueInType(document.get(idFieldName));
+    }
+
+    /**
+     * Converts given identifier to a 16 bytes indexed and stored {@link Field}
+     *
+     * @param idFieldName name of the {@link Field}
+     * @param id          identifier to convert
+     * @return {@link Field} instance
+     */
+    @Override
+    public Field getFieldInType(String idFieldName, UUID id) {
+        return new Field(idFieldName, toBytesRef(id), BINARY_ID_FIELD_TYPE);
+    }
+
+    /**
+     * Converts given identifier to the {@link Term} of its 16 bytes. Documents
+     * indexed with the {@link String} layout are matched by
+     * {@link #getLegacyTermsInType(String, UUID)}.
+     *
+     * @param idFieldName name of the {@link Field}
+     * @param id          identifier to convert
+     * @return {@link Term} instance
+     */
+    @Override
+    public Term getTermInType(String idFieldName, UUID id) {
+        return new Term(idFieldName, toBytesRef(id));
+    }
+
+    /**
+     * Returns the {@link String} term indexed by {@link UUIDIdentifierConverter},
+     * so documents indexed before switching to this converter are replaced or
+     * deleted along with the identifier instead of being left as duplicates.
+     *
+     * @param idFieldName name of the {@link Field}
+     * @param id          identifier to convert
+     * @return {@link Term} of the {@link String} layout
+     */
+    @Override
+    public Term[] getLegacyTermsInType(String idFieldName, UUID id) {
+        return new Term[]{super.getTermInType(idFieldName, id)};
+    }
+}
@@ -17,7 +17,13 @@
  */
 package support.types;
 
+import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.Term;
+
+import java.io.IOException;
+import java.util.function.IntFunction;
 
 /**
  * The {@link IdentifierTypeConverter} denotes a entity that can be used by
@@ -42,6 +48,18 @@ public interface IdentifierTypeConverter<T> {
      */
     T getValueInType(String s);
 
+    /**
+     * Reads the stored identifier of a loaded {@link Document}. Override when
+     * the identifier is not stored as a {@link String}.
+     *
+     * @param document    loaded document
+     * @param idFieldName name of the {@link Field}
+     * @return converted identifier
+     */
+    default T getValueFromDocument(Document document, String idFieldName) {
+        return getValueInType(document.get(idFieldName));
+    }
+
     /**
      * Implement to convert given identifier to {@link Field} attribute.
      * @param idFieldName name of the {@link Field}
@@ -49,4 +67,56 @@ public interface IdentifierTypeConverter<T> {
      * @return Field
      */
     Field getFieldInType(String idFieldName, T id);
+
+    /**
+     * Implement to convert given identifier to the exact {@link Term} indexed by
+     * {@link #getFieldInType(String, Object)}, so the document of an identifier
+     * can be updated or deleted by term.
+     *
+     * @param idFieldName name of the {@link Field}
+     * @param id          identifier to convert
+     * @return Term matching the document of the identifier
+     */
+    Term getTermInType(String idFieldName, T id);
+
+    /**
+     * Override to return the terms of given identifier in layouts indexed by
+     * previously used converters of the same field. Updates and deletes remove
+     * the documents having these terms too, so an index written by a previous
+     * converter is migrated as its documents change, without duplicates.
+     *
+     * @param idFieldName name of the {@link Field}
+     * @param id          identifier to convert
+     * @return Terms of the identifier in previous layouts, empty by default
+     */
+    default Term[] getLegacyTermsInType(String idFieldName, T id) {
+        return new Term[0];
+    }
+
+    /**
+     * Implement to convert given identifier to a doc values {@link Field}, so
+     * identifiers of search hits can be resolved without loading stored fields.
+     *
+     * @param idFieldName name of the {@link Field}
+     * @param id          identifier to convert
+     * @return doc values Field, or null if not supported
+     */
+    default Field getDocValuesFieldInType(String idFieldName, T id) {
+        return null;
+    }
+
+    /**
+     * Implement to read identifiers of a segment from the doc values written by
+     * {@link #getDocValuesFieldInType(String, Object)}. Returned function maps a
+     * segment level document number to its identifier, or to null when the
+     * document has no doc values (eg. indexed by an older version).
+     *
+     * @param reader      segment reader
+     * @param idFieldName name of the {@link Field}
+     * @return identifier reader, or null if the segment has no doc values for the field
+     * @throws IOException when the doc values could not be read
+     */
+    default IntFunction<T> getDocValuesReader(LeafReader reader, String idFieldName) throws IOException {
+        return null;
+    }
 }
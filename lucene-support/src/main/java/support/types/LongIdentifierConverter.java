@@ -19,6 +19,16 @@ package support.types;
 
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.NumericUtils;
+
+import java.io.IOException;
+import java.util.function.IntFunction;
 
 /**
  * The {@link IdentifierTypeConverter} implementation to be used when {@link Long}
@@ -53,4 +63,48 @@ public class LongIdentifierConverter implements IdentifierTypeConverter<Long> {
     public Field getFieldInType(String idFieldName, Long id) {
         return new LongField(idFieldName, id, Field.Store.YES);
     }
+
+    /**
+     * Converts given identifier to the full precision {@link Term} of the
+     * {@link LongField}
+     *
+     * @param idFieldName name of the {@link Field}
+     * @param id          identifier to convert
+     * @return {@link Term} instance
+     */
+    @Override
+    public Term getTermInType(String idFieldName, Long id) {
+        BytesRefBuilder bytes = new BytesRefBuilder();
+        NumericUtils.longToPrefixCoded(id, 0, bytes);
+        return new Term(idFieldName, bytes.toBytesRef());
+    }
+
+    /**
+     * Converts given identifier to {@link NumericDocValuesField}
+     *
+     * @param idFieldName name of the {@link Field}
+     * @param id          identifier to convert
+     * @return {@link NumericDocValuesField} instance
+     */
+    @Override
+    public Field getDocValuesFieldInType(String idFieldName, Long id) {
+        return new NumericDocValuesField(idFieldName, id);
+    }
+
+    /**
+     * Reads {@link Long} identifiers from {@link NumericDocValues}
+     *
+     * @param reader      segment reader
+     * @param idFieldName name of the {@link Field}
+     * @return identifier reader, or null if the segment has no doc values for the field
+     * @throws IOException when the doc values could not be read
+     */
+    @Override
+    public IntFunction<Long> getDocValuesReader(LeafReader reader, String idFieldName) throws IOException {
+        NumericDocValues values = reader.getNumericDocValues(idFieldName);
+        Bits docsWithField = reader.getDocsWithField(idFieldName);
+        if (values == null || docsWithField == null)
+            return null;
+        return doc -> docsWithField.get(doc) ? values.get(doc) : null;
+    }
 }
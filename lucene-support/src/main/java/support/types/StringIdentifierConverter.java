@@ -17,8 +17,17 @@
  */
 package support.types;
 
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.function.IntFunction;
 
 /**
  * The {@link IdentifierTypeConverter} implementation to be used when {@link String}
@@ -53,4 +62,45 @@ public class StringIdentifierConverter implements IdentifierTypeConverter<String
     public Field getFieldInType(String idFieldName, String id) {
         return new StringField(idFieldName, id, Field.Store.YES);
     }
+
+    /**
+     * Converts given identifier to the {@link Term} of the {@link StringField}
+     *
+     * @param idFieldName name of the {@link Field}
+     * @param id          identifier to convert
+     * @return {@link Term} instance
+     */
+    @Override
+    public Term getTermInType(String idFieldName, String id) {
+        return new Term(idFieldName, id);
+    }
+
+    /**
+     * Converts given identifier to {@link BinaryDocValuesField} of its UTF-8 bytes
+     *
+     * @param idFieldName name of the {@link Field}
+     * @param id          identifier to convert
+     * @return {@link BinaryDocValuesField} instance
+     */
+    @Override
+    public Field getDocValuesFieldInType(String idFieldName, String id) {
+        return new BinaryDocValuesField(idFieldName, new BytesRef(id));
+    }
+
+    /**
+     * Reads {@link String} identifiers from {@link BinaryDocValues}
+     *
+     * @param reader      segment reader
+     * @param idFieldName name of the {@link Field}
+     * @return identifier reader, or null if the segment has no doc values for the field
+     * @throws IOException when the doc values could not be read
+     */
+    @Override
+    public IntFunction<String> getDocValuesReader(LeafReader reader, String idFieldName) throws IOException {
+        BinaryDocValues values = reader.getBinaryDocValues(idFieldName);
+        Bits docsWithField = reader.getDocsWithField(idFieldName);
+        if (values == null || docsWithField == null)
+            return null;
+        return doc -> docsWithField.get(doc) ? values.get(doc).utf8ToString() : null;
+    }
 }
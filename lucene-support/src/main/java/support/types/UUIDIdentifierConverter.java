@@ -17,11 +17,19 @@
  */
 package support.types;
 
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
+import java.io.IOException;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.function.IntFunction;
 
 /**
  * The {@link IdentifierTypeConverter} implementation to be used when {@link UUID}
@@ -56,4 +64,74 @@ public class UUIDIdentifierConverter implements IdentifierTypeConverter<UUID> {
     public Field getFieldInType(String idFieldName, UUID id) {
         return new StringField(idFieldName, id.toString(), Field.Store.YES);
     }
+
+    /**
+     * Converts given identifier to the {@link Term} of the {@link StringField}
+     *
+     * @param idFieldName name of the {@link Field}
+     * @param id          identifier to convert
+     * @return {@link Term} instance
+     */
+    @Override
+    public Term getTermInType(String idFieldName, UUID id) {
+        return new Term(idFieldName, id.toString());
+    }
+
+    /**
+     * Converts given identifier to {@link BinaryDocValuesField} of its 16 bytes.
+     *
+     * @param idFieldName name of the {@link Field}
+     * @param id          identifier to convert
+     * @return {@link BinaryDocValuesField} instance
+     */
+    @Override
+    public Field getDocValuesFieldInType(String idFieldName, UUID id) {
+        return new BinaryDocValuesField(idFieldName, toBytesRef(id));
+    }
+
+    /**
+     * Reads {@link UUID} identifiers from 16 bytes {@link BinaryDocValues}
+     *
+     * @param reader      segment reader
+     * @param idFieldName name of the {@link Field}
+     * @return identifier reader, or null if the segment has no doc values for the field
+     * @throws IOException when the doc values could not be read
+     */
+    @Override
+    public IntFunction<UUID> getDocValuesReader(LeafReader reader, String idFieldName) throws IOException {
+        BinaryDocValues values = reader.getBinaryDocValues(idFieldName);
+        Bits docsWithField = reader.getDocsWithField(idFieldName);
+        if (values == null || docsWithField == null)
+            return null;
+        return doc -> docsWithField.get(doc) ? toUUID(values.get(doc)) : null;
+    }
+
+    /**
+     * @param id identifier
+     * @return 16 bytes of the identifier, most significant bits first
+     */
+    static BytesRef toBytesRef(UUID id) {
+        byte[] bytes = new byte[16];
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (msb >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (lsb >>> (56 - 8 * i));
+        }
+        return new BytesRef(bytes);
+    }
+
+    /**
+     * @param bytes 16 bytes written by {@link #toBytesRef(UUID)}
+     * @return the identifier
+     */
+    static UUID toUUID(BytesRef bytes) {
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0; i < 8; i++) {
+            msb = (msb << 8) | (bytes.bytes[bytes.offset + i] & 0xff);
+            lsb = (lsb << 8) | (bytes.bytes[bytes.offset + 8 + i] & 0xff);
+        }
+        return new UUID(msb, lsb);
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import advertise.lucene.nrt.NRTSearchManagerProcessor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkIndexPipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final EntityFixture entities = new EntityFixture();
+
+    @Test
+    public void indexesEveryEntityOfEveryPageOnTheWorkers() throws IOException {
+        for (long id = 1; id <= 1000; id++)
+            entities.put(id, "text");
+        Set<Long> indexed = ConcurrentHashMap.newKeySet();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        BulkIndexPipeline<Long, EntityFixture.Entity> pipeline = new BulkIndexPipeline<>(entity -> {
+            threads.add(Thread.currentThread().getName());
+            assertTrue(indexed.add(entity.getID()));
+        }, 4, 2);
+
+        assertEquals(1000, pipeline.run(entities, 7));
+        assertEquals(1000, indexed.size());
+        assertTrue(threads.stream().allMatch(thread -> thread.startsWith("lucene-reindex-")));
+    }
+
+    @Test
+    public void failsWithTheFailureOfAWorker() {
+        for (long id = 1; id <= 100; id++)
+            entities.put(id, "text");
+        BulkIndexPipeline<Long, EntityFixture.Entity> pipeline = new BulkIndexPipeline<>(entity -> {
+            if (entity.getID() == 50)
+                throw new IOException("disk full");
+        }, 2, 2);
+
+        try {
+            pipeline.run(entities, 10);
+            fail("Failure of a worker was not thrown");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void reIndexReplacesTheIndexWithTheStreamedEntities() throws IOException {
+        for (long id = 1; id <= 30; id++)
+            entities.put(id, id % 2 == 0 ? "even" : "odd");
+        NRTSearchManagerProcessor<Long, EntityFixture.Entity> processor = entities.newProcessor(NRTSearchManagerProcessor::new, folder.newFolder());
+        try {
+            processor.reIndex();
+            assertEquals(15, processor.searchForIds("even").size());
+
+            entities.remove(2);
+            processor.reIndex();
+            assertEquals(14, processor.searchForIds("even").size());
+            assertEquals(15, processor.searchForIds("odd").size());
+        } finally {
+            processor.destroy();
+        }
+    }
+}
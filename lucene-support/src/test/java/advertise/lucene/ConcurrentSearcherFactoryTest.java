@@ -0,0 +1,155 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import advertise.lucene.nrt.NRTSearchManagerProcessor;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentSearcherFactoryTest {
+
+    private static final int SEGMENTS = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RAMDirectory directory;
+
+    private DirectoryReader reader;
+
+    private ConcurrentSearcherFactory factory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer()).setMergePolicy(NoMergePolicy.INSTANCE);
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            // Segment n has n + 1 documents, n + 1 "apple"s in the first one.
+            for (int segment = 0; segment < SEGMENTS; segment++) {
+                for (int doc = 0; doc <= segment; doc++) {
+                    Document document = new Document();
+                    document.add(new TextField("c", doc == 0 ? String.join(" ", Collections.nCopies(segment + 1, "apple")) : "pear",
+                            Field.Store.NO));
+                    writer.addDocument(document);
+                }
+                writer.commit();
+            }
+        }
+        reader = DirectoryReader.open(directory);
+        factory = new ConcurrentSearcherFactory(2, 16);
+        factory.setMaxSegmentsPerSlice(1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        factory.close();
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void searchesTheSlicesOnTheSearchThreads() throws Exception {
+        assertEquals(SEGMENTS, reader.leaves().size());
+        IndexSearcher searcher = factory.newSearcher(reader, null);
+
+        assertEquals(hits(new IndexSearcher(reader)), hits(searcher));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (factory.getCompletedSlices() < SEGMENTS && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(SEGMENTS, factory.getCompletedSlices());
+        assertEquals(0, factory.getSaturatedSlices());
+    }
+
+    @Test
+    public void groupsSegmentsUpToTheMaxDocsOfASlice() throws Exception {
+        factory.setMaxSegmentsPerSlice(SEGMENTS);
+        factory.setMaxDocsPerSlice(10); // Segments of 1 to 4 documents, then a slice per segment
+
+        assertEquals(hits(new IndexSearcher(reader)), hits(factory.newSearcher(reader, null)));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (factory.getCompletedSlices() < 5 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(5, factory.getCompletedSlices());
+    }
+
+    @Test
+    public void searchesASingleSliceOnTheSearchingThread() throws IOException {
+        factory.setMaxSegmentsPerSlice(SEGMENTS);
+
+        assertEquals(hits(new IndexSearcher(reader)), hits(factory.newSearcher(reader, null)));
+        assertEquals(0, factory.getCompletedSlices());
+    }
+
+    @Test
+    public void searchingThreadSearchesTheSlicesTheExecutorRejects() throws IOException {
+        IndexSearcher searcher = factory.newSearcher(reader, null);
+        factory.close();
+
+        assertEquals(hits(new IndexSearcher(reader)), hits(searcher));
+        assertEquals(SEGMENTS, factory.getSaturatedSlices());
+    }
+
+    @Test
+    public void processorSearchesWithTheFactory() throws IOException {
+        EntityFixture entities = new EntityFixture();
+        for (long id = 1; id <= 50; id++)
+            entities.put(id, id % 5 == 0 ? "apple" : "pear");
+        NRTSearchManagerProcessor<Long, EntityFixture.Entity> processor = entities.newProcessor(NRTSearchManagerProcessor::new, folder.newFolder());
+        processor.setConcurrentSearcherFactory(factory);
+        try {
+            processor.reIndex();
+            assertEquals(10, processor.searchForIds("apple").size());
+        } finally {
+            processor.destroy();
+        }
+    }
+
+    private static List<Integer> hits(IndexSearcher searcher) throws IOException {
+        TopDocs topDocs = searcher.search(new TermQuery(new Term("c", "apple")), 100);
+        assertTrue(topDocs.totalHits > 0);
+        List<Integer> docs = new ArrayList<>();
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs)
+            docs.add(scoreDoc.doc);
+        return docs;
+    }
+}
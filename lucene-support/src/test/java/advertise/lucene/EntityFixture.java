@@ -0,0 +1,206 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import support.helper.SearchType;
+import support.types.IdentifierTypeConverter;
+import support.types.LongIdentifierConverter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Fixture of the processor tests. Keeps {@link Entity}s in memory by id,
+ * serves them as the {@link LuceneIndexableEntityService} of the processors,
+ * and builds processors indexing them in a directory of their own.
+ */
+public class EntityFixture implements LuceneIndexableEntityService<Long, EntityFixture.Entity> {
+
+    private final Map<Long, Entity> entities = new ConcurrentSkipListMap<>();
+
+    /**
+     * Constructor of a processor, eg. {@code NRTSearchManagerProcessor::new}.
+     *
+     * @param <P> Type of the processor.
+     */
+    @FunctionalInterface
+    public interface ProcessorConstructor<P> {
+
+        P create(LuceneIndexableEntityService<Long, Entity> indexableEntityService, IdentifierTypeConverter<Long> typeConverter,
+                 SearchType searchType, boolean sortByInsertionOrder, boolean sortInsertionOrderDesc);
+    }
+
+    /**
+     * Adds or replaces an entity. Does not index it.
+     *
+     * @param entity entity to keep
+     * @return the entity
+     */
+    public Entity put(Entity entity) {
+        entities.put(entity.getID(), entity);
+        return entity;
+    }
+
+    /**
+     * @param id   identifier of the entity
+     * @param text text of the entity
+     * @return the new entity
+     */
+    public Entity put(long id, String text) {
+        return put(new Entity(id, text));
+    }
+
+    /**
+     * Removes an entity. Does not delete its document.
+     *
+     * @param id identifier of the entity
+     */
+    public void remove(long id) {
+        entities.remove(id);
+    }
+
+    /**
+     * Builds a processor of simple searches which is not sorted by insertion
+     * order, see {@link #newProcessor(ProcessorConstructor, File, boolean)}.
+     */
+    public <P extends LuceneSearchProcessor<Long, Entity>> P newProcessor(ProcessorConstructor<P> constructor, File directory) {
+        return newProcessor(constructor, directory, false);
+    }
+
+    /**
+     * Builds a processor of simple searches of these entities. The index is
+     * not built, call {@link LuceneSearchProcessor#reIndex()}.
+     *
+     * @param constructor          constructor of the processor
+     * @param directory            resource path of the processor
+     * @param sortByInsertionOrder true to sort the hits by insertion order, latest first
+     * @return the processor
+     */
+    public <P extends LuceneSearchProcessor<Long, Entity>> P newProcessor(ProcessorConstructor<P> constructor, File directory,
+                                                                          boolean sortByInsertionOrder) {
+        P processor = constructor.create(this, new LongIdentifierConverter(), SearchType.SIMPLE, sortByInsertionOrder, true);
+        processor.setResourcePath(directory.getAbsolutePath());
+        processor.setMaxSearchResults(100);
+        return processor;
+    }
+
+    @Override
+    public List<Entity> getIndexableEntities() {
+        return new ArrayList<>(entities.values());
+    }
+
+    @Override
+    public List<Entity> getEntitiesByIds(List<Long> ids) {
+        List<Entity> found = new ArrayList<>(ids.size());
+        for (Long id : ids)
+            getEntityById(id).ifPresent(found::add);
+        return found;
+    }
+
+    @Override
+    public Optional<Entity> getEntityById(Long id) {
+        return Optional.ofNullable(entities.get(id));
+    }
+
+    /**
+     * Entity of the tests. Title, body, filter terms and dates are optional.
+     */
+    public static final class Entity implements LuceneIndexableEntity<Long> {
+
+        private final Long id;
+
+        private final String text;
+
+        private String title;
+
+        private String body;
+
+        private final Map<String, String> filterTerms = new LinkedHashMap<>();
+
+        private Date postedDate;
+
+        private Date expireDate;
+
+        public Entity(Long id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        public Entity titled(String title, String body) {
+            this.title = title;
+            this.body = body;
+            return this;
+        }
+
+        public Entity filteredBy(String filter, String term) {
+            filterTerms.put(filter, term);
+            return this;
+        }
+
+        public Entity postedAt(long timeMillis) {
+            postedDate = new Date(timeMillis);
+            return this;
+        }
+
+        public Entity expiresAt(long timeMillis) {
+            expireDate = new Date(timeMillis);
+            return this;
+        }
+
+        @Override
+        public Long getID() {
+            return id;
+        }
+
+        @Override
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public String getTitle() {
+            return title;
+        }
+
+        @Override
+        public String getBody() {
+            return body;
+        }
+
+        @Override
+        public Map<String, String> getFilterTerms() {
+            return filterTerms;
+        }
+
+        @Override
+        public Date getPostedDate() {
+            return postedDate;
+        }
+
+        @Override
+        public Date getExpireDate() {
+            return expireDate;
+        }
+    }
+}
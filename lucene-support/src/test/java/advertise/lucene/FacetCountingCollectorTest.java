@@ -0,0 +1,116 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class FacetCountingCollectorTest {
+
+    private RAMDirectory directory;
+
+    private IndexWriter writer;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        directory.close();
+    }
+
+    @Test
+    public void sumsTheCountsOfAValueAcrossSegments() throws IOException {
+        add("red", "cars", "colombo");
+        add("red", "cars", "kandy");
+        writer.commit(); // Second segment, with its own ordinals
+        add("blue", "bikes", "colombo");
+        add("red", "bikes", "colombo");
+        writer.commit();
+
+        Map<String, Map<String, Integer>> counts = count(new TermQuery(new Term("color", "red")));
+
+        assertEquals(counts("cars", 2, "bikes", 1), counts.get("category"));
+        assertEquals(counts("colombo", 2, "kandy", 1), counts.get("location"));
+    }
+
+    @Test
+    public void leavesOutValuesWithoutHitsAndDocumentsWithoutTheField() throws IOException {
+        add("red", "cars", "colombo");
+        add("blue", "bikes", null);
+        writer.commit();
+
+        Map<String, Map<String, Integer>> counts = count(new MatchAllDocsQuery());
+
+        assertEquals(counts("cars", 1, "bikes", 1), counts.get("category"));
+        assertEquals(counts("colombo", 1), counts.get("location"));
+        assertEquals(counts("colombo", 1), count(new TermQuery(new Term("color", "red"))).get("location"));
+        assertEquals(new HashMap<>(), count(new TermQuery(new Term("color", "blue"))).get("location"));
+    }
+
+    private void add(String color, String category, String location) throws IOException {
+        Document document = new Document();
+        document.add(new StringField("color", color, Field.Store.NO));
+        document.add(new SortedSetDocValuesField("f.category", new BytesRef(category)));
+        if (location != null)
+            document.add(new SortedSetDocValuesField("f.location", new BytesRef(location)));
+        writer.addDocument(document);
+    }
+
+    private Map<String, Map<String, Integer>> count(Query query) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            FacetCountingCollector collector = FacetCountingCollector.forFacets(Arrays.asList("category", "location"), "f.");
+            new IndexSearcher(reader).search(query, collector);
+            return collector.getCounts();
+        }
+    }
+
+    private static Map<String, Integer> counts(Object... valuesAndCounts) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < valuesAndCounts.length; i += 2)
+            counts.put((String) valuesAndCounts[i], (Integer) valuesAndCounts[i + 1]);
+        return counts;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.TermQuery;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FilterCachingPolicyTest {
+
+    private final FilterCachingPolicy policy = new FilterCachingPolicy("f.", new QueryCachingPolicy() {
+
+        @Override
+        public void onUse(Query query) {
+        }
+
+        @Override
+        public boolean shouldCache(Query query, LeafReaderContext context) {
+            return false;
+        }
+    });
+
+    @Test
+    public void cachesFilterTermsAndTheirConjunctions() throws IOException {
+        Query category = filter("category", "cars");
+        Query location = filter("location", "colombo");
+        Query both = new BooleanQuery.Builder()
+                .add(category, BooleanClause.Occur.FILTER)
+                .add(location, BooleanClause.Occur.FILTER)
+                .build();
+
+        assertTrue(policy.shouldCache(category, null));
+        assertTrue(policy.shouldCache(both, null));
+        assertTrue(policy.shouldCache(new ConstantScoreQuery(both), null));
+    }
+
+    @Test
+    public void leavesOtherQueriesToTheDelegate() throws IOException {
+        Query text = new TermQuery(new Term("c", "car"));
+        Query textAndFilter = new BooleanQuery.Builder()
+                .add(text, BooleanClause.Occur.MUST)
+                .add(filter("category", "cars"), BooleanClause.Occur.FILTER)
+                .build();
+        Query eitherFilter = new BooleanQuery.Builder()
+                .add(filter("category", "cars"), BooleanClause.Occur.SHOULD)
+                .add(filter("category", "bikes"), BooleanClause.Occur.SHOULD)
+                .build();
+
+        assertFalse(policy.shouldCache(text, null));
+        assertFalse(policy.shouldCache(textAndFilter, null));
+        assertFalse(policy.shouldCache(eitherFilter, null));
+        assertFalse(policy.shouldCache(new BooleanQuery.Builder().build(), null));
+    }
+
+    private static Query filter(String name, String term) {
+        return new TermQuery(new Term("f." + name, term));
+    }
+}
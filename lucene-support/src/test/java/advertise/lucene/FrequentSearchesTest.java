@@ -0,0 +1,64 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrequentSearchesTest {
+
+    @Test
+    public void returnsTheMostFrequentSearchesFirst() {
+        FrequentSearches searches = new FrequentSearches(10);
+        record(searches, "car", 3);
+        record(searches, "van", 5);
+        record(searches, "bike", 1);
+        searches.record(FrequentSearches.Search.paged("car", Collections.singletonMap("category", "cars"), Collections.emptyList()));
+
+        assertEquals(Arrays.asList("van", "car"), texts(searches.top(2)));
+        assertEquals(4, searches.top(10).size());
+    }
+
+    @Test
+    public void searchesFrequentNowReplaceTheOnesFrequentBefore() {
+        FrequentSearches searches = new FrequentSearches(4);
+        record(searches, "old", 10);
+        for (int i = 0; i < 4; i++)
+            record(searches, "once" + i, 1);
+        assertTrue(texts(searches.top(4)).contains("old")); // Halved to 5, less frequent half dropped
+
+        record(searches, "new", 6);
+        assertEquals("new", texts(searches.top(1)).get(0));
+    }
+
+    private static void record(FrequentSearches searches, String text, int times) {
+        for (int i = 0; i < times; i++)
+            searches.record(FrequentSearches.Search.keyword(text));
+    }
+
+    private static List<String> texts(List<FrequentSearches.Search> searches) {
+        return searches.stream().map(search -> search.text).collect(Collectors.toList());
+    }
+}
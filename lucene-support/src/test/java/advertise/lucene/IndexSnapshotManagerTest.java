@@ -0,0 +1,105 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import advertise.lucene.EntityFixture.Entity;
+import advertise.lucene.nrt.NRTSearchManagerProcessor;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class IndexSnapshotManagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final EntityFixture entities = new EntityFixture();
+
+    private NRTSearchManagerProcessor<Long, Entity> processor;
+
+    @After
+    public void tearDown() {
+        if (processor != null)
+            processor.destroy();
+    }
+
+    @Test
+    public void restoresASnapshotInToANewGeneration() throws Exception {
+        String snapshots = folder.newFolder().getPath();
+        processor = newProcessor(snapshots, false);
+        entities.put(1, "car");
+        entities.put(2, "car");
+        processor.reIndex();
+        Path snapshot = processor.snapshot();
+        assertNotNull(snapshot);
+
+        entities.remove(2);
+        processor.deleteIndexes(Collections.singletonList(2L));
+        processor.addIndex(entities.put(3, "car"));
+        assertEquals(Arrays.asList(1L, 3L), search("car"));
+
+        CountDownLatch caughtUp = new CountDownLatch(1);
+        processor.addRestoreListener(restored -> caughtUp.countDown());
+        assertTrue(processor.restore(snapshot));
+
+        assertEquals(Arrays.asList(1L, 2L), search("car"));
+        assertTrue(caughtUp.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void bootstrapsFromTheLatestSnapshotWhenThereIsNoIndex() throws Exception {
+        String snapshots = folder.newFolder().getPath();
+        processor = newProcessor(snapshots, false);
+        entities.put(1, "car");
+        entities.put(2, "van");
+        processor.reIndex();
+        assertNotNull(processor.snapshot());
+        processor.destroy();
+
+        processor = newProcessor(snapshots, true);
+
+        assertEquals(Collections.singletonList(1L), search("car"));
+        assertEquals(Collections.singletonList(2L), search("van"));
+    }
+
+    private NRTSearchManagerProcessor<Long, Entity> newProcessor(String snapshots, boolean bootstrap) throws IOException {
+        NRTSearchManagerProcessor<Long, Entity> processor = entities.newProcessor(NRTSearchManagerProcessor::new, folder.newFolder());
+        processor.setSearchResultCacheSize(0);
+        processor.setSnapshots(snapshots, bootstrap, false);
+        return processor;
+    }
+
+    private List<Long> search(String text) {
+        List<Long> ids = processor.searchForIds(text);
+        ids.sort(null);
+        return ids;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import support.helper.SearchType;
+import support.types.StringIdentifierConverter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IndexingQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appliesTheWritesOfAnIdentifierInOrder() {
+        RecordingProcessor processor = new RecordingProcessor();
+        IndexingQueue<String, Entity> queue = new IndexingQueue<>(processor, 2, 8, 3, 1000);
+        for (int i = 1; i <= 50; i++)
+            queue.updateIndex("id", new Entity("id", "v" + i));
+        queue.close();
+
+        int last = 0;
+        for (String write : processor.writes) {
+            int version = Integer.parseInt(write.substring("update id v".length()));
+            assertTrue(write, version > last);
+            last = version;
+        }
+        assertEquals(50, last);
+    }
+
+    @Test
+    public void appliesTheLastWriteOfAnIdentifierInABatch() throws InterruptedException {
+        RecordingProcessor processor = new RecordingProcessor();
+        processor.blockOn("blocking");
+        IndexingQueue<String, Entity> queue = new IndexingQueue<>(processor, 1, 10, 10, 1000);
+        queue.addIndex(new Entity("blocking", "first"));
+        processor.entered.await();
+
+        queue.addIndex(new Entity("1", "a"));
+        queue.updateIndex("1", new Entity("1", "b"));
+        queue.deleteIndexes(Collections.singleton("2"));
+        queue.addIndex(new Entity("3", "c"));
+        processor.gate.countDown();
+        queue.close();
+
+        assertEquals(Arrays.asList("add blocking first", "update 1 b", "add 3 c", "delete [2]"), processor.writes);
+        assertEquals(2L, (long) queue.getStats().get("batches"));
+    }
+
+    @Test
+    public void appliesTheLaterSequenceOfWritesOfferedInReverse() {
+        RecordingProcessor processor = new RecordingProcessor();
+        IndexingQueue<String, Entity> queue = new IndexingQueue<>(processor, 0, 10, 10, 1000);
+        IndexingQueue<String, Entity>.Partition partition = queue.getPartition("1");
+        IndexingQueue<String, Entity>.Write update = queue.new Write(IndexingQueue.Operation.UPDATE, "1", new Entity("1", "b"));
+        IndexingQueue<String, Entity>.Write delete = queue.new Write(IndexingQueue.Operation.DELETE, "1", null);
+        partition.sequence(update);
+        partition.sequence(delete);
+
+        queue.apply(partition, Arrays.asList(delete, update));
+
+        assertEquals(Collections.singletonList("delete [1]"), processor.writes);
+        queue.close();
+    }
+
+    @Test
+    public void dropsAWriteOfferedAfterALaterSequenceWasApplied() {
+        RecordingProcessor processor = new RecordingProcessor();
+        IndexingQueue<String, Entity> queue = new IndexingQueue<>(processor, 0, 10, 10, 1000);
+        IndexingQueue<String, Entity>.Partition partition = queue.getPartition("1");
+        IndexingQueue<String, Entity>.Write add = queue.new Write(IndexingQueue.Operation.ADD, "1", new Entity("1", "a"));
+        IndexingQueue<String, Entity>.Write update = queue.new Write(IndexingQueue.Operation.UPDATE, "1", new Entity("1", "b"));
+        IndexingQueue<String, Entity>.Write delete = queue.new Write(IndexingQueue.Operation.DELETE, "1", null);
+        partition.sequence(add);
+        partition.sequence(update);
+        partition.sequence(delete);
+
+        queue.apply(partition, Collections.singletonList(add));
+        queue.apply(partition, Collections.singletonList(delete));
+        queue.apply(partition, Collections.singletonList(update));
+
+        assertEquals(Arrays.asList("add 1 a", "delete [1]"), processor.writes);
+        queue.close();
+    }
+
+    @Test
+    public void appliesWritesOnTheCallerWhenAPartitionIsFull() throws InterruptedException {
+        RecordingProcessor processor = new RecordingProcessor();
+        processor.blockOn("0");
+        IndexingQueue<String, Entity> queue = new IndexingQueue<>(processor, 1, 1, 10, 10);
+        queue.addIndex(new Entity("0", "a"));
+        processor.entered.await();
+        queue.addIndex(new Entity("1", "a"));
+
+        Thread caller = new Thread(() -> queue.addIndex(new Entity("2", "a")), "caller");
+        caller.start();
+        while (queue.getStats().get("overflows") == 0)
+            Thread.sleep(1);
+        processor.gate.countDown();
+        caller.join();
+        queue.close();
+
+        assertEquals(Arrays.asList("add 0 a", "add 1 a", "add 2 a"), processor.writes);
+        assertEquals("caller", processor.threads.get(2));
+    }
+
+    @Test
+    public void closeAppliesThePendingWrites() throws InterruptedException {
+        RecordingProcessor processor = new RecordingProcessor();
+        processor.blockOn("0");
+        IndexingQueue<String, Entity> queue = new IndexingQueue<>(processor, 1, 10, 2, 1000);
+        for (int i = 0; i < 6; i++)
+            queue.addIndex(new Entity(Integer.toString(i), "a"));
+        processor.entered.await();
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            processor.gate.countDown();
+        }).start();
+        queue.close();
+
+        assertEquals(6, processor.writes.size());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void awaitsTheGenerationOfTheAppliedWrite() {
+        RecordingProcessor processor = new RecordingProcessor();
+        IndexingQueue<String, Entity> queue = new IndexingQueue<>(processor, 0, 10, 10, 1000);
+        String token = queue.addIndex(new Entity("1", "a"));
+        processor.generation.set(10); // writes not made through the queue
+
+        assertTrue(queue.awaitVisible(token, 1000));
+        assertEquals(Collections.singletonList(1L), processor.awaited);
+        queue.close();
+    }
+
+    @Test
+    public void awaitVisibleTimesOutBeforeTheWriteIsApplied() throws InterruptedException {
+        RecordingProcessor processor = new RecordingProcessor();
+        processor.blockOn("1");
+        IndexingQueue<String, Entity> queue = new IndexingQueue<>(processor, 1, 10, 10, 1000);
+        String token = queue.addIndex(new Entity("1", "a"));
+        processor.entered.await();
+
+        assertFalse(queue.awaitVisible(token, 10));
+        assertTrue(processor.awaited.isEmpty());
+        processor.gate.countDown();
+        assertTrue(queue.awaitVisible(token, 1000));
+        queue.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsWritesOnceClosed() {
+        IndexingQueue<String, Entity> queue = new IndexingQueue<>(new RecordingProcessor(), 1, 10, 10, 1000);
+        queue.close();
+        queue.addIndex(new Entity("1", "a"));
+    }
+
+    @Test
+    public void logsWritesWhenSubmitted() throws Exception {
+        RecordingProcessor processor = new RecordingProcessor();
+        processor.setResourcePath(folder.newFolder().getAbsolutePath());
+        processor.setWriteAheadLog(true, 0);
+        processor.blockOn("0");
+        IndexingQueue<String, Entity> queue = new IndexingQueue<>(processor, 1, 10, 10, 1000);
+        queue.addIndex(new Entity("0", "a"));
+        processor.entered.await();
+        queue.addIndex(new Entity("1", "a"));
+
+        WriteAheadLog<String> log = processor.getWriteAheadLog();
+        assertEquals(2, log.lastSequence());
+        assertEquals(0, log.checkpoint());
+
+        processor.gate.countDown();
+        queue.close();
+        assertEquals(2, log.checkpoint());
+        log.close();
+    }
+
+    private static final class Entity implements LuceneIndexableEntity<String> {
+
+        private final String id;
+
+        private final String text;
+
+        private Entity(String id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        @Override
+        public String getID() {
+            return id;
+        }
+
+        @Override
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * Records the writes applied by the queue, and blocks on the write of an
+     * identifier until the gate is opened.
+     */
+    private static final class RecordingProcessor extends LuceneSearchProcessor<String, Entity> {
+
+        private final List<String> writes = Collections.synchronizedList(new ArrayList<>());
+
+        private final List<String> threads = Collections.synchronizedList(new ArrayList<>());
+
+        private final List<Long> awaited = Collections.synchronizedList(new ArrayList<>());
+
+        private final AtomicLong generation = new AtomicLong();
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        private final CountDownLatch gate = new CountDownLatch(1);
+
+        private String blockingId;
+
+        private RecordingProcessor() {
+            super(null, new StringIdentifierConverter(), SearchType.SIMPLE, false, false);
+        }
+
+        private void blockOn(String id) {
+            blockingId = id;
+        }
+
+        @Override
+        protected boolean addIndexDocument(String id, String content) {
+            return record("add " + id + " " + content, id);
+        }
+
+        @Override
+        protected boolean addIndexDocument(Entity entity) {
+            return record("add " + entity.getID() + " " + entity.getText(), entity.getID());
+        }
+
+        @Override
+        protected boolean updateIndexDocument(String id, Entity entity) {
+            return record("update " + id + " " + entity.getText(), id);
+        }
+
+        @Override
+        protected boolean refreshIndexDocument(String id) {
+            return record("refresh " + id, id);
+        }
+
+        @Override
+        protected boolean deleteIndexDocuments(Collection<String> ids) {
+            return ids.isEmpty() || record("delete " + ids, null);
+        }
+
+        private boolean record(String write, String id) {
+            if (id != null && id.equals(blockingId)) {
+                entered.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            writes.add(write);
+            threads.add(Thread.currentThread().getName());
+            generation.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public long getWriteGeneration() {
+            return generation.get();
+        }
+
+        @Override
+        public boolean awaitVisibility(long generation, long timeoutMillis) {
+            awaited.add(generation);
+            return true;
+        }
+
+        @Override
+        protected IndexSearcher getIndexSearcher() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected IndexWriter[] getIndexWriters() {
+            return new IndexWriter[0];
+        }
+
+        @Override
+        protected void closeWriter() {
+        }
+    }
+}
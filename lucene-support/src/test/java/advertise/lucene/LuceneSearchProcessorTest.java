@@ -0,0 +1,201 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import advertise.lucene.EntityFixture.Entity;
+import advertise.lucene.legacy.LegacySearchProcessor;
+import advertise.lucene.nrt.NRTDirectoryReaderSearchProcessor;
+import advertise.lucene.nrt.NRTReopenThreadSearchProcessor;
+import advertise.lucene.nrt.NRTSearchManagerProcessor;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LuceneSearchProcessorTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final EntityFixture entities = new EntityFixture();
+
+    private NRTSearchManagerProcessor<Long, Entity> processor;
+
+    @After
+    public void tearDown() {
+        if (processor != null)
+            processor.destroy();
+    }
+
+    @Test
+    public void filtersByCategoryAndLocationLatestPostedFirst() throws IOException {
+        long now = System.currentTimeMillis();
+        ad(1, "red car", "cars", "colombo").postedAt(now - 3 * HOUR);
+        ad(2, "blue car", "cars", "kandy").postedAt(now - 2 * HOUR);
+        ad(3, "old car", "cars", "colombo").postedAt(now - HOUR);
+        ad(4, "red house", "houses", "colombo").postedAt(now);
+        reIndex();
+
+        assertEquals(Arrays.asList(3L, 2L, 1L), search(null, filters("cars", null)));
+        assertEquals(Arrays.asList(4L, 3L, 1L), search("", filters(null, "colombo")));
+        assertEquals(Arrays.asList(3L, 1L), search(null, filters("cars", "colombo")));
+        assertEquals(Collections.emptyList(), search(null, filters("houses", "kandy")));
+    }
+
+    @Test
+    public void filterTermsMatchExactly() throws IOException {
+        ad(1, "car", "cars", "colombo");
+        ad(2, "car", "cars", "colombo 7");
+        reIndex();
+
+        assertEquals(Collections.singletonList(2L), search(null, filters(null, "colombo 7")));
+        assertEquals(Collections.emptyList(), search(null, filters(null, "Colombo")));
+    }
+
+    @Test
+    public void combinesTextAndFiltersInOneSearch() throws IOException {
+        ad(1, "red car", "cars", "colombo");
+        ad(2, "red car", "cars", "kandy");
+        ad(3, "red bike", "bikes", "colombo");
+        ad(4, "blue car", "cars", "colombo");
+        reIndex();
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), sorted(search("red", filters(null, null))));
+        assertEquals(Arrays.asList(1L, 2L), sorted(search("red", filters("cars", null))));
+        assertEquals(Collections.singletonList(1L), search("red", filters("cars", "colombo")));
+        assertEquals(Collections.singletonList(3L), search("red", filters("bikes", "colombo")));
+    }
+
+    @Test
+    public void countsAllTheHitsOfASearchPerFacetValue() throws IOException {
+        for (long id = 1; id <= 15; id++)
+            ad(id, "car", id % 3 == 0 ? "vans" : "cars", id <= 5 ? "kandy" : "colombo");
+        ad(16, "house", "houses", "colombo");
+        reIndex();
+
+        SearchPage<Long> page = processor.searchForIds("car", filters(null, "colombo"), Arrays.asList("category", "location"), null, 4);
+
+        assertEquals(4, page.getIds().size());
+        Map<String, Integer> categories = new HashMap<>();
+        categories.put("cars", 6);
+        categories.put("vans", 4);
+        assertEquals(categories, page.getFacetCounts().get("category"));
+        assertEquals(Collections.singletonMap("colombo", 10), page.getFacetCounts().get("location"));
+    }
+
+    @Test
+    public void pagesThroughAnIndexSortedByInsertionOrderLatestFirst() throws Exception {
+        for (long id = 1; id <= 20; id++)
+            entities.put(id, "car");
+        processor = entities.newProcessor(NRTSearchManagerProcessor::new, folder.newFolder(), true);
+        processor.setSortIndexByInsertionOrder(true);
+        processor.reIndex();
+        for (long id = 21; id <= 23; id++) {
+            Thread.sleep(2); // Later insertion time than the re-indexed entities
+            processor.addIndex(entities.put(id, "car"));
+        }
+        assertTrue(processor.awaitVisibility(processor.getWriteGeneration(), 5000));
+
+        List<Long> all = processor.searchForIds("car");
+        assertEquals(23, all.size());
+        assertEquals(Arrays.asList(23L, 22L, 21L), all.subList(0, 3));
+
+        List<Long> paged = new ArrayList<>();
+        SearchCursor cursor = null;
+        SearchPage<Long> page;
+        do {
+            page = processor.searchForIds("car", cursor, 4);
+            paged.addAll(page.getIds());
+            cursor = page.getNext();
+        } while (page.hasNext());
+        assertEquals(all, paged);
+    }
+
+    @Test
+    public void updatesAndDeletesByTheExactIdentifierInEveryProcessor() throws IOException {
+        assertUpdatesAndDeletesById(LegacySearchProcessor::new);
+        assertUpdatesAndDeletesById(NRTDirectoryReaderSearchProcessor::new);
+        assertUpdatesAndDeletesById(NRTSearchManagerProcessor::new);
+        assertUpdatesAndDeletesById(NRTReopenThreadSearchProcessor::new);
+    }
+
+    private void assertUpdatesAndDeletesById(EntityFixture.ProcessorConstructor<? extends LuceneSearchProcessor<Long, Entity>> constructor)
+            throws IOException {
+        for (long id : Arrays.asList(1L, 10L, 11L))
+            entities.put(id, "car");
+        LuceneSearchProcessor<Long, Entity> tested = entities.newProcessor(constructor, folder.newFolder());
+        try {
+            tested.reIndex();
+
+            tested.updateIndex(10L, entities.put(10L, "van"));
+            assertTrue(tested.awaitVisibility(tested.getWriteGeneration(), 5000));
+            assertEquals(Collections.singletonList(10L), tested.searchForIds("van"));
+            assertEquals(Arrays.asList(1L, 11L), sorted(tested.searchForIds("car")));
+
+            tested.deleteIndexes(Collections.singletonList(1L));
+            assertTrue(tested.awaitVisibility(tested.getWriteGeneration(), 5000));
+            assertEquals(Collections.singletonList(11L), tested.searchForIds("car"));
+            assertEquals(Collections.singletonList(10L), tested.searchForIds("van"));
+        } finally {
+            tested.destroy();
+        }
+    }
+
+    private Entity ad(long id, String title, String category, String location) {
+        return entities.put(new Entity(id, title).titled(title, "")
+                .filteredBy("category", category)
+                .filteredBy("location", location));
+    }
+
+    private void reIndex() throws IOException {
+        processor = entities.newProcessor(NRTSearchManagerProcessor::new, folder.newFolder());
+        processor.reIndex();
+    }
+
+    private List<Long> search(String text, Map<String, String> filters) {
+        return processor.searchForIds(text, filters, null, 10).getIds();
+    }
+
+    private static List<Long> sorted(List<Long> ids) {
+        List<Long> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static Map<String, String> filters(String category, String location) {
+        Map<String, String> filters = new HashMap<>();
+        if (category != null)
+            filters.put("category", category);
+        if (location != null)
+            filters.put("location", location);
+        return filters;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class RebuildMirrorTest {
+
+    private RAMDirectory directory;
+
+    private IndexWriter writer;
+
+    private RebuildMirror mirror;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+        mirror = new RebuildMirror(writer);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        directory.close();
+    }
+
+    @Test
+    public void liveAddAfterBulkLoadReplacesDocument() throws IOException {
+        mirror.bulkAdd(id("1"), document("1", "bulk"));
+        mirror.update(id("1"), document("1", "live"));
+
+        assertEquals(1, count(id("1")));
+        assertEquals(1, count(new Term("version", "live")));
+    }
+
+    @Test
+    public void bulkLoadSkipsIdentifiersWrittenLive() throws IOException {
+        mirror.update(id("1"), document("1", "live"));
+        mirror.bulkAdd(id("1"), document("1", "bulk"));
+        mirror.bulkAdd(id("2"), document("2", "bulk"));
+
+        assertEquals(1, count(id("1")));
+        assertEquals(1, count(new Term("version", "live")));
+        assertEquals(1, count(new Term("version", "bulk")));
+    }
+
+    @Test
+    public void bulkLoadSkipsIdentifiersDeletedLive() throws IOException {
+        mirror.bulkAdd(id("1"), document("1", "bulk"));
+        mirror.delete(id("1"), id("2"));
+        mirror.bulkAdd(id("2"), document("2", "bulk"));
+
+        assertEquals(0, count(id("1")));
+        assertEquals(0, count(id("2")));
+    }
+
+    private static Term id(String id) {
+        return new Term("id", id);
+    }
+
+    private static Document document(String id, String version) {
+        Document document = new Document();
+        document.add(new StringField("id", id, Field.Store.NO));
+        document.add(new StringField("version", version, Field.Store.NO));
+        return document;
+    }
+
+    private int count(Term term) throws IOException {
+        writer.commit();
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            return new IndexSearcher(reader).count(new TermQuery(term));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SearchCursorTest {
+
+    private static final Sort POSTED_DESC = new Sort(new SortField("posted", SortField.Type.LONG, true));
+
+    private RAMDirectory directory;
+
+    private IndexWriter writer;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+        for (long posted = 0; posted < 10; posted++) {
+            Document document = new Document();
+            document.add(new LongField("posted", posted, Field.Store.YES));
+            document.add(new NumericDocValuesField("posted", posted));
+            writer.addDocument(document);
+        }
+        writer.commit();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        directory.close();
+    }
+
+    @Test
+    public void continuesBySortValuesAfterMerge() throws IOException {
+        SearchCursor cursor;
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            TopDocs page = searcher.searchAfter(null, new MatchAllDocsQuery(), 3, POSTED_DESC);
+            assertArrayEquals(new long[]{9, 8, 7}, posted(searcher, page));
+            cursor = SearchCursor.after(page.scoreDocs[2], 3);
+        }
+
+        // Renumbers the remaining documents below the document number of the cursor.
+        writer.deleteDocuments(NumericRangeQuery.newLongRange("posted", 0L, 4L, true, true));
+        writer.forceMerge(1);
+        writer.commit();
+
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            assertEquals(5, reader.maxDoc());
+            ScoreDoc after = cursor.toScoreDoc(reader.maxDoc());
+            TopDocs page = searcher.searchAfter(after, new MatchAllDocsQuery(), 3, POSTED_DESC);
+            assertArrayEquals(new long[]{6, 5}, posted(searcher, page));
+        }
+    }
+
+    @Test
+    public void keepsDocumentNumberOfCurrentReader() {
+        SearchCursor cursor = SearchCursor.after(new ScoreDoc(4, 1f), 5);
+
+        assertEquals(4, cursor.toScoreDoc(10).doc);
+        assertEquals(2, cursor.toScoreDoc(3).doc);
+        assertEquals(-1, cursor.toScoreDoc(0).doc);
+    }
+
+    private static long[] posted(IndexSearcher searcher, TopDocs topDocs) throws IOException {
+        long[] posted = new long[topDocs.scoreDocs.length];
+        for (int i = 0; i < posted.length; i++)
+            posted[i] = searcher.doc(topDocs.scoreDocs[i].doc).getField("posted").numericValue().longValue();
+        return posted;
+    }
+}
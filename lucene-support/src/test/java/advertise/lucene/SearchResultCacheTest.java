@@ -0,0 +1,84 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+import support.helper.SearchType;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class SearchResultCacheTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void keysDifferByExpiryCutoff() throws IOException {
+        try (RAMDirectory directory = new RAMDirectory();
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            writer.commit();
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                SearchResultCache.Key key = key(reader, MINUTE);
+
+                assertEquals(key, key(reader, MINUTE));
+                assertEquals(key.hashCode(), key(reader, MINUTE).hashCode());
+                assertNotEquals(key, key(reader, 2 * MINUTE));
+            }
+        }
+    }
+
+    @Test
+    public void searchesAgainOnceTheExpiryCutoffMoves() throws Exception {
+        SearchResultCache<Long> cache = new SearchResultCache<>(10);
+        AtomicInteger searches = new AtomicInteger();
+        try (RAMDirectory directory = new RAMDirectory();
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            writer.commit();
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                List<Long> first = cache.get(key(reader, MINUTE), () -> Arrays.asList(1L, 2L));
+                List<Long> cached = cache.get(key(reader, MINUTE), () -> {
+                    searches.incrementAndGet();
+                    return Collections.emptyList();
+                });
+                List<Long> next = cache.get(key(reader, 2 * MINUTE), () -> {
+                    searches.incrementAndGet();
+                    return Collections.singletonList(2L);
+                });
+
+                assertEquals(first, cached);
+                assertEquals(Collections.singletonList(2L), next);
+                assertEquals(1, searches.get());
+            }
+        }
+    }
+
+    private static SearchResultCache.Key key(DirectoryReader reader, long expiryCutoff) {
+        return new SearchResultCache.Key("text", SearchType.SIMPLE, false, false, expiryCutoff, reader);
+    }
+}
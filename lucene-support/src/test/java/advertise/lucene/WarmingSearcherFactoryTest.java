@@ -0,0 +1,109 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class WarmingSearcherFactoryTest {
+
+    private RAMDirectory directory;
+
+    private IndexWriter writer;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        directory.close();
+    }
+
+    @Test
+    public void warmsEachSearcherBeforeItIsPublished() throws IOException {
+        List<IndexSearcher> warmed = new ArrayList<>();
+        SearcherManager manager = new SearcherManager(writer, true, new WarmingSearcherFactory(new SearcherFactory(), warmed::add));
+        try {
+            assertEquals(1, warmed.size());
+            assertAcquired(manager, warmed.get(0));
+
+            addDocument();
+            manager.maybeRefreshBlocking();
+            assertEquals(2, warmed.size());
+            assertAcquired(manager, warmed.get(1));
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void publishesTheSearcherColdWhenWarmingFails() throws IOException {
+        SearcherManager manager = new SearcherManager(writer, true, new WarmingSearcherFactory(new SearcherFactory(), indexSearcher -> {
+            throw new IOException("warm up failed");
+        }));
+        try {
+            addDocument();
+            manager.maybeRefreshBlocking();
+            IndexSearcher indexSearcher = manager.acquire();
+            try {
+                assertEquals(1, indexSearcher.getIndexReader().numDocs());
+            } finally {
+                manager.release(indexSearcher);
+            }
+        } finally {
+            manager.close();
+        }
+    }
+
+    private void addDocument() throws IOException {
+        Document document = new Document();
+        document.add(new StringField("id", "1", Field.Store.NO));
+        writer.addDocument(document);
+    }
+
+    private static void assertAcquired(SearcherManager manager, IndexSearcher expected) throws IOException {
+        IndexSearcher indexSearcher = manager.acquire();
+        try {
+            assertSame(expected, indexSearcher);
+        } finally {
+            manager.release(indexSearcher);
+        }
+    }
+}
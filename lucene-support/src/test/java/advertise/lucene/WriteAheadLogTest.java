@@ -0,0 +1,154 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import support.types.StringIdentifierConverter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WriteAheadLogTest {
+
+    /**
+     * Fits three records of "id-n".
+     */
+    private static final long SEGMENT_SIZE = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysRecordsAfterTheCheckpoint() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (WriteAheadLog<String> log = open(directory)) {
+            log.applied(log.append(WriteAheadLog.Operation.UPDATE, "id-1"));
+            log.applied(log.append(WriteAheadLog.Operation.DELETE, "id-2"));
+            log.applied(log.append(WriteAheadLog.Operation.UPDATE, "id-3"));
+        }
+
+        try (WriteAheadLog<String> log = open(directory)) {
+            assertEquals(Arrays.asList("DELETE id-2", "UPDATE id-3"), replay(log, 1));
+            assertEquals(4, log.append(WriteAheadLog.Operation.UPDATE, "id-4"));
+        }
+    }
+
+    @Test
+    public void checkpointStopsBeforeTheFirstWriteInFlight() throws IOException {
+        try (WriteAheadLog<String> log = open(folder.newFolder().toPath())) {
+            long first = log.append(WriteAheadLog.Operation.UPDATE, "id-1");
+            log.append(WriteAheadLog.Operation.UPDATE, "id-2");
+            long third = log.append(WriteAheadLog.Operation.UPDATE, "id-3");
+            log.applied(first);
+            log.applied(third);
+
+            assertEquals(1, log.checkpoint());
+        }
+    }
+
+    @Test
+    public void trimDeletesOnlySegmentsCoveredByTheCheckpoint() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (WriteAheadLog<String> log = open(directory)) {
+            for (int i = 1; i <= 9; i++)
+                log.applied(log.append(WriteAheadLog.Operation.UPDATE, "id-" + i));
+            assertEquals(3, segments(directory).size());
+
+            log.trim(5);
+            assertEquals(2, segments(directory).size());
+
+            log.trim(9);
+            assertEquals(1, segments(directory).size()); // current segment is kept
+        }
+
+        try (WriteAheadLog<String> log = open(directory)) {
+            assertEquals(Arrays.asList("UPDATE id-8", "UPDATE id-9"), replay(log, 7));
+        }
+    }
+
+    @Test
+    public void truncatesATornRecordAtTheEnd() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (WriteAheadLog<String> log = open(directory)) {
+            log.append(WriteAheadLog.Operation.UPDATE, "id-1");
+            log.append(WriteAheadLog.Operation.UPDATE, "id-2");
+        }
+        Path last = segments(directory).get(0);
+        Files.write(last, new byte[]{0, 0, 0, 20, 1, 2}, StandardOpenOption.APPEND);
+
+        try (WriteAheadLog<String> log = open(directory)) {
+            assertEquals(2, log.lastSequence());
+            assertEquals(3, log.append(WriteAheadLog.Operation.UPDATE, "id-3"));
+        }
+        try (WriteAheadLog<String> log = open(directory)) {
+            assertEquals(Arrays.asList("UPDATE id-1", "UPDATE id-2", "UPDATE id-3"), replay(log, 0));
+        }
+    }
+
+    @Test
+    public void advanceContinuesAfterACommittedCheckpoint() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        try (WriteAheadLog<String> log = open(directory)) {
+            log.applied(log.append(WriteAheadLog.Operation.UPDATE, "id-1"));
+
+            assertTrue(log.advance(100));
+            assertFalse(log.advance(50));
+            long sequence = log.append(WriteAheadLog.Operation.UPDATE, "id-2");
+            log.applied(sequence);
+
+            assertEquals(101, sequence);
+            assertEquals(101, log.checkpoint());
+            log.trim(100);
+            assertEquals(1, segments(directory).size());
+        }
+
+        try (WriteAheadLog<String> log = open(directory)) {
+            assertEquals(101, log.lastSequence());
+            assertEquals(Arrays.asList("UPDATE id-2"), replay(log, 100));
+        }
+    }
+
+    private static WriteAheadLog<String> open(Path directory) throws IOException {
+        return new WriteAheadLog<>(directory, new StringIdentifierConverter(), SEGMENT_SIZE, 0);
+    }
+
+    private static List<String> replay(WriteAheadLog<String> log, long afterSequence) throws IOException {
+        List<String> replayed = new ArrayList<>();
+        log.replay(afterSequence, (operation, id) -> replayed.add(operation + " " + id));
+        return replayed;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.changelog;
+
+import advertise.lucene.EntityFixture;
+import advertise.lucene.EntityFixture.Entity;
+import advertise.lucene.nrt.NRTSearchManagerProcessor;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeLogConsumerTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final EntityFixture entities = new EntityFixture();
+
+    private final InMemoryChangeLog<Long> changeLog = new InMemoryChangeLog<>(10, HOUR);
+
+    private NRTSearchManagerProcessor<Long, Entity> processor;
+
+    @After
+    public void tearDown() {
+        if (processor != null)
+            processor.destroy();
+    }
+
+    @Test
+    public void appliesTheLastChangeOfEachIdentifier() throws Exception {
+        File directory = folder.newFolder();
+        entities.put(1L, "car");
+        entities.put(2L, "car");
+        start(directory).reIndex();
+        ChangeLogConsumer<Long> consumer = new ChangeLogConsumer<>(processor, changeLog, 0, 0);
+        assertEquals(0, consumer.consume()); // Index without a checkpoint starts at the current time
+
+        entities.put(1L, "van");
+        changeLog.append(ChangeLog.Operation.UPDATE, 1L);
+        changeLog.append(ChangeLog.Operation.UPDATE, 2L);
+        changeLog.append(ChangeLog.Operation.DELETE, 2L);
+        changeLog.append(ChangeLog.Operation.UPDATE, 3L);
+        entities.put(3L, "car");
+        assertEquals(3, consumeSettled(consumer));
+
+        assertTrue(processor.awaitVisibility(processor.getWriteGeneration(), 5000));
+        assertEquals(Collections.singletonList(1L), processor.searchForIds("van"));
+        assertEquals(Collections.singletonList(3L), processor.searchForIds("car"));
+        assertEquals(0, consumeSettled(consumer));
+    }
+
+    @Test
+    public void resumesFromTheCommittedCheckpoint() throws Exception {
+        File directory = folder.newFolder();
+        entities.put(1L, "car");
+        start(directory).reIndex();
+        ChangeLogConsumer<Long> consumer = new ChangeLogConsumer<>(processor, changeLog, 0, 0);
+        consumer.consume();
+        entities.put(2L, "car");
+        changeLog.append(ChangeLog.Operation.UPDATE, 2L);
+        assertEquals(1, consumeSettled(consumer));
+        processor.destroy(); // Commits the checkpoint
+
+        // Appended while the node is down
+        entities.put(3L, "car");
+        changeLog.append(ChangeLog.Operation.UPDATE, 3L);
+        consumer = new ChangeLogConsumer<>(start(directory), changeLog, 0, 0);
+        assertEquals(1, consumeSettled(consumer));
+
+        assertTrue(processor.awaitVisibility(processor.getWriteGeneration(), 5000));
+        assertEquals(Arrays.asList(1L, 2L, 3L), sorted(processor.searchForIds("car")));
+    }
+
+    @Test
+    public void doesNotReadChangesBeforeTheyHaveSettled() throws Exception {
+        entities.put(1L, "car");
+        start(folder.newFolder()).reIndex();
+        ChangeLogConsumer<Long> consumer = new ChangeLogConsumer<>(processor, changeLog, 0, HOUR);
+        consumer.consume();
+
+        changeLog.append(ChangeLog.Operation.DELETE, 1L);
+        assertEquals(0, consumeSettled(consumer));
+        assertEquals(Collections.singletonList(1L), processor.searchForIds("car"));
+    }
+
+    @Test
+    public void doesNothingWithoutAChangeLog() throws IOException {
+        ChangeLogConsumer<Long> consumer = new ChangeLogConsumer<>(start(folder.newFolder()), null, 10, 0);
+        consumer.start();
+        assertEquals(0, consumer.consume());
+        consumer.close();
+    }
+
+    private NRTSearchManagerProcessor<Long, Entity> start(File directory) {
+        processor = entities.newProcessor(NRTSearchManagerProcessor::new, directory);
+        return processor;
+    }
+
+    /**
+     * Consumes once the changes appended so far are in the past.
+     */
+    private static long consumeSettled(ChangeLogConsumer<Long> consumer) throws InterruptedException {
+        Thread.sleep(5);
+        return consumer.consume();
+    }
+
+    private static List<Long> sorted(List<Long> ids) {
+        List<Long> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
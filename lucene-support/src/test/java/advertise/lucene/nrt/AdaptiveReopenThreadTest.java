@@ -0,0 +1,151 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.nrt;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveReopenThreadTest {
+
+    private RAMDirectory directory;
+
+    private IndexWriter writer;
+
+    private TrackingIndexWriter trackingWriter;
+
+    private SearcherManager manager;
+
+    private AdaptiveReopenThread reopenThread;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+        trackingWriter = new TrackingIndexWriter(writer);
+        manager = new SearcherManager(writer, true, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (reopenThread != null)
+            reopenThread.close();
+        manager.close();
+        writer.close();
+        directory.close();
+    }
+
+    @Test
+    public void idleIndexIsNotReopened() throws InterruptedException {
+        start(1, 20, 0.1);
+        Thread.sleep(200);
+
+        assertEquals(0, reopenThread.getReopens());
+    }
+
+    @Test
+    public void waitedWriteIsVisibleOnceTheGenerationIsReached() throws Exception {
+        start(1, 5000, 0.1);
+        long generation = add("1");
+        reopenThread.writeApplied();
+
+        assertTrue(reopenThread.waitForGeneration(generation, 5000));
+        assertEquals(1, searchCount());
+    }
+
+    @Test
+    public void sparseWriteIsVisibleWithoutWaiting() throws Exception {
+        start(20, 60000, 0.1);
+        add("1");
+        reopenThread.writeApplied();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (searchCount() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(1, searchCount());
+        assertEquals(1, reopenThread.getReopens());
+    }
+
+    @Test
+    public void waitTimesOutBeforeTheMinStaleTime() throws Exception {
+        start(60000, 60000, 0.1);
+        long generation = add("1");
+        reopenThread.writeApplied();
+
+        assertFalse(reopenThread.waitForGeneration(generation, 50));
+        assertEquals(0, reopenThread.getReopens());
+        assertEquals(0, searchCount());
+    }
+
+    @Test
+    public void closeReleasesTheWaitingSearches() throws Exception {
+        start(60000, 60000, 0.1);
+        long generation = add("1");
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            reopenThread.close();
+        }).start();
+
+        assertTrue(reopenThread.waitForGeneration(generation, -1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAGenerationNotIssuedByTheWriter() throws InterruptedException {
+        start(1, 5000, 0.1);
+        reopenThread.waitForGeneration(trackingWriter.getGeneration() + 1, 10);
+    }
+
+    private void start(long minStaleMillis, long maxStaleMillis, double maxReopenShare) {
+        reopenThread = new AdaptiveReopenThread(trackingWriter, manager, minStaleMillis, maxStaleMillis, maxReopenShare);
+        reopenThread.start();
+    }
+
+    private long add(String id) throws IOException {
+        Document document = new Document();
+        document.add(new StringField("id", id, Field.Store.NO));
+        return trackingWriter.addDocument(document);
+    }
+
+    private int searchCount() throws IOException {
+        IndexSearcher searcher = manager.acquire();
+        try {
+            return searcher.getIndexReader().numDocs();
+        } finally {
+            manager.release(searcher);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.nrt;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GroupCommitSchedulerTest {
+
+    private RAMDirectory directory;
+
+    private IndexWriter writer;
+
+    private GroupCommitScheduler scheduler;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (scheduler != null)
+            scheduler.close();
+        writer.close();
+        directory.close();
+    }
+
+    @Test
+    public void commitsWhenOldestWriteReachesMaxLatency() throws Exception {
+        scheduler = new GroupCommitScheduler(writer, 1000, 50);
+
+        long sequence = write("1");
+
+        assertTrue(waitFor(scheduler::lastCommittedSequence, sequence, 2000));
+        assertEquals(1, committedDocs());
+    }
+
+    @Test
+    public void commitsWhenMaxPendingWritesReached() throws Exception {
+        scheduler = new GroupCommitScheduler(writer, 3, TimeUnit.HOURS.toMillis(1));
+
+        write("1");
+        write("2");
+        Thread.sleep(100);
+        assertEquals(0, scheduler.lastCommittedSequence());
+
+        long sequence = write("3");
+        assertTrue(waitFor(scheduler::lastCommittedSequence, sequence, 2000));
+        assertEquals(3, committedDocs());
+    }
+
+    @Test
+    public void awaitCommittedRequestsImmediateCommit() throws Exception {
+        scheduler = new GroupCommitScheduler(writer, 1000, TimeUnit.HOURS.toMillis(1));
+
+        long sequence = write("1");
+
+        assertTrue(scheduler.awaitCommitted(sequence, 2000));
+        assertEquals(1, committedDocs());
+    }
+
+    @Test
+    public void groupsConcurrentWritesIntoFewerCommits() throws Exception {
+        int[] commits = new int[1];
+        scheduler = new GroupCommitScheduler(writer, 100, TimeUnit.HOURS.toMillis(1),
+                committing -> { }, committed -> commits[0]++);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t * 100;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100; i++)
+                    write(String.valueOf(offset + i));
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertTrue(scheduler.awaitCommitted(scheduler.lastWriteSequence(), 2000));
+        assertEquals(400, committedDocs());
+        assertTrue("commits: " + commits[0], commits[0] <= 5);
+    }
+
+    @Test
+    public void closeReleasesWaiters() throws Exception {
+        scheduler = new GroupCommitScheduler(writer, 1000, TimeUnit.HOURS.toMillis(1));
+        scheduler.close();
+
+        long sequence = write("1");
+
+        assertFalse(scheduler.awaitCommitted(sequence, 2000));
+        assertEquals(0, scheduler.lastCommittedSequence());
+    }
+
+    private long write(String id) {
+        Document document = new Document();
+        document.add(new StringField("id", id, Field.Store.NO));
+        try {
+            writer.addDocument(document);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return scheduler.writeCompleted();
+    }
+
+    private int committedDocs() throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            return reader.numDocs();
+        }
+    }
+
+    private static boolean waitFor(LongSupplier value, long expected, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (value.getAsLong() < expected) {
+            if (System.currentTimeMillis() > deadline)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
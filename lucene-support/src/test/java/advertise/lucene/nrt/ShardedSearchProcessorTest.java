@@ -0,0 +1,135 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.nrt;
+
+import advertise.lucene.LuceneIndexableEntityService;
+import advertise.lucene.EntityFixture;
+import advertise.lucene.EntityFixture.Entity;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import support.helper.SearchType;
+import support.types.IdentifierTypeConverter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedSearchProcessorTest {
+
+    private static final int SHARDS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final EntityFixture entities = new EntityFixture();
+
+    private TestProcessor processor;
+
+    @Before
+    public void setUp() throws IOException {
+        // Entity n has n "apple"s in 10 words, so the scores of "apple" differ.
+        for (long id = 1; id <= 9; id++)
+            entities.put(id, String.join(" ", Collections.nCopies((int) id, "apple"))
+                    + " " + String.join(" ", Collections.nCopies(10 - (int) id, "pear")));
+
+        processor = entities.newProcessor(TestProcessor::new, folder.newFolder());
+        processor.setShardCount(SHARDS);
+        processor.setSearchThreads(2);
+        processor.reIndex();
+    }
+
+    @After
+    public void tearDown() {
+        processor.destroy();
+    }
+
+    @Test
+    public void documentsAreInTheShardOfTheirIdHash() throws IOException {
+        assertEquals(SHARDS, processor.getIndexWriters().length);
+        Set<Integer> usedShards = new HashSet<>();
+        for (long id = 1; id <= 9; id++) {
+            int expected = processor.shardOf(id);
+            usedShards.add(expected);
+            for (int shard = 0; shard < SHARDS; shard++)
+                assertEquals("id " + id + " in shard " + shard, shard == expected ? 1 : 0, processor.countInShard(shard, id));
+        }
+        assertTrue(usedShards.size() > 1);
+    }
+
+    @Test
+    public void updatesAreRoutedToTheShardOfTheDocument() throws IOException {
+        processor.updateIndex(4L, entities.put(4L, "banana"));
+        processor.refreshIndex(5L);
+
+        for (long id : Arrays.asList(4L, 5L)) {
+            for (int shard = 0; shard < SHARDS; shard++)
+                assertEquals(shard == processor.shardOf(id) ? 1 : 0, processor.countInShard(shard, id));
+        }
+    }
+
+    @Test
+    public void searchMergesTheHitsOfAllShardsByScore() {
+        assertEquals(Arrays.asList(9L, 8L, 7L, 6L, 5L, 4L, 3L, 2L, 1L), processor.searchForIds("apple"));
+    }
+
+    @Test
+    public void writesBecomeVisibleWithoutRefreshingOnSearch() {
+        processor.addIndex(entities.put(10L, "cherry"));
+        processor.deleteIndexes(Collections.singletonList(9L));
+
+        assertTrue(processor.awaitVisibility(processor.getWriteGeneration(), 5000));
+        assertEquals(Collections.singletonList(10L), processor.searchForIds("cherry"));
+        assertEquals(Arrays.asList(8L, 7L, 6L, 5L, 4L, 3L, 2L, 1L), processor.searchForIds("apple"));
+    }
+
+    @Test
+    public void hasAWriterPerShard() throws IOException {
+        assertEquals(SHARDS, processor.getIndexWriters().length);
+    }
+
+    private static final class TestProcessor extends ShardedSearchProcessor<Long, Entity> {
+
+        private TestProcessor(LuceneIndexableEntityService<Long, Entity> indexableEntityService, IdentifierTypeConverter<Long> typeConverter,
+                              SearchType searchType, boolean sortByInsertionOrder, boolean sortInsertionOrderDesc) {
+            super(indexableEntityService, typeConverter, searchType, sortByInsertionOrder, sortInsertionOrderDesc);
+        }
+
+        private int shardOf(long id) {
+            return getShard(getIdTerm(id), SHARDS);
+        }
+
+        private int countInShard(int shard, long id) throws IOException {
+            IndexWriter writer = getIndexWriters()[shard];
+            try (DirectoryReader reader = DirectoryReader.open(writer, true)) {
+                return new IndexSearcher(reader).count(new TermQuery(getIdTerm(id)));
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.replication;
+
+import advertise.lucene.EntityFixture;
+import advertise.lucene.nrt.NRTSearchManagerProcessor;
+
+import java.io.File;
+import java.util.Optional;
+
+/**
+ * Primary node of {@link ReplicationTest}, run in a separate JVM. Indexes
+ * {@link #INDEXED} entities, serves replicas and prints {@link #READY}. Stops
+ * when its standard input is closed.
+ *
+ * <p>Arguments: index directory, replication port and secret.
+ */
+public class ReplicationPrimaryProcess {
+
+    static final String READY = "PRIMARY READY";
+
+    /**
+     * Number of entities indexed when the primary starts, with the text "primary".
+     */
+    static final int INDEXED = 5;
+
+    public static void main(String[] args) throws Exception {
+        EntityService entities = new EntityService();
+        for (long id = 1; id <= INDEXED; id++)
+            entities.put(id, "primary");
+        NRTSearchManagerProcessor<Long, EntityFixture.Entity> primary = entities.newProcessor(NRTSearchManagerProcessor::new, new File(args[0]));
+        primary.setReplication("127.0.0.1", Integer.parseInt(args[1]), args[2]);
+        primary.reIndex();
+        primary.startReplication();
+
+        System.out.println(READY);
+        System.out.flush();
+        while (System.in.read() >= 0) {
+            // Runs until the test closes the input
+        }
+        primary.destroy();
+    }
+
+    /**
+     * Entities after the indexed ones have the text "forwarded", so writes
+     * forwarded by a replica are indexed with it.
+     */
+    private static final class EntityService extends EntityFixture {
+
+        @Override
+        public Optional<Entity> getEntityById(Long id) {
+            Optional<Entity> entity = super.getEntityById(id);
+            return entity.isPresent() ? entity : Optional.of(new Entity(id, "forwarded"));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.replication;
+
+import advertise.lucene.EntityFixture;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Replicates the index of a primary running in a separate JVM, see
+ * {@link ReplicationPrimaryProcess}, over a local connection.
+ */
+public class ReplicationTest {
+
+    private static final String SECRET = "replication-test-secret";
+
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static Process primary;
+
+    private static int port;
+
+    private ReplicaSearchProcessor<Long, EntityFixture.Entity> replica;
+
+    @BeforeClass
+    public static void startPrimary() throws Exception {
+        port = freePort();
+        primary = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), ReplicationPrimaryProcess.class.getName(),
+                folder.newFolder("primary").getAbsolutePath(), Integer.toString(port), SECRET)
+                .redirectErrorStream(true)
+                .start();
+        BufferedReader output = new BufferedReader(new InputStreamReader(primary.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = output.readLine()) != null && !line.contains(ReplicationPrimaryProcess.READY)) {
+            // Skips the log of the primary
+        }
+        if (line == null)
+            fail("Primary exited before serving replicas");
+        Thread drain = new Thread(() -> {
+            try {
+                while (output.readLine() != null) {
+                    // Keeps the primary from blocking on a full pipe
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    @AfterClass
+    public static void stopPrimary() throws Exception {
+        if (primary == null)
+            return;
+        primary.getOutputStream().close();
+        if (!primary.waitFor(10, TimeUnit.SECONDS))
+            primary.destroyForcibly();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        replica = newReplica("127.0.0.1:" + port, SECRET);
+    }
+
+    @After
+    public void tearDown() {
+        replica.destroy();
+    }
+
+    @Test
+    public void replicaSearchesTheCommitsOfThePrimaryAndForwardsWrites() throws Exception {
+        replica.start();
+        awaitEquals(ReplicationPrimaryProcess.INDEXED, () -> replica.searchForIds("primary").size());
+
+        long id = ReplicationPrimaryProcess.INDEXED + 1;
+        replica.addIndex(id, "ignored, the primary reads the entity");
+        awaitEquals(Collections.singletonList(id), () -> replica.searchForIds("forwarded"));
+    }
+
+    @Test(expected = IOException.class)
+    public void primaryRejectsAWrongSecret() throws IOException {
+        new ReplicationClient("127.0.0.1:" + port, "wrong-secret", 5000).close();
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void writeFailsWhenThePrimaryCannotBeReached() throws IOException {
+        ReplicaSearchProcessor<Long, EntityFixture.Entity> unreachable = newReplica("127.0.0.1:" + freePort(), SECRET);
+        try {
+            unreachable.addIndex(1L, "text");
+        } finally {
+            unreachable.destroy();
+        }
+    }
+
+    @Test
+    public void replicaHasNoIndexWriter() {
+        assertEquals(0, replica.getIndexWriters().length);
+        assertNull(replica.snapshot());
+    }
+
+    private static ReplicaSearchProcessor<Long, EntityFixture.Entity> newReplica(String primaryAddress, String secret) throws IOException {
+        ReplicaSearchProcessor<Long, EntityFixture.Entity> replica = new EntityFixture().newProcessor(ReplicaSearchProcessor::new, folder.newFolder());
+        replica.setPrimary(primaryAddress, secret, 50);
+        return replica;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static <T> void awaitEquals(T expected, Supplier<T> actual) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        T last = actual.get();
+        while (!expected.equals(last) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            last = actual.get();
+        }
+        assertEquals(expected, last);
+    }
+}
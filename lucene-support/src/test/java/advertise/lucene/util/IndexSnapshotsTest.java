@@ -0,0 +1,91 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.lucene.util;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class IndexSnapshotsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void restoreRemovesTheLocalCommitData() throws IOException {
+        Path snapshot = folder.newFolder("snapshot").toPath();
+        writeIndex(snapshot);
+
+        Path generation = folder.getRoot().toPath().resolve("generation");
+        IndexSnapshots.restore(snapshot, generation, Collections.singleton("wal.sequence"));
+
+        assertRestored(generation);
+    }
+
+    @Test
+    public void restoreRemovesTheLocalCommitDataOfEveryShard() throws IOException {
+        Path snapshot = folder.newFolder("snapshot").toPath();
+        writeIndex(IndexGenerations.shard(snapshot, 0));
+        writeIndex(IndexGenerations.shard(snapshot, 1));
+
+        Path generation = folder.getRoot().toPath().resolve("generation");
+        IndexSnapshots.restore(snapshot, generation, Collections.singleton("wal.sequence"));
+
+        assertRestored(IndexGenerations.shard(generation, 0));
+        assertRestored(IndexGenerations.shard(generation, 1));
+    }
+
+    private static void writeIndex(Path path) throws IOException {
+        try (Directory directory = FSDirectory.open(path);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            Document document = new Document();
+            document.add(new StringField("i", "1", Field.Store.YES));
+            writer.addDocument(document);
+            Map<String, String> commitData = new HashMap<>();
+            commitData.put("wal.sequence", "42");
+            commitData.put("checkpoint.changelog", "7");
+            writer.setCommitData(commitData);
+            writer.commit();
+        }
+    }
+
+    private static void assertRestored(Path path) throws IOException {
+        try (Directory directory = FSDirectory.open(path);
+             DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertEquals(Collections.singletonMap("checkpoint.changelog", "7"), reader.getIndexCommit().getUserData());
+            assertEquals(1, reader.numDocs());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package support.helper;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class QueryBuildingEngineTest {
+
+    @Test
+    public void buildsTheQueryOfAFieldAndTextOnce() throws ParseException {
+        QueryBuildingEngine engine = new QueryBuildingEngine();
+        AtomicInteger built = new AtomicInteger();
+        QueryBuildingEngine.QueryBuilder builder = parser -> {
+            built.incrementAndGet();
+            return parser.parse("apple");
+        };
+
+        Query query = engine.getQuery("c", "apple", builder);
+        assertSame(query, engine.getQuery("c", "apple", builder));
+        assertNotSame(query, engine.getQuery("ti", "apple", builder));
+        assertEquals(2, built.get());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedQuery() throws ParseException {
+        QueryBuildingEngine engine = new QueryBuildingEngine(new StandardAnalyzer(), 2);
+        AtomicInteger built = new AtomicInteger();
+        QueryBuildingEngine.QueryBuilder builder = parser -> {
+            built.incrementAndGet();
+            return parser.parse("apple");
+        };
+
+        engine.getQuery("c", "a", builder);
+        engine.getQuery("c", "b", builder);
+        engine.getQuery("c", "a", builder);
+        engine.getQuery("c", "c", builder);
+        engine.getQuery("c", "a", builder);
+        assertEquals(3, built.get());
+        engine.getQuery("c", "b", builder);
+        assertEquals(4, built.get());
+    }
+
+    @Test
+    public void keepsAParserPerThreadAndField() throws ExecutionException, InterruptedException {
+        QueryBuildingEngine engine = new QueryBuildingEngine();
+        QueryParser parser = engine.parser("c");
+        assertSame(parser, engine.parser("c"));
+        assertNotSame(parser, engine.parser("ti"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<QueryParser> other = executor.submit(() -> engine.parser("c"));
+            assertNotSame(parser, other.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void phraseIsAnalyzedLikeTheIndex() throws ParseException {
+        Query query = SearchType.PHRASE.getSearchHelper().buildQuery("c", "Red, Apple");
+        assertEquals("c:\"red apple\"", query.toString());
+        assertSame(query, SearchType.PHRASE.getSearchHelper().buildQuery("c", "Red, Apple"));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package support.types;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+public class BinaryUUIDIdentifierConverterTest {
+
+    private static final String FIELD = "id";
+
+    private final UUIDIdentifierConverter stringConverter = new UUIDIdentifierConverter();
+
+    private final BinaryUUIDIdentifierConverter binaryConverter = new BinaryUUIDIdentifierConverter();
+
+    private RAMDirectory directory;
+
+    private IndexWriter writer;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        directory.close();
+    }
+
+    @Test
+    public void readsIdentifiersOfBothLayouts() throws IOException {
+        UUID legacy = UUID.randomUUID();
+        UUID binary = UUID.randomUUID();
+        writer.addDocument(document(stringConverter, legacy));
+        writer.addDocument(document(binaryConverter, binary));
+        writer.commit();
+
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertEquals(legacy, binaryConverter.getValueFromDocument(reader.document(0), FIELD));
+            assertEquals(binary, binaryConverter.getValueFromDocument(reader.document(1), FIELD));
+        }
+    }
+
+    @Test
+    public void updateReplacesDocumentOfStringLayout() throws IOException {
+        UUID id = UUID.randomUUID();
+        writer.addDocument(document(stringConverter, id));
+
+        writer.deleteDocuments(binaryConverter.getLegacyTermsInType(FIELD, id));
+        writer.updateDocument(binaryConverter.getTermInType(FIELD, id), document(binaryConverter, id));
+        writer.updateDocument(binaryConverter.getTermInType(FIELD, id), document(binaryConverter, id));
+
+        assertEquals(1, numDocs());
+    }
+
+    @Test
+    public void deleteRemovesDocumentsOfBothLayouts() throws IOException {
+        UUID legacy = UUID.randomUUID();
+        UUID binary = UUID.randomUUID();
+        writer.addDocument(document(stringConverter, legacy));
+        writer.addDocument(document(binaryConverter, binary));
+
+        for (UUID id : new UUID[]{legacy, binary}) {
+            writer.deleteDocuments(binaryConverter.getTermInType(FIELD, id));
+            writer.deleteDocuments(binaryConverter.getLegacyTermsInType(FIELD, id));
+        }
+
+        assertEquals(0, numDocs());
+    }
+
+    @Test
+    public void stringLayoutHasNoLegacyTerms() {
+        assertEquals(0, stringConverter.getLegacyTermsInType(FIELD, UUID.randomUUID()).length);
+    }
+
+    private static Document document(IdentifierTypeConverter<UUID> converter, UUID id) {
+        Document document = new Document();
+        document.add(converter.getFieldInType(FIELD, id));
+        return document;
+    }
+
+    private int numDocs() throws IOException {
+        writer.commit();
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            return reader.numDocs();
+        }
+    }
+}
@@ -19,11 +19,14 @@ package advertise.orm.model;
 
 import advertise.lucene.LuceneIndexableEntity;
 import com.datastax.driver.core.DataType;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.cassandra.core.mapping.*;
 
 
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -35,6 +38,16 @@ import java.util.UUID;
 @Table("ad")
 public class Ad implements LuceneIndexableEntity<UUID> {
 
+    /**
+     * Index filter name of {@link #adCategoryId}.
+     */
+    public static final String FILTER_CATEGORY = "category";
+
+    /**
+     * Index filter name of {@link #locationId}.
+     */
+    public static final String FILTER_LOCATION = "location";
+
     @PrimaryKey
     private UUID id;
 
@@ -202,8 +215,25 @@ public class Ad implements LuceneIndexableEntity<UUID> {
         return id;
     }
 
+    /**
+     * @return title and body, searched by full text searches
+     */
     public String getText() {
-        return this.body;
+        if (title == null) return body;
+        if (body == null) return title;
+        return title + ' ' + body;
+    }
+
+    /**
+     * @return category and location identifiers ads are filtered by in the index
+     */
+    @Override
+    @Transient
+    public Map<String, String> getFilterTerms() {
+        Map<String, String> terms = new HashMap<>(4);
+        if (adCategoryId != null) terms.put(FILTER_CATEGORY, adCategoryId.toString());
+        if (locationId != null) terms.put(FILTER_LOCATION, locationId.toString());
+        return terms;
     }
 
     public String getPrice() {
@@ -0,0 +1,102 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.orm.model;
+
+import org.springframework.data.cassandra.core.cql.Ordering;
+import org.springframework.data.cassandra.core.cql.PrimaryKeyType;
+import org.springframework.data.cassandra.core.mapping.Column;
+import org.springframework.data.cassandra.core.mapping.PrimaryKeyColumn;
+import org.springframework.data.cassandra.core.mapping.Table;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Entity class for the 'ad change log' entity. One row per create, update
+ * or delete of an {@link Ad}, partitioned by time bucket and ordered by the
+ * time of the change within the bucket.
+ */
+@Table("ad_change_log")
+public class AdChange {
+
+    @PrimaryKeyColumn(name = "bucket", ordinal = 0, type = PrimaryKeyType.PARTITIONED)
+    private long bucket;
+
+    @PrimaryKeyColumn(name = "changed_at", ordinal = 1, type = PrimaryKeyType.CLUSTERED, ordering = Ordering.ASCENDING)
+    private Date changedAt;
+
+    @PrimaryKeyColumn(name = "change_id", ordinal = 2, type = PrimaryKeyType.CLUSTERED, ordering = Ordering.ASCENDING)
+    private UUID changeId;
+
+    @Column("ad_id")
+    private UUID adId;
+
+    @Column("operation")
+    private String operation;
+
+    public AdChange(long bucket, Date changedAt, UUID changeId, UUID adId, String operation) {
+        this.bucket = bucket;
+        this.changedAt = changedAt;
+        this.changeId = changeId;
+        this.adId = adId;
+        this.operation = operation;
+    }
+
+    public AdChange() {
+    }
+
+    public long getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(long bucket) {
+        this.bucket = bucket;
+    }
+
+    public Date getChangedAt() {
+        return changedAt;
+    }
+
+    public void setChangedAt(Date changedAt) {
+        this.changedAt = changedAt;
+    }
+
+    public UUID getChangeId() {
+        return changeId;
+    }
+
+    public void setChangeId(UUID changeId) {
+        this.changeId = changeId;
+    }
+
+    public UUID getAdId() {
+        return adId;
+    }
+
+    public void setAdId(UUID adId) {
+        this.adId = adId;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+}
@@ -21,7 +21,9 @@ import advertise.orm.model.Ad;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Slice;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -54,8 +56,15 @@ public interface AdService {
      * Searches entities by given search criteria. (ad category, location, title)
      * Results will be paginated.
      *
+     * Title searches are paged with a search cursor. The pageable of the returned
+     * slice is the request of the next page and continues the search after the
+     * last result, so it needs to be passed in for the next page.
+     * Index searches return a {@link advertise.service.util.FacetedSlice} with
+     * the number of results per category and location.
+     *
      * @param pageRequest  page request instance. Can create by
      *                     {@link org.springframework.data.cassandra.core.query.CassandraPageRequest#of(int, int)}
+     *                     for the first page
      * @param adCategoryId adCategoryId to filter. null to ignore
      * @param locationId   locationId to filter. null to ignore
      * @param title        title to search
@@ -63,14 +72,44 @@ public interface AdService {
      */
     Slice<Ad> getSearchResult(Pageable pageRequest, UUID adCategoryId, UUID locationId, String title);
 
+    /**
+     * Searches entities like {@link #getSearchResult(Pageable, UUID, UUID, String)},
+     * once the index write of the given token is visible to index searches, up
+     * to a configured wait. Lets a user find the ad they just created.
+     *
+     * @param pageRequest  page request instance
+     * @param adCategoryId adCategoryId to filter. null to ignore
+     * @param locationId   locationId to filter. null to ignore
+     * @param title        title to search
+     * @param indexToken   {@link Result#getIndexToken()} of a create or update. null to not wait
+     * @return slice of {@link Ad}s
+     */
+    Slice<Ad> getSearchResult(Pageable pageRequest, UUID adCategoryId, UUID locationId, String title, String indexToken);
+
     /**
      * Creates a {@link Ad}
      *
      * @param ad entity to create
-     * @return validation status of the entity
+     * @return validation status of the entity, with the token of its index write
      */
     Result create(Ad ad);
 
+    /**
+     * Updates an existing {@link Ad}. Posted and expire dates are kept.
+     * The index of the ad is replaced by a single term update.
+     *
+     * @param ad entity to update
+     * @return validation status of the entity
+     */
+    Result update(Ad ad);
+
+    /**
+     * Deletes the {@link Ad}s and their indexes.
+     *
+     * @param ids identifiers of the ads
+     */
+    void delete(Collection<UUID> ids);
+
     /**
      * Returns all the {@link Ad} entities.
      *
@@ -82,4 +121,17 @@ public interface AdService {
      * Will reindex all {@link Ad}s.
      */
     void reIndex();
+
+    /**
+     * Takes a snapshot of the index of {@link Ad}s while writes continue.
+     *
+     * @return identifier of the snapshot in the snapshot directory, null if it
+     * could not be taken
+     */
+    String snapshotIndex();
+
+    /**
+     * @return depth, lag and counters of the asynchronous indexing queue, by name
+     */
+    Map<String, Long> getIndexingQueueStats();
 }
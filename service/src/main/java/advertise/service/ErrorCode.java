@@ -8,6 +8,7 @@ public enum ErrorCode {
     AD_ENTITY_INVALID_LOCATION_NOT_FOUND("Location is expected."),
     LOCATION_ID_INVALID_NOT_FOUND("Invalid location ID"),
     AD_CATEGORY_ID_INVALID_NOT_FOUND("Invalid ad category ID"),
+    AD_ID_INVALID_NOT_FOUND("Invalid ad ID"),
 
     AD_CATEGORY_ENTITY_INVAID_NAME_NOT_FOUND("Name is expected."),
     AD_CATEGORY_ENTITY_INVAID_DESCRIPTION_NOT_FOUND("Description is expected."),
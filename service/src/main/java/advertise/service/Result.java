@@ -12,6 +12,7 @@ public class Result {
     private String message;
     private List<ErrorCode> errors;
     private Object[] extras;
+    private String indexToken;
 
     public Result(Object... extras) {
         this.extras = extras;
@@ -64,4 +65,16 @@ public class Result {
     public void setExtras(Object[] extras) {
         this.extras = extras;
     }
+
+    /**
+     * @return token of the index write of a saved entity, to search once the
+     * entity is searchable. null if nothing was indexed
+     */
+    public String getIndexToken() {
+        return indexToken;
+    }
+
+    public void setIndexToken(String indexToken) {
+        this.indexToken = indexToken;
+    }
 }
@@ -1,7 +1,11 @@
 package advertise.service.impl;
 
+import advertise.lucene.IndexingQueue;
 import advertise.lucene.LuceneSearchProcessor;
 import advertise.lucene.LuceneIndexableEntityService;
+import advertise.lucene.SearchCursor;
+import advertise.lucene.SearchPage;
+import advertise.lucene.changelog.ChangeLog;
 import advertise.orm.dao.AdDao;
 import advertise.orm.model.Ad;
 import advertise.orm.model.AdCategory;
@@ -9,7 +13,13 @@ import advertise.orm.model.Location;
 import advertise.service.*;
 import advertise.service.util.CollectionUtills;
 import advertise.service.util.DefaultInsertable;
+import advertise.service.util.FacetedSlice;
+import advertise.service.util.SearchAfterPageRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.core.InsertOptions;
+import org.springframework.data.cassandra.core.query.CassandraPageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
@@ -18,10 +28,14 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Service("adService")
 public class AdServiceImpl implements AdService, LuceneIndexableEntityService<UUID, Ad>, DefaultInsertable<String, Ad> {
 
+    private static final List<String> SEARCH_FACETS = Arrays.asList(Ad.FILTER_CATEGORY, Ad.FILTER_LOCATION);
+
     @Autowired
     private AdDao adDao;
 
@@ -34,6 +48,32 @@ public class AdServiceImpl implements AdService, LuceneIndexableEntityService<UU
     @Autowired
     private LuceneSearchProcessor<UUID, Ad> legacySearchProcessor;
 
+    @Autowired
+    private IndexingQueue<UUID, Ad> indexingQueue;
+
+    @Autowired
+    private CassandraOperations cassandraOperations;
+
+    /**
+     * true to write ads with a TTL ending at their expire date, so Cassandra
+     * removes expired ads by itself.
+     */
+    @Value("${ad.ttl.from.expire.date:false}")
+    private boolean ttlFromExpireDate;
+
+    /**
+     * Max time a search carrying an index token waits for the indexed ad.
+     */
+    @Value("${index.read.your.writes.max.wait.ms:1000}")
+    private long readYourWritesMaxWaitMillis;
+
+    /**
+     * Log every change of an ad is appended to, which drives indexing on every
+     * node. null unless index.changelog.enabled.
+     */
+    @Autowired(required = false)
+    private ChangeLog<UUID> adChangeLog;
+
     public Result create(Ad ad) {
         Result validationResult = validateAd(ad);
         verifyAndSetLocation(ad, validationResult);
@@ -44,15 +84,65 @@ public class AdServiceImpl implements AdService, LuceneIndexableEntityService<UU
             ad.setExpireDate(Date.from(now.plusDays(90).atZone(ZoneId.systemDefault()).toInstant()));
             ad.setId(UUID.randomUUID());
 
-            Ad savedAd = adDao.save(ad);
+            logChange(ChangeLog.Operation.UPDATE, ad.getId());
+            Ad savedAd = save(ad);
+
+            if (savedAd != null) {
+                validationResult.setIndexToken(indexingQueue.addIndex(ad));
+            }
+        }
+        return validationResult;
+    }
+
+    @Override
+    public Result update(Ad ad) {
+        Result validationResult = validateAd(ad);
+        Ad existing = ad.getID() == null ? null : adDao.findById(ad.getID()).orElse(null);
+        if (existing == null) {
+            validationResult.addError(ErrorCode.AD_ID_INVALID_NOT_FOUND);
+            return validationResult;
+        }
+        verifyAndSetLocation(ad, validationResult);
+        verifyAndSetAdCategory(ad, validationResult);
+        if (validationResult.isSuccess()) {
+            ad.setPostedDate(existing.getPostedDate());
+            ad.setExpireDate(existing.getExpireDate());
+
+            logChange(ChangeLog.Operation.UPDATE, ad.getID());
+            Ad savedAd = save(ad);
 
             if (savedAd != null) {
-                legacySearchProcessor.addIndex(ad.getID(), ad.getTitle());
+                validationResult.setIndexToken(indexingQueue.updateIndex(ad.getID(), ad));
             }
         }
         return validationResult;
     }
 
+    @Override
+    public void delete(Collection<UUID> ids) {
+        ids.forEach(id -> logChange(ChangeLog.Operation.DELETE, id));
+        ids.forEach(adDao::deleteById);
+        indexingQueue.deleteIndexes(ids);
+    }
+
+    /**
+     * Appends a change to the change log before the ad is written, so a written
+     * change is indexed by every node even if this node stops before indexing it.
+     */
+    private void logChange(ChangeLog.Operation operation, UUID id) {
+        if (adChangeLog != null)
+            adChangeLog.append(operation, id);
+    }
+
+    private Ad save(Ad ad) {
+        if (!ttlFromExpireDate)
+            return adDao.save(ad);
+
+        long ttlSeconds = TimeUnit.MILLISECONDS.toSeconds(ad.getExpireDate().getTime() - System.currentTimeMillis());
+        cassandraOperations.insert(ad, InsertOptions.builder().ttl((int) Math.max(1, ttlSeconds)).build());
+        return ad;
+    }
+
     @Override
     public Ad getAdById(UUID id) {
         return adDao.findById(id).orElse(null);
@@ -62,18 +152,52 @@ public class AdServiceImpl implements AdService, LuceneIndexableEntityService<UU
         return adDao.findAll(pageRequest);
     }
 
+    /**
+     * Searches ads by any combination of title text, category and location in
+     * a single index search. Pages through all the ads of the index when no
+     * criteria is given, so expired ads are left out like in any other search.
+     */
     public Slice<Ad> getSearchResult(Pageable pageRequest, UUID adCategoryId, UUID locationId, String title) {
-        if (adCategoryId != null && locationId == null) {
-            return adDao.findByAdCategoryId(pageRequest, adCategoryId);
-        } else if (adCategoryId == null && locationId != null) {
-            return adDao.findByLocationId(pageRequest, locationId);
-        } else if (adCategoryId != null && locationId != null) {
-            return adDao.findByAdCategoryIdAndLocationId(pageRequest, adCategoryId, locationId);
-        } else if (title != null && !title.isEmpty()) {
-            List<UUID> ids = legacySearchProcessor.searchForIds(title);
-            return adDao.findAllByIdIn(pageRequest, ids);
+        return getSearchResult(pageRequest, adCategoryId, locationId, title, null);
+    }
+
+    /**
+     * Searches like {@link #getSearchResult(Pageable, UUID, UUID, String)}.
+     * An index search waits for the write of the token first, so the user who
+     * wrote an ad finds it. Searches without a token do not wait.
+     */
+    @Override
+    public Slice<Ad> getSearchResult(Pageable pageRequest, UUID adCategoryId, UUID locationId, String title, String indexToken) {
+        Map<String, String> filters = new HashMap<>(4);
+        if (adCategoryId != null) filters.put(Ad.FILTER_CATEGORY, adCategoryId.toString());
+        if (locationId != null) filters.put(Ad.FILTER_LOCATION, locationId.toString());
+
+        if (indexToken != null)
+            indexingQueue.awaitVisible(indexToken, readYourWritesMaxWaitMillis); // searches anyway once waited
+        return searchIndex(pageRequest, title, filters);
+    }
+
+    /**
+     * Fetches one page of index search results, continuing after the cursor
+     * of the previous page. Returned slice carries the page request of the next
+     * page and the number of results per category and location.
+     */
+    private Slice<Ad> searchIndex(Pageable pageRequest, String title, Map<String, String> filters) {
+        SearchCursor after = pageRequest instanceof SearchAfterPageRequest ? ((SearchAfterPageRequest) pageRequest).getCursor() : null;
+        SearchPage<UUID> page = legacySearchProcessor.searchForIds(title, filters, SEARCH_FACETS, after, pageRequest.getPageSize());
+
+        Map<UUID, Ad> adsById = new HashMap<>();
+        if (!page.getIds().isEmpty()) {
+            adDao.findAllById(page.getIds()).forEach(ad -> adsById.put(ad.getID(), ad));
         }
-        return getAds(pageRequest);
+        List<Ad> ads = new ArrayList<>(page.getIds().size());
+        for (UUID id : page.getIds()) { // Keeps the rank order
+            Ad ad = adsById.get(id);
+            if (ad != null) ads.add(ad);
+        }
+
+        Pageable next = new SearchAfterPageRequest(pageRequest.getPageNumber() + 1, pageRequest.getPageSize(), page.getNext());
+        return new FacetedSlice<>(ads, next, page.hasNext(), page.getFacetCounts());
     }
 
     @Override
@@ -81,6 +205,26 @@ public class AdServiceImpl implements AdService, LuceneIndexableEntityService<UU
         return CollectionUtills.iterableToList(adDao.findAll());
     }
 
+    @Override
+    public void streamIndexableEntities(int pageSize, Consumer<List<Ad>> pageConsumer) {
+        Slice<Ad> slice = adDao.findAll(CassandraPageRequest.of(0, pageSize));
+        pageConsumer.accept(slice.getContent());
+        while (slice.hasNext()) {
+            slice = adDao.findAll(slice.nextPageable());
+            pageConsumer.accept(slice.getContent());
+        }
+    }
+
+    /**
+     * Deletes expired ads purged from the index. Not required when the ads are
+     * written with a TTL.
+     */
+    @Override
+    public void purgeEntities(List<UUID> ids) {
+        if (!ttlFromExpireDate)
+            ids.forEach(adDao::deleteById);
+    }
+
     @Override
     public List<Ad> getAll() {
         return CollectionUtills.iterableToList(adDao.findAll());
@@ -91,6 +235,16 @@ public class AdServiceImpl implements AdService, LuceneIndexableEntityService<UU
         legacySearchProcessor.reIndexAsync();
     }
 
+    @Override
+    public String snapshotIndex() {
+        return Optional.ofNullable(legacySearchProcessor.snapshot()).map(snapshot -> snapshot.getFileName().toString()).orElse(null);
+    }
+
+    @Override
+    public Map<String, Long> getIndexingQueueStats() {
+        return indexingQueue.getStats();
+    }
+
     @Override
     public List<Ad> getEntitiesByIds(List<UUID> ids) throws NotImplementedException {
         return CollectionUtills.iterableToList(adDao.findAllById(ids));
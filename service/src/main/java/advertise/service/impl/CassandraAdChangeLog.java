@@ -0,0 +1,70 @@
+package advertise.service.impl;
+
+import advertise.lucene.changelog.ChangeLog;
+import advertise.orm.model.AdChange;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.cassandra.core.CassandraOperations;
+import org.springframework.data.cassandra.core.InsertOptions;
+import org.springframework.data.cassandra.core.query.Criteria;
+import org.springframework.data.cassandra.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ChangeLog} of the ads in the Cassandra table 'ad_change_log', shared
+ * by the nodes. A bucket is a partition of the table, and changes expire with
+ * a TTL of the retention.
+ */
+public class CassandraAdChangeLog implements ChangeLog<UUID> {
+
+    @Autowired
+    private CassandraOperations cassandraOperations;
+
+    private final long bucketMillis;
+
+    private final long retentionMillis;
+
+    /**
+     * @param bucketMillis    time range of a partition in milliseconds
+     * @param retentionMillis time in milliseconds a change is kept
+     */
+    public CassandraAdChangeLog(long bucketMillis, long retentionMillis) {
+        this.bucketMillis = bucketMillis;
+        this.retentionMillis = retentionMillis;
+    }
+
+    @Override
+    public void append(Operation operation, UUID id) {
+        long now = System.currentTimeMillis();
+        AdChange change = new AdChange(getBucket(now), new Date(now), UUID.randomUUID(), id, operation.name());
+        int ttlSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(retentionMillis));
+        cassandraOperations.insert(change, InsertOptions.builder().ttl(ttlSeconds).build());
+    }
+
+    @Override
+    public List<Change<UUID>> read(long bucket, long fromMillis, long toMillis) {
+        Query query = Query.query(Criteria.where("bucket").is(bucket),
+                Criteria.where("changed_at").gte(new Date(fromMillis)),
+                Criteria.where("changed_at").lt(new Date(toMillis)));
+        List<AdChange> rows = cassandraOperations.select(query, AdChange.class);
+        List<Change<UUID>> changes = new ArrayList<>(rows.size());
+        for (AdChange row : rows) {
+            changes.add(new Change<>(row.getChangedAt().getTime(), Operation.valueOf(row.getOperation()), row.getAdId()));
+        }
+        return changes;
+    }
+
+    @Override
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    @Override
+    public long getRetentionMillis() {
+        return retentionMillis;
+    }
+}
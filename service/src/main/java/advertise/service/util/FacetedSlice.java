@@ -0,0 +1,39 @@
+package advertise.service.util;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link org.springframework.data.domain.Slice} of search results carrying the
+ * number of results per facet value, counted over all the results of the
+ * search and not only the slice.
+ *
+ * @param <T> the type of the content
+ */
+public class FacetedSlice<T> extends SliceImpl<T> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Map<String, Integer>> facetCounts;
+
+    /**
+     * @param content     content of the slice
+     * @param pageable    page request of the next slice
+     * @param hasNext     true if there are more results
+     * @param facetCounts number of results per facet value, by facet name
+     */
+    public FacetedSlice(List<T> content, Pageable pageable, boolean hasNext, Map<String, Map<String, Integer>> facetCounts) {
+        super(content, pageable, hasNext);
+        this.facetCounts = facetCounts;
+    }
+
+    /**
+     * @return number of results per facet value, by facet name
+     */
+    public Map<String, Map<String, Integer>> getFacetCounts() {
+        return facetCounts;
+    }
+}
@@ -0,0 +1,85 @@
+package advertise.service.util;
+
+import advertise.lucene.SearchCursor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.io.Serializable;
+
+/**
+ * {@link Pageable} of full text search results. Carries the {@link SearchCursor}
+ * of the previous page so the next page continues the search after it instead
+ * of repeating it.
+ */
+public class SearchAfterPageRequest implements Pageable, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int page;
+
+    private final int size;
+
+    private final SearchCursor cursor;
+
+    /**
+     * @param page   zero based page number
+     * @param size   page size
+     * @param cursor cursor after the last hit of the previous page. null for the first page
+     */
+    public SearchAfterPageRequest(int page, int size, SearchCursor cursor) {
+        this.page = page;
+        this.size = size;
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return cursor after the last hit of the previous page. null for the first page
+     */
+    public SearchCursor getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public int getPageNumber() {
+        return page;
+    }
+
+    @Override
+    public int getPageSize() {
+        return size;
+    }
+
+    @Override
+    public long getOffset() {
+        return (long) page * size;
+    }
+
+    @Override
+    public Sort getSort() {
+        return Sort.unsorted();
+    }
+
+    /**
+     * Cursor of the next page is only known once this page is fetched. Use the
+     * pageable of the returned slice instead.
+     */
+    @Override
+    public Pageable next() {
+        throw new UnsupportedOperationException("Next page of a search is only known after fetching this page");
+    }
+
+    @Override
+    public Pageable previousOrFirst() {
+        return first();
+    }
+
+    @Override
+    public Pageable first() {
+        return new SearchAfterPageRequest(0, size, null);
+    }
+
+    @Override
+    public boolean hasPrevious() {
+        return page > 0;
+    }
+}
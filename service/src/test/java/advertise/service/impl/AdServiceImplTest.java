@@ -0,0 +1,131 @@
+/*
+ * This software is licensed under the Apache 2 license, quoted below.
+ *
+ * Copyright 2018 Yasitha Thilakaratne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package advertise.service.impl;
+
+import advertise.lucene.LuceneSearchProcessor;
+import advertise.lucene.legacy.LegacySearchProcessor;
+import advertise.orm.dao.AdDao;
+import advertise.orm.model.Ad;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.data.cassandra.core.query.CassandraPageRequest;
+import org.springframework.data.domain.Slice;
+import support.helper.SearchType;
+import support.types.UUIDIdentifierConverter;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdServiceImplTest {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<UUID, Ad> ads = new LinkedHashMap<>();
+
+    private final AdServiceImpl adService = new AdServiceImpl();
+
+    private LegacySearchProcessor<UUID, Ad> processor;
+
+    @Before
+    public void setUp() throws Exception {
+        processor = new LegacySearchProcessor<>(adService, new UUIDIdentifierConverter(), SearchType.SIMPLE, false, false);
+        processor.setResourcePath(folder.newFolder().getAbsolutePath());
+        processor.setMaxSearchResults(100);
+        inject("adDao", newAdDao());
+        inject("legacySearchProcessor", processor);
+    }
+
+    @After
+    public void tearDown() {
+        processor.destroy();
+    }
+
+    @Test
+    public void searchWithoutCriteriaLeavesOutExpiredAds() {
+        Ad current = add("current", System.currentTimeMillis() + DAY_MILLIS);
+        add("expired", System.currentTimeMillis() - DAY_MILLIS);
+
+        Slice<Ad> result = adService.getSearchResult(CassandraPageRequest.of(0, 10), null, null, null);
+
+        assertEquals(Collections.singletonList(current), result.getContent());
+    }
+
+    @Test
+    public void searchWithoutCriteriaPagesThroughTheIndex() {
+        for (int i = 0; i < 3; i++)
+            add("ad " + i, System.currentTimeMillis() + DAY_MILLIS);
+
+        Slice<Ad> first = adService.getSearchResult(CassandraPageRequest.of(0, 2), null, null, "");
+        Slice<Ad> second = adService.getSearchResult(first.getPageable(), null, null, ""); // page request of the next page, like the web controller
+
+        assertEquals(2, first.getContent().size());
+        assertEquals(1, second.getContent().size());
+        Set<Ad> found = new HashSet<>(first.getContent());
+        found.addAll(second.getContent());
+        assertEquals(new HashSet<>(ads.values()), found);
+    }
+
+    private Ad add(String title, long expireDate) {
+        Ad ad = new Ad();
+        ad.setId(UUID.randomUUID());
+        ad.setTitle(title);
+        ad.setBody(title);
+        ad.setPostedDate(new Date(System.currentTimeMillis() - DAY_MILLIS));
+        ad.setExpireDate(new Date(expireDate));
+        ads.put(ad.getId(), ad);
+        processor.addIndex(ad);
+        return ad;
+    }
+
+    /**
+     * @return an {@link AdDao} reading the ads of the test, which supports the
+     * lookups by identifier only
+     */
+    @SuppressWarnings("unchecked")
+    private AdDao newAdDao() {
+        return (AdDao) Proxy.newProxyInstance(AdDao.class.getClassLoader(), new Class<?>[]{AdDao.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "findById":
+                    return Optional.ofNullable(ads.get((UUID) args[0]));
+                case "findAllById":
+                    List<Ad> found = new ArrayList<>();
+                    for (UUID id : (Iterable<UUID>) args[0]) {
+                        if (ads.containsKey(id)) found.add(ads.get(id));
+                    }
+                    return found;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private void inject(String fieldName, Object value) throws ReflectiveOperationException {
+        Field field = AdServiceImpl.class.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        field.set(adService, value);
+    }
+}
@@ -22,6 +22,7 @@ import advertise.service.AdCategoryService;
 import advertise.service.AdService;
 import advertise.service.LocationService;
 import advertise.service.Result;
+import advertise.service.util.FacetedSlice;
 import advertise.web.dto.CountLessPagedResponseDTO;
 import advertise.web.dto.ResponseEntityDTO;
 import org.codehaus.jackson.JsonNode;
@@ -40,12 +41,16 @@ import org.springframework.ui.ModelMap;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.*;
 
 /**
@@ -63,6 +68,23 @@ public class HomeController {
     private static final String ALL_OPTION = "all";
     private static final String IMAGE_KEY = "imgs";
 
+    /**
+     * Header and cookie carrying the token of the last index write of a user,
+     * so the searches of the user wait for it. See {@link Result#getIndexToken()}.
+     */
+    private static final String INDEX_TOKEN_HEADER = "X-Index-Token";
+    private static final String INDEX_TOKEN_COOKIE = "index-token";
+
+    /**
+     * A write is searchable by everyone well before the cookie expires.
+     */
+    private static final int INDEX_TOKEN_MAX_AGE_SECONDS = 60;
+
+    /**
+     * Header carrying the secret of the admin operations.
+     */
+    private static final String ADMIN_SECRET_HEADER = "X-Admin-Secret";
+
     @Autowired
     private AdService adService;
 
@@ -75,6 +97,13 @@ public class HomeController {
     @Value("${upload.file.system.path}")
     private String uploadDir;
 
+    /**
+     * Secret shared by the nodes, see <code>index.replication.secret</code>.
+     * Admin operations are refused while it is not configured.
+     */
+    @Value("${index.replication.secret:}")
+    private String adminSecret = "";
+
     /**
      * The shared jsonMapper instance.
      */
@@ -153,6 +182,9 @@ public class HomeController {
      * full text search. Full text search capability depends on the search library
      * configurations. If the required parameters are not configured in the request
      * (eg: locationId: All, adCategoryId: All, text: '') will return all ads.
+     * Full text search pages continue after the last result of the previous page,
+     * which is kept in the session with the next page request. Index searches
+     * also return the number of matching ads per category and location id.
      *
      * Configured to handle AJAX requests.
      * Expects Content-Type: application/json entity and produces application/json response.
@@ -186,10 +218,12 @@ public class HomeController {
 
         Pageable pageRequest = getPageRequest(resetPage, request.getSession());
 
-        Slice<Ad> ads = adService.getSearchResult(pageRequest, adCategoryId, locationId, search);
+        Slice<Ad> ads = adService.getSearchResult(pageRequest, adCategoryId, locationId, search, getIndexToken(request));
 
         request.getSession().setAttribute("next", ads.getPageable());
 
+        if (ads instanceof FacetedSlice)
+            return CountLessPagedResponseDTO.buildDTO(ads.getContent(), ads.hasNext(), false, ((FacetedSlice<Ad>) ads).getFacetCounts());
         return CountLessPagedResponseDTO.buildDTO(ads.getContent(), ads.hasNext(), false);
     }
 
@@ -247,7 +281,7 @@ public class HomeController {
      */
     @RequestMapping(value = "create", method = RequestMethod.POST)
     @ResponseBody
-    public ResponseEntityDTO createAd(@RequestBody Ad ad, HttpSession session) {
+    public ResponseEntityDTO createAd(@RequestBody Ad ad, HttpSession session, HttpServletResponse response) {
         try {
             Object img;
             if ((img = session.getAttribute(IMAGE_KEY)) != null) {
@@ -255,6 +289,7 @@ public class HomeController {
             }
 
             Result result = adService.create(ad);
+            setIndexToken(result.getIndexToken(), response);
 
             return result.onResultCallAndGet((message, extras) -> ResponseEntityDTO.getResponse(ResponseEntityDTO.Status.SUCCESS, "Ad Saved"),
                     (message, errorCodes, extras) -> ResponseEntityDTO.getResponse(ResponseEntityDTO.Status.ERROR, null));
@@ -331,6 +366,82 @@ public class HomeController {
         }
     }
 
+    /**
+     * REST API method to take a snapshot of the ad index, which new nodes
+     * can bootstrap from. Blocks until the snapshot has been copied. Requires
+     * the shared secret in the <code>X-Admin-Secret</code> header.
+     *
+     * @param request  {@link HttpServletRequest} instance
+     * @param response {@link HttpServletResponse} instance
+     * @return identifier of the snapshot or status {@link String}
+     */
+    @RequestMapping(value = "/index-snapshot", method = RequestMethod.POST)
+    @ResponseBody
+    public String snapshotIndex(HttpServletRequest request, HttpServletResponse response) {
+        if (!isAdmin(request)) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return "FORBIDDEN";
+        }
+        try {
+            String snapshot = adService.snapshotIndex();
+            return snapshot != null ? snapshot : "ERROR";
+        } catch (Exception e) {
+            LOGGER.error("Could not take an index snapshot. ", e);
+            return "ERROR";
+        }
+    }
+
+    /**
+     * @return true if the request carries the admin secret, compared in
+     * constant time
+     */
+    private boolean isAdmin(HttpServletRequest request) {
+        String secret = request.getHeader(ADMIN_SECRET_HEADER);
+        if (adminSecret == null || adminSecret.isEmpty() || secret == null)
+            return false;
+        return MessageDigest.isEqual(adminSecret.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * REST API method to monitor the asynchronous indexing of ads.
+     *
+     * @return depth, lag in milliseconds and counters of the indexing queue
+     */
+    @RequestMapping("/indexing-queue")
+    @ResponseBody
+    public Map<String, Long> indexingQueueStats() {
+        return adService.getIndexingQueueStats();
+    }
+
+    /**
+     * Sends the token of an index write back in a header, for API clients, and
+     * in a cookie, which the browser sends with the next searches.
+     */
+    private void setIndexToken(String indexToken, HttpServletResponse response) {
+        if (indexToken == null)
+            return;
+        response.setHeader(INDEX_TOKEN_HEADER, indexToken);
+        Cookie cookie = new Cookie(INDEX_TOKEN_COOKIE, indexToken);
+        cookie.setPath("/");
+        cookie.setMaxAge(INDEX_TOKEN_MAX_AGE_SECONDS);
+        cookie.setHttpOnly(true);
+        response.addCookie(cookie);
+    }
+
+    /**
+     * @return index token of the request header or cookie, null if none
+     */
+    private String getIndexToken(HttpServletRequest request) {
+        String indexToken = request.getHeader(INDEX_TOKEN_HEADER);
+        if (indexToken != null || request.getCookies() == null)
+            return indexToken;
+        for (Cookie cookie : request.getCookies()) {
+            if (INDEX_TOKEN_COOKIE.equals(cookie.getName()))
+                return cookie.getValue();
+        }
+        return null;
+    }
+
     private Pageable getPageRequest(boolean resetPage, HttpSession userSession) {
         Pageable pageRequest;
         if (resetPage)
@@ -3,6 +3,7 @@ package advertise.web.dto;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class has been designed to be used as a DTO to transfer any paged entity list
@@ -22,6 +23,7 @@ public class CountLessPagedResponseDTO<T> implements Serializable {
     private int currentPageSize;
     private boolean hasNext;
     private boolean hasPrevious;
+    private Map<String, Map<String, Integer>> facetCounts = Collections.emptyMap();
 
     private String error;
 
@@ -36,6 +38,13 @@ public class CountLessPagedResponseDTO<T> implements Serializable {
         return new CountLessPagedResponseDTO<>(content, hasNext, hasPrevious);
     }
 
+    public static <T> CountLessPagedResponseDTO<T> buildDTO(List<T> content, boolean hasNext, boolean hasPrevious,
+                                                            Map<String, Map<String, Integer>> facetCounts) {
+        CountLessPagedResponseDTO<T> result = new CountLessPagedResponseDTO<>(content, hasNext, hasPrevious);
+        result.facetCounts = facetCounts;
+        return result;
+    }
+
     public static <T> CountLessPagedResponseDTO<T> buildErrorDTO(String error) {
         CountLessPagedResponseDTO<T> result = new CountLessPagedResponseDTO<>(Collections.emptyList(), false, false);
         result.error = error;
@@ -57,4 +66,8 @@ public class CountLessPagedResponseDTO<T> implements Serializable {
     public boolean isHasPrevious() {
         return hasPrevious;
     }
+
+    public Map<String, Map<String, Integer>> getFacetCounts() {
+        return facetCounts;
+    }
 }